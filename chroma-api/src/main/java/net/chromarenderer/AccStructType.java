@@ -4,5 +4,5 @@ package net.chromarenderer;
  * @author bensteinert
  */
 public enum AccStructType {
-    LIST, AABB_BVH
+    LIST, AABB_BVH, FLAT_BVH, SAH_BVH, LBVH, TWO_LEVEL_BVH, GRID, QUANTIZED_BVH, LAZY_BVH, SBVH, WIDE_BVH, OFF_HEAP_BVH, OPTIMIZED_LBVH
 }
@@ -15,6 +15,8 @@ public interface Chroma extends Runnable {
 
     void flushOnNextImage();
 
+    void updateTrianglesOnNextImage();
+
     boolean hasChanges();
 
     byte[] getCurrentFrame();
@@ -20,8 +20,15 @@ public class ChromaSettings {
     // TODO set it either true or false, dependening on whether FX frontend is running or not
     private boolean headless = false;
 
+    // applied when importing a scene
+    private boolean meshCleanup = false;
+
     // non-invasive properties
     private boolean computeL1 = false;
+    private boolean packetTracing = false;
+    private boolean raySorting = false;
+    private boolean allocationFreeKernel = false;
+    private boolean precomputedTriangles = false;
 
 
     public ChromaSettings(boolean parallelize, int imgWidth, int imgHeight, ChromaRenderMode renderMode, boolean lightSourceSamplingMode, AccStructType accStructType, SceneType sceneType, Path scenePath) {
@@ -45,6 +52,7 @@ public class ChromaSettings {
         this.accStructType = settings.accStructType;
         this.scenePath = settings.scenePath;
         this.sceneType = settings.sceneType;
+        this.meshCleanup = settings.meshCleanup;
     }
 
 
@@ -88,6 +96,26 @@ public class ChromaSettings {
     }
 
 
+    public boolean isPacketTracingEnabled() {
+        return packetTracing;
+    }
+
+
+    public boolean isRaySortingEnabled() {
+        return raySorting;
+    }
+
+
+    public boolean isAllocationFreeKernelEnabled() {
+        return allocationFreeKernel;
+    }
+
+
+    public boolean isPrecomputedTrianglesEnabled() {
+        return precomputedTriangles;
+    }
+
+
     public Path getScenePath() {
         return scenePath;
     }
@@ -103,6 +131,26 @@ public class ChromaSettings {
     }
 
 
+    public void togglePacketTracing() {
+        packetTracing = !packetTracing;
+    }
+
+
+    public void toggleRaySorting() {
+        raySorting = !raySorting;
+    }
+
+
+    public void toggleAllocationFreeKernel() {
+        allocationFreeKernel = !allocationFreeKernel;
+    }
+
+
+    public void togglePrecomputedTriangles() {
+        precomputedTriangles = !precomputedTriangles;
+    }
+
+
     public String getSceneName() {
         switch (sceneType) {
             case BLENDER_EXPORT:
@@ -111,12 +159,24 @@ public class ChromaSettings {
                 return "builtInCornell";
             case FURNACE_TEST:
                 return "furnaceTest";
+            case SPHERE_CLOUD:
+                return "builtInSphereCloud";
             default:
                 return "screenshot";
         }
     }
 
 
+    public boolean isMeshCleanupEnabled() {
+        return meshCleanup;
+    }
+
+
+    public void setMeshCleanup(boolean meshCleanup) {
+        this.meshCleanup = meshCleanup;
+    }
+
+
     public boolean isHeadless() {
         return headless;
     }
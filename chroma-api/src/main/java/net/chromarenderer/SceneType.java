@@ -4,5 +4,5 @@ package net.chromarenderer;
  * @author bensteinert
  */
 public enum SceneType {
-    CORNELL_BOX, BLENDER_EXPORT, FURNACE_TEST;
+    CORNELL_BOX, BLENDER_EXPORT, FURNACE_TEST, SPHERE_CLOUD;
 }
@@ -39,6 +39,17 @@ public class ChromaFxMain extends Application {
 
     //-XX:+UnlockDiagnosticVMOptions -XX:+PrintAssembly -XX:+LogCompilation
 
+    private static final String KEYBOARD_CONTROLS = String.join("\n",
+            "W/A/S/D, Numpad 8/4/2/6: move camera",
+            "Q/E, Page Down/Up: move camera down/up",
+            "Numpad 7/9/1/3: rotate camera",
+            "R: reset camera",
+            "L: toggle L1 norm computation",
+            "P: toggle packet tracing",
+            "O: toggle ray sorting",
+            "K: toggle allocation free kernel",
+            "T: toggle precomputed triangles");
+
     private static Chroma chroma;
     private static Logger LOGGER;
     private ChromaSettings settings;
@@ -143,6 +154,11 @@ public class ChromaFxMain extends Application {
         controlPane.add(directLightEstimation, 1, rowIdx++);
         directLightEstimation.selectedProperty().setValue(true);
 
+        controlPane.add(new Text("Mesh Cleanup:"), 0, rowIdx);
+        CheckBox meshCleanup = new CheckBox();
+        controlPane.add(meshCleanup, 1, rowIdx++);
+        meshCleanup.selectedProperty().setValue(false);
+
 
         start.setOnAction(event -> {
             controlPane.setDisable(true);
@@ -172,6 +188,7 @@ public class ChromaFxMain extends Application {
                         accStructCombo.getValue(),
                         sceneType.getValue(),
                         scenePath);
+                settings.setMeshCleanup(meshCleanup.selectedProperty().getValue());
 
                 chroma.initialize(settings);
                 start.setDisable(false);
@@ -231,6 +248,15 @@ public class ChromaFxMain extends Application {
         showLog.setOnAction(event -> {
             logOutputWindow.show();
         });
+        MenuItem showKeys = new MenuItem("Keyboard Controls");
+        help.getItems().add(showKeys);
+        showKeys.setOnAction(event -> {
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.setTitle("Keyboard Controls");
+            alert.setHeaderText("Keyboard Controls");
+            alert.setContentText(KEYBOARD_CONTROLS);
+            alert.showAndWait();
+        });
 
         chromaMainStage.setOnCloseRequest((arg0 -> {
             arg0.consume();
@@ -373,6 +399,19 @@ public class ChromaFxMain extends Application {
                     break;
                 case L:
                     settings.toggleL1Computation();
+                    break;
+                case P:
+                    settings.togglePacketTracing();
+                    break;
+                case O:
+                    settings.toggleRaySorting();
+                    break;
+                case K:
+                    settings.toggleAllocationFreeKernel();
+                    break;
+                case T:
+                    settings.togglePrecomputedTriangles();
+                    chroma.updateTrianglesOnNextImage();
             }
         };
     }
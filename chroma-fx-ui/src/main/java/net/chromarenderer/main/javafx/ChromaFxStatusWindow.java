@@ -58,6 +58,10 @@ public class ChromaFxStatusWindow extends Stage {
         Text rayCountCurr = new Text();
         Text rayCountPeak = new Text();
 
+        Text shadowRayCountLabel = new Text("Shadow Rays/ms");
+        Text shadowRayCountCurr = new Text();
+        Text shadowRayCountPeak = new Text();
+
         Text intersectionsLabel = new Text("Intersections/ms");
         Text intersectionsCurr = new Text();
         Text intersectionsPeak = new Text();
@@ -73,9 +77,9 @@ public class ChromaFxStatusWindow extends Stage {
         vBox.getChildren().add(cameraPosition);
         vBox.setPadding(new Insets(10));
 
-        statusGrid.addColumn(0, col0Title, fpsLabel, intersectionsLabel, rayCountLabel, precisionFixedLabel, L1Norm);
-        statusGrid.addColumn(1, col1Title, fpsCurr, intersectionsCurr, rayCountCurr, precisionFixedCount, L1NormValue);
-        statusGrid.addColumn(2, col2Title, fpsPeak, intersectionsPeak, rayCountPeak);
+        statusGrid.addColumn(0, col0Title, fpsLabel, intersectionsLabel, rayCountLabel, shadowRayCountLabel, precisionFixedLabel, L1Norm);
+        statusGrid.addColumn(1, col1Title, fpsCurr, intersectionsCurr, rayCountCurr, shadowRayCountCurr, precisionFixedCount, L1NormValue);
+        statusGrid.addColumn(2, col2Title, fpsPeak, intersectionsPeak, rayCountPeak, shadowRayCountPeak);
         statusGrid.addColumn(3, col3Title, framesTotal);
 
         statusGrid.getChildren().stream().filter(node -> node instanceof Text).forEach(node -> {
@@ -88,6 +92,7 @@ public class ChromaFxStatusWindow extends Stage {
             long lastTimeStamp = System.nanoTime();
             float maxFps = 0.f;
             float maxRays = 0;
+            float maxShadowRays = 0;
             float maxIntersections = 0;
 
             @Override
@@ -99,18 +104,22 @@ public class ChromaFxStatusWindow extends Stage {
                 if (delta > WINDOW_REFRESH_INTERVAL) {
                     float fps = Precision.round(ChromaStatistics.getFps(), 2);
                     float raysPerS = Precision.round(ChromaStatistics.getRayCountAndFlush() / delta, 1);
+                    float shadowRaysPerS = Precision.round(ChromaStatistics.getShadowRayCountAndFlush() / delta, 1);
                     float intersectionsPerS = Precision.round(ChromaStatistics.getIntersectionsCountAndFlush() / delta, 1);
 
                     maxFps = FastMath.max(fps, maxFps);
                     maxRays = FastMath.max(raysPerS, maxRays);
+                    maxShadowRays = FastMath.max(shadowRaysPerS, maxShadowRays);
                     maxIntersections = FastMath.max(intersectionsPerS, maxIntersections);
 
                     fpsCurr.setText(String.valueOf(fps));
                     rayCountCurr.setText(String.valueOf(raysPerS));
+                    shadowRayCountCurr.setText(String.valueOf(shadowRaysPerS));
                     intersectionsCurr.setText(String.valueOf(intersectionsPerS));
 
                     fpsPeak.setText(String.valueOf(maxFps));
                     rayCountPeak.setText(String.valueOf(maxRays));
+                    shadowRayCountPeak.setText(String.valueOf(maxShadowRays));
                     intersectionsPeak.setText(String.valueOf(maxIntersections));
 
                     precisionFixedCount.setText(String.valueOf(ChromaStatistics.getSubsurfaceCorrectionsCount()));
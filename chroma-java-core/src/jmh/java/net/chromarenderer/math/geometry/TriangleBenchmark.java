@@ -0,0 +1,74 @@
+package net.chromarenderer.math.geometry;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.raytracing.Ray;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counterpart of the Scala TriangleBenchmark for the Java triangles: one hitting ray as there, plus a batch of random
+ * rays with mostly misses, which is what a BVH leaf sees.
+ *
+ * @author bensteinert
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.SingleShotTime)
+@Fork(value = 1)
+@Measurement(batchSize = 1000000, iterations = 100)
+@State(Scope.Thread)
+public class TriangleBenchmark {
+
+    private static final int BATCH = 1024;
+
+    private static final SimpleTriangle TRIANGLE = new SimpleTriangle(
+            new ImmutableVector3(0.f, 0.f, 1.f),    //x
+            new ImmutableVector3(.0f, 1.f, 1.f),    //y
+            new ImmutableVector3(1.f, 0.f, 1.f),    //z
+            new ImmutableVector3(0.f, 0.f, -1.f));
+
+    private static final WoopTriangle WOOP_TRIANGLE = new WoopTriangle(TRIANGLE);
+
+    private static final Ray RAY = new Ray(new ImmutableVector3(0.2f, 0.2f, 0.f), new ImmutableVector3(0.f, 0.f, 1.f), 0.0f, Float.MAX_VALUE, false);
+
+    private final Ray[] rays = new Ray[BATCH];
+    private int next;
+
+
+    @Setup
+    public void createRays() {
+        Random random = new Random(42);
+        for (int i = 0; i < BATCH; i++) {
+            ImmutableVector3 origin = new ImmutableVector3(random.nextFloat() * 2.0f - 0.5f, random.nextFloat() * 2.0f - 0.5f, random.nextFloat() * 2.0f - 1.0f);
+            ImmutableVector3 target = new ImmutableVector3(random.nextFloat() * 2.0f - 0.5f, random.nextFloat() * 2.0f - 0.5f, 1.0f);
+            rays[i] = new Ray(origin, target.minus(origin).normalize(), 0.0f, Float.MAX_VALUE, false);
+        }
+    }
+
+
+    @Benchmark
+    public float benchmarkMoellerTrumboreTriangleIntersect() {
+        return TRIANGLE.intersect(RAY);
+    }
+
+
+    @Benchmark
+    public float benchmarkWoopTriangleIntersect() {
+        return WOOP_TRIANGLE.intersect(RAY);
+    }
+
+
+    @Benchmark
+    public float benchmarkMoellerTrumboreRandomRays() {
+        next = (next + 1) & (BATCH - 1);
+        return TRIANGLE.intersect(rays[next]);
+    }
+
+
+    @Benchmark
+    public float benchmarkWoopRandomRays() {
+        next = (next + 1) & (BATCH - 1);
+        return WOOP_TRIANGLE.intersect(rays[next]);
+    }
+}
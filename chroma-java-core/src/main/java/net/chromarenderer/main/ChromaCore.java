@@ -1,5 +1,6 @@
 package net.chromarenderer.main;
 
+import net.chromarenderer.AccStructType;
 import net.chromarenderer.Chroma;
 import net.chromarenderer.ChromaSettings;
 import net.chromarenderer.math.ImmutableVector3;
@@ -61,7 +62,8 @@ public class ChromaCore implements Runnable, Chroma {
     private ChromaSettings settings;
 
     private ChromaScene scene;
-    private boolean needsFlush;
+    private volatile boolean needsFlush;
+    private volatile boolean needsTriangleUpdate;
 
 
     public ChromaCore() {
@@ -89,6 +91,11 @@ public class ChromaCore implements Runnable, Chroma {
                 }
 
                 do {
+                    if (needsTriangleUpdate) {
+                        updateTriangles();
+                        needsTriangleUpdate = false;
+                        needsFlush = true;
+                    }
                     if (needsFlush) {
                         flushRenderer();
                         ChromaStatistics.reset();
@@ -151,11 +158,15 @@ public class ChromaCore implements Runnable, Chroma {
 
         // Save some time when working with large scenes ...
         if (settings != null) {
-            if (Objects.equals(settings.getSceneType(), settingsIn.getSceneType())) {
+            if (Objects.equals(settings.getSceneType(), settingsIn.getSceneType())
+                    && settings.isMeshCleanupEnabled() == settingsIn.isMeshCleanupEnabled()) {
                 initScene = false;
             }
             if (settings.getAccStructType().equals(settingsIn.getAccStructType())) {
                 initAccStruct = false;
+            } else if (settings.getAccStructType() == AccStructType.OFF_HEAP_BVH || settingsIn.getAccStructType() == AccStructType.OFF_HEAP_BVH) {
+                // off-heap scenes hold their geometry in the store only
+                initScene = true;
             }
         }
 
@@ -166,7 +177,8 @@ public class ChromaCore implements Runnable, Chroma {
                 case BLENDER_EXPORT:
                     ChromaScene geometryScene = null;
                     try {
-                        geometryScene = BlenderChromaImporter.importSceneFromFile(settings.getScenePath(), settings.getSceneName() + ".blend");
+                        geometryScene = BlenderChromaImporter.importSceneFromFile(settings.getScenePath(), settings.getSceneName() + ".blend",
+                                settings.isMeshCleanupEnabled());
                     }
                     catch (InterruptedException e) {
                         Thread.currentThread().interrupt();
@@ -180,13 +192,26 @@ public class ChromaCore implements Runnable, Chroma {
                     final PinholeCamera pinholeCamera = new PinholeCamera(new ImmutableVector3(0, -0.7, 5.4), settings.getImgWidth(), settings.getImgHeight());
                     scene = SceneFactory.cornellBox(pinholeCamera,new ImmutableVector3(0, 0, 0), 2, SceneFactory.createSomeSpheres());
                     break;
+                case SPHERE_CLOUD:
+                    final PinholeCamera cloudCamera = new PinholeCamera(new ImmutableVector3(0, -0.7, 5.4), settings.getImgWidth(), settings.getImgHeight());
+                    scene = SceneFactory.cornellBox(cloudCamera, new ImmutableVector3(0, 0, 0), 2, SceneFactory.createSphereCloud(100000, 42L));
+                    break;
             }
         }
 
+        if (initScene && settings.getAccStructType() == AccStructType.OFF_HEAP_BVH && scene instanceof GeometryScene) {
+            scene = ((GeometryScene) scene).toOffHeapScene();
+        }
+
         scene.getCamera().recalibrateSensor(settings.getImgWidth(), settings.getImgHeight());
 
+        if (initScene && settings.isPrecomputedTrianglesEnabled()) {
+            updateTriangles();
+        }
+
         if (scene instanceof GeometryScene && (initAccStruct || initScene)) {
-            ((GeometryScene) scene).buildAccelerationStructure(settings.getAccStructType());
+            // render on a preview right away, images accumulated on it are dropped once the final structure is in place
+            ((GeometryScene) scene).buildAccelerationStructureInBackground(settings.getAccStructType(), this::flushOnNextImage);
         }
 
         ShaderEngine.setScene(scene);
@@ -235,4 +260,19 @@ public class ChromaCore implements Runnable, Chroma {
     public void flushOnNextImage() {
         needsFlush = true;
     }
+
+
+    /**
+     * Applies {@link ChromaSettings#isPrecomputedTrianglesEnabled()} to the scene between two images.
+     */
+    public void updateTrianglesOnNextImage() {
+        needsTriangleUpdate = true;
+    }
+
+
+    private void updateTriangles() {
+        if (scene instanceof GeometryScene) {
+            ((GeometryScene) scene).setPrecomputedTriangles(settings.isPrecomputedTrianglesEnabled());
+        }
+    }
 }
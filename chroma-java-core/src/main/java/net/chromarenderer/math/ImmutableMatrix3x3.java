@@ -83,6 +83,21 @@ public class ImmutableMatrix3x3 {
         return new ImmutableVector3( col1().dot(input), col2().dot(input), col3().dot(input) );
     }
 
+    /**
+     * X component of {@link #mult(Vector3)} without creating vectors.
+     */
+    public float multX(float x, float y, float z) {
+        return m11 * x + m21 * y + m31 * z;
+    }
+
+    public float multY(float x, float y, float z) {
+        return m12 * x + m22 * y + m32 * z;
+    }
+
+    public float multZ(float x, float y, float z) {
+        return m13 * x + m23 * y + m33 * z;
+    }
+
     private ImmutableVector3 row1() {
         return new ImmutableVector3(m11, m12, m13);
     }
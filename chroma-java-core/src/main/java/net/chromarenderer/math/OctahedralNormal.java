@@ -0,0 +1,57 @@
+package net.chromarenderer.math;
+
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * Unit vectors packed into 32 bits: the vector is projected onto the octahedron |x| + |y| + |z| = 1, whose lower half is
+ * folded over the upper one, and the resulting x and y are stored as signed normalized 16 bit values, x in the lower
+ * and y in the upper half of the int. The angular error stays below 0.005 degrees. Same encoding as written by the
+ * blenderToChroma script.
+ *
+ * @author bensteinert
+ */
+public class OctahedralNormal {
+
+    private static final float SCALE = 32767.0f;
+
+
+    public static int encode(Vector3 normal) {
+        return encode(normal.getX(), normal.getY(), normal.getZ());
+    }
+
+
+    public static int encode(float x, float y, float z) {
+        float l1Norm = FastMath.abs(x) + FastMath.abs(y) + FastMath.abs(z);
+        float u = x / l1Norm;
+        float v = y / l1Norm;
+        if (z < 0.0f) {
+            float foldedU = (1.0f - FastMath.abs(v)) * signNotZero(u);
+            v = (1.0f - FastMath.abs(u)) * signNotZero(v);
+            u = foldedU;
+        }
+        return (toSnorm16(u) & 0xFFFF) | (toSnorm16(v) << 16);
+    }
+
+
+    public static ImmutableVector3 decode(int packed) {
+        float u = FastMath.max((short) packed / SCALE, -1.0f);
+        float v = FastMath.max((short) (packed >> 16) / SCALE, -1.0f);
+        float z = 1.0f - FastMath.abs(u) - FastMath.abs(v);
+        if (z < 0.0f) {
+            float unfoldedU = (1.0f - FastMath.abs(v)) * signNotZero(u);
+            v = (1.0f - FastMath.abs(u)) * signNotZero(v);
+            u = unfoldedU;
+        }
+        return new ImmutableVector3(u, v, z).normalize();
+    }
+
+
+    private static int toSnorm16(float value) {
+        return FastMath.round(FastMath.max(-1.0f, FastMath.min(1.0f, value)) * SCALE);
+    }
+
+
+    private static float signNotZero(float value) {
+        return value >= 0.0f ? 1.0f : -1.0f;
+    }
+}
@@ -19,6 +19,14 @@ public interface Geometry {
 
     ImmutableVector3 getNormal(ImmutableVector3 hitpoint);
 
+    /**
+     * Normal used for shading, e.g. interpolated from vertex normals. Geometric tests like back face culling and
+     * light sampling keep using {@link #getNormal(ImmutableVector3)}.
+     */
+    default ImmutableVector3 getShadingNormal(ImmutableVector3 hitpoint) {
+        return getNormal(hitpoint);
+    }
+
     boolean isPlane();
 
     Material getMaterial();
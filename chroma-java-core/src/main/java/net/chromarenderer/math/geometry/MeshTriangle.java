@@ -0,0 +1,269 @@
+package net.chromarenderer.math.geometry;
+
+import net.chromarenderer.math.Constants;
+import net.chromarenderer.math.ImmutableMatrix3x3;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.OctahedralNormal;
+import net.chromarenderer.math.Vector3;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+import net.chromarenderer.utils.ChromaStatistics;
+
+/**
+ * Face of a {@link TriangleMesh}. Holds nothing but the mesh and its face index, vertices, normal and material are read
+ * from the buffers of the mesh. Transformations create a {@link SimpleTriangle} as the mesh buffers are shared, or a
+ * face of a new mesh if the vertex normals have to be kept.
+ *
+ * @author bensteinert
+ */
+public final class MeshTriangle implements Triangle {
+
+    private final TriangleMesh mesh;
+    private final int face;
+
+
+    MeshTriangle(TriangleMesh mesh, int face) {
+        this.mesh = mesh;
+        this.face = face;
+    }
+
+
+    public TriangleMesh getMesh() {
+        return mesh;
+    }
+
+
+    public int getFace() {
+        return face;
+    }
+
+
+    @Override
+    public ImmutableVector3 getP0() {
+        return vertex(0);
+    }
+
+
+    @Override
+    public ImmutableVector3 getP1() {
+        return vertex(1);
+    }
+
+
+    @Override
+    public ImmutableVector3 getP2() {
+        return vertex(2);
+    }
+
+
+    private ImmutableVector3 vertex(int corner) {
+        float[] vertices = mesh.getVertices();
+        int offset = mesh.vertexOffset(face, corner);
+        return new ImmutableVector3(vertices[offset], vertices[offset + 1], vertices[offset + 2]);
+    }
+
+
+    @Override
+    public ImmutableVector3 getNormal() {
+        float[] normals = mesh.getNormals();
+        return new ImmutableVector3(normals[face * 3], normals[face * 3 + 1], normals[face * 3 + 2]);
+    }
+
+
+    @Override
+    public ImmutableVector3 getNormal(ImmutableVector3 hitpoint) {
+        return getNormal();
+    }
+
+
+    @Override
+    public boolean hasVertexNormals() {
+        return mesh.hasVertexNormals();
+    }
+
+
+    @Override
+    public ImmutableVector3 getShadingNormal(ImmutableVector3 hitpoint) {
+        if (!mesh.hasVertexNormals()) {
+            return getNormal();
+        }
+        return interpolateNormals(hitpoint, vertexNormal(0), vertexNormal(1), vertexNormal(2));
+    }
+
+
+    /**
+     * Same test as {@link Triangle#intersect(Ray)}, reading the mesh buffers and the ray components directly.
+     */
+    @Override
+    public float intersect(Ray ray) {
+        ChromaStatistics.intersectOp();
+        float[] vertices = mesh.getVertices();
+        float[] normals = mesh.getNormals();
+        float dx = ray.getDirectionX();
+        float dy = ray.getDirectionY();
+        float dz = ray.getDirectionZ();
+
+        float backFaceCulling = dx * normals[face * 3] + dy * normals[face * 3 + 1] + dz * normals[face * 3 + 2];
+        if (backFaceCulling > 0.0f && !ray.isTransparent()) {
+            return 0.f;
+        }
+
+        int i0 = mesh.vertexOffset(face, 0);
+        int i1 = mesh.vertexOffset(face, 1);
+        int i2 = mesh.vertexOffset(face, 2);
+        float e1x = vertices[i1] - vertices[i0];
+        float e1y = vertices[i1 + 1] - vertices[i0 + 1];
+        float e1z = vertices[i1 + 2] - vertices[i0 + 2];
+        float e2x = vertices[i2] - vertices[i0];
+        float e2y = vertices[i2 + 1] - vertices[i0 + 1];
+        float e2z = vertices[i2 + 2] - vertices[i0 + 2];
+
+        float px = dy * e2z - dz * e2y;
+        float py = dz * e2x - dx * e2z;
+        float pz = dx * e2y - dy * e2x;
+        float det = e1x * px + e1y * py + e1z * pz;
+        if (det > -Constants.FLT_EPSILON && det < Constants.FLT_EPSILON) {
+            return 0.f;
+        }
+        float invDet = 1.0f / det;
+
+        float tx = ray.getOriginX() - vertices[i0];
+        float ty = ray.getOriginY() - vertices[i0 + 1];
+        float tz = ray.getOriginZ() - vertices[i0 + 2];
+        float u = (tx * px + ty * py + tz * pz) * invDet;
+        if (u < 0.0f || u > 1.0f) {
+            return 0.f;
+        }
+
+        float qx = ty * e1z - tz * e1y;
+        float qy = tz * e1x - tx * e1z;
+        float qz = tx * e1y - ty * e1x;
+        float v = (dx * qx + dy * qy + dz * qz) * invDet;
+        if (v < 0.0f || u + v > 1.0f) {
+            return 0.f;
+        }
+
+        return (e2x * qx + e2y * qy + e2z * qz) * invDet;
+    }
+
+
+    @Override
+    public ImmutableVector3 getSpatialMinimum() {
+        float[] vertices = mesh.getVertices();
+        int i0 = mesh.vertexOffset(face, 0);
+        int i1 = mesh.vertexOffset(face, 1);
+        int i2 = mesh.vertexOffset(face, 2);
+        return new ImmutableVector3(
+                Math.min(vertices[i0], Math.min(vertices[i1], vertices[i2])),
+                Math.min(vertices[i0 + 1], Math.min(vertices[i1 + 1], vertices[i2 + 1])),
+                Math.min(vertices[i0 + 2], Math.min(vertices[i1 + 2], vertices[i2 + 2])));
+    }
+
+
+    @Override
+    public ImmutableVector3 getSpatialMaximum() {
+        float[] vertices = mesh.getVertices();
+        int i0 = mesh.vertexOffset(face, 0);
+        int i1 = mesh.vertexOffset(face, 1);
+        int i2 = mesh.vertexOffset(face, 2);
+        return new ImmutableVector3(
+                Math.max(vertices[i0], Math.max(vertices[i1], vertices[i2])),
+                Math.max(vertices[i0 + 1], Math.max(vertices[i1 + 1], vertices[i2 + 1])),
+                Math.max(vertices[i0 + 2], Math.max(vertices[i1 + 2], vertices[i2 + 2])));
+    }
+
+
+    @Override
+    public Material getMaterial() {
+        return mesh.getMaterial(face);
+    }
+
+
+    @Override
+    public void setMaterial(Material material) {
+        mesh.setMaterial(face, material);
+    }
+
+
+    @Override
+    public Triangle transpose(Vector3 transpose) {
+        if (!mesh.hasVertexNormals()) {
+            return toSimpleTriangle().transpose(transpose);
+        }
+        return toTriangles(
+                new ImmutableVector3[]{getP0().plus(transpose), getP1().plus(transpose), getP2().plus(transpose)},
+                new ImmutableVector3[]{vertexNormal(0), vertexNormal(1), vertexNormal(2)})[0];
+    }
+
+
+    @Override
+    public Triangle rotate(ImmutableMatrix3x3 rotationY) {
+        if (!mesh.hasVertexNormals()) {
+            return toSimpleTriangle().rotate(rotationY);
+        }
+        // normals transform with the inverse transpose, which is the matrix itself for a pure rotation
+        ImmutableMatrix3x3 normalTransformation = rotationY.invert().transpose();
+        return toTriangles(
+                new ImmutableVector3[]{rotationY.mult(getP0()), rotationY.mult(getP1()), rotationY.mult(getP2())},
+                new ImmutableVector3[]{
+                        normalTransformation.mult(vertexNormal(0)).normalize(),
+                        normalTransformation.mult(vertexNormal(1)).normalize(),
+                        normalTransformation.mult(vertexNormal(2)).normalize()})[0];
+    }
+
+
+    /**
+     * Same split as {@link SimpleTriangle#subdivide()}. With vertex normals, the new corners get the shading normal of
+     * this face at their position, so the parts are shaded like the whole.
+     */
+    @Override
+    public Triangle[] subdivide() {
+        if (!mesh.hasVertexNormals()) {
+            return toSimpleTriangle().subdivide();
+        }
+        ImmutableVector3 p0 = getP0();
+        ImmutableVector3 p1 = getP1();
+        ImmutableVector3 p2 = getP2();
+        ImmutableVector3 pE1 = p0.plus(p1).mult(0.5f);
+        ImmutableVector3 pE2 = p0.plus(p2).mult(0.5f);
+        ImmutableVector3 pE3 = p1.plus(p2).mult(0.5f);
+        ImmutableVector3 n0 = vertexNormal(0);
+        ImmutableVector3 n1 = vertexNormal(1);
+        ImmutableVector3 n2 = vertexNormal(2);
+        ImmutableVector3 nE1 = interpolateNormals(pE1, n0, n1, n2);
+        ImmutableVector3 nE2 = interpolateNormals(pE2, n0, n1, n2);
+        ImmutableVector3 nE3 = interpolateNormals(pE3, n0, n1, n2);
+        return toTriangles(
+                new ImmutableVector3[]{p0, pE1, pE2, pE1, p1, pE3, pE3, p2, pE2, pE1, pE3, pE2},
+                new ImmutableVector3[]{n0, nE1, nE2, nE1, n1, nE3, nE3, n2, nE2, nE1, nE3, nE2});
+    }
+
+
+    private ImmutableVector3 vertexNormal(int corner) {
+        return OctahedralNormal.decode(mesh.getPackedVertexNormal(face, corner));
+    }
+
+
+    /**
+     * @return faces of a new mesh with the material of this face, three corners and their vertex normals each.
+     */
+    private Triangle[] toTriangles(ImmutableVector3[] corners, ImmutableVector3[] cornerNormals) {
+        float[] vertices = new float[corners.length * 3];
+        int[] indices = new int[corners.length];
+        int[] vertexNormals = new int[corners.length];
+        for (int i = 0; i < corners.length; i++) {
+            vertices[i * 3] = corners[i].getX();
+            vertices[i * 3 + 1] = corners[i].getY();
+            vertices[i * 3 + 2] = corners[i].getZ();
+            indices[i] = i;
+            vertexNormals[i] = OctahedralNormal.encode(cornerNormals[i]);
+        }
+        TriangleMesh result = new TriangleMesh(vertices, indices, new byte[corners.length / 3], new Material[]{getMaterial()}, vertexNormals);
+        return result.getTriangles().toArray(new Triangle[corners.length / 3]);
+    }
+
+
+    private SimpleTriangle toSimpleTriangle() {
+        return new SimpleTriangle(getP0(), getP1(), getP2(), getNormal(), getMaterial());
+    }
+}
@@ -0,0 +1,110 @@
+package net.chromarenderer.math.geometry;
+
+import net.chromarenderer.math.Constants;
+import net.chromarenderer.math.ImmutableMatrix3x3;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.Vector3;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+
+/**
+ * Sphere of a {@link SphereSet}. Holds nothing but the set and its index, center, radius and material are read from
+ * the buffers of the set. Transformations create a {@link Sphere} as the set buffers are shared.
+ *
+ * @author bensteinert
+ */
+public final class SetSphere implements Geometry {
+
+    private final SphereSet set;
+    private final int index;
+
+
+    SetSphere(SphereSet set, int index) {
+        this.set = set;
+        this.index = index;
+    }
+
+
+    public SphereSet getSet() {
+        return set;
+    }
+
+
+    public int getIndex() {
+        return index;
+    }
+
+
+    @Override
+    public float intersect(Ray ray) {
+        return set.intersect(index, ray);
+    }
+
+
+    @Override
+    public Sphere transpose(Vector3 transpose) {
+        return toSphere().transpose(transpose);
+    }
+
+
+    @Override
+    public Sphere rotate(ImmutableMatrix3x3 rotationY) {
+        return toSphere().rotate(rotationY);
+    }
+
+
+    private Sphere toSphere() {
+        return new Sphere(set.getCenter(index), set.getRadius(index), getMaterial());
+    }
+
+
+    @Override
+    public ImmutableVector3 getNormal(ImmutableVector3 hitpoint) {
+        return hitpoint.minus(set.getCenter(index)).normalize();
+    }
+
+
+    @Override
+    public boolean isPlane() {
+        return false;
+    }
+
+
+    @Override
+    public Material getMaterial() {
+        return set.getMaterial(index);
+    }
+
+
+    @Override
+    public void setMaterial(Material material) {
+        set.setMaterial(index, material);
+    }
+
+
+    @Override
+    public float getArea() {
+        float radius = set.getRadius(index);
+        return 4.0f * Constants.PI_f * radius * radius;
+    }
+
+
+    @Override
+    public ImmutableVector3 getUnifDistrSample() {
+        return Sphere.getUnifDistrSample(set.getCenter(index), set.getRadius(index));
+    }
+
+
+    @Override
+    public ImmutableVector3 getSpatialMinimum() {
+        float radius = set.getRadius(index);
+        return set.getCenter(index).minus(radius, radius, radius);
+    }
+
+
+    @Override
+    public ImmutableVector3 getSpatialMaximum() {
+        float radius = set.getRadius(index);
+        return set.getCenter(index).plus(radius, radius, radius);
+    }
+}
@@ -82,13 +82,13 @@ public class Sphere extends AbstractGeometry {
     }
 
     @Override
-    public Geometry transpose(Vector3 transpose) {
-        return null;
+    public Sphere transpose(Vector3 transpose) {
+        return new Sphere(center.plus(transpose), radius, getMaterial());
     }
 
     @Override
-    public Geometry rotate(ImmutableMatrix3x3 rotationY) {
-        return null;
+    public Sphere rotate(ImmutableMatrix3x3 rotationY) {
+        return new Sphere(rotationY.mult(center), radius, getMaterial());
     }
 
     @Override
@@ -108,13 +108,18 @@ public class Sphere extends AbstractGeometry {
 
     @Override
     public ImmutableVector3 getUnifDistrSample() {
+        return getUnifDistrSample(center, (float) radius);
+    }
+
+
+    static ImmutableVector3 getUnifDistrSample(ImmutableVector3 center, float radius) {
         float u = (ChromaThreadContext.randomFloatOpenOpen() - 0.5f) * 2.0f;
         float v = ChromaThreadContext.randomFloatClosedOpen();
         float sqrtOneMinusU = (float) FastMath.sqrt(1.0f - u * u); // sin² + cos² = 1 -> sin = sqrt(1-cos²)
         float vTwoPi = v * Constants.TWO_PI_f;
 
         ImmutableVector3 unitSphereSample = new ImmutableVector3((float) (FastMath.cos(vTwoPi) * sqrtOneMinusU), (float) (sqrtOneMinusU * FastMath.sin(vTwoPi)), u);
-        return center.plus(unitSphereSample.mult((float) radius));
+        return center.plus(unitSphereSample.mult(radius));
     }
 
     @Override
@@ -0,0 +1,191 @@
+package net.chromarenderer.math.geometry;
+
+import net.chromarenderer.math.Constants;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+import net.chromarenderer.utils.ChromaStatistics;
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Many spheres backed by primitive buffers: center coordinates and radius of sphere {@code i} are found at index
+ * {@code i} of the component arrays, next to an index into the material palette. The spheres enter acceleration
+ * structures and light sampling as {@link SetSphere}s, which only reference the set and their index. Intersections are
+ * computed in floats by {@link #intersect(float, float, float, float, Ray, float, float, float, float, float, float)},
+ * which leaves of a BVH call on their copies of the components without going through {@link Geometry}.
+ *
+ * @author bensteinert
+ */
+public class SphereSet {
+
+    public static final int MAX_MATERIALS = 256;
+
+    private final float[] centerX;
+    private final float[] centerY;
+    private final float[] centerZ;
+    private final float[] radii;
+    private final byte[] materialIndices;
+    private volatile Material[] materials;
+    private final List<Geometry> spheres;
+
+
+    /**
+     * @param centers         x, y and z of each center.
+     * @param radii           radius of each sphere.
+     * @param materialIndices index into {@code materials} per sphere, read unsigned.
+     */
+    public SphereSet(float[] centers, float[] radii, byte[] materialIndices, Material[] materials) {
+        if (centers.length != radii.length * 3) {
+            throw new IllegalArgumentException("Expected three center coordinates per radius.");
+        }
+        if (materialIndices.length != radii.length) {
+            throw new IllegalArgumentException("Expected one material index per sphere.");
+        }
+        if (materials.length > MAX_MATERIALS) {
+            throw new IllegalArgumentException("At most " + MAX_MATERIALS + " materials are supported per sphere set.");
+        }
+        int numberOfSpheres = radii.length;
+        this.centerX = new float[numberOfSpheres];
+        this.centerY = new float[numberOfSpheres];
+        this.centerZ = new float[numberOfSpheres];
+        for (int i = 0; i < numberOfSpheres; i++) {
+            if (!(radii[i] > 0.0f)) {
+                throw new IllegalArgumentException("Radius of sphere " + i + " is not positive.");
+            }
+            if ((materialIndices[i] & 0xFF) >= materials.length) {
+                throw new IllegalArgumentException("Material index of sphere " + i + " out of range.");
+            }
+            centerX[i] = centers[i * 3];
+            centerY[i] = centers[i * 3 + 1];
+            centerZ[i] = centers[i * 3 + 2];
+        }
+        this.radii = radii;
+        this.materialIndices = materialIndices;
+        this.materials = materials;
+
+        List<Geometry> result = new ArrayList<>(numberOfSpheres);
+        for (int i = 0; i < numberOfSpheres; i++) {
+            result.add(new SetSphere(this, i));
+        }
+        this.spheres = Collections.unmodifiableList(result);
+    }
+
+
+    /**
+     * @return one {@link SetSphere} per sphere, in index order.
+     */
+    public List<Geometry> getSpheres() {
+        return spheres;
+    }
+
+
+    public int getNumberOfSpheres() {
+        return radii.length;
+    }
+
+
+    public float getCenterX(int sphere) {
+        return centerX[sphere];
+    }
+
+
+    public float getCenterY(int sphere) {
+        return centerY[sphere];
+    }
+
+
+    public float getCenterZ(int sphere) {
+        return centerZ[sphere];
+    }
+
+
+    public float getRadius(int sphere) {
+        return radii[sphere];
+    }
+
+
+    ImmutableVector3 getCenter(int sphere) {
+        return new ImmutableVector3(centerX[sphere], centerY[sphere], centerZ[sphere]);
+    }
+
+
+    float intersect(int sphere, Ray ray) {
+        return intersect(centerX[sphere], centerY[sphere], centerZ[sphere], radii[sphere], ray,
+                ray.getOriginX(), ray.getOriginY(), ray.getOriginZ(), ray.getDirectionX(), ray.getDirectionY(), ray.getDirectionZ());
+    }
+
+
+    /**
+     * Same result as {@link Sphere#intersect(Ray)} computed in floats. The discriminant is taken from the distance of
+     * the center to the ray instead of the difference of two large squares, which keeps small spheres far away from
+     * the ray origin intact without resorting to doubles.
+     *
+     * @return distance to the first hit in front of the origin or 0 if the sphere is missed.
+     */
+    public static float intersect(float cx, float cy, float cz, float radius, Ray ray,
+                                  float ox, float oy, float oz, float dx, float dy, float dz) {
+        ChromaStatistics.intersectOp();
+        float ocx = ox - cx;
+        float ocy = oy - cy;
+        float ocz = oz - cz;
+        float a = dx * dx + dy * dy + dz * dz;
+        float b = dx * ocx + dy * ocy + dz * ocz;
+        float c = ocx * ocx + ocy * ocy + ocz * ocz - radius * radius;
+
+        // center minus its projection onto the ray
+        float s = b / a;
+        float hx = ocx - s * dx;
+        float hy = ocy - s * dy;
+        float hz = ocz - s * dz;
+        float disc = a * (radius * radius - (hx * hx + hy * hy + hz * hz));
+        if (disc < 0.0f) {
+            return 0.0f;
+        }
+
+        float distSqrt = (float) FastMath.sqrt(disc);
+        float q = b < 0.0f ? distSqrt - b : -distSqrt - b;
+        float t0 = q / a;
+        float t1 = c / q;
+        if (t0 > t1) {
+            float temp = t0;
+            t0 = t1;
+            t1 = temp;
+        }
+
+        // ignore imprecision flaws.....
+        if (!(t0 < Constants.SPHERE_NAN_LIMIT) || !(t1 < Constants.SPHERE_NAN_LIMIT)) {
+            return 0.0f;
+        }
+        if (t1 < 0.0f) {
+            return 0.0f;
+        }
+        return t0 < 0.0f ? t1 : t0;
+    }
+
+
+    Material getMaterial(int sphere) {
+        return materials[materialIndices[sphere] & 0xFF];
+    }
+
+
+    synchronized void setMaterial(int sphere, Material material) {
+        int index = 0;
+        while (index < materials.length && materials[index] != material) {
+            index++;
+        }
+        if (index == materials.length) {
+            if (index == MAX_MATERIALS) {
+                throw new IllegalStateException("Material palette of sphere set is full.");
+            }
+            Material[] palette = Arrays.copyOf(materials, index + 1);
+            palette[index] = material;
+            materials = palette;
+        }
+        materialIndices[sphere] = (byte) index;
+    }
+}
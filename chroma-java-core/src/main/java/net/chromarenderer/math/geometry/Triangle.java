@@ -29,6 +29,13 @@ public interface Triangle extends Geometry {
 
     Triangle[] subdivide();
 
+    /**
+     * @return whether {@link #getShadingNormal(ImmutableVector3)} differs from the face normal.
+     */
+    default boolean hasVertexNormals() {
+        return false;
+    }
+
     default ImmutableVector3 e3() {
         return (getP2()).minus(getP1());
     }
@@ -183,6 +190,34 @@ public interface Triangle extends Geometry {
     }
 
 
+    /**
+     * @return the vertex normals interpolated by the barycentric coordinates of the given point on the triangle, the
+     * face normal for degenerate triangles and interpolated normals facing away from it.
+     */
+    default ImmutableVector3 interpolateNormals(ImmutableVector3 point, ImmutableVector3 n0, ImmutableVector3 n1, ImmutableVector3 n2) {
+        ImmutableVector3 e1 = e1();
+        ImmutableVector3 e2 = e2();
+        ImmutableVector3 toPoint = point.minus(getP0());
+        float d11 = e1.dot(e1);
+        float d12 = e1.dot(e2);
+        float d22 = e2.dot(e2);
+        float d1p = e1.dot(toPoint);
+        float d2p = e2.dot(toPoint);
+        float denominator = d11 * d22 - d12 * d12;
+        if (denominator == 0.0f) {
+            return getNormal();
+        }
+        float u = FastMath.max(0.0f, (d22 * d1p - d12 * d2p) / denominator);
+        float v = FastMath.max(0.0f, (d11 * d2p - d12 * d1p) / denominator);
+        float w = FastMath.max(0.0f, 1.0f - u - v);
+        ImmutableVector3 normal = n0.mult(w).plus(n1.mult(u)).plus(n2.mult(v));
+        if (normal.dot(getNormal()) <= 0.0f) {
+            return getNormal();
+        }
+        return normal.normalize();
+    }
+
+
     @Override
     default boolean isPlane() {
         return true;
@@ -0,0 +1,184 @@
+package net.chromarenderer.math.geometry;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.OctahedralNormal;
+import net.chromarenderer.renderer.shader.Material;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Indexed triangle mesh backed by primitive buffers: three floats per vertex, three vertex indices per face and an
+ * index into the material palette per face. Vertices are shared between adjacent faces. The faces enter acceleration
+ * structures and light sampling as {@link MeshTriangle}s, which only reference the mesh and their face index.
+ * Optionally, each corner of a face carries a vertex normal for smooth shading, packed by {@link OctahedralNormal}.
+ * Normals are kept per corner rather than per vertex, so hard edges can share vertices with smooth ones.
+ *
+ * @author bensteinert
+ */
+public class TriangleMesh {
+
+    public static final int MAX_MATERIALS = 256;
+
+    private final float[] vertices;
+    private final int[] indices;
+    private final byte[] materialIndices;
+    private final float[] normals;
+    private final int[] vertexNormals;
+    private volatile Material[] materials;
+    private final List<Geometry> triangles;
+
+
+    /**
+     * @param vertices        x, y and z of each vertex.
+     * @param indices         three vertex indices per face, counterclockwise.
+     * @param materialIndices index into {@code materials} per face, read unsigned.
+     */
+    public TriangleMesh(float[] vertices, int[] indices, byte[] materialIndices, Material[] materials) {
+        this(vertices, indices, materialIndices, materials, null);
+    }
+
+
+    /**
+     * @param vertexNormals packed vertex normal per corner of each face, null for flat shading.
+     */
+    public TriangleMesh(float[] vertices, int[] indices, byte[] materialIndices, Material[] materials, int[] vertexNormals) {
+        if (vertices.length % 3 != 0 || indices.length % 3 != 0) {
+            throw new IllegalArgumentException("Vertex and index buffers need three entries per vertex and face.");
+        }
+        if (materialIndices.length != indices.length / 3) {
+            throw new IllegalArgumentException("Expected one material index per face.");
+        }
+        if (vertexNormals != null && vertexNormals.length != indices.length) {
+            throw new IllegalArgumentException("Expected one vertex normal per corner of each face.");
+        }
+        if (materials.length > MAX_MATERIALS) {
+            throw new IllegalArgumentException("At most " + MAX_MATERIALS + " materials are supported per mesh.");
+        }
+        for (int index : indices) {
+            if (index < 0 || index >= vertices.length / 3) {
+                throw new IllegalArgumentException("Vertex index " + index + " out of range.");
+            }
+        }
+        this.vertices = vertices;
+        this.indices = indices;
+        this.materialIndices = materialIndices;
+        this.materials = materials;
+        this.vertexNormals = vertexNormals;
+
+        int numberOfFaces = indices.length / 3;
+        this.normals = new float[numberOfFaces * 3];
+        List<Geometry> faces = new ArrayList<>(numberOfFaces);
+        for (int face = 0; face < numberOfFaces; face++) {
+            initNormal(face);
+            faces.add(new MeshTriangle(this, face));
+        }
+        this.triangles = Collections.unmodifiableList(faces);
+    }
+
+
+    private void initNormal(int face) {
+        int i0 = indices[face * 3] * 3;
+        int i1 = indices[face * 3 + 1] * 3;
+        int i2 = indices[face * 3 + 2] * 3;
+        ImmutableVector3 p0 = new ImmutableVector3(vertices[i0], vertices[i0 + 1], vertices[i0 + 2]);
+        ImmutableVector3 e1 = new ImmutableVector3(vertices[i1], vertices[i1 + 1], vertices[i1 + 2]).minus(p0);
+        ImmutableVector3 e2 = new ImmutableVector3(vertices[i2], vertices[i2 + 1], vertices[i2 + 2]).minus(p0);
+        // same computation as for SimpleTriangle to get identical intersections
+        ImmutableVector3 normal = e1.crossProduct(e2).normalize();
+        normals[face * 3] = normal.getX();
+        normals[face * 3 + 1] = normal.getY();
+        normals[face * 3 + 2] = normal.getZ();
+    }
+
+
+    /**
+     * @return one {@link MeshTriangle} per face, in face order.
+     */
+    public List<Geometry> getTriangles() {
+        return triangles;
+    }
+
+
+    public int getNumberOfFaces() {
+        return materialIndices.length;
+    }
+
+
+    public int getNumberOfVertices() {
+        return vertices.length / 3;
+    }
+
+
+    public boolean hasVertexNormals() {
+        return vertexNormals != null;
+    }
+
+
+    /**
+     * @return the vertex normal at the given corner (0..2) of a face as packed by {@link OctahedralNormal}.
+     */
+    public int getPackedVertexNormal(int face, int corner) {
+        return vertexNormals[face * 3 + corner];
+    }
+
+
+    /**
+     * @return index of the vertex at the given corner (0..2) of a face, shared by all faces touching that vertex.
+     */
+    public int getVertexIndex(int face, int corner) {
+        return indices[face * 3 + corner];
+    }
+
+
+    /**
+     * @return offset of the x coordinate of the given corner (0..2) of a face in the vertex buffer.
+     */
+    int vertexOffset(int face, int corner) {
+        return indices[face * 3 + corner] * 3;
+    }
+
+
+    float[] getVertices() {
+        return vertices;
+    }
+
+
+    float[] getNormals() {
+        return normals;
+    }
+
+
+    int getMaterialIndex(int face) {
+        return materialIndices[face] & 0xFF;
+    }
+
+
+    Material[] getMaterials() {
+        return materials;
+    }
+
+
+    Material getMaterial(int face) {
+        return materials[materialIndices[face] & 0xFF];
+    }
+
+
+    synchronized void setMaterial(int face, Material material) {
+        int index = 0;
+        while (index < materials.length && materials[index] != material) {
+            index++;
+        }
+        if (index == materials.length) {
+            if (index == MAX_MATERIALS) {
+                throw new IllegalStateException("Material palette of mesh is full.");
+            }
+            Material[] palette = Arrays.copyOf(materials, index + 1);
+            palette[index] = material;
+            materials = palette;
+        }
+        materialIndices[face] = (byte) index;
+    }
+}
@@ -0,0 +1,157 @@
+package net.chromarenderer.math.geometry;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.OctahedralNormal;
+import net.chromarenderer.renderer.shader.Material;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects triangles given by their corner positions into a {@link TriangleMesh}. Corners at identical positions are
+ * stored once. Once a triangle is added with vertex normals, earlier and later triangles without them get their face
+ * normal at each corner. Triangles refer to the materials of the whole scene, the mesh only keeps the ones actually
+ * used, up to {@link TriangleMesh#MAX_MATERIALS}.
+ *
+ * @author bensteinert
+ */
+public class TriangleMeshBuilder {
+
+    private final List<Material> sceneMaterials;
+    // palette index per scene material index, -1 if not used so far
+    private final int[] paletteIndices;
+    private final List<Material> palette = new ArrayList<>();
+    private final Map<ImmutableVector3, Integer> vertexIndices = new HashMap<>();
+    private float[] vertices = new float[3 * 64];
+    private int[] indices = new int[3 * 64];
+    private byte[] materialIndices = new byte[64];
+    private int[] vertexNormals;
+    private int numberOfVertices;
+    private int numberOfFaces;
+
+
+    /**
+     * @param materials materials of the scene the material indices of added triangles refer to.
+     */
+    public TriangleMeshBuilder(List<Material> materials) {
+        this.sceneMaterials = materials;
+        this.paletteIndices = new int[materials.size()];
+        Arrays.fill(paletteIndices, -1);
+    }
+
+
+    /**
+     * @return false if a triangle with the given material can not be added as the mesh already uses
+     * {@link TriangleMesh#MAX_MATERIALS} other materials.
+     */
+    public boolean hasRoomFor(int materialIndex) {
+        boolean used = materialIndex >= 0 && materialIndex < paletteIndices.length && paletteIndices[materialIndex] >= 0;
+        return used || palette.size() < TriangleMesh.MAX_MATERIALS;
+    }
+
+
+    /**
+     * @throws IllegalStateException if the mesh has no room for the material, see {@link #hasRoomFor(int)}.
+     */
+    public TriangleMeshBuilder addTriangle(ImmutableVector3 p0, ImmutableVector3 p1, ImmutableVector3 p2, int materialIndex) {
+        if (materialIndex < 0 || materialIndex >= sceneMaterials.size()) {
+            throw new IllegalArgumentException("Material index " + materialIndex + " out of range.");
+        }
+        if (!hasRoomFor(materialIndex)) {
+            throw new IllegalStateException("At most " + TriangleMesh.MAX_MATERIALS + " materials are supported per mesh.");
+        }
+        if (paletteIndices[materialIndex] < 0) {
+            paletteIndices[materialIndex] = palette.size();
+            palette.add(sceneMaterials.get(materialIndex));
+        }
+        if (numberOfFaces == materialIndices.length) {
+            indices = Arrays.copyOf(indices, indices.length * 2);
+            materialIndices = Arrays.copyOf(materialIndices, materialIndices.length * 2);
+        }
+        indices[numberOfFaces * 3] = vertexIndex(p0);
+        indices[numberOfFaces * 3 + 1] = vertexIndex(p1);
+        indices[numberOfFaces * 3 + 2] = vertexIndex(p2);
+        materialIndices[numberOfFaces] = (byte) paletteIndices[materialIndex];
+        if (vertexNormals != null) {
+            int faceNormal = encodeFaceNormal(p0, p1, p2);
+            setVertexNormals(numberOfFaces, faceNormal, faceNormal, faceNormal);
+        }
+        numberOfFaces++;
+        return this;
+    }
+
+
+    /**
+     * @param normal0 vertex normal at p0 as packed by {@link OctahedralNormal}, same for normal1 and normal2.
+     */
+    public TriangleMeshBuilder addTriangle(ImmutableVector3 p0, ImmutableVector3 p1, ImmutableVector3 p2, int materialIndex,
+                                           int normal0, int normal1, int normal2) {
+        if (vertexNormals == null) {
+            vertexNormals = new int[indices.length];
+            for (int face = 0; face < numberOfFaces; face++) {
+                int faceNormal = encodeFaceNormal(vertexAt(face, 0), vertexAt(face, 1), vertexAt(face, 2));
+                setVertexNormals(face, faceNormal, faceNormal, faceNormal);
+            }
+        }
+        addTriangle(p0, p1, p2, materialIndex);
+        setVertexNormals(numberOfFaces - 1, normal0, normal1, normal2);
+        return this;
+    }
+
+
+    private void setVertexNormals(int face, int normal0, int normal1, int normal2) {
+        if (vertexNormals.length < indices.length) {
+            vertexNormals = Arrays.copyOf(vertexNormals, indices.length);
+        }
+        vertexNormals[face * 3] = normal0;
+        vertexNormals[face * 3 + 1] = normal1;
+        vertexNormals[face * 3 + 2] = normal2;
+    }
+
+
+    private static int encodeFaceNormal(ImmutableVector3 p0, ImmutableVector3 p1, ImmutableVector3 p2) {
+        return OctahedralNormal.encode(p1.minus(p0).crossProduct(p2.minus(p0)).normalize());
+    }
+
+
+    private ImmutableVector3 vertexAt(int face, int corner) {
+        int offset = indices[face * 3 + corner] * 3;
+        return new ImmutableVector3(vertices[offset], vertices[offset + 1], vertices[offset + 2]);
+    }
+
+
+    private int vertexIndex(ImmutableVector3 position) {
+        // adding zero turns -0 into 0, both are the same position
+        ImmutableVector3 key = new ImmutableVector3(position.getX() + 0.0f, position.getY() + 0.0f, position.getZ() + 0.0f);
+        Integer index = vertexIndices.get(key);
+        if (index != null) {
+            return index;
+        }
+        if (numberOfVertices * 3 == vertices.length) {
+            vertices = Arrays.copyOf(vertices, vertices.length * 2);
+        }
+        vertices[numberOfVertices * 3] = key.getX();
+        vertices[numberOfVertices * 3 + 1] = key.getY();
+        vertices[numberOfVertices * 3 + 2] = key.getZ();
+        vertexIndices.put(key, numberOfVertices);
+        return numberOfVertices++;
+    }
+
+
+    public int getNumberOfFaces() {
+        return numberOfFaces;
+    }
+
+
+    public TriangleMesh build() {
+        return new TriangleMesh(
+                Arrays.copyOf(vertices, numberOfVertices * 3),
+                Arrays.copyOf(indices, numberOfFaces * 3),
+                Arrays.copyOf(materialIndices, numberOfFaces),
+                palette.toArray(new Material[palette.size()]),
+                vertexNormals == null ? null : Arrays.copyOf(vertexNormals, numberOfFaces * 3));
+    }
+}
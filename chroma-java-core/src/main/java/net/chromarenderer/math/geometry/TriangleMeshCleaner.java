@@ -0,0 +1,263 @@
+package net.chromarenderer.math.geometry;
+
+import net.chromarenderer.renderer.shader.Material;
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Removes what exporters leave behind in a {@link TriangleMesh} and only costs intersection tests later on:
+ * <ul>
+ * <li>vertices within the same cell of a grid with spacing {@code weldDistance} are welded into the one with the
+ * lowest index,</li>
+ * <li>faces collapsed by welding or with an area below half a squared {@code weldDistance} are dropped as
+ * degenerate,</li>
+ * <li>faces referencing the same vertices in the same cyclic order as an earlier face are dropped as duplicates. The
+ * same vertices in opposite order form the back side and are kept.</li>
+ * </ul>
+ * Vertices no longer referenced are removed. The result does not depend on the order in which the parallel streams
+ * process vertices and faces. Counts of everything removed add up in the {@link Report} of the cleaner, so one cleaner
+ * may collect the numbers of all meshes of an import. A cleaner is meant to be used by one thread at a time.
+ *
+ * @author bensteinert
+ */
+public class TriangleMeshCleaner {
+
+    public static final float DEFAULT_WELD_DISTANCE = 1e-5f;
+
+    private final float weldDistance;
+    private final Report report = new Report();
+
+
+    public TriangleMeshCleaner() {
+        this(DEFAULT_WELD_DISTANCE);
+    }
+
+
+    public TriangleMeshCleaner(float weldDistance) {
+        if (!(weldDistance > 0.0f)) {
+            throw new IllegalArgumentException("Weld distance needs to be positive.");
+        }
+        this.weldDistance = weldDistance;
+    }
+
+
+    /**
+     * @return the given mesh if nothing had to be removed, a new mesh otherwise.
+     */
+    public TriangleMesh clean(TriangleMesh mesh) {
+        int numberOfVertices = mesh.getNumberOfVertices();
+        int numberOfFaces = mesh.getNumberOfFaces();
+        float[] vertices = mesh.getVertices();
+
+        // welding: every vertex is mapped to the lowest index within its grid cell
+        ConcurrentHashMap<Cell, Integer> cells = new ConcurrentHashMap<>();
+        Cell[] vertexCells = new Cell[numberOfVertices];
+        IntStream.range(0, numberOfVertices).parallel().forEach(vertex -> {
+            vertexCells[vertex] = new Cell(quantize(vertices[vertex * 3]), quantize(vertices[vertex * 3 + 1]), quantize(vertices[vertex * 3 + 2]));
+            cells.merge(vertexCells[vertex], vertex, Math::min);
+        });
+        int[] welded = new int[numberOfVertices];
+        IntStream.range(0, numberOfVertices).parallel().forEach(vertex -> welded[vertex] = cells.get(vertexCells[vertex]));
+        int weldedVertices = numberOfVertices - cells.size();
+
+        int[] indices = new int[numberOfFaces * 3];
+        boolean[] degenerate = new boolean[numberOfFaces];
+        ConcurrentHashMap<Cell, Integer> faceKeys = new ConcurrentHashMap<>();
+        Cell[] faceCells = new Cell[numberOfFaces];
+        float minDoubleArea = weldDistance * weldDistance;
+        IntStream.range(0, numberOfFaces).parallel().forEach(face -> {
+            int i0 = welded[mesh.getVertexIndex(face, 0)];
+            int i1 = welded[mesh.getVertexIndex(face, 1)];
+            int i2 = welded[mesh.getVertexIndex(face, 2)];
+            indices[face * 3] = i0;
+            indices[face * 3 + 1] = i1;
+            indices[face * 3 + 2] = i2;
+            if (i0 == i1 || i1 == i2 || i2 == i0 || doubleArea(vertices, i0, i1, i2) < minDoubleArea) {
+                degenerate[face] = true;
+                return;
+            }
+            // rotate the smallest index to the front, which keeps the winding
+            if (i1 < i0 && i1 < i2) {
+                faceCells[face] = new Cell(i1, i2, i0);
+            } else if (i2 < i0 && i2 < i1) {
+                faceCells[face] = new Cell(i2, i0, i1);
+            } else {
+                faceCells[face] = new Cell(i0, i1, i2);
+            }
+            faceKeys.merge(faceCells[face], face, Math::min);
+        });
+
+        boolean[] keep = new boolean[numberOfFaces];
+        IntStream.range(0, numberOfFaces).parallel().forEach(face -> keep[face] = !degenerate[face] && faceKeys.get(faceCells[face]) == face);
+        int degenerateFaces = 0;
+        int keptFaces = 0;
+        for (int face = 0; face < numberOfFaces; face++) {
+            degenerateFaces += degenerate[face] ? 1 : 0;
+            keptFaces += keep[face] ? 1 : 0;
+        }
+        int duplicateFaces = numberOfFaces - degenerateFaces - keptFaces;
+
+        // compaction in index order, vertices only referenced by removed faces are dropped
+        int[] newVertexIndex = new int[numberOfVertices];
+        Arrays.fill(newVertexIndex, -1);
+        for (int face = 0; face < numberOfFaces; face++) {
+            if (keep[face]) {
+                for (int corner = 0; corner < 3; corner++) {
+                    newVertexIndex[indices[face * 3 + corner]] = 0;
+                }
+            }
+        }
+        int keptVertices = 0;
+        for (int vertex = 0; vertex < numberOfVertices; vertex++) {
+            if (newVertexIndex[vertex] == 0) {
+                newVertexIndex[vertex] = keptVertices++;
+            }
+        }
+        report.add(numberOfVertices, numberOfFaces, weldedVertices, numberOfVertices - weldedVertices - keptVertices,
+                degenerateFaces, duplicateFaces);
+        if (keptFaces == numberOfFaces && keptVertices == numberOfVertices) {
+            return mesh;
+        }
+
+        float[] newVertices = new float[keptVertices * 3];
+        for (int vertex = 0; vertex < numberOfVertices; vertex++) {
+            if (newVertexIndex[vertex] != -1) {
+                System.arraycopy(vertices, vertex * 3, newVertices, newVertexIndex[vertex] * 3, 3);
+            }
+        }
+        int[] newIndices = new int[keptFaces * 3];
+        byte[] newMaterialIndices = new byte[keptFaces];
+        int[] newVertexNormals = mesh.hasVertexNormals() ? new int[keptFaces * 3] : null;
+        int newFace = 0;
+        for (int face = 0; face < numberOfFaces; face++) {
+            if (keep[face]) {
+                for (int corner = 0; corner < 3; corner++) {
+                    newIndices[newFace * 3 + corner] = newVertexIndex[indices[face * 3 + corner]];
+                    if (newVertexNormals != null) {
+                        newVertexNormals[newFace * 3 + corner] = mesh.getPackedVertexNormal(face, corner);
+                    }
+                }
+                newMaterialIndices[newFace++] = (byte) mesh.getMaterialIndex(face);
+            }
+        }
+        Material[] materials = mesh.getMaterials();
+        return new TriangleMesh(newVertices, newIndices, newMaterialIndices, Arrays.copyOf(materials, materials.length), newVertexNormals);
+    }
+
+
+    private long quantize(float coordinate) {
+        // adding zero turns -0 into 0, both are the same position
+        return (long) FastMath.floor((coordinate + 0.0f) / weldDistance);
+    }
+
+
+    private static float doubleArea(float[] vertices, int i0, int i1, int i2) {
+        float e1x = vertices[i1 * 3] - vertices[i0 * 3];
+        float e1y = vertices[i1 * 3 + 1] - vertices[i0 * 3 + 1];
+        float e1z = vertices[i1 * 3 + 2] - vertices[i0 * 3 + 2];
+        float e2x = vertices[i2 * 3] - vertices[i0 * 3];
+        float e2y = vertices[i2 * 3 + 1] - vertices[i0 * 3 + 1];
+        float e2z = vertices[i2 * 3 + 2] - vertices[i0 * 3 + 2];
+        float cx = e1y * e2z - e1z * e2y;
+        float cy = e1z * e2x - e1x * e2z;
+        float cz = e1x * e2y - e1y * e2x;
+        return (float) FastMath.sqrt(cx * cx + cy * cy + cz * cz);
+    }
+
+
+    public Report getReport() {
+        return report;
+    }
+
+
+    /**
+     * Grid cell of a vertex or vertex indices of a face.
+     */
+    private static final class Cell {
+
+        private final long a;
+        private final long b;
+        private final long c;
+
+
+        Cell(long a, long b, long c) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Cell)) {
+                return false;
+            }
+            Cell other = (Cell) o;
+            return a == other.a && b == other.b && c == other.c;
+        }
+
+
+        @Override
+        public int hashCode() {
+            long hash = a * 73856093L ^ b * 19349663L ^ c * 83492791L;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+
+    /**
+     * Numbers of everything a cleaner has looked at and removed.
+     */
+    public static final class Report {
+
+        private int meshes;
+        private long vertices;
+        private long faces;
+        private long weldedVertices;
+        private long unreferencedVertices;
+        private long degenerateFaces;
+        private long duplicateFaces;
+
+
+        private void add(int vertices, int faces, int weldedVertices, int unreferencedVertices, int degenerateFaces, int duplicateFaces) {
+            this.meshes++;
+            this.vertices += vertices;
+            this.faces += faces;
+            this.weldedVertices += weldedVertices;
+            this.unreferencedVertices += unreferencedVertices;
+            this.degenerateFaces += degenerateFaces;
+            this.duplicateFaces += duplicateFaces;
+        }
+
+
+        public long getWeldedVertices() {
+            return weldedVertices;
+        }
+
+
+        public long getUnreferencedVertices() {
+            return unreferencedVertices;
+        }
+
+
+        public long getDegenerateFaces() {
+            return degenerateFaces;
+        }
+
+
+        public long getDuplicateFaces() {
+            return duplicateFaces;
+        }
+
+
+        @Override
+        public String toString() {
+            return String.format("Mesh cleanup of %d meshes: welded %d and dropped %d unreferenced of %d vertices, "
+                            + "dropped %d degenerate and %d duplicate of %d faces",
+                    meshes, weldedVertices, unreferencedVertices, vertices, degenerateFaces, duplicateFaces, faces);
+        }
+    }
+}
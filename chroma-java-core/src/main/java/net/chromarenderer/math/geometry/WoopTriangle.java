@@ -0,0 +1,237 @@
+package net.chromarenderer.math.geometry;
+
+import net.chromarenderer.math.ImmutableMatrix3x3;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.Vector3;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+import net.chromarenderer.utils.ChromaStatistics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Triangle with a precomputed affine transform into the space of the unit triangle (0,0,0), (1,0,0), (0,1,0), following
+ * Woop et al. 2004. The transform is the inverse of the matrix with the columns e1, e2 and the normal, translated by
+ * p0, and is stored as 12 floats: its rows map a point to the barycentric coordinates u, v and the distance along the
+ * normal. Intersection then takes three dot products for the direction, three for the origin and no allocation. The
+ * third row points along the normal of the source triangle, so its sign is the back face test.
+ * <p>
+ * Meant for static scenes, moved copies recompute the transform. Everything but the intersection is delegated to the
+ * source triangle.
+ *
+ * @author bensteinert
+ */
+public final class WoopTriangle implements Triangle {
+
+    private final Triangle source;
+    private final float u0, u1, u2, u3;
+    private final float v0, v1, v2, v3;
+    private final float w0, w1, w2, w3;
+
+
+    public WoopTriangle(Triangle source) {
+        this.source = source;
+        ImmutableVector3 p0 = source.getP0();
+        ImmutableVector3 p1 = source.getP1();
+        ImmutableVector3 p2 = source.getP2();
+        double ax = (double) p1.getX() - p0.getX();
+        double ay = (double) p1.getY() - p0.getY();
+        double az = (double) p1.getZ() - p0.getZ();
+        double bx = (double) p2.getX() - p0.getX();
+        double by = (double) p2.getY() - p0.getY();
+        double bz = (double) p2.getZ() - p0.getZ();
+        double cx = ay * bz - az * by;
+        double cy = az * bx - ax * bz;
+        double cz = ax * by - ay * bx;
+        ImmutableVector3 normal = source.getNormal();
+        if (cx * normal.getX() + cy * normal.getY() + cz * normal.getZ() < 0.0) {
+            cx = -cx;
+            cy = -cy;
+            cz = -cz;
+        }
+
+        // rows of the inverse of (e1 e2 c) are (e2 x c), (c x e1) and (e1 x e2) divided by the determinant
+        double det = ax * (by * cz - bz * cy) + ay * (bz * cx - bx * cz) + az * (bx * cy - by * cx);
+        double invDet = det != 0.0 ? 1.0 / det : 0.0;
+        u0 = (float) ((by * cz - bz * cy) * invDet);
+        u1 = (float) ((bz * cx - bx * cz) * invDet);
+        u2 = (float) ((bx * cy - by * cx) * invDet);
+        u3 = (float) -(u0 * (double) p0.getX() + u1 * (double) p0.getY() + u2 * (double) p0.getZ());
+        v0 = (float) ((cy * az - cz * ay) * invDet);
+        v1 = (float) ((cz * ax - cx * az) * invDet);
+        v2 = (float) ((cx * ay - cy * ax) * invDet);
+        v3 = (float) -(v0 * (double) p0.getX() + v1 * (double) p0.getY() + v2 * (double) p0.getZ());
+        w0 = (float) ((ay * bz - az * by) * invDet);
+        w1 = (float) ((az * bx - ax * bz) * invDet);
+        w2 = (float) ((ax * by - ay * bx) * invDet);
+        w3 = (float) -(w0 * (double) p0.getX() + w1 * (double) p0.getY() + w2 * (double) p0.getZ());
+    }
+
+
+    /**
+     * @return the given primitives with all triangles replaced by their precomputed counterparts.
+     */
+    public static List<Geometry> precompute(List<Geometry> geometry) {
+        List<Geometry> result = new ArrayList<>(geometry.size());
+        for (Geometry primitive : geometry) {
+            if (primitive instanceof Triangle && !(primitive instanceof WoopTriangle)) {
+                result.add(new WoopTriangle((Triangle) primitive));
+            } else {
+                result.add(primitive);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * @return the given primitives with all precomputed triangles replaced by their sources.
+     */
+    public static List<Geometry> restore(List<Geometry> geometry) {
+        List<Geometry> result = new ArrayList<>(geometry.size());
+        for (Geometry primitive : geometry) {
+            result.add(primitive instanceof WoopTriangle ? ((WoopTriangle) primitive).getSource() : primitive);
+        }
+        return result;
+    }
+
+
+    public Triangle getSource() {
+        return source;
+    }
+
+
+    /**
+     * Same acceptance as {@link Triangle#intersect(Ray)} up to rounding: back faces are culled for opaque rays, rays
+     * parallel to the triangle are missed and the distance is returned without checking the ray interval.
+     */
+    @Override
+    public float intersect(Ray ray) {
+        ChromaStatistics.intersectOp();
+        float dx = ray.getDirectionX();
+        float dy = ray.getDirectionY();
+        float dz = ray.getDirectionZ();
+
+        float directionW = w0 * dx + w1 * dy + w2 * dz;
+        if (directionW == 0.0f || (directionW > 0.0f && !ray.isTransparent())) {
+            return 0.f;
+        }
+
+        float ox = ray.getOriginX();
+        float oy = ray.getOriginY();
+        float oz = ray.getOriginZ();
+        float distance = -(w0 * ox + w1 * oy + w2 * oz + w3) / directionW;
+
+        float u = u0 * ox + u1 * oy + u2 * oz + u3 + distance * (u0 * dx + u1 * dy + u2 * dz);
+        if (u < 0.0f || u > 1.0f) {
+            return 0.f;
+        }
+        float v = v0 * ox + v1 * oy + v2 * oz + v3 + distance * (v0 * dx + v1 * dy + v2 * dz);
+        if (v < 0.0f || u + v > 1.0f) {
+            return 0.f;
+        }
+        return distance;
+    }
+
+
+    @Override
+    public ImmutableVector3 getP0() {
+        return source.getP0();
+    }
+
+
+    @Override
+    public ImmutableVector3 getP1() {
+        return source.getP1();
+    }
+
+
+    @Override
+    public ImmutableVector3 getP2() {
+        return source.getP2();
+    }
+
+
+    @Override
+    public ImmutableVector3 getNormal() {
+        return source.getNormal();
+    }
+
+
+    @Override
+    public ImmutableVector3 getNormal(ImmutableVector3 hitpoint) {
+        return source.getNormal(hitpoint);
+    }
+
+
+    @Override
+    public boolean hasVertexNormals() {
+        return source.hasVertexNormals();
+    }
+
+
+    @Override
+    public ImmutableVector3 getShadingNormal(ImmutableVector3 hitpoint) {
+        return source.getShadingNormal(hitpoint);
+    }
+
+
+    @Override
+    public WoopTriangle transpose(Vector3 transpose) {
+        return new WoopTriangle(source.transpose(transpose));
+    }
+
+
+    @Override
+    public WoopTriangle rotate(ImmutableMatrix3x3 rotationY) {
+        return new WoopTriangle(source.rotate(rotationY));
+    }
+
+
+    @Override
+    public WoopTriangle[] subdivide() {
+        Triangle[] parts = source.subdivide();
+        WoopTriangle[] result = new WoopTriangle[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = new WoopTriangle(parts[i]);
+        }
+        return result;
+    }
+
+
+    @Override
+    public Material getMaterial() {
+        return source.getMaterial();
+    }
+
+
+    @Override
+    public void setMaterial(Material material) {
+        source.setMaterial(material);
+    }
+
+
+    @Override
+    public float getArea() {
+        return source.getArea();
+    }
+
+
+    @Override
+    public ImmutableVector3 getUnifDistrSample() {
+        return source.getUnifDistrSample();
+    }
+
+
+    @Override
+    public ImmutableVector3 getSpatialMinimum() {
+        return source.getSpatialMinimum();
+    }
+
+
+    @Override
+    public ImmutableVector3 getSpatialMaximum() {
+        return source.getSpatialMaximum();
+    }
+}
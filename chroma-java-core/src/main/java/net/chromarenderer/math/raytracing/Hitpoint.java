@@ -17,14 +17,25 @@ public class Hitpoint {
     private float distance;
     private final ImmutableVector3 point;
     private final ImmutableVector3 hitpointNormal;
+    private final ImmutableVector3 shadingNormal;
     private final float inverseSampleWeight;
 
 
     public Hitpoint(Geometry hitGeometry, float distance, ImmutableVector3 point, ImmutableVector3 hitpointNormal) {
+        this(hitGeometry, distance, point, hitpointNormal, hitpointNormal);
+    }
+
+
+    /**
+     * @param shadingNormal interpolated normal for shading, the geometric {@code hitpointNormal} stays in charge of
+     *                      telling front from back side and offsetting rays.
+     */
+    public Hitpoint(Geometry hitGeometry, float distance, ImmutableVector3 point, ImmutableVector3 hitpointNormal, ImmutableVector3 shadingNormal) {
         this.hitGeometry = hitGeometry;
         this.distance = distance;
         this.point = point;
         this.hitpointNormal = hitpointNormal;
+        this.shadingNormal = shadingNormal;
         this.inverseSampleWeight = 1.0f;
     }
 
@@ -33,6 +44,7 @@ public class Hitpoint {
         this.hitGeometry = hitGeometry;
         this.point = point;
         this.hitpointNormal = hitpointNormal;
+        this.shadingNormal = hitpointNormal;
         this.inverseSampleWeight = inverseSampleWeight;
     }
 
@@ -47,13 +59,18 @@ public class Hitpoint {
     }
 
 
+    public ImmutableVector3 getShadingNormal() {
+        return shadingNormal;
+    }
+
+
     public Geometry getHitGeometry() {
         return hitGeometry;
     }
 
 
     public CoordinateSystem getCoordinateSystem() {
-        return VectorUtils.buildCoordSystem(hitpointNormal);
+        return VectorUtils.buildCoordSystem(shadingNormal);
     }
 
 
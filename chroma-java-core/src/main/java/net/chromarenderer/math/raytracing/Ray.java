@@ -11,19 +11,24 @@ import net.chromarenderer.math.geometry.Geometry;
 public class Ray {
 
     public static final Ray NOWHERE = new Ray(Vector3.FLT_MAX, Vector3.Z_AXIS);
-    private final ImmutableVector3 origin;
-    private final ImmutableVector3 direction;
-    private final ImmutableVector3 invDirection;
-    private final float tMin;
-    private final float tMax;
+
+    // components are kept as primitives, vectors are only created on request
+    private float originX, originY, originZ;
+    private float directionX, directionY, directionZ;
+    private float invDirectionX, invDirectionY, invDirectionZ;
+    private ImmutableVector3 origin;
+    private ImmutableVector3 direction;
+    private ImmutableVector3 invDirection;
+    private float tMin;
+    private float tMax;
     private float sampleWeight = 1.0f;
 
     // if the direction is negative, sign = 1
-    private final byte signX;
-    private final byte signY;
-    private final byte signZ;
+    private byte signX;
+    private byte signY;
+    private byte signZ;
     private Geometry lastHitGeomerty;
-    private final boolean transparent;
+    private boolean transparent;
 
 
     public Ray(ImmutableVector3 origin, ImmutableVector3 direction) {
@@ -32,34 +37,121 @@ public class Ray {
 
 
     public Ray(ImmutableVector3 origin, ImmutableVector3 direction, float tMin, float tMax, boolean transparent) {
+        init(origin.getX(), origin.getY(), origin.getZ(), direction.getX(), direction.getY(), direction.getZ(), tMin, tMax, transparent);
         this.origin = origin;
         this.direction = direction;
-        invDirection = new ImmutableVector3(1.f / direction.getX(), 1.f / direction.getY(), 1.f / direction.getZ());
+    }
+
+
+    /**
+     * Reinitializes this ray in place, for kernels which reuse one ray object per bounce instead of allocating new ones.
+     * Sample weight and mailbox are reset. The shared {@link #NOWHERE} ray must not be reinitialized.
+     */
+    public Ray set(float originX, float originY, float originZ, float directionX, float directionY, float directionZ,
+                   float tMin, float tMax, boolean transparent) {
+        if (this == NOWHERE) {
+            throw new IllegalStateException("Ray.NOWHERE is shared and must not be reinitialized");
+        }
+        return init(originX, originY, originZ, directionX, directionY, directionZ, tMin, tMax, transparent);
+    }
+
+
+    private Ray init(float originX, float originY, float originZ, float directionX, float directionY, float directionZ,
+                     float tMin, float tMax, boolean transparent) {
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+        this.directionX = directionX;
+        this.directionY = directionY;
+        this.directionZ = directionZ;
+        this.invDirectionX = 1.f / directionX;
+        this.invDirectionY = 1.f / directionY;
+        this.invDirectionZ = 1.f / directionZ;
+        this.origin = null;
+        this.direction = null;
+        this.invDirection = null;
         this.tMin = tMin;
         this.tMax = tMax;
-        this.signX = (byte) (invDirection.getX() < 0 ? 1 : 0);
-        this.signY = (byte) (invDirection.getY() < 0 ? 1 : 0);
-        this.signZ = (byte) (invDirection.getZ() < 0 ? 1 : 0);
+        this.signX = (byte) (invDirectionX < 0 ? 1 : 0);
+        this.signY = (byte) (invDirectionY < 0 ? 1 : 0);
+        this.signZ = (byte) (invDirectionZ < 0 ? 1 : 0);
         this.transparent = transparent;
+        this.sampleWeight = 1.0f;
+        this.lastHitGeomerty = null;
+        return this;
     }
 
 
     public ImmutableVector3 getOrigin() {
+        if (origin == null) {
+            origin = new ImmutableVector3(originX, originY, originZ);
+        }
         return origin;
     }
 
 
     public ImmutableVector3 getDirection() {
+        if (direction == null) {
+            direction = new ImmutableVector3(directionX, directionY, directionZ);
+        }
         return direction;
     }
 
 
     public ImmutableVector3 getInvDirection() {
+        if (invDirection == null) {
+            invDirection = new ImmutableVector3(invDirectionX, invDirectionY, invDirectionZ);
+        }
         return invDirection;
     }
 
+
+    public float getOriginX() {
+        return originX;
+    }
+
+
+    public float getOriginY() {
+        return originY;
+    }
+
+
+    public float getOriginZ() {
+        return originZ;
+    }
+
+
+    public float getDirectionX() {
+        return directionX;
+    }
+
+
+    public float getDirectionY() {
+        return directionY;
+    }
+
+
+    public float getDirectionZ() {
+        return directionZ;
+    }
+
+
+    public float getInvDirectionX() {
+        return invDirectionX;
+    }
+
+
+    public float getInvDirectionY() {
+        return invDirectionY;
+    }
+
+
+    public float getInvDirectionZ() {
+        return invDirectionZ;
+    }
+
     public ImmutableVector3 getBackwardsDirection() {
-        return direction.mult(-1.0f);
+        return new ImmutableVector3(-directionX, -directionY, -directionZ);
     }
 
 
@@ -74,7 +166,7 @@ public class Ray {
 
 
     public ImmutableVector3 onRay(float t) {
-        return origin.plus(direction.mult(t));
+        return new ImmutableVector3(originX + directionX * t, originY + directionY * t, originZ + directionZ * t);
     }
 
 
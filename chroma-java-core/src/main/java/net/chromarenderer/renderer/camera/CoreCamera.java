@@ -18,6 +18,16 @@ public interface CoreCamera extends Camera {
 
     Ray getRay(int x, int y);
 
+    /**
+     * Same as {@link #getRay(int, int)}, reinitializing the given ray instead of creating a new one.
+     */
+    default Ray getRay(int x, int y, Ray ray) {
+        Ray cameraRay = getRay(x, y);
+        return ray.set(cameraRay.getOriginX(), cameraRay.getOriginY(), cameraRay.getOriginZ(),
+                cameraRay.getDirectionX(), cameraRay.getDirectionY(), cameraRay.getDirectionZ(),
+                cameraRay.getTMin(), cameraRay.getTMax(), cameraRay.isTransparent());
+    }
+
     void move(Vector3 mutableVector3, Vector3 rotation);
 
     ImmutableVector3 getPosition();
@@ -67,6 +67,24 @@ public class PinholeCamera implements CoreCamera {
     }
 
 
+    @Override
+    public Ray getRay(int x, int y, Ray ray) {
+        float subSampleX = ChromaThreadContext.randomFloatClosedOpen();
+        float subSampleY = ChromaThreadContext.randomFloatClosedOpen();
+
+        float dx = ((x + subSampleX) * pixelSizeX) - shiftX;
+        float dy = ((y + subSampleY) * pixelSizeY) - shiftY;
+        float dz = -focalDistance;
+        float recLength = 1.0f / (float) FastMath.sqrt(dx * dx + dy * dy + dz * dz);
+        dx *= recLength;
+        dy *= recLength;
+        dz *= recLength;
+        ImmutableMatrix3x3 rotation = coordinateSystem;
+        return ray.set(position.getX(), position.getY(), position.getZ(),
+                rotation.multX(dx, dy, dz), rotation.multY(dx, dy, dz), rotation.multZ(dx, dy, dz), 0, Float.MAX_VALUE, false);
+    }
+
+
     @Override
     public void move(Vector3 translation, Vector3 rotationVector) {
         position = position.plus(coordinateSystem.mult(translation));
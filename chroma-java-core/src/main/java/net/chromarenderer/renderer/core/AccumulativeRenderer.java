@@ -28,7 +28,13 @@ abstract class AccumulativeRenderer extends ChromaCanvas implements Renderer {
 
     @Override
     public void renderNextImage() {
-        if (settings.isMultiThreaded()) {
+        if (settings.isRaySortingEnabled()) {
+            ImageTiles.forEachTile(settings, ImageTiles.SORTING_TILE_SIZE, this::renderTileWithSortedRays);
+        }
+        else if (settings.isPacketTracingEnabled()) {
+            ImageTiles.forEachTile(settings, this::renderTile);
+        }
+        else if (settings.isMultiThreaded()) {
             IntStream.range(0, settings.getImgHeight()).parallel().forEach(j ->
                     IntStream.range(0, settings.getImgWidth()).parallel().forEach(i -> {
                         renderPixel(j, i);
@@ -50,6 +56,26 @@ abstract class AccumulativeRenderer extends ChromaCanvas implements Renderer {
     protected abstract void renderPixel(int j, int i);
 
 
+    /**
+     * Renderers which benefit from tracing the camera rays of a tile as one packet override this.
+     */
+    protected void renderTile(int x, int y, int tileWidth, int tileHeight) {
+        for (int j = y; j < y + tileHeight; j++) {
+            for (int i = x; i < x + tileWidth; i++) {
+                renderPixel(j, i);
+            }
+        }
+    }
+
+
+    /**
+     * Renderers tracing secondary rays override this to trace them of the whole tile at once, sorted for coherence.
+     */
+    protected void renderTileWithSortedRays(int x, int y, int tileWidth, int tileHeight) {
+        renderTile(x, y, tileWidth, tileHeight);
+    }
+
+
     @Override
     public void flush() {
         flushCanvas();
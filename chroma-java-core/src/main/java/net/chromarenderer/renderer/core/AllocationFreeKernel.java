@@ -0,0 +1,357 @@
+package net.chromarenderer.renderer.core;
+
+import net.chromarenderer.ChromaSettings;
+import net.chromarenderer.math.Constants;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.MutableVector3;
+import net.chromarenderer.math.Vector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.geometry.Triangle;
+import net.chromarenderer.math.raytracing.Hitpoint;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.scene.ChromaScene;
+import net.chromarenderer.renderer.scene.Radiance;
+import net.chromarenderer.renderer.scene.acc.IntersectionContext;
+import net.chromarenderer.renderer.shader.Material;
+import net.chromarenderer.renderer.shader.MaterialType;
+import net.chromarenderer.renderer.shader.ShaderEngine;
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * Same estimator as the path kernel of {@link MonteCarloPathTracer}, working on mutable state owned by one worker
+ * thread: one camera ray and one shadow ray reinitialized in place, an {@link IntersectionContext} and primitive
+ * scratch values instead of {@link Hitpoint}s, {@link Radiance}s and intermediate vectors. Diffuse, mirror and emitting
+ * surfaces are shaded inline and trace without any allocation on triangle scenes; all other materials go through the
+ * {@link ShaderEngine} and allocate as usual.
+ *
+ * @author bensteinert
+ */
+final class AllocationFreeKernel {
+
+    private final ChromaSettings settings;
+    private final ChromaScene scene;
+    private final Ray ray = new Ray(Vector3.FLT_MAX, Vector3.Z_AXIS);
+    private final Ray shadowRay = new Ray(Vector3.FLT_MAX, Vector3.Z_AXIS);
+    private final IntersectionContext context = new IntersectionContext();
+    private final float[] shadingPoint = new float[6];
+    private final float[] geometricNormal = new float[3];
+    private final float[] lightSample = new float[7];
+
+    private Geometry hitGeometry;
+    private float hitDistance;
+    private Hitpoint hitpoint;
+    private float weightR, weightG, weightB;
+    private float resultR, resultG, resultB;
+    // radiance of the last direct light estimation and contribution of the last BRDF sample
+    private float directR, directG, directB;
+    private float brdfR, brdfG, brdfB;
+
+
+    AllocationFreeKernel(ChromaSettings settings, ChromaScene scene) {
+        this.settings = settings;
+        this.scene = scene;
+    }
+
+
+    void renderPixel(int x, int y, MutableVector3 pixel) {
+        scene.getCamera().getRay(x, y, ray);
+        boolean directLightEstimation = settings.isDirectLightEstimationEnabled();
+        int maxDepth = directLightEstimation ? settings.getMaxRayDepth() - 1 : settings.getMaxRayDepth();
+        weightR = weightG = weightB = 1.0f;
+        resultR = resultG = resultB = 0.0f;
+
+        int depth = 0;
+        do {
+            scene.intersect(ray, context);
+            depth++;
+            if (context.hitGeometry == null) {
+                break;
+            }
+            initHitpoint();
+
+            Material material = hitGeometry.getMaterial();
+            if (directLightEstimation) {
+                sampleDirectRadiance(material);
+                if (depth == 1) {
+                    // Add Le - power is 0 if not emitting
+                    ImmutableVector3 color = material.getColor();
+                    resultR += color.getX() * material.getPower() + directR;
+                    resultG += color.getY() * material.getPower() + directG;
+                    resultB += color.getZ() * material.getPower() + directB;
+                    sampleBrdf(material);
+                    weightR *= brdfR;
+                    weightG *= brdfG;
+                    weightB *= brdfB;
+                } else {
+                    resultR += directR * weightR;
+                    resultG += directG * weightG;
+                    resultB += directB * weightB;
+                    sampleBrdfWithRussianRoulette(material);
+                }
+            } else {
+                // L = Le + ∫ fr * Li
+                if (material.getType() == MaterialType.EMITTING) {
+                    ImmutableVector3 color = material.getColor();
+                    resultR += color.getX() * material.getPower() * weightR;
+                    resultG += color.getY() * material.getPower() * weightG;
+                    resultB += color.getZ() * material.getPower() * weightB;
+                }
+                sampleBrdfWithRussianRoulette(material);
+            }
+        } while (FastMath.max(weightR, FastMath.max(weightG, weightB)) > Constants.FLT_EPSILON && depth <= maxDepth);
+
+        pixel.set(resultR, resultG, resultB);
+    }
+
+
+    private void initHitpoint() {
+        hitGeometry = context.hitGeometry;
+        hitDistance = context.hitDistance;
+        hitpoint = null;
+        shadingPoint[0] = ray.getOriginX() + ray.getDirectionX() * hitDistance;
+        shadingPoint[1] = ray.getOriginY() + ray.getDirectionY() * hitDistance;
+        shadingPoint[2] = ray.getOriginZ() + ray.getDirectionZ() * hitDistance;
+        ImmutableVector3 point = null;
+        ImmutableVector3 normal;
+        if (hitGeometry instanceof Triangle) {
+            normal = ((Triangle) hitGeometry).getNormal();
+        } else {
+            point = new ImmutableVector3(shadingPoint[0], shadingPoint[1], shadingPoint[2]);
+            normal = hitGeometry.getNormal(point);
+        }
+        geometricNormal[0] = normal.getX();
+        geometricNormal[1] = normal.getY();
+        geometricNormal[2] = normal.getZ();
+        // interpolating vertex normals allocates, flat triangles keep the kernel free of allocations
+        if (!(hitGeometry instanceof Triangle) || ((Triangle) hitGeometry).hasVertexNormals()) {
+            normal = hitGeometry.getShadingNormal(point != null ? point : new ImmutableVector3(shadingPoint[0], shadingPoint[1], shadingPoint[2]));
+        }
+        shadingPoint[3] = normal.getX();
+        shadingPoint[4] = normal.getY();
+        shadingPoint[5] = normal.getZ();
+    }
+
+
+    private float dotGeometricNormal(float x, float y, float z) {
+        return x * geometricNormal[0] + y * geometricNormal[1] + z * geometricNormal[2];
+    }
+
+
+    private void sampleBrdfWithRussianRoulette(Material material) {
+        sampleBrdf(material);
+        float russianRoulette = MonteCarloPathTracer.russianRoulette();
+        weightR *= russianRoulette * brdfR;
+        weightG *= russianRoulette * brdfG;
+        weightB *= russianRoulette * brdfB;
+    }
+
+
+    private void sampleDirectRadiance(Material material) {
+        switch (material.getType()) {
+            case DIFFUSE:
+                sampleDiffuseDirectRadiance(material);
+                break;
+            case MIRROR:
+                sampleMirrorDirectRadiance();
+                break;
+            case EMITTING:
+                directR = directG = directB = 0.0f;
+                break;
+            default:
+                Vector3 contribution = ShaderEngine.getDirectRadiance(getHitpoint(), ray).getContribution();
+                directR = contribution.getX();
+                directG = contribution.getY();
+                directB = contribution.getZ();
+        }
+    }
+
+
+    /**
+     * Samples the next ray into {@link #ray}, the contribution of the BRDF sample goes to {@link #brdfR} and friends.
+     */
+    private void sampleBrdf(Material material) {
+        switch (material.getType()) {
+            case DIFFUSE:
+                sampleCosineDistributedHemisphere();
+                ImmutableVector3 color = material.getColor();
+                brdfR = color.getX();
+                brdfG = color.getY();
+                brdfB = color.getZ();
+                break;
+            case MIRROR:
+                sampleMirrorDirection(ray);
+                brdfR = brdfG = brdfB = 1.0f;
+                break;
+            case EMITTING:
+                brdfR = brdfG = brdfB = 0.0f;
+                break;
+            default:
+                Radiance fr = ShaderEngine.sampleBrdf(getHitpoint(), ray);
+                Vector3 contribution = fr.getContribution();
+                brdfR = contribution.getX();
+                brdfG = contribution.getY();
+                brdfB = contribution.getZ();
+                Ray lightRay = fr.getLightRay();
+                Geometry mailbox = lightRay.getLastHitGeomerty();
+                ray.set(lightRay.getOriginX(), lightRay.getOriginY(), lightRay.getOriginZ(),
+                        lightRay.getDirectionX(), lightRay.getDirectionY(), lightRay.getDirectionZ(),
+                        lightRay.getTMin(), lightRay.getTMax(), lightRay.isTransparent());
+                ray.mailbox(mailbox);
+        }
+    }
+
+
+    /**
+     * Same as the direct radiance of the diffuse shader.
+     */
+    private void sampleDiffuseDirectRadiance(Material material) {
+        directR = directG = directB = 0.0f;
+        Geometry lightSource = scene.getLightSourceSample(shadingPoint, lightSample);
+        if (lightSource == null) {
+            return;
+        }
+        float dx = shadingPoint[0] - lightSample[0];
+        float dy = shadingPoint[1] - lightSample[1];
+        float dz = shadingPoint[2] - lightSample[2];
+        float distToLight = (float) FastMath.sqrt(dx * dx + dy * dy + dz * dz);
+        dx /= distToLight;
+        dy /= distToLight;
+        dz /= distToLight;
+        float cosThetaContribHit = dx * lightSample[3] + dy * lightSample[4] + dz * lightSample[5];
+        float cosThetaSceneHit = -(dx * shadingPoint[3] + dy * shadingPoint[4] + dz * shadingPoint[5]);
+        if (cosThetaSceneHit < 0.0f || cosThetaContribHit < 0.0f || dotGeometricNormal(dx, dy, dz) >= 0.0f) {
+            return;
+        }
+
+        shadowRay.set(lightSample[0], lightSample[1], lightSample[2], dx, dy, dz,
+                Constants.FLT_EPSILON, distToLight - Constants.FLT_EPSILON, false);
+        shadowRay.mailbox(hitGeometry);
+        if (scene.isObstructed(shadowRay)) {
+            return;
+        }
+
+        float geomTerm = (cosThetaSceneHit * cosThetaContribHit) / (distToLight * distToLight);
+        ImmutableVector3 rhoDiffuse = material.getColor();
+        float precisionBound = 10.0f / rhoDiffuse.getMaxValue();
+        Material emitting = lightSource.getMaterial();
+        ImmutableVector3 emittingColor = emitting.getColor();
+        float factor = FastMath.min(precisionBound, geomTerm) / Constants.PI_f * emitting.getPower() * lightSample[6];
+        directR = rhoDiffuse.getX() * emittingColor.getX() * factor;
+        directG = rhoDiffuse.getY() * emittingColor.getY() * factor;
+        directB = rhoDiffuse.getZ() * emittingColor.getZ() * factor;
+    }
+
+
+    /**
+     * Same as the direct radiance of the mirror shader: the mirrored ray has to hit a light source.
+     */
+    private void sampleMirrorDirectRadiance() {
+        directR = directG = directB = 0.0f;
+        sampleMirrorDirection(shadowRay);
+        scene.intersect(shadowRay, context);
+        if (context.hitGeometry != null) {
+            Material material = context.hitGeometry.getMaterial();
+            if (material.getType() == MaterialType.EMITTING) {
+                ImmutableVector3 color = material.getColor();
+                float factor = material.getPower() * (1.0f - Constants.FLT_EPSILON);
+                directR = color.getX() * factor;
+                directG = color.getY() * factor;
+                directB = color.getZ() * factor;
+            }
+        }
+    }
+
+
+    private void sampleMirrorDirection(Ray target) {
+        float nx = shadingPoint[3];
+        float ny = shadingPoint[4];
+        float nz = shadingPoint[5];
+        // R = 2 * N * dot(N, -D) + D
+        float projectedLength = -(nx * ray.getDirectionX() + ny * ray.getDirectionY() + nz * ray.getDirectionZ());
+        float rx = nx * 2.0f * projectedLength + ray.getDirectionX();
+        float ry = ny * 2.0f * projectedLength + ray.getDirectionY();
+        float rz = nz * 2.0f * projectedLength + ray.getDirectionZ();
+        if (dotGeometricNormal(rx, ry, rz) <= 0.0f) {
+            nx = geometricNormal[0];
+            ny = geometricNormal[1];
+            nz = geometricNormal[2];
+            projectedLength = -(nx * ray.getDirectionX() + ny * ray.getDirectionY() + nz * ray.getDirectionZ());
+            rx = nx * 2.0f * projectedLength + ray.getDirectionX();
+            ry = ny * 2.0f * projectedLength + ray.getDirectionY();
+            rz = nz * 2.0f * projectedLength + ray.getDirectionZ();
+        }
+        target.set(shadingPoint[0], shadingPoint[1], shadingPoint[2], rx, ry, rz,
+                Constants.FLT_EPSILON, Float.MAX_VALUE, false);
+        target.mailbox(hitGeometry);
+    }
+
+
+    /**
+     * Same sample as the diffuse shader, with the tangent frame of the normal built from plain floats.
+     */
+    private void sampleCosineDistributedHemisphere() {
+        float u = ChromaThreadContext.randomFloatClosedOpen();
+        float v = ChromaThreadContext.randomFloatClosedOpen();
+        float sqrtU = (float) FastMath.sqrt(u);
+        float v2pi = v * Constants.TWO_PI_f;
+        float sampleX = (float) FastMath.cos(v2pi) * sqrtU;
+        float sampleY = (float) FastMath.sin(v2pi) * sqrtU;
+        float sampleZ = (float) FastMath.sqrt(1.0f - u);
+
+        float nx = shadingPoint[3];
+        float ny = shadingPoint[4];
+        float nz = shadingPoint[5];
+        // t1 = normal with its smallest component set to one, crossed with the normal
+        float ax = FastMath.abs(nx);
+        float ay = FastMath.abs(ny);
+        float az = FastMath.abs(nz);
+        int minIndex = ax < ay ? (az < ax ? 2 : 0) : (az < ay ? 2 : 1);
+        float sx = minIndex == 0 ? 1.0f : nx;
+        float sy = minIndex == 1 ? 1.0f : ny;
+        float sz = minIndex == 2 ? 1.0f : nz;
+        float t1x = sy * nz - sz * ny;
+        float t1y = sz * nx - sx * nz;
+        float t1z = sx * ny - sy * nx;
+        float recLength = 1.0f / (float) FastMath.sqrt(t1x * t1x + t1y * t1y + t1z * t1z);
+        t1x *= recLength;
+        t1y *= recLength;
+        t1z *= recLength;
+        float t2x = ny * t1z - nz * t1y;
+        float t2y = nz * t1x - nx * t1z;
+        float t2z = nx * t1y - ny * t1x;
+        recLength = 1.0f / (float) FastMath.sqrt(t2x * t2x + t2y * t2y + t2z * t2z);
+        t2x *= recLength;
+        t2y *= recLength;
+        t2z *= recLength;
+
+        float dx = t1x * sampleX + t2x * sampleY + nx * sampleZ;
+        float dy = t1y * sampleX + t2y * sampleY + ny * sampleZ;
+        float dz = t1z * sampleX + t2z * sampleY + nz * sampleZ;
+        // samples around the shading normal can point below the surface, mirror them back
+        float belowSurface = dotGeometricNormal(dx, dy, dz);
+        if (belowSurface < 0.0f) {
+            dx -= geometricNormal[0] * 2.0f * belowSurface;
+            dy -= geometricNormal[1] * 2.0f * belowSurface;
+            dz -= geometricNormal[2] * 2.0f * belowSurface;
+        }
+        recLength = 1.0f / (float) FastMath.sqrt(dx * dx + dy * dy + dz * dz);
+        ray.set(shadingPoint[0], shadingPoint[1], shadingPoint[2], dx * recLength, dy * recLength, dz * recLength,
+                Constants.FLT_EPSILON, Float.MAX_VALUE, false);
+        // prevent reintersection for the same surface
+        ray.mailbox(hitGeometry);
+    }
+
+
+    /**
+     * Hitpoint object for shaders without an inline implementation, created at most once per bounce.
+     */
+    private Hitpoint getHitpoint() {
+        if (hitpoint == null) {
+            hitpoint = new Hitpoint(hitGeometry, hitDistance,
+                    new ImmutableVector3(shadingPoint[0], shadingPoint[1], shadingPoint[2]),
+                    new ImmutableVector3(geometricNormal[0], geometricNormal[1], geometricNormal[2]),
+                    new ImmutableVector3(shadingPoint[3], shadingPoint[4], shadingPoint[5]));
+        }
+        return hitpoint;
+    }
+}
@@ -0,0 +1,72 @@
+package net.chromarenderer.renderer.core;
+
+import net.chromarenderer.ChromaSettings;
+import net.chromarenderer.math.raytracing.Hitpoint;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.scene.ChromaScene;
+
+import java.util.stream.IntStream;
+
+/**
+ * Splits the image into square tiles whose camera rays are coherent enough to be traced as one packet.
+ *
+ * @author bensteinert
+ */
+final class ImageTiles {
+
+    static final int TILE_SIZE = 8;
+
+    // tiles whose secondary rays are sorted are larger, sorting a handful of rays does not gain coherence
+    static final int SORTING_TILE_SIZE = 32;
+
+
+    interface TileRenderer {
+        void renderTile(int x, int y, int tileWidth, int tileHeight);
+    }
+
+
+    private ImageTiles() {
+    }
+
+
+    static void forEachTile(ChromaSettings settings, TileRenderer renderer) {
+        forEachTile(settings, TILE_SIZE, renderer);
+    }
+
+
+    static void forEachTile(ChromaSettings settings, int tileSize, TileRenderer renderer) {
+        int width = settings.getImgWidth();
+        int height = settings.getImgHeight();
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+
+        IntStream tiles = IntStream.range(0, tilesX * tilesY);
+        if (settings.isMultiThreaded()) {
+            tiles = tiles.parallel();
+        }
+        tiles.forEach(tile -> {
+            int x = (tile % tilesX) * tileSize;
+            int y = (tile / tilesX) * tileSize;
+            renderer.renderTile(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+        });
+    }
+
+
+    /**
+     * Creates the camera rays of a tile row by row and intersects them together. A tile of {@link #TILE_SIZE} fits into
+     * one ray packet of a {@link net.chromarenderer.renderer.scene.GeometryScene}, larger tiles are split into packet
+     * sized blocks. Other scenes intersect the rays one by one.
+     *
+     * @return the number of rays stored in {@code rays} and {@code hitpoints}.
+     */
+    static int traceCameraRays(ChromaScene scene, int x, int y, int tileWidth, int tileHeight, Ray[] rays, Hitpoint[] hitpoints) {
+        int count = 0;
+        for (int j = y; j < y + tileHeight; j++) {
+            for (int i = x; i < x + tileWidth; i++) {
+                rays[count++] = scene.getCamera().getRay(i, j);
+            }
+        }
+        scene.intersect(rays, count, hitpoints);
+        return count;
+    }
+}
@@ -16,94 +16,174 @@ import net.chromarenderer.renderer.shader.ShaderEngine;
  */
 public class MonteCarloPathTracer extends AccumulativeRenderer  {
 
+    private final ThreadLocal<AllocationFreeKernel> allocationFreeKernels;
+
+
     public MonteCarloPathTracer(ChromaSettings settings, ChromaScene scene) {
         super(settings, scene);
+        allocationFreeKernels = ThreadLocal.withInitial(() -> new AllocationFreeKernel(settings, scene));
     }
 
 
     protected void renderPixel(int j, int i) {
+        if (settings.isAllocationFreeKernelEnabled()) {
+            allocationFreeKernels.get().renderPixel(i, j, pixels[width * j + i]);
+            return;
+        }
         Ray cameraRay = scene.getCamera().getRay(i, j);
-        kernel(cameraRay, pixels[width * j + i]);
+        kernel(cameraRay, scene.intersect(cameraRay), pixels[width * j + i]);
     }
 
 
-    private void kernel(Ray incomingRay, MutableVector3 pixel) {
-        pixel.reset();
-
-        if (settings.isDirectLightEstimationEnabled()) {
-            ptdlKernel(incomingRay, pixel);
-        }
-        else {
-            ptKernel(incomingRay, pixel);
+    /**
+     * The first bounce of all paths of a tile is intersected as one ray packet, the paths are continued one by one.
+     */
+    @Override
+    protected void renderTile(int x, int y, int tileWidth, int tileHeight) {
+        Ray[] cameraRays = new Ray[ImageTiles.TILE_SIZE * ImageTiles.TILE_SIZE];
+        Hitpoint[] hitpoints = new Hitpoint[cameraRays.length];
+        ImageTiles.traceCameraRays(scene, x, y, tileWidth, tileHeight, cameraRays, hitpoints);
+
+        int index = 0;
+        for (int j = y; j < y + tileHeight; j++) {
+            for (int i = x; i < x + tileWidth; i++) {
+                kernel(cameraRays[index], hitpoints[index], pixels[width * j + i]);
+                index++;
+            }
         }
     }
 
 
-    private void ptKernel(Ray incomingRay, MutableVector3 result) {
-        MutableVector3 pathWeight = new MutableVector3(1.f, 1.f, 1.f);
-        int depth = 0;
-        Hitpoint hitpoint;
-        // L = Le + ∫ fr * Li
-        while (pathWeight.getMaxValue() > Constants.FLT_EPSILON && depth <= settings.getMaxRayDepth()) {
-            // scene intersection
-            hitpoint = scene.intersect(incomingRay);
-            depth++;
+    /**
+     * Paths of the tile are extended bounce by bounce: the rays of all paths still alive are sorted by {@link RaySorter}
+     * and intersected in that order, the hitpoints are then handed back to their paths.
+     */
+    @Override
+    protected void renderTileWithSortedRays(int x, int y, int tileWidth, int tileHeight) {
+        int numberOfPaths = tileWidth * tileHeight;
+        Ray[] rays = new Ray[numberOfPaths];
+        Hitpoint[] hitpoints = new Hitpoint[numberOfPaths];
+        ImageTiles.traceCameraRays(scene, x, y, tileWidth, tileHeight, rays, hitpoints);
+
+        Path[] paths = new Path[numberOfPaths];
+        int index = 0;
+        for (int j = y; j < y + tileHeight; j++) {
+            for (int i = x; i < x + tileWidth; i++) {
+                paths[index] = new Path(rays[index], pixels[width * j + i]);
+                paths[index].extend(hitpoints[index]);
+                index++;
+            }
+        }
 
-            if (hitpoint.hit()) {
-                // Add Le
-                Material emitting = hitpoint.getHitGeometry().getMaterial();
-                if (MaterialType.EMITTING.equals(emitting.getType())) {
-                    result.plus(emitting.getEmittance().mult(pathWeight));
+        RaySorter sorter = new RaySorter(numberOfPaths);
+        int[] alive = new int[numberOfPaths];
+        int[] order = new int[numberOfPaths];
+        while (true) {
+            int count = 0;
+            for (int p = 0; p < numberOfPaths; p++) {
+                if (paths[p].isAlive()) {
+                    rays[count] = paths[p].ray;
+                    alive[count++] = p;
                 }
-
-                Radiance fr = ShaderEngine.sampleBrdf(hitpoint, incomingRay);
-                pathWeight = pathWeight.mult(russianRoulette()).mult(fr.getContribution());
-                incomingRay = fr.getLightRay();
-            } else {
+            }
+            if (count == 0) {
                 return;
             }
+
+            sorter.sort(rays, count, order);
+            for (int k = 0; k < count; k++) {
+                hitpoints[order[k]] = scene.intersect(rays[order[k]]);
+            }
+            for (int k = 0; k < count; k++) {
+                paths[alive[k]].extend(hitpoints[k]);
+            }
+        }
+    }
+
+
+    private void kernel(Ray incomingRay, Hitpoint firstHit, MutableVector3 pixel) {
+        Path path = new Path(incomingRay, pixel);
+        path.extend(firstHit);
+        while (path.isAlive()) {
+            path.extend(scene.intersect(path.ray));
         }
     }
 
 
-    private void ptdlKernel(Ray incomingRay, MutableVector3 result) {
-        MutableVector3 pathWeight = new MutableVector3(1.f, 1.f, 1.f);
-        int depth = 1;
-        Hitpoint hitpoint;
-        Radiance fr;
-        hitpoint = scene.intersect(incomingRay);
-        if (hitpoint.hit()) {
+    /**
+     * State of one path, either plain path tracing or path tracing with direct light estimation at every hitpoint.
+     */
+    private final class Path {
 
-            Material material = hitpoint.getHitGeometry().getMaterial();
+        private final MutableVector3 result;
+        private final boolean directLightEstimation = settings.isDirectLightEstimationEnabled();
+        private MutableVector3 pathWeight = new MutableVector3(1.f, 1.f, 1.f);
+        private Ray ray;
+        private int depth = 0;
+        private boolean terminated = false;
 
-            // Add Le - getEmittance() returns 0 if not emitting
-            result.plus(material.getEmittance());
 
-            Radiance irradiance = ShaderEngine.getDirectRadiance(hitpoint, incomingRay);
-            result.plus(irradiance.getContribution());
+        Path(Ray cameraRay, MutableVector3 pixel) {
+            ray = cameraRay;
+            result = pixel;
+            result.reset();
+        }
 
-            fr = ShaderEngine.sampleBrdf(hitpoint, incomingRay);
-            pathWeight = pathWeight.mult(fr.getContribution());
-            incomingRay = fr.getLightRay();
 
-            while (pathWeight.getMaxValue() > Constants.FLT_EPSILON && depth < settings.getMaxRayDepth()) {
-                hitpoint = scene.intersect(incomingRay);
-                depth++;
-                if (hitpoint.hit()) {
-                    irradiance = ShaderEngine.getDirectRadiance(hitpoint, incomingRay);
-                    result.plus(irradiance.getContribution().mult(pathWeight));
+        /**
+         * @return whether {@link #ray} is to be intersected and passed to {@link #extend(Hitpoint)}.
+         */
+        boolean isAlive() {
+            if (terminated) {
+                return false;
+            }
+            if (depth == 0) {
+                return true;
+            }
+            int maxDepth = directLightEstimation ? settings.getMaxRayDepth() - 1 : settings.getMaxRayDepth();
+            return pathWeight.getMaxValue() > Constants.FLT_EPSILON && depth <= maxDepth;
+        }
+
 
-                    fr = ShaderEngine.sampleBrdf(hitpoint, incomingRay);
+        /**
+         * Continues the path at the hitpoint of its current ray.
+         */
+        void extend(Hitpoint hitpoint) {
+            depth++;
+            if (!hitpoint.hit()) {
+                terminated = true;
+                return;
+            }
+
+            Material material = hitpoint.getHitGeometry().getMaterial();
+            Radiance fr;
+            if (directLightEstimation) {
+                Radiance irradiance = ShaderEngine.getDirectRadiance(hitpoint, ray);
+                if (depth == 1) {
+                    // Add Le - getEmittance() returns 0 if not emitting
+                    result.plus(material.getEmittance());
+                    result.plus(irradiance.getContribution());
+                    fr = ShaderEngine.sampleBrdf(hitpoint, ray);
+                    pathWeight = pathWeight.mult(fr.getContribution());
+                } else {
+                    result.plus(irradiance.getContribution().mult(pathWeight));
+                    fr = ShaderEngine.sampleBrdf(hitpoint, ray);
                     pathWeight = pathWeight.mult(russianRoulette()).mult(fr.getContribution());
-                    incomingRay = fr.getLightRay();
                 }
-                else return;
+            } else {
+                // L = Le + ∫ fr * Li
+                if (MaterialType.EMITTING.equals(material.getType())) {
+                    result.plus(material.getEmittance().mult(pathWeight));
+                }
+                fr = ShaderEngine.sampleBrdf(hitpoint, ray);
+                pathWeight = pathWeight.mult(russianRoulette()).mult(fr.getContribution());
             }
+            ray = fr.getLightRay();
         }
     }
 
 
-    private float russianRoulette() {
+    static float russianRoulette() {
         return ChromaThreadContext.randomFloatClosedOpen() > Constants.RR_LIMIT ? 0.f : 1.0f/Constants.RR_LIMIT;
     }
 
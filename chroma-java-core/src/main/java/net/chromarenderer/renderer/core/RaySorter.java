@@ -0,0 +1,62 @@
+package net.chromarenderer.renderer.core;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.scene.acc.LbvhTreeBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Orders incoherent rays such that rays with similar direction and origin get traced one after another and hit the
+ * same parts of the acceleration structure while they are still cached. Rays are sorted by the octant of their
+ * direction first and by the Morton code of their origin within the bounds of all origins second.
+ *
+ * @author bensteinert
+ */
+final class RaySorter {
+
+    // sort keys carry the ray position in their lowest bits
+    private static final int INDEX_BITS = 20;
+
+    private final long[] keys;
+    private final float[] origin = new float[3];
+    private final float[] originBounds = new float[6];
+
+
+    RaySorter(int capacity) {
+        if (capacity > 1 << INDEX_BITS) {
+            throw new IllegalArgumentException("At most " + (1 << INDEX_BITS) + " rays can be sorted at once.");
+        }
+        keys = new long[capacity];
+    }
+
+
+    /**
+     * Writes the positions of the given rays in traversal order to {@code order}.
+     */
+    void sort(Ray[] rays, int count, int[] order) {
+        Arrays.fill(originBounds, 0, 3, Float.MAX_VALUE);
+        Arrays.fill(originBounds, 3, 6, -Float.MAX_VALUE);
+        for (int i = 0; i < count; i++) {
+            ImmutableVector3 rayOrigin = rays[i].getOrigin();
+            for (int axis = 0; axis < 3; axis++) {
+                originBounds[axis] = Math.min(originBounds[axis], rayOrigin.getScalar(axis));
+                originBounds[axis + 3] = Math.max(originBounds[axis + 3], rayOrigin.getScalar(axis));
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            Ray ray = rays[i];
+            origin[0] = ray.getOrigin().getX();
+            origin[1] = ray.getOrigin().getY();
+            origin[2] = ray.getOrigin().getZ();
+            long octant = ray.getXSign() << 2 | ray.getSignY() << 1 | ray.getSignZ();
+            long key = octant << 30 | LbvhTreeBuilder.mortonCode(origin, 0, originBounds);
+            keys[i] = key << INDEX_BITS | i;
+        }
+        Arrays.sort(keys, 0, count);
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) (keys[i] & ((1 << INDEX_BITS) - 1));
+        }
+    }
+}
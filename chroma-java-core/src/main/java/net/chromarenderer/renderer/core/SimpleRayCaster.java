@@ -29,7 +29,10 @@ public class SimpleRayCaster extends ChromaCanvas implements Renderer {
 
     @Override
     public void renderNextImage() {
-        if (settings.isMultiThreaded()){
+        if (settings.isPacketTracingEnabled()) {
+            ImageTiles.forEachTile(settings, this::renderTile);
+        }
+        else if (settings.isMultiThreaded()){
             IntStream.range(0, settings.getImgHeight()).parallel().forEach(j ->
                     IntStream.range(0, settings.getImgWidth()).parallel().forEach(i -> {
                         renderPixel(j, i);
@@ -56,10 +59,29 @@ public class SimpleRayCaster extends ChromaCanvas implements Renderer {
         // scene intersection
         Hitpoint hitpoint = scene.intersect(cameraRay);
 
+        shade(j, i, hitpoint);
+    }
+
+
+    private void renderTile(int x, int y, int tileWidth, int tileHeight) {
+        Ray[] cameraRays = new Ray[ImageTiles.TILE_SIZE * ImageTiles.TILE_SIZE];
+        Hitpoint[] hitpoints = new Hitpoint[cameraRays.length];
+        ImageTiles.traceCameraRays(scene, x, y, tileWidth, tileHeight, cameraRays, hitpoints);
+
+        int index = 0;
+        for (int j = y; j < y + tileHeight; j++) {
+            for (int i = x; i < x + tileWidth; i++) {
+                shade(j, i, hitpoints[index++]);
+            }
+        }
+    }
+
+
+    private void shade(int j, int i, Hitpoint hitpoint) {
         // very basic shading
         Vector3 color = COLORS.BLACK;
         if (hitpoint.hit()) {
-            color = hitpoint.getHitpointNormal().abs();
+            color = hitpoint.getShadingNormal().abs();
         }
 
         // set pixel value
@@ -1,8 +1,11 @@
 package net.chromarenderer.renderer.scene;
 
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
 import net.chromarenderer.math.raytracing.Hitpoint;
 import net.chromarenderer.math.raytracing.Ray;
 import net.chromarenderer.renderer.camera.CoreCamera;
+import net.chromarenderer.renderer.scene.acc.IntersectionContext;
 
 /**
  * @author bensteinert
@@ -11,8 +14,67 @@ public interface ChromaScene {
 
     Hitpoint intersect(Ray cameraRay);
 
+    /**
+     * Intersects the first {@code count} rays, e.g. the camera rays of an image tile, and stores their hitpoints in
+     * {@code result}. Scenes which can not trace coherent rays together intersect them one by one.
+     */
+    default void intersect(Ray[] rays, int count, Hitpoint[] result) {
+        for (int i = 0; i < count; i++) {
+            result[i] = intersect(rays[i]);
+        }
+    }
+
+    /**
+     * Allocation free variant of {@link #intersect(Ray)} for kernels which reuse their rays: the closest hit is written
+     * to {@code context} and its geometry is mailboxed in the ray.
+     */
+    default void intersect(Ray ray, IntersectionContext context) {
+        Hitpoint hitpoint = intersect(ray);
+        context.reinit(ray);
+        if (hitpoint.hit()) {
+            context.hitGeometry = hitpoint.getHitGeometry();
+            context.hitDistance = hitpoint.getDistance();
+        }
+    }
+
     Hitpoint getLightSourceSample();
 
+    /**
+     * Samples a point on a light source with respect to its contribution to the given shading point. The sample weight
+     * of the returned hitpoint is the inverse area density of the sample.
+     *
+     * @return {@code null} if no light source can illuminate the shading point from the side of its normal.
+     */
+    default Hitpoint getLightSourceSample(ImmutableVector3 point, ImmutableVector3 normal) {
+        return getLightSourceSample();
+    }
+
+    /**
+     * Allocation free variant of {@link #getLightSourceSample(ImmutableVector3, ImmutableVector3)} for a shading point
+     * given as position and normal in {@code shadingPoint}. Position, normal and inverse sample weight of the sample are
+     * written to {@code sample} in this order.
+     *
+     * @return the sampled light source or {@code null}.
+     */
+    default Geometry getLightSourceSample(float[] shadingPoint, float[] sample) {
+        Hitpoint lightSourceSample = getLightSourceSample(
+                new ImmutableVector3(shadingPoint[0], shadingPoint[1], shadingPoint[2]),
+                new ImmutableVector3(shadingPoint[3], shadingPoint[4], shadingPoint[5]));
+        if (lightSourceSample == null) {
+            return null;
+        }
+        ImmutableVector3 point = lightSourceSample.getPoint();
+        ImmutableVector3 normal = lightSourceSample.getHitpointNormal();
+        sample[0] = point.getX();
+        sample[1] = point.getY();
+        sample[2] = point.getZ();
+        sample[3] = normal.getX();
+        sample[4] = normal.getY();
+        sample[5] = normal.getZ();
+        sample[6] = lightSourceSample.getInverseSampleWeight();
+        return lightSourceSample.getHitGeometry();
+    }
+
     boolean isObstructed(Ray shadowRay);
 
     int getNumberOfLightSources();
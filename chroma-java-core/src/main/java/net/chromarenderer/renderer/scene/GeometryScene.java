@@ -5,40 +5,124 @@ import net.chromarenderer.utils.ChromaLogger;
 import net.chromarenderer.utils.ChromaStatistics;
 import net.chromarenderer.math.ImmutableVector3;
 import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.geometry.WoopTriangle;
 import net.chromarenderer.math.raytracing.Hitpoint;
 import net.chromarenderer.math.raytracing.Ray;
 import net.chromarenderer.renderer.core.ChromaThreadContext;
 import net.chromarenderer.AccStructType;
 import net.chromarenderer.renderer.scene.acc.AccelerationStructure;
 import net.chromarenderer.renderer.scene.acc.BvhTreeBuilder;
+import net.chromarenderer.renderer.scene.acc.FlatBvhTree;
 import net.chromarenderer.renderer.scene.acc.IntersectionContext;
+import net.chromarenderer.renderer.scene.acc.LazyBvh;
+import net.chromarenderer.renderer.scene.acc.LbvhTreeBuilder;
+import net.chromarenderer.renderer.scene.acc.MeshInstance;
 import net.chromarenderer.renderer.scene.acc.NoAccelerationImpl;
+import net.chromarenderer.renderer.scene.acc.OffHeapGeometryStore;
+import net.chromarenderer.renderer.scene.acc.QuantizedBvhTree;
+import net.chromarenderer.renderer.scene.acc.RayPacket;
+import net.chromarenderer.renderer.scene.acc.SahBvhTreeBuilder;
+import net.chromarenderer.renderer.scene.acc.SbvhTreeBuilder;
+import net.chromarenderer.renderer.scene.acc.SharedMesh;
+import net.chromarenderer.renderer.scene.acc.TreeletOptimizer;
+import net.chromarenderer.renderer.scene.acc.TwoLevelBvh;
+import net.chromarenderer.renderer.scene.acc.UniformGrid;
+import net.chromarenderer.renderer.scene.acc.WideBvhTree;
 import net.chromarenderer.renderer.shader.MaterialType;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
 
 /**
  * @author bensteinert
  */
 public class GeometryScene implements ChromaScene {
 
-    private final List<Geometry> geometryList;
-    private final List<Geometry> lightSources;
-    private final float[] lightSourceDistributions;
-    private final float totalLightSourceArea;
+    // refitted acceleration structures get rebuilt once their SAH cost grew by this factor
+    static final float MAX_QUALITY_DEGRADATION = 1.5f;
+
+    // scenes below this size get their final acceleration structure right away, building a preview would not pay off
+    static final int PREVIEW_THRESHOLD = 20000;
+
+    // leaf size of the shallow LBVH rendered while the final acceleration structure is built in the background
+    private static final int PREVIEW_LEAF_SIZE = 16;
+
+    private List<Geometry> geometryList;
+    private final List<MeshInstance> instances;
+    private final OffHeapGeometryStore offHeapStore;
+    private List<Geometry> lightSources;
+    private float[] lightSourceDistributions;
+    private float totalLightSourceArea;
+    private LightTree lightTree;
 
     private final CoreCamera camera;
-    private AccelerationStructure accStruct;
+    private volatile AccelerationStructure accStruct;
+    private AccStructType accStructType;
+    private int buildGeneration;
+    // background build of the current acc struct type, kept after completion, dropped once the generation changes
+    private CompletableFuture<AccelerationStructure> backgroundBuild;
+    private boolean previewActive;
 
 
     public GeometryScene(List<Geometry> geometryList, CoreCamera camera) {
+        this(geometryList, Collections.emptyList(), camera);
+    }
+
+
+    /**
+     * @param geometryList primitives placed directly in world space
+     * @param instances    instanced meshes, only kept once in memory by {@link AccStructType#TWO_LEVEL_BVH}. All other
+     *                     acceleration structures work on world space copies of the instanced primitives.
+     */
+    public GeometryScene(List<Geometry> geometryList, List<MeshInstance> instances, CoreCamera camera) {
         this.geometryList = geometryList;
-        lightSources = filterEmittingGeometry(geometryList);
-        accStruct = new NoAccelerationImpl(geometryList);
+        this.instances = instances;
+        this.offHeapStore = null;
+        accStruct = new NoAccelerationImpl(getFlattenedGeometry());
+        accStructType = AccStructType.LIST;
         this.camera = camera;
+        initLightSources();
+    }
+
+
+    /**
+     * Static scene kept in the given store, which serves as its only acceleration structure. Only the emitting
+     * primitives are held on the heap, as light sources.
+     */
+    public GeometryScene(OffHeapGeometryStore store, CoreCamera camera) {
+        this.geometryList = store.getEmittingGeometry();
+        this.instances = Collections.emptyList();
+        this.offHeapStore = store;
+        accStruct = store;
+        accStructType = AccStructType.OFF_HEAP_BVH;
+        this.camera = camera;
+        initLightSources();
+    }
+
+
+    /**
+     * @return a static copy of this scene kept in an {@link OffHeapGeometryStore}, instanced meshes are copied once per
+     * instance. This scene can be dropped afterwards.
+     */
+    public GeometryScene toOffHeapScene() {
+        return new GeometryScene(OffHeapGeometryStore.build(getFlattenedGeometry()), camera);
+    }
+
+
+    private void initLightSources() {
+        List<Geometry> emittingGeometry = new ArrayList<>(filterEmittingGeometry(geometryList));
+        for (MeshInstance instance : instances) {
+            for (Geometry primitive : filterEmittingGeometry(instance.getMesh().getGeometry())) {
+                emittingGeometry.add(instance.toWorldGeometry(primitive));
+            }
+        }
+        lightSources = Collections.unmodifiableList(emittingGeometry);
+        lightTree = new LightTree(lightSources);
 
         if (lightSources.size() > 0) {
             lightSourceDistributions = new float[lightSources.size()];
@@ -76,6 +160,7 @@ public class GeometryScene implements ChromaScene {
 
 
     private static final ThreadLocal<IntersectionContext> intersectionContextHolder = ThreadLocal.withInitial(IntersectionContext::new);
+    private static final ThreadLocal<RayPacket> rayPacketHolder = ThreadLocal.withInitial(() -> new RayPacket(RayPacket.DEFAULT_CAPACITY));
 
 
     public Hitpoint intersect(Ray ray) {
@@ -86,24 +171,57 @@ public class GeometryScene implements ChromaScene {
 
         accStruct.intersect(intersectionContext);
 
-        if (intersectionContext.hitGeometry != null) {
-            ImmutableVector3 hitpoint = ray.onRay(intersectionContext.hitDistance);
-            //hitpoint = increaseHitpointPrecision(ray, intersectionContext.hitGeometry, hitpoint, intersectionContext.hitDistance);
-            ImmutableVector3 hitpointNormal = intersectionContext.hitGeometry.getNormal(hitpoint);
+        return toHitpoint(ray, intersectionContext.hitGeometry, intersectionContext.hitDistance);
+    }
+
+
+    @Override
+    public void intersect(Ray ray, IntersectionContext context) {
+        ChromaStatistics.ray();
+        context.reinit(ray);
+        accStruct.intersect(context);
+        if (context.hitGeometry != null) {
+            ray.mailbox(context.hitGeometry);
+        }
+    }
+
+
+    @Override
+    public void intersect(Ray[] rays, int count, Hitpoint[] result) {
+        RayPacket packet = rayPacketHolder.get();
+        // more rays than fit into one packet are traced in packet sized blocks
+        for (int offset = 0; offset < count; offset += packet.capacity()) {
+            int size = Math.min(packet.capacity(), count - offset);
+            packet.reinit(rays, offset, size);
+
+            accStruct.intersect(packet);
+
+            for (int i = 0; i < size; i++) {
+                ChromaStatistics.ray();
+                result[offset + i] = toHitpoint(rays[offset + i], packet.getHitGeometry(i), packet.getHitDistance(i));
+            }
+        }
+    }
+
+
+    private static Hitpoint toHitpoint(Ray ray, Geometry hitGeometry, float hitDistance) {
+        if (hitGeometry != null) {
+            ImmutableVector3 hitpoint = ray.onRay(hitDistance);
+            //hitpoint = increaseHitpointPrecision(ray, hitGeometry, hitpoint, hitDistance);
+            ImmutableVector3 hitpointNormal = hitGeometry.getNormal(hitpoint);
             //hitpoint = hitpoint.plus(hitpointNormal.mult(Constants.FLT_EPSILON));
-            ray.mailbox(intersectionContext.hitGeometry);
-            return new Hitpoint(intersectionContext.hitGeometry, intersectionContext.hitDistance, hitpoint, hitpointNormal);
+            ray.mailbox(hitGeometry);
+            return new Hitpoint(hitGeometry, hitDistance, hitpoint, hitpointNormal, hitGeometry.getShadingNormal(hitpoint));
         } else {
             return Hitpoint.INFINITY;
         }
     }
 
     public boolean isObstructed(Ray ray) {
-        ChromaStatistics.ray();
+        ChromaStatistics.shadowRay();
         IntersectionContext intersectionContext = intersectionContextHolder.get();
         intersectionContext.reinit(ray, IntersectionContext.ANY);
-        accStruct.intersect(intersectionContext);
-        return intersectionContext.hitGeometry != null;
+        return accStruct.isOccluded(intersectionContext);
     }
 
 
@@ -125,11 +243,11 @@ public class GeometryScene implements ChromaScene {
     public Hitpoint getLightSourceSample() {
         float random = ChromaThreadContext.randomFloatClosedOpen();
 
-        int lightSourceIdx;
-        lightSourceIdx = 0;
-        while (lightSourceIdx < lightSources.size() && random > lightSourceDistributions[lightSourceIdx]) {
-            lightSourceIdx++;
+        int lightSourceIdx = Arrays.binarySearch(lightSourceDistributions, random);
+        if (lightSourceIdx < 0) {
+            lightSourceIdx = -lightSourceIdx - 1;
         }
+        lightSourceIdx = Math.min(lightSourceIdx, lightSources.size() - 1);
 
         Geometry sampledGeometry = lightSources.get(lightSourceIdx);
         ImmutableVector3 surfaceSample = sampledGeometry.getUnifDistrSample();
@@ -138,24 +256,227 @@ public class GeometryScene implements ChromaScene {
     }
 
 
+    /**
+     * Samples the light sources by their estimated contribution to the given shading point via the {@link LightTree}.
+     */
+    @Override
+    public Hitpoint getLightSourceSample(ImmutableVector3 point, ImmutableVector3 normal) {
+        return lightTree.sample(point, normal, ChromaThreadContext.randomFloatClosedOpen());
+    }
+
+
+    @Override
+    public Geometry getLightSourceSample(float[] shadingPoint, float[] sample) {
+        return lightTree.sample(shadingPoint, ChromaThreadContext.randomFloatClosedOpen(), sample);
+    }
+
+
     public void buildAccelerationStructure(AccStructType type){
         // nothing to do, scene is static, result will be the same
-        if (Objects.equals(type, accStruct.getType())){
+        if (Objects.equals(type, accStructType)){
             return;
         }
+        List<Geometry> geometry = getFlattenedGeometry();
+        synchronized (this) {
+            buildGeneration++;
+            backgroundBuild = null;
+            accStructType = type;
+            previewActive = false;
+        }
+        accStruct = createAccelerationStructure(type, geometry);
+    }
+
+
+    /**
+     * Makes the scene renderable right away and builds the acceleration structure of the given type on a background
+     * thread. Until the build finished, rays are traced against a shallow LBVH which is cheap to build even for large
+     * scenes. Once ready, the final structure is swapped in atomically and {@code onSwap} is called, e.g. to flush
+     * accumulated images rendered with the preview. A build is dropped if another build or a geometry update was
+     * requested in the meantime.
+     *
+     * @return completes with the final acceleration structure once it is in place, or exceptionally if the build
+     * failed. Requesting the type of a build which is still running returns the future of that build, after a failure
+     * the next request builds again.
+     */
+    public CompletableFuture<AccelerationStructure> buildAccelerationStructureInBackground(AccStructType type, Runnable onSwap) {
+        synchronized (this) {
+            if (Objects.equals(type, accStructType)) {
+                return backgroundBuild != null ? backgroundBuild : CompletableFuture.completedFuture(accStruct);
+            }
+        }
+        List<Geometry> geometry = getFlattenedGeometry();
+        // a lazy BVH is ready right away by itself
+        if (geometry.size() < PREVIEW_THRESHOLD || type == AccStructType.LAZY_BVH) {
+            buildAccelerationStructure(type);
+            return CompletableFuture.completedFuture(accStruct);
+        }
+
+        final int generation;
+        CompletableFuture<AccelerationStructure> result = new CompletableFuture<>();
+        synchronized (this) {
+            generation = ++buildGeneration;
+            backgroundBuild = result;
+            accStructType = type;
+            previewActive = true;
+        }
+        long start = System.nanoTime();
+        accStruct = new LbvhTreeBuilder(PREVIEW_LEAF_SIZE).buildBvh(geometry);
+        ChromaLogger.get().info("Preview acceleration structure built in " + (System.nanoTime() - start) / 1000000L + " ms.");
+
+        Thread builder = new Thread(() -> {
+            try {
+                AccelerationStructure finalStruct = createAccelerationStructure(type, geometry);
+                synchronized (this) {
+                    if (generation != buildGeneration) {
+                        result.cancel(false);
+                        return;
+                    }
+                    accStruct = finalStruct;
+                    previewActive = false;
+                }
+                ChromaLogger.get().info("Acceleration structure " + type + " built in background after " + (System.nanoTime() - start) / 1000000L + " ms, swapped.");
+                onSwap.run();
+                result.complete(finalStruct);
+            } catch (RuntimeException e) {
+                ChromaLogger.get().log(Level.SEVERE, "Building the acceleration structure in background failed, keeping the preview.", e);
+                synchronized (this) {
+                    // only the preview is in place, the next request of any type starts a new build
+                    if (generation == buildGeneration) {
+                        backgroundBuild = null;
+                        accStructType = null;
+                    }
+                }
+                result.completeExceptionally(e);
+            }
+        }, "chroma-acc-builder");
+        builder.setDaemon(true);
+        builder.start();
+        return result;
+    }
+
+
+    private AccelerationStructure createAccelerationStructure(AccStructType type, List<Geometry> geometry) {
+        // the store holds the only copy of the geometry of an off-heap scene
+        if (offHeapStore != null) {
+            return offHeapStore;
+        }
+        if (type == AccStructType.TWO_LEVEL_BVH) {
+            List<MeshInstance> allInstances = new ArrayList<>(instances);
+            if (!geometryList.isEmpty()) {
+                allInstances.add(new MeshInstance(new SharedMesh(geometryList)));
+            }
+            return new TwoLevelBvh(allInstances);
+        }
+
         switch (type) {
             case AABB_BVH:
                 BvhTreeBuilder treeBuilder = new BvhTreeBuilder(4, 20);
-                accStruct = treeBuilder.buildBvh(geometryList);
-                break;
+                return treeBuilder.buildBvh(geometry);
+            case FLAT_BVH:
+                return FlatBvhTree.flatten(new BvhTreeBuilder(4, 20).buildBvh(geometry));
+            case SAH_BVH:
+                return new SahBvhTreeBuilder(4, 32).buildBvh(geometry);
+            case LBVH:
+                return new LbvhTreeBuilder(4, 6).buildBvh(geometry);
+            case OPTIMIZED_LBVH:
+                return TreeletOptimizer.buildOptimizedLbvh(geometry);
+            case GRID:
+                return new UniformGrid(geometry);
+            case QUANTIZED_BVH:
+                return QuantizedBvhTree.compress(new LbvhTreeBuilder(4, 6).buildBvh(geometry));
+            case LAZY_BVH:
+                return new LazyBvh(geometry);
+            case SBVH:
+                return new SbvhTreeBuilder(4, 32).buildBvh(geometry);
+            case WIDE_BVH:
+                return WideBvhTree.collapse(new SahBvhTreeBuilder(4, 32).buildBvh(geometry));
+            case OFF_HEAP_BVH:
+                return OffHeapGeometryStore.build(geometry);
             case LIST:
             default:
-                accStruct = new NoAccelerationImpl(geometryList);
-                break;
+                return new NoAccelerationImpl(geometry);
         }
     }
 
 
+    AccelerationStructure getAccelerationStructure() {
+        return accStruct;
+    }
+
+
+    /**
+     * @return all primitives in world space, instanced meshes are copied once per instance.
+     */
+    private List<Geometry> getFlattenedGeometry() {
+        if (instances.isEmpty()) {
+            return geometryList;
+        }
+        List<Geometry> result = new ArrayList<>(geometryList);
+        for (MeshInstance instance : instances) {
+            for (Geometry primitive : instance.getMesh().getGeometry()) {
+                result.add(instance.toWorldGeometry(primitive));
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Replaces the primitives placed directly in world space by moved ones, e.g. created via {@link Geometry#transpose(net.chromarenderer.math.Vector3)}
+     * and {@link Geometry#rotate(net.chromarenderer.math.ImmutableMatrix3x3)}. As long as number and order of the
+     * primitives stay the same, the acceleration structure only gets refitted. It is rebuilt if it can not be refitted
+     * or its quality degraded by more than {@link #MAX_QUALITY_DEGRADATION}. A pending background build is dropped in
+     * favour of a synchronous one. Not to be called while rendering.
+     */
+    public void updateGeometry(List<Geometry> movedGeometry) {
+        if (offHeapStore != null) {
+            ChromaLogger.get().warning("Geometry of an off-heap scene is static, update ignored.");
+            return;
+        }
+        geometryList = movedGeometry;
+        initLightSources();
+
+        // a structure built in background for the old geometry must not be swapped in anymore
+        AccStructType type;
+        boolean refittable;
+        synchronized (this) {
+            buildGeneration++;
+            backgroundBuild = null;
+            type = accStructType;
+            refittable = !previewActive;
+            // no final structure after a failed background build, stay on the preview
+            previewActive = type == null;
+        }
+        List<Geometry> geometry = getFlattenedGeometry();
+        if (type == null) {
+            accStruct = new LbvhTreeBuilder(PREVIEW_LEAF_SIZE).buildBvh(geometry);
+            return;
+        }
+        if (refittable && accStruct.refit(geometry)) {
+            float degradation = accStruct.getQualityDegradation();
+            if (degradation <= MAX_QUALITY_DEGRADATION) {
+                return;
+            }
+            ChromaLogger.get().info("Acceleration structure degraded by factor " + degradation + " after refit, rebuilding.");
+        }
+        accStruct = createAccelerationStructure(type, geometry);
+    }
+
+
+    /**
+     * Switches the triangles placed directly in world space to or from their precomputed {@link WoopTriangle} form via
+     * {@link #updateGeometry(List)}. Instanced meshes keep their triangles. Not to be called while rendering.
+     */
+    public void setPrecomputedTriangles(boolean precomputed) {
+        updateGeometry(precomputed ? WoopTriangle.precompute(geometryList) : WoopTriangle.restore(geometryList));
+    }
+
+
+    public List<Geometry> getGeometryList() {
+        return Collections.unmodifiableList(geometryList);
+    }
+
+
     public CoreCamera getCamera() {
         return camera;
     }
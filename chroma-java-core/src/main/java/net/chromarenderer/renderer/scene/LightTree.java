@@ -0,0 +1,409 @@
+package net.chromarenderer.renderer.scene;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.geometry.Triangle;
+import net.chromarenderer.math.raytracing.Hitpoint;
+import net.chromarenderer.renderer.core.ChromaThreadContext;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounding volume hierarchy over the light sources of a scene (Conty and Kulla 2018). Every node bounds the power,
+ * position and emission directions - an orientation cone around a mean normal - of the lights below it. A light is
+ * sampled by walking down from the root and choosing one of both children with a probability proportional to an
+ * estimate of their contribution to the shading point. Lights which are far away, behind the shading point or facing
+ * away from it are rarely or never chosen, and sampling costs are logarithmic in the number of lights.
+ * <p>
+ * Nodes are stored depth first, the left child of an inner node directly follows its parent. {@code child} holds the
+ * index of the right child for inner nodes and {@code ~lightIndex} for leaves.
+ *
+ * @author bensteinert
+ */
+final class LightTree {
+
+    private final List<Geometry> lights;
+    private final float[] areas;
+    private final float[] bounds;
+    private final float[] power;
+    private final float[] axis;
+    private final float[] cosThetaO;
+    private final int[] child;
+    private int numberOfNodes;
+
+
+    LightTree(List<Geometry> lights) {
+        this.lights = lights;
+        int maxNodes = Math.max(1, 2 * lights.size() - 1);
+        bounds = new float[maxNodes * 6];
+        power = new float[maxNodes];
+        axis = new float[maxNodes * 3];
+        cosThetaO = new float[maxNodes];
+        child = new int[maxNodes];
+
+        areas = new float[lights.size()];
+        int[] indices = new int[lights.size()];
+        float[] centroids = new float[lights.size() * 3];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+            Geometry light = lights.get(i);
+            areas[i] = light.getArea();
+            ImmutableVector3 center = light.getSpatialMinimum().plus(light.getSpatialMaximum()).mult(0.5f);
+            centroids[i * 3] = center.getX();
+            centroids[i * 3 + 1] = center.getY();
+            centroids[i * 3 + 2] = center.getZ();
+        }
+        if (!lights.isEmpty()) {
+            build(indices, centroids, 0, indices.length);
+        }
+    }
+
+
+    /**
+     * Splits the lights at the median of their centroids along the widest axis.
+     *
+     * @return index of the created node.
+     */
+    private int build(int[] indices, float[] centroids, int from, int to) {
+        int node = numberOfNodes++;
+        if (to - from == 1) {
+            initLeaf(node, indices[from]);
+            return node;
+        }
+
+        float[] centroidBounds = new float[]{Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        for (int i = from; i < to; i++) {
+            for (int a = 0; a < 3; a++) {
+                centroidBounds[a] = Math.min(centroidBounds[a], centroids[indices[i] * 3 + a]);
+                centroidBounds[a + 3] = Math.max(centroidBounds[a + 3], centroids[indices[i] * 3 + a]);
+            }
+        }
+        int splitAxis = 0;
+        for (int a = 1; a < 3; a++) {
+            if (centroidBounds[a + 3] - centroidBounds[a] > centroidBounds[splitAxis + 3] - centroidBounds[splitAxis]) {
+                splitAxis = a;
+            }
+        }
+        int finalAxis = splitAxis;
+        Integer[] range = new Integer[to - from];
+        for (int i = from; i < to; i++) {
+            range[i - from] = indices[i];
+        }
+        Arrays.sort(range, (x, y) -> Float.compare(centroids[x * 3 + finalAxis], centroids[y * 3 + finalAxis]));
+        for (int i = from; i < to; i++) {
+            indices[i] = range[i - from];
+        }
+
+        int middle = (from + to) / 2;
+        int left = build(indices, centroids, from, middle);
+        int right = build(indices, centroids, middle, to);
+        child[node] = right;
+        merge(node, left, right);
+        return node;
+    }
+
+
+    private void initLeaf(int node, int lightIndex) {
+        Geometry light = lights.get(lightIndex);
+        child[node] = ~lightIndex;
+
+        ImmutableVector3 pMin = light.getSpatialMinimum();
+        ImmutableVector3 pMax = light.getSpatialMaximum();
+        for (int a = 0; a < 3; a++) {
+            bounds[node * 6 + a] = pMin.getScalar(a);
+            bounds[node * 6 + 3 + a] = pMax.getScalar(a);
+        }
+
+        ImmutableVector3 emittance = light.getMaterial().getEmittance();
+        power[node] = (emittance.getX() + emittance.getY() + emittance.getZ()) / 3.0f * areas[lightIndex];
+
+        if (light instanceof Triangle) {
+            ImmutableVector3 normal = ((Triangle) light).getNormal();
+            axis[node * 3] = normal.getX();
+            axis[node * 3 + 1] = normal.getY();
+            axis[node * 3 + 2] = normal.getZ();
+            cosThetaO[node] = 1.0f;
+        } else {
+            // curved emitters, e.g. spheres, emit in all directions
+            axis[node * 3 + 2] = 1.0f;
+            cosThetaO[node] = -1.0f;
+        }
+    }
+
+
+    private void merge(int node, int left, int right) {
+        for (int a = 0; a < 3; a++) {
+            bounds[node * 6 + a] = Math.min(bounds[left * 6 + a], bounds[right * 6 + a]);
+            bounds[node * 6 + 3 + a] = Math.max(bounds[left * 6 + 3 + a], bounds[right * 6 + 3 + a]);
+        }
+        power[node] = power[left] + power[right];
+        mergeCones(node, left, right);
+    }
+
+
+    /**
+     * Smallest cone containing the orientation cones of both children.
+     */
+    private void mergeCones(int node, int a, int b) {
+        if (cosThetaO[a] < cosThetaO[b]) {
+            int swap = a;
+            a = b;
+            b = swap;
+        }
+        // now cone a is the narrower one
+        float thetaA = (float) Math.acos(cosThetaO[a]);
+        float thetaB = (float) Math.acos(cosThetaO[b]);
+        float cosThetaD = clamp(axis[a * 3] * axis[b * 3] + axis[a * 3 + 1] * axis[b * 3 + 1] + axis[a * 3 + 2] * axis[b * 3 + 2]);
+        float thetaD = (float) Math.acos(cosThetaD);
+
+        if (Math.min(thetaD + thetaA, (float) Math.PI) <= thetaB) {
+            copyCone(node, b);
+            return;
+        }
+
+        float thetaO = (thetaA + thetaD + thetaB) * 0.5f;
+        if (thetaO >= Math.PI) {
+            setFullSphere(node);
+            return;
+        }
+
+        // rotate the axis of b towards the axis of a
+        float rx = axis[b * 3 + 1] * axis[a * 3 + 2] - axis[b * 3 + 2] * axis[a * 3 + 1];
+        float ry = axis[b * 3 + 2] * axis[a * 3] - axis[b * 3] * axis[a * 3 + 2];
+        float rz = axis[b * 3] * axis[a * 3 + 1] - axis[b * 3 + 1] * axis[a * 3];
+        float length = (float) Math.sqrt(rx * rx + ry * ry + rz * rz);
+        if (length < 1.0e-7f) {
+            // axes opposite or identical, the latter is already handled above
+            setFullSphere(node);
+            return;
+        }
+        rx /= length;
+        ry /= length;
+        rz /= length;
+
+        float thetaR = thetaO - thetaB;
+        float cos = (float) Math.cos(thetaR);
+        float sin = (float) Math.sin(thetaR);
+        float vx = axis[b * 3];
+        float vy = axis[b * 3 + 1];
+        float vz = axis[b * 3 + 2];
+        // Rodrigues' rotation, the rotation axis is perpendicular to v
+        float x = vx * cos + (ry * vz - rz * vy) * sin;
+        float y = vy * cos + (rz * vx - rx * vz) * sin;
+        float z = vz * cos + (rx * vy - ry * vx) * sin;
+        float norm = (float) Math.sqrt(x * x + y * y + z * z);
+        axis[node * 3] = x / norm;
+        axis[node * 3 + 1] = y / norm;
+        axis[node * 3 + 2] = z / norm;
+        cosThetaO[node] = (float) Math.cos(thetaO);
+    }
+
+
+    private void copyCone(int node, int source) {
+        System.arraycopy(axis, source * 3, axis, node * 3, 3);
+        cosThetaO[node] = cosThetaO[source];
+    }
+
+
+    private void setFullSphere(int node) {
+        axis[node * 3] = 0.0f;
+        axis[node * 3 + 1] = 0.0f;
+        axis[node * 3 + 2] = 1.0f;
+        cosThetaO[node] = -1.0f;
+    }
+
+
+    /**
+     * @param random uniform random number in [0, 1).
+     * @return a point on a light source with the inverse of its area density as sample weight or {@code null} if no
+     * light can contribute to the shading point.
+     */
+    Hitpoint sample(ImmutableVector3 point, ImmutableVector3 normal, float random) {
+        float[] probability = new float[1];
+        int lightIndex = sampleLight(point.getX(), point.getY(), point.getZ(), normal.getX(), normal.getY(), normal.getZ(), random, probability);
+        if (lightIndex < 0) {
+            return null;
+        }
+        Geometry light = lights.get(lightIndex);
+        ImmutableVector3 surfaceSample = light.getUnifDistrSample();
+        return new Hitpoint(light, surfaceSample, light.getNormal(surfaceSample), areas[lightIndex] / probability[0]);
+    }
+
+
+    /**
+     * Same as {@link #sample(ImmutableVector3, ImmutableVector3, float)} for a shading point given as position and
+     * normal in {@code shadingPoint}. Position, normal and inverse sample weight are written to {@code sample}, without
+     * any allocations for triangular light sources.
+     *
+     * @return the sampled light source or {@code null}.
+     */
+    Geometry sample(float[] shadingPoint, float random, float[] sample) {
+        int lightIndex = sampleLight(shadingPoint[0], shadingPoint[1], shadingPoint[2], shadingPoint[3], shadingPoint[4], shadingPoint[5], random, sample);
+        if (lightIndex < 0) {
+            return null;
+        }
+        Geometry light = lights.get(lightIndex);
+        float probability = sample[0];
+        if (light instanceof Triangle) {
+            Triangle triangle = (Triangle) light;
+            float sqrtU = (float) Math.sqrt(ChromaThreadContext.randomFloatClosedOpen());
+            float v = ChromaThreadContext.randomFloatClosedOpen();
+            float alpha = 1.0f - sqrtU;
+            float beta = (1.0f - v) * sqrtU;
+            float gamma = v * sqrtU;
+            ImmutableVector3 p0 = triangle.getP0();
+            ImmutableVector3 p1 = triangle.getP1();
+            ImmutableVector3 p2 = triangle.getP2();
+            ImmutableVector3 normal = triangle.getNormal();
+            sample[0] = p0.getX() * alpha + p1.getX() * beta + p2.getX() * gamma;
+            sample[1] = p0.getY() * alpha + p1.getY() * beta + p2.getY() * gamma;
+            sample[2] = p0.getZ() * alpha + p1.getZ() * beta + p2.getZ() * gamma;
+            sample[3] = normal.getX();
+            sample[4] = normal.getY();
+            sample[5] = normal.getZ();
+        } else {
+            ImmutableVector3 surfaceSample = light.getUnifDistrSample();
+            ImmutableVector3 normal = light.getNormal(surfaceSample);
+            sample[0] = surfaceSample.getX();
+            sample[1] = surfaceSample.getY();
+            sample[2] = surfaceSample.getZ();
+            sample[3] = normal.getX();
+            sample[4] = normal.getY();
+            sample[5] = normal.getZ();
+        }
+        sample[6] = areas[lightIndex] / probability;
+        return light;
+    }
+
+
+    /**
+     * Walks down the tree by the importance of the children.
+     *
+     * @return index of the chosen light, its probability is stored in {@code probability[0]}, or -1 if no light can
+     * contribute.
+     */
+    private int sampleLight(float px, float py, float pz, float nx, float ny, float nz, float random, float[] probability) {
+        if (numberOfNodes == 0) {
+            return -1;
+        }
+        int node = 0;
+        float nodeProbability = 1.0f;
+        if (importance(node, px, py, pz, nx, ny, nz) <= 0.0f) {
+            return -1;
+        }
+        while (child[node] >= 0) {
+            int left = node + 1;
+            int right = child[node];
+            float leftImportance = importance(left, px, py, pz, nx, ny, nz);
+            float rightImportance = importance(right, px, py, pz, nx, ny, nz);
+            float total = leftImportance + rightImportance;
+            if (total <= 0.0f) {
+                return -1;
+            }
+            float leftProbability = leftImportance / total;
+            // reuse the random number for the next decision
+            if (random < leftProbability) {
+                random = Math.min(random / leftProbability, 0.99999994f);
+                nodeProbability *= leftProbability;
+                node = left;
+            } else {
+                random = Math.min((random - leftProbability) / (1.0f - leftProbability), 0.99999994f);
+                nodeProbability *= 1.0f - leftProbability;
+                node = right;
+            }
+        }
+        probability[0] = nodeProbability;
+        return ~child[node];
+    }
+
+
+    /**
+     * Conservative estimate of the contribution of a node to a point with the given surface normal: power over squared
+     * distance, attenuated by the smallest angle between emission cone and point as well as between surface normal and
+     * node. Zero if no light of the node can illuminate the front side of the surface.
+     */
+    private float importance(int node, float px, float py, float pz, float nx, float ny, float nz) {
+        int b = node * 6;
+        float cx = (bounds[b] + bounds[b + 3]) * 0.5f;
+        float cy = (bounds[b + 1] + bounds[b + 4]) * 0.5f;
+        float cz = (bounds[b + 2] + bounds[b + 5]) * 0.5f;
+        float ex = bounds[b + 3] - bounds[b];
+        float ey = bounds[b + 4] - bounds[b + 1];
+        float ez = bounds[b + 5] - bounds[b + 2];
+        float radiusSquared = (ex * ex + ey * ey + ez * ez) * 0.25f;
+
+        // direction from node center to the point
+        float wx = px - cx;
+        float wy = py - cy;
+        float wz = pz - cz;
+        float distanceSquared = wx * wx + wy * wy + wz * wz;
+        if (distanceSquared <= radiusSquared) {
+            // point within the bounding sphere, no angle can be bounded
+            return power[node] / Math.max(radiusSquared, Float.MIN_NORMAL);
+        }
+        float distance = (float) Math.sqrt(distanceSquared);
+        wx /= distance;
+        wy /= distance;
+        wz /= distance;
+
+        float sinThetaB2 = radiusSquared / distanceSquared;
+        float cosThetaB = (float) Math.sqrt(1.0f - sinThetaB2);
+        float sinThetaB = (float) Math.sqrt(sinThetaB2);
+
+        // angle between emission axis and point, reduced by cone and bounds
+        float cosThetaW = clamp(wx * axis[node * 3] + wy * axis[node * 3 + 1] + wz * axis[node * 3 + 2]);
+        float sinThetaW = (float) Math.sqrt(Math.max(0.0f, 1.0f - cosThetaW * cosThetaW));
+        float cosO = cosThetaO[node];
+        float sinO = (float) Math.sqrt(Math.max(0.0f, 1.0f - cosO * cosO));
+        float cosThetaX = cosSubClamped(sinThetaW, cosThetaW, sinO, cosO);
+        float sinThetaX = sinSubClamped(sinThetaW, cosThetaW, sinO, cosO);
+        float cosThetaP = cosSubClamped(sinThetaX, cosThetaX, sinThetaB, cosThetaB);
+        // one sided emitters do not emit beyond 90 degrees
+        if (cosThetaP <= 0.0f) {
+            return 0.0f;
+        }
+
+        // angle between surface normal and the direction towards the node, reduced by bounds
+        float cosThetaI = -(wx * nx + wy * ny + wz * nz);
+        float sinThetaI = (float) Math.sqrt(Math.max(0.0f, 1.0f - cosThetaI * cosThetaI));
+        float cosThetaPI = cosSubClamped(sinThetaI, cosThetaI, sinThetaB, cosThetaB);
+        if (cosThetaPI <= 0.0f) {
+            return 0.0f;
+        }
+
+        return power[node] * cosThetaP * cosThetaPI / distanceSquared;
+    }
+
+
+    /**
+     * @return cos(max(0, a - b)) of angles given by sine and cosine.
+     */
+    private static float cosSubClamped(float sinA, float cosA, float sinB, float cosB) {
+        if (cosA > cosB) {
+            return 1.0f;
+        }
+        return cosA * cosB + sinA * sinB;
+    }
+
+
+    /**
+     * @return sin(max(0, a - b)) of angles given by sine and cosine.
+     */
+    private static float sinSubClamped(float sinA, float cosA, float sinB, float cosB) {
+        if (cosA > cosB) {
+            return 0.0f;
+        }
+        return sinA * cosB - cosA * sinB;
+    }
+
+
+    private static float clamp(float cos) {
+        return Math.max(-1.0f, Math.min(1.0f, cos));
+    }
+
+
+    int getNumberOfNodes() {
+        return numberOfNodes;
+    }
+}
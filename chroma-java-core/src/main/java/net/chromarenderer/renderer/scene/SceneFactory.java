@@ -7,6 +7,7 @@ import net.chromarenderer.math.Vector3;
 import net.chromarenderer.math.geometry.Geometry;
 import net.chromarenderer.math.geometry.SimpleTriangle;
 import net.chromarenderer.math.geometry.Sphere;
+import net.chromarenderer.math.geometry.SphereSet;
 import net.chromarenderer.math.geometry.Triangle;
 import net.chromarenderer.renderer.camera.CoreCamera;
 import net.chromarenderer.renderer.shader.Material;
@@ -14,6 +15,7 @@ import net.chromarenderer.renderer.shader.Material;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 /**
  * @author bensteinert
@@ -65,6 +67,31 @@ public class SceneFactory {
     }
 
 
+    /**
+     * @return spheres of random size and color scattered within the lower half of a cornell box of half dimension 2,
+     * held by one {@link SphereSet}.
+     */
+    public static List<Geometry> createSphereCloud(int count, long seed) {
+        Random random = new Random(seed);
+        Material[] palette = {
+                Material.createDiffuseMaterial(COLORS.PURPLE),
+                Material.createDiffuseMaterial(COLORS.YELLOW),
+                Material.createPlasticMaterial(COLORS.ORANGE, 100.0f),
+                Material.createDiffuseMaterial(COLORS.BLUE)};
+        float[] centers = new float[count * 3];
+        float[] radii = new float[count];
+        byte[] materialIndices = new byte[count];
+        for (int i = 0; i < count; i++) {
+            radii[i] = 0.005f + random.nextFloat() * 0.02f;
+            centers[i * 3] = (random.nextFloat() * 2.0f - 1.0f) * 1.9f;
+            centers[i * 3 + 1] = -2.0f + radii[i] + random.nextFloat() * 1.5f;
+            centers[i * 3 + 2] = (random.nextFloat() * 2.0f - 1.0f) * 1.9f;
+            materialIndices[i] = (byte) random.nextInt(palette.length);
+        }
+        return new ArrayList<>(new SphereSet(centers, radii, materialIndices, palette).getSpheres());
+    }
+
+
     private static List<Triangle> subdivide(List<Triangle> triangles) {
         List<Triangle> result = new ArrayList<>(triangles.size() * 4);
         triangles.stream().map(Triangle::subdivide).forEach(subdivided -> Collections.addAll(result, subdivided));
@@ -2,6 +2,9 @@ package net.chromarenderer.renderer.scene.acc;
 
 
 import net.chromarenderer.AccStructType;
+import net.chromarenderer.math.geometry.Geometry;
+
+import java.util.List;
 
 /**
  * @author bensteinert
@@ -9,5 +12,38 @@ import net.chromarenderer.AccStructType;
 public interface AccelerationStructure {
     void intersect(IntersectionContext ctx);
 
+    /**
+     * First hit query for all rays of a packet. Structures without a dedicated packet traversal trace the rays one by
+     * one.
+     */
+    default void intersect(RayPacket packet) {
+        for (int i = 0; i < packet.size; i++) {
+            intersect(packet.contexts[i]);
+        }
+    }
+
+    /**
+     * Any hit query for shadow rays: stops at the first blocker found, children are neither ordered nor is any hit
+     * information recorded. Only the ray and the traversal stack of the given context are used.
+     */
+    boolean isOccluded(IntersectionContext ctx);
+
     AccStructType getType();
+
+    /**
+     * Adapts the structure to moved primitives without changing its topology. The given list has to contain the moved
+     * counterparts of the primitives the structure was built from, in the same order.
+     *
+     * @return false if the structure can not be refitted and has to be rebuilt.
+     */
+    default boolean refit(List<Geometry> geometryList) {
+        return false;
+    }
+
+    /**
+     * @return SAH cost relative to the cost right after the build, 1.0 for structures which do not degrade.
+     */
+    default float getQualityDegradation() {
+        return 1.0f;
+    }
 }
@@ -37,13 +37,17 @@ public class AxisAlignedBoundingBox {
         float xmin, xmax, ymin, ymax, zmin, zmax;
 
         Ray ray = ctx.ray;
-        ImmutableVector3 invDirection = ray.getInvDirection();
-        ImmutableVector3 origin = ray.getOrigin();
-
-        xmin = (bounds[ray.getXSign()].getX() - origin.getX()) * invDirection.getX();
-        xmax = (bounds[1 - ray.getXSign()].getX() - origin.getX()) * invDirection.getX();
-        ymin = (bounds[ray.getSignY()].getY() - origin.getY()) * invDirection.getY();
-        ymax = (bounds[1 - ray.getSignY()].getY() - origin.getY()) * invDirection.getY();
+        float ox = ray.getOriginX();
+        float oy = ray.getOriginY();
+        float oz = ray.getOriginZ();
+        float idx = ray.getInvDirectionX();
+        float idy = ray.getInvDirectionY();
+        float idz = ray.getInvDirectionZ();
+
+        xmin = (bounds[ray.getXSign()].getX() - ox) * idx;
+        xmax = (bounds[1 - ray.getXSign()].getX() - ox) * idx;
+        ymin = (bounds[ray.getSignY()].getY() - oy) * idy;
+        ymax = (bounds[1 - ray.getSignY()].getY() - oy) * idy;
 
         if ((xmin > ymax) || (ymin > xmax)) {
             return 0;
@@ -56,8 +60,8 @@ public class AxisAlignedBoundingBox {
             xmax = ymax;
         }
 
-        zmin = (bounds[ray.getSignZ()].getZ() - origin.getZ()) * invDirection.getZ();
-        zmax = (bounds[1 - ray.getSignZ()].getZ() - origin.getZ()) * invDirection.getZ();
+        zmin = (bounds[ray.getSignZ()].getZ() - oz) * idz;
+        zmax = (bounds[1 - ray.getSignZ()].getZ() - oz) * idz;
 
         if ((xmin > zmax) || (zmin > xmax)) {
             return 0;
@@ -80,6 +84,51 @@ public class AxisAlignedBoundingBox {
     }
 
 
+    /**
+     * Same slab test as {@link #intersects(IntersectionContext)} without computing the entry and exit distances.
+     */
+    public boolean isHitBy(Ray ray) {
+        float ox = ray.getOriginX();
+        float oy = ray.getOriginY();
+        float oz = ray.getOriginZ();
+        float idx = ray.getInvDirectionX();
+        float idy = ray.getInvDirectionY();
+        float idz = ray.getInvDirectionZ();
+
+        float xmin = (bounds[ray.getXSign()].getX() - ox) * idx;
+        float xmax = (bounds[1 - ray.getXSign()].getX() - ox) * idx;
+        float ymin = (bounds[ray.getSignY()].getY() - oy) * idy;
+        float ymax = (bounds[1 - ray.getSignY()].getY() - oy) * idy;
+
+        if ((xmin > ymax) || (ymin > xmax)) {
+            return false;
+        }
+
+        if (ymin > xmin) {
+            xmin = ymin;
+        }
+        if (ymax < xmax) {
+            xmax = ymax;
+        }
+
+        float zmin = (bounds[ray.getSignZ()].getZ() - oz) * idz;
+        float zmax = (bounds[1 - ray.getSignZ()].getZ() - oz) * idz;
+
+        if ((xmin > zmax) || (zmin > xmax)) {
+            return false;
+        }
+
+        if (zmin > xmin) {
+            xmin = zmin;
+        }
+        if (zmax < xmax) {
+            xmax = zmax;
+        }
+
+        return (xmin < ray.getTMax()) && (xmax > ray.getTMin());
+    }
+
+
     @Override
     public String toString() {
         return "AxisAlignedBoundingBox{" +
@@ -100,6 +149,12 @@ public class AxisAlignedBoundingBox {
     }
 
 
+    public float getSurfaceArea() {
+        ImmutableVector3 extent = getExtent();
+        return 2.0f * FastMath.abs(extent.getX() * extent.getY() + extent.getY() * extent.getZ() + extent.getZ() * extent.getX());
+    }
+
+
     public float getOverlapVolume(AxisAlignedBoundingBox otherBox) {
         if (otherBox.getPMin().isCloserToOriginThan(this.getPMin())) {
             // swap for checking ...
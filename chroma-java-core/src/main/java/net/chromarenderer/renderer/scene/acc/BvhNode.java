@@ -1,8 +1,7 @@
 package net.chromarenderer.renderer.scene.acc;
 
 import net.chromarenderer.math.geometry.Geometry;
-
-import java.util.Arrays;
+import net.chromarenderer.math.raytracing.Ray;
 
 /**
  * @author bensteinert
@@ -25,13 +24,11 @@ class BvhNode {
 
     void intersect(IntersectionContext ctx, Geometry[] geometry) {
         if (indexList != null) {
-            Arrays.stream(indexList).forEach(idx -> {
+            for (int idx : indexList) {
                 if (geometry[idx] != ctx.hitGeometry) {
                     ctx.checkGeometry(geometry[idx]);
-                //} else {
-                //    Logger.getGlobal().warning("re-intersection prevented.");
                 }
-            });
+            }
         } else {
             float tMinLeft;
             float tMinRight;
@@ -85,6 +82,53 @@ class BvhNode {
     }
 
 
+    void intersect(RayPacket packet, Geometry[] geometry, float[] scratch) {
+        if (indexList != null) {
+            for (int i = 0; i < packet.size; i++) {
+                IntersectionContext ctx = packet.contexts[i];
+                if (box.intersects(ctx) == 1 && ctx.lastTValues[0] < ctx.hitDistance) {
+                    for (int idx : indexList) {
+                        if (geometry[idx] != ctx.hitGeometry) {
+                            ctx.checkGeometry(geometry[idx]);
+                        }
+                    }
+                }
+            }
+            packet.updateMaxHitDistance();
+        } else {
+            float tMinLeft = packet.intersectBox(left.box, scratch);
+            float tMinRight = packet.intersectBox(right.box, scratch);
+            if (tMinLeft <= tMinRight) {
+                if (tMinLeft != RayPacket.MISS) {
+                    left.intersect(packet, geometry, scratch);
+                }
+                if (tMinRight != RayPacket.MISS && packet.getMaxHitDistance() > tMinRight) {
+                    right.intersect(packet, geometry, scratch);
+                }
+            } else {
+                right.intersect(packet, geometry, scratch);
+                if (tMinLeft != RayPacket.MISS && packet.getMaxHitDistance() > tMinLeft) {
+                    left.intersect(packet, geometry, scratch);
+                }
+            }
+        }
+    }
+
+
+    boolean isOccluded(Ray ray, Geometry[] geometry) {
+        if (indexList != null) {
+            for (int idx : indexList) {
+                if (IntersectionContext.occludes(geometry[idx], ray)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return (left.box.isHitBy(ray) && left.isOccluded(ray, geometry)) ||
+                (right.box.isHitBy(ray) && right.isOccluded(ray, geometry));
+    }
+
+
     @Override
     public String toString() {
         return "BvhNode{" +
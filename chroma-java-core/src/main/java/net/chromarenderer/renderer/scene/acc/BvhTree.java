@@ -1,20 +1,41 @@
 package net.chromarenderer.renderer.scene.acc;
 
 import net.chromarenderer.AccStructType;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.Vector3;
+import net.chromarenderer.math.VectorUtils;
 import net.chromarenderer.math.geometry.Geometry;
 
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
 /**
  * @author bensteinert
  */
 public class BvhTree implements AccelerationStructure {
 
+    // subtrees below this depth are refitted within the task of their ancestor
+    private static final int PARALLEL_REFIT_DEPTH = 8;
+
     private final Geometry[] geometry;
     private final BvhNode rootNode;
+    private final AccStructType type;
+
+    private float builtSahCost = -1.0f;
+    private float refittedSahCost = -1.0f;
 
 
     public BvhTree(Geometry[] primitives, BvhNode root) {
+        this(primitives, root, AccStructType.AABB_BVH);
+    }
+
+
+    public BvhTree(Geometry[] primitives, BvhNode root, AccStructType type) {
         this.geometry = primitives;
-        rootNode = root;
+        this.rootNode = root;
+        this.type = type;
     }
 
 
@@ -24,9 +45,150 @@ public class BvhTree implements AccelerationStructure {
     }
 
 
+    @Override
+    public void intersect(RayPacket packet) {
+        rootNode.intersect(packet, geometry, new float[6]);
+    }
+
+
+    @Override
+    public boolean isOccluded(IntersectionContext ctx) {
+        return rootNode.isOccluded(ctx.ray, geometry);
+    }
+
+
     @Override
     public AccStructType getType() {
-        return AccStructType.AABB_BVH;
+        return type;
+    }
+
+
+    /**
+     * Surface area heuristic cost of the whole tree: expected cost of a random ray which hits the root box,
+     * relative to the surface area of the root box.
+     */
+    public float computeSahCost() {
+        float rootArea = rootNode.box.getSurfaceArea();
+        return rootArea > 0.0f ? computeSahCost(rootNode) / rootArea : 0.0f;
+    }
+
+
+    private static float computeSahCost(BvhNode node) {
+        if (node.indexList != null) {
+            return node.box.getSurfaceArea() * node.indexList.length * SahBvhTreeBuilder.INTERSECTION_COST;
+        } else {
+            return node.box.getSurfaceArea() * SahBvhTreeBuilder.TRAVERSAL_COST + computeSahCost(node.left) + computeSahCost(node.right);
+        }
+    }
+
+
+    /**
+     * Heap used by the nodes, their boxes and index lists, assuming 12 byte object headers and compressed references.
+     */
+    public long getEstimatedSizeInBytes() {
+        return getEstimatedSizeInBytes(rootNode);
+    }
+
+
+    private static long getEstimatedSizeInBytes(BvhNode node) {
+        // node (32) + box (16) + bounds array (24) + two vectors (2 * 24)
+        long size = 120L;
+        if (node.indexList != null) {
+            return size + ((16L + node.indexList.length * 4L + 7L) & ~7L);
+        }
+        return size + getEstimatedSizeInBytes(node.left) + getEstimatedSizeInBytes(node.right);
     }
 
+
+    /**
+     * Recomputes all node bounds bottom up, subtrees are processed as parallel fork/join tasks. The SAH cost of the
+     * refitted tree is tracked to decide when a rebuild pays off, see {@link #getQualityDegradation()}.
+     */
+    @Override
+    public boolean refit(List<Geometry> geometryList) {
+        if (geometryList.size() != geometry.length) {
+            return false;
+        }
+        if (builtSahCost < 0.0f) {
+            builtSahCost = computeSahCost();
+        }
+        for (int i = 0; i < geometry.length; i++) {
+            geometry[i] = geometryList.get(i);
+        }
+        float cost = ForkJoinPool.commonPool().invoke(new RefitTask(rootNode, 0));
+        float rootArea = rootNode.box.getSurfaceArea();
+        refittedSahCost = rootArea > 0.0f ? cost / rootArea : 0.0f;
+        return true;
+    }
+
+
+    @Override
+    public float getQualityDegradation() {
+        if (refittedSahCost < 0.0f || builtSahCost <= 0.0f) {
+            return 1.0f;
+        }
+        return refittedSahCost / builtSahCost;
+    }
+
+
+    /**
+     * @return the unnormalized SAH cost of the refitted subtree.
+     */
+    private float refit(BvhNode node, int depth) {
+        if (node.indexList != null) {
+            ImmutableVector3 pMin = Vector3.FLT_MAX;
+            ImmutableVector3 pMax = Vector3.MINUS_FLT_MAX;
+            for (int index : node.indexList) {
+                pMin = VectorUtils.minVector(pMin, geometry[index].getSpatialMinimum());
+                pMax = VectorUtils.maxVector(pMax, geometry[index].getSpatialMaximum());
+            }
+            node.box = new AxisAlignedBoundingBox(pMin, pMax);
+            return node.box.getSurfaceArea() * node.indexList.length * SahBvhTreeBuilder.INTERSECTION_COST;
+        }
+
+        float childCost;
+        if (depth < PARALLEL_REFIT_DEPTH) {
+            RefitTask leftTask = new RefitTask(node.left, depth + 1);
+            RefitTask rightTask = new RefitTask(node.right, depth + 1);
+            ForkJoinTask.invokeAll(leftTask, rightTask);
+            childCost = leftTask.getRawResult() + rightTask.getRawResult();
+        } else {
+            childCost = refit(node.left, depth + 1) + refit(node.right, depth + 1);
+        }
+        node.box = new AxisAlignedBoundingBox(
+                VectorUtils.minVector(node.left.box.getPMin(), node.right.box.getPMin()),
+                VectorUtils.maxVector(node.left.box.getPMax(), node.right.box.getPMax()));
+        return node.box.getSurfaceArea() * SahBvhTreeBuilder.TRAVERSAL_COST + childCost;
+    }
+
+
+    Geometry[] getGeometry() {
+        return geometry;
+    }
+
+
+    BvhNode getRootNode() {
+        return rootNode;
+    }
+
+
+    private class RefitTask extends RecursiveTask<Float> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BvhNode node;
+        private final int depth;
+
+
+        RefitTask(BvhNode node, int depth) {
+            this.node = node;
+            this.depth = depth;
+        }
+
+
+        @Override
+        protected Float compute() {
+            return refit(node, depth);
+        }
+    }
 }
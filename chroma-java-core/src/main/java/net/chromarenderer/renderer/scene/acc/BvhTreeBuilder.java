@@ -9,9 +9,19 @@ import net.chromarenderer.math.geometry.Geometry;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 /**
+ * Builds the BVH top down. In parallel mode the recursion into both children runs as fork/join tasks and bounding boxes
+ * over large index ranges are reduced in parallel. Partitioning stays sequential per node since the pivot adjustment
+ * depends on the scan order - that way the parallel build yields exactly the same tree as the sequential one.
+ *
  * @author bensteinert
  */
 public class BvhTreeBuilder {
@@ -21,15 +31,38 @@ public class BvhTreeBuilder {
     private int[] indices;
     private AxisAlignedBoundingBox[] boxes;
     private Vector3[] centroids;
-    private int bvhQualityIndex = 0;
+    private final AtomicInteger bvhQualityIndex = new AtomicInteger();
 
     private int maxTreeDepth;
     private int minIndices;
+    private final boolean parallel;
+    // index ranges below this size are processed sequentially
+    private final int parallelThreshold;
+
+    static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
 
 
     public BvhTreeBuilder(int trianglesPerNode, int maxTreeDepth) {
+        this(trianglesPerNode, maxTreeDepth, true);
+    }
+
+
+    public BvhTreeBuilder(int trianglesPerNode, int maxTreeDepth, boolean parallel) {
+        this(trianglesPerNode, maxTreeDepth, parallel, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+
+    /**
+     * @param parallelThreshold index ranges of fewer primitives are processed within one task.
+     */
+    public BvhTreeBuilder(int trianglesPerNode, int maxTreeDepth, boolean parallel, int parallelThreshold) {
+        if (parallelThreshold < 1) {
+            throw new IllegalArgumentException("Parallel threshold has to be positive but was " + parallelThreshold);
+        }
         this.minIndices = trianglesPerNode;
         this.maxTreeDepth = maxTreeDepth;
+        this.parallel = parallel;
+        this.parallelThreshold = parallelThreshold;
     }
 
 
@@ -44,23 +77,35 @@ public class BvhTreeBuilder {
         centroids = new Vector3[totalNumberOfPrimitives];
 
 
-        for (int i = 0; i < totalNumberOfPrimitives; i++) {
-            Geometry element = geometryList.get(i);
-            primitives[i] = element;
-            indices[i] = i;
-            boxes[i] = createBoundingBox(i);
-            centroids[i] = boxes[i].getCenter();
-        }
+        long start = System.nanoTime();
+        bvhQualityIndex.set(0);
 
-        BvhNode root = null;
-        bvhQualityIndex = 0;
-
-        root = createNode(0, totalNumberOfPrimitives - 1);
-        buildTreeTopDown(root, 0, 0, totalNumberOfPrimitives - 1);
+        int numberOfChunks = (totalNumberOfPrimitives + parallelThreshold - 1) / parallelThreshold;
+        IntStream chunks = IntStream.range(0, numberOfChunks);
+        (parallel ? chunks.parallel() : chunks).forEach(chunk -> {
+            int chunkEnd = Math.min(totalNumberOfPrimitives, (chunk + 1) * parallelThreshold);
+            for (int i = chunk * parallelThreshold; i < chunkEnd; i++) {
+                Geometry element = geometryList.get(i);
+                primitives[i] = element;
+                indices[i] = i;
+                boxes[i] = createBoundingBox(i);
+                centroids[i] = boxes[i].getCenter();
+            }
+        });
 
+        BvhNode root = createNode(0, totalNumberOfPrimitives - 1);
+        if (parallel) {
+            ForkJoinPool.commonPool().invoke(new BuildTask(root, 0, 0, totalNumberOfPrimitives - 1));
+        } else {
+            buildTreeTopDown(root, 0, 0, totalNumberOfPrimitives - 1);
+        }
 
-        LOGGER.info("Finished BVH Build with a total score of " + bvhQualityIndex);
-        return new BvhTree(primitives, root);
+        long buildNanos = System.nanoTime() - start;
+        BvhTree result = new BvhTree(primitives, root);
+        LOGGER.info("Finished BVH Build with a total score of " + bvhQualityIndex + " and a SAH cost of " + result.computeSahCost());
+        LOGGER.info(String.format("BVH Build over %d primitives took %d ms (%s)",
+                totalNumberOfPrimitives, buildNanos / 1000000L, parallel ? "fork/join" : "sequential"));
+        return result;
     }
 
 
@@ -141,13 +186,20 @@ public class BvhTreeBuilder {
         }
 
         int winnerAxis = new MutableVector3(score[0], score[1], score[2]).getMaxValueIndex();
-        bvhQualityIndex += score[winnerAxis];
+        bvhQualityIndex.addAndGet(score[winnerAxis]);
         int firstRightIndex = partitionIndicesWithPivotAdjusting(winnerAxis, boxCenter.getScalar(winnerAxis), left, right);
         node.left = createNode(left, firstRightIndex - 1);
         node.right = createNode(firstRightIndex, right);
         node.axis = winnerAxis;
-        buildTreeTopDown(node.left, depth + 1, left, firstRightIndex - 1);
-        buildTreeTopDown(node.right, depth + 1, firstRightIndex, right);
+
+        if (parallel && numberOfIndices >= parallelThreshold) {
+            ForkJoinTask.invokeAll(
+                    new BuildTask(node.left, depth + 1, left, firstRightIndex - 1),
+                    new BuildTask(node.right, depth + 1, firstRightIndex, right));
+        } else {
+            buildTreeTopDown(node.left, depth + 1, left, firstRightIndex - 1);
+            buildTreeTopDown(node.right, depth + 1, firstRightIndex, right);
+        }
     }
 
 
@@ -241,6 +293,15 @@ public class BvhTreeBuilder {
 
 
     private AxisAlignedBoundingBox createBoundingBox(int leftIdx, int rightIdx) {
+        if (parallel && rightIdx - leftIdx + 1 >= parallelThreshold) {
+            // min/max reduction is order independent, so the parallel result equals the sequential one
+            return new BoundsTask(leftIdx, rightIdx).invoke();
+        }
+        return createBoundingBoxSequential(leftIdx, rightIdx);
+    }
+
+
+    private AxisAlignedBoundingBox createBoundingBoxSequential(int leftIdx, int rightIdx) {
         ImmutableVector3 pMin = Vector3.FLT_MAX;
         ImmutableVector3 pMax = Vector3.MINUS_FLT_MAX;
         for (int i = leftIdx; i <= rightIdx; i++) {
@@ -252,7 +313,63 @@ public class BvhTreeBuilder {
 
 
     private AxisAlignedBoundingBox createBoundingBox(int index) {
-        return createBoundingBox(index, index);
+        return createBoundingBoxSequential(index, index);
+    }
+
+
+    private class BuildTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BvhNode node;
+        private final int depth;
+        private final int left;
+        private final int right;
+
+
+        BuildTask(BvhNode node, int depth, int left, int right) {
+            this.node = node;
+            this.depth = depth;
+            this.left = left;
+            this.right = right;
+        }
+
+
+        @Override
+        protected void compute() {
+            buildTreeTopDown(node, depth, left, right);
+        }
+    }
+
+
+    private class BoundsTask extends RecursiveTask<AxisAlignedBoundingBox> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int leftIdx;
+        private final int rightIdx;
+
+
+        BoundsTask(int leftIdx, int rightIdx) {
+            this.leftIdx = leftIdx;
+            this.rightIdx = rightIdx;
+        }
+
+
+        @Override
+        protected AxisAlignedBoundingBox compute() {
+            if (rightIdx - leftIdx + 1 < parallelThreshold) {
+                return createBoundingBoxSequential(leftIdx, rightIdx);
+            }
+            int middle = (leftIdx + rightIdx) >>> 1;
+            BoundsTask leftTask = new BoundsTask(leftIdx, middle);
+            leftTask.fork();
+            AxisAlignedBoundingBox rightBox = new BoundsTask(middle + 1, rightIdx).compute();
+            AxisAlignedBoundingBox leftBox = leftTask.join();
+            return new AxisAlignedBoundingBox(
+                    VectorUtils.minVector(leftBox.getPMin(), rightBox.getPMin()),
+                    VectorUtils.maxVector(leftBox.getPMax(), rightBox.getPMax()));
+        }
     }
 }
 
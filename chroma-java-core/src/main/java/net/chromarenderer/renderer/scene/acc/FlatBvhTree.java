@@ -0,0 +1,506 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.AccStructType;
+import net.chromarenderer.math.Constants;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.utils.ChromaLogger;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Linearized version of a {@link BvhTree}. All nodes are stored in depth first order within two flat arrays:
+ * <ul>
+ * <li>{@code nodeBounds}: pMin and pMax of each node (6 floats per node)</li>
+ * <li>{@code nodes}: for inner nodes the index of the right child (left child is always the next node) followed by
+ * {@link #INNER_NODE}, for leaves the offset into {@code primitiveIndices} followed by the number of primitives.</li>
+ * </ul>
+ * Traversal is done iteratively with an explicit stack instead of recursing through node objects. Leaf triangles are
+ * copied into {@link LeafTriangles} in the order of {@code primitiveIndices}, the {@link Geometry} of a primitive is
+ * only looked up once it is hit.
+ *
+ * @author bensteinert
+ */
+public class FlatBvhTree implements AccelerationStructure {
+
+    private static final int INNER_NODE = -1;
+    static final float MISS = Float.POSITIVE_INFINITY;
+
+    private final Geometry[] geometry;
+    private final float[] nodeBounds;
+    private final int[] nodes;
+    private final int[] primitiveIndices;
+    private final LeafTriangles leafTriangles;
+
+    private float builtSahCost = -1.0f;
+    private float refittedSahCost = -1.0f;
+
+
+    private FlatBvhTree(Geometry[] geometry, float[] nodeBounds, int[] nodes, int[] primitiveIndices) {
+        this.geometry = geometry;
+        this.nodeBounds = nodeBounds;
+        this.nodes = nodes;
+        this.primitiveIndices = primitiveIndices;
+        this.leafTriangles = new LeafTriangles(primitiveIndices.length);
+    }
+
+
+    public static FlatBvhTree flatten(BvhTree tree) {
+        BvhNode root = tree.getRootNode();
+        int[] counts = new int[2];
+        countNodes(root, counts);
+
+        FlatBvhTree result = new FlatBvhTree(tree.getGeometry(), new float[counts[0] * 6], new int[counts[0] * 2], new int[counts[1]]);
+        result.flattenNode(root, 0, 0);
+        result.updateLeafTriangles();
+
+        ChromaLogger.get().info("Flattened BVH into " + counts[0] + " nodes using " + result.getSizeInBytes() / 1024 + " KB");
+        return result;
+    }
+
+
+    private static void countNodes(BvhNode node, int[] counts) {
+        counts[0]++;
+        if (node.indexList != null) {
+            counts[1] += node.indexList.length;
+        } else {
+            countNodes(node.left, counts);
+            countNodes(node.right, counts);
+        }
+    }
+
+
+    /**
+     * @return a pair of the next free node index and the next free primitive index.
+     */
+    private long flattenNode(BvhNode node, int nodeIndex, int primitiveOffset) {
+        ImmutableVector3 pMin = node.box.getPMin();
+        ImmutableVector3 pMax = node.box.getPMax();
+        int boundsOffset = nodeIndex * 6;
+        nodeBounds[boundsOffset] = pMin.getX();
+        nodeBounds[boundsOffset + 1] = pMin.getY();
+        nodeBounds[boundsOffset + 2] = pMin.getZ();
+        nodeBounds[boundsOffset + 3] = pMax.getX();
+        nodeBounds[boundsOffset + 4] = pMax.getY();
+        nodeBounds[boundsOffset + 5] = pMax.getZ();
+
+        if (node.indexList != null) {
+            System.arraycopy(node.indexList, 0, primitiveIndices, primitiveOffset, node.indexList.length);
+            nodes[nodeIndex * 2] = primitiveOffset;
+            nodes[nodeIndex * 2 + 1] = node.indexList.length;
+            return pack(nodeIndex + 1, primitiveOffset + node.indexList.length);
+        } else {
+            long afterLeft = flattenNode(node.left, nodeIndex + 1, primitiveOffset);
+            int rightIndex = (int) (afterLeft >>> 32);
+            nodes[nodeIndex * 2] = rightIndex;
+            nodes[nodeIndex * 2 + 1] = INNER_NODE;
+            return flattenNode(node.right, rightIndex, (int) afterLeft);
+        }
+    }
+
+
+    private static long pack(int nextNode, int nextPrimitive) {
+        return ((long) nextNode << 32) | (nextPrimitive & 0xFFFFFFFFL);
+    }
+
+
+    private void updateLeafTriangles() {
+        IntStream.range(0, primitiveIndices.length).parallel().forEach(i -> leafTriangles.set(i, geometry[primitiveIndices[i]]));
+    }
+
+
+    /**
+     * Same acceptance criteria as {@link IntersectionContext#checkGeometry(Geometry)} for all references of a leaf.
+     */
+    private void intersectLeaf(IntersectionContext ctx, int first, int end) {
+        Ray ray = ctx.ray;
+        float ox = ray.getOriginX();
+        float oy = ray.getOriginY();
+        float oz = ray.getOriginZ();
+        float dx = ray.getDirectionX();
+        float dy = ray.getDirectionY();
+        float dz = ray.getDirectionZ();
+
+        for (int i = first; i < end; i++) {
+            float distance = leafTriangles.intersect(i, ray, ox, oy, oz, dx, dy, dz);
+            if (ray.isOnRay(distance) && distance < ctx.hitDistance && distance > Constants.FLT_EPSILON) {
+                Geometry primitive = geometry[primitiveIndices[i]];
+                if (primitive != ray.getLastHitGeomerty()) {
+                    ctx.hitGeometry = primitive;
+                    ctx.hitDistance = distance;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Same acceptance criteria as {@link IntersectionContext#occludes(Geometry, Ray)} for all references of a leaf.
+     */
+    private boolean occludesLeaf(Ray ray, int first, int end) {
+        float ox = ray.getOriginX();
+        float oy = ray.getOriginY();
+        float oz = ray.getOriginZ();
+        float dx = ray.getDirectionX();
+        float dy = ray.getDirectionY();
+        float dz = ray.getDirectionZ();
+
+        for (int i = first; i < end; i++) {
+            float distance = leafTriangles.intersect(i, ray, ox, oy, oz, dx, dy, dz);
+            if (ray.isOnRay(distance) && distance > Constants.FLT_EPSILON && geometry[primitiveIndices[i]] != ray.getLastHitGeomerty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    @Override
+    public void intersect(IntersectionContext ctx) {
+        Ray ray = ctx.ray;
+        boolean anyMode = ctx.intersectionMode == IntersectionContext.ANY;
+
+        if (intersectBox(0, ray) == MISS) {
+            return;
+        }
+
+        int[] stack = ctx.nodeStack;
+        float[] entryDistances = ctx.nodeStackEntryDistances;
+        int stackPointer = 0;
+        int current = 0;
+
+        while (true) {
+            int data = nodes[current * 2];
+            int count = nodes[current * 2 + 1];
+
+            if (count != INNER_NODE) {
+                intersectLeaf(ctx, data, data + count);
+                if (anyMode && ctx.hitGeometry != null) {
+                    return;
+                }
+                current = -1;
+            } else {
+                int left = current + 1;
+                float tMinLeft = intersectBox(left, ray);
+                float tMinRight = intersectBox(data, ray);
+
+                if (tMinLeft != MISS && tMinRight != MISS) {
+                    int far;
+                    float tMinFar;
+                    if (tMinLeft <= tMinRight) {
+                        current = left;
+                        far = data;
+                        tMinFar = tMinRight;
+                    } else {
+                        current = data;
+                        far = left;
+                        tMinFar = tMinLeft;
+                    }
+                    if (stackPointer == stack.length) {
+                        ctx.growNodeStack();
+                        stack = ctx.nodeStack;
+                        entryDistances = ctx.nodeStackEntryDistances;
+                    }
+                    stack[stackPointer] = far;
+                    entryDistances[stackPointer++] = tMinFar;
+                } else if (tMinLeft != MISS) {
+                    current = left;
+                } else if (tMinRight != MISS) {
+                    current = data;
+                } else {
+                    current = -1;
+                }
+            }
+
+            while (current == -1) {
+                if (stackPointer == 0) {
+                    return;
+                }
+                stackPointer--;
+                // far child is only worth a visit if nothing closer than its entry point was found so far
+                if (anyMode || ctx.hitDistance > entryDistances[stackPointer]) {
+                    current = stack[stackPointer];
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Packet version of {@link #intersect(IntersectionContext)}: inner nodes are culled for the whole packet, leaves
+     * are tested by every ray which enters the leaf box in front of its current hit.
+     */
+    @Override
+    public void intersect(RayPacket packet) {
+        if (packet.intersectBox(nodeBounds, 0) == MISS) {
+            return;
+        }
+
+        int[] stack = packet.nodeStack;
+        float[] entryDistances = packet.nodeStackEntryDistances;
+        int stackPointer = 0;
+        int current = 0;
+
+        while (true) {
+            int data = nodes[current * 2];
+            int count = nodes[current * 2 + 1];
+
+            if (count != INNER_NODE) {
+                for (int r = 0; r < packet.size; r++) {
+                    IntersectionContext ctx = packet.contexts[r];
+                    if (intersectBox(current, ctx.ray) < ctx.hitDistance) {
+                        intersectLeaf(ctx, data, data + count);
+                    }
+                }
+                packet.updateMaxHitDistance();
+                current = -1;
+            } else {
+                int left = current + 1;
+                float tMinLeft = packet.intersectBox(nodeBounds, left * 6);
+                float tMinRight = packet.intersectBox(nodeBounds, data * 6);
+
+                if (tMinLeft != MISS && tMinRight != MISS) {
+                    int far;
+                    float tMinFar;
+                    if (tMinLeft <= tMinRight) {
+                        current = left;
+                        far = data;
+                        tMinFar = tMinRight;
+                    } else {
+                        current = data;
+                        far = left;
+                        tMinFar = tMinLeft;
+                    }
+                    if (stackPointer == stack.length) {
+                        packet.growNodeStack();
+                        stack = packet.nodeStack;
+                        entryDistances = packet.nodeStackEntryDistances;
+                    }
+                    stack[stackPointer] = far;
+                    entryDistances[stackPointer++] = tMinFar;
+                } else if (tMinLeft != MISS) {
+                    current = left;
+                } else if (tMinRight != MISS) {
+                    current = data;
+                } else {
+                    current = -1;
+                }
+            }
+
+            while (current == -1) {
+                if (stackPointer == 0) {
+                    return;
+                }
+                stackPointer--;
+                if (packet.getMaxHitDistance() > entryDistances[stackPointer]) {
+                    current = stack[stackPointer];
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public boolean isOccluded(IntersectionContext ctx) {
+        Ray ray = ctx.ray;
+        if (intersectBox(0, ray) == MISS) {
+            return false;
+        }
+
+        int[] stack = ctx.nodeStack;
+        int stackPointer = 0;
+        int current = 0;
+
+        while (true) {
+            int data = nodes[current * 2];
+            int count = nodes[current * 2 + 1];
+
+            if (count != INNER_NODE) {
+                if (occludesLeaf(ray, data, data + count)) {
+                    return true;
+                }
+            } else {
+                int left = current + 1;
+                boolean hitLeft = intersectBox(left, ray) != MISS;
+                boolean hitRight = intersectBox(data, ray) != MISS;
+                if (hitLeft) {
+                    if (hitRight) {
+                        if (stackPointer == stack.length) {
+                            ctx.growNodeStack();
+                            stack = ctx.nodeStack;
+                        }
+                        stack[stackPointer++] = data;
+                    }
+                    current = left;
+                    continue;
+                } else if (hitRight) {
+                    current = data;
+                    continue;
+                }
+            }
+
+            if (stackPointer == 0) {
+                return false;
+            }
+            current = stack[--stackPointer];
+        }
+    }
+
+
+    private float intersectBox(int nodeIndex, Ray ray) {
+        return intersectBox(nodeBounds, nodeIndex * 6, ray);
+    }
+
+
+    /**
+     * Same slab test as {@link AxisAlignedBoundingBox#intersects(IntersectionContext)} working on a flat bounds array.
+     *
+     * @return the entry distance clipped to the ray interval or {@link #MISS}.
+     */
+    static float intersectBox(float[] nodeBounds, int offset, Ray ray) {
+        float ox = ray.getOriginX();
+        float oy = ray.getOriginY();
+        float oz = ray.getOriginZ();
+        float idx = ray.getInvDirectionX();
+        float idy = ray.getInvDirectionY();
+        float idz = ray.getInvDirectionZ();
+        int signX = ray.getXSign() * 3;
+        int signY = ray.getSignY() * 3;
+        int signZ = ray.getSignZ() * 3;
+
+        float xmin = (nodeBounds[offset + signX] - ox) * idx;
+        float xmax = (nodeBounds[offset + 3 - signX] - ox) * idx;
+        float ymin = (nodeBounds[offset + 1 + signY] - oy) * idy;
+        float ymax = (nodeBounds[offset + 4 - signY] - oy) * idy;
+
+        if ((xmin > ymax) || (ymin > xmax)) {
+            return MISS;
+        }
+
+        if (ymin > xmin) {
+            xmin = ymin;
+        }
+        if (ymax < xmax) {
+            xmax = ymax;
+        }
+
+        float zmin = (nodeBounds[offset + 2 + signZ] - oz) * idz;
+        float zmax = (nodeBounds[offset + 5 - signZ] - oz) * idz;
+
+        if ((xmin > zmax) || (zmin > xmax)) {
+            return MISS;
+        }
+
+        if (zmin > xmin) {
+            xmin = zmin;
+        }
+        if (zmax < xmax) {
+            xmax = zmax;
+        }
+
+        if ((xmin < ray.getTMax()) && (xmax > ray.getTMin())) {
+            return xmin > ray.getTMin() ? xmin : ray.getTMin();
+        } else {
+            return MISS;
+        }
+    }
+
+
+    /**
+     * Leaves are refitted in parallel first. Since children are always stored behind their parent, a single backwards
+     * sweep over the inner nodes then sees both children before the parent.
+     */
+    @Override
+    public boolean refit(List<Geometry> geometryList) {
+        if (geometryList.size() != geometry.length) {
+            return false;
+        }
+        if (builtSahCost < 0.0f) {
+            builtSahCost = computeSahCost();
+        }
+        for (int i = 0; i < geometry.length; i++) {
+            geometry[i] = geometryList.get(i);
+        }
+        updateLeafTriangles();
+
+        int numberOfNodes = getNumberOfNodes();
+        IntStream.range(0, numberOfNodes).parallel().forEach(nodeIndex -> {
+            if (nodes[nodeIndex * 2 + 1] != INNER_NODE) {
+                refitLeaf(nodeIndex);
+            }
+        });
+
+        for (int nodeIndex = numberOfNodes - 1; nodeIndex >= 0; nodeIndex--) {
+            if (nodes[nodeIndex * 2 + 1] == INNER_NODE) {
+                int offset = nodeIndex * 6;
+                SahBvhTreeBuilder.resetBounds(nodeBounds, offset);
+                SahBvhTreeBuilder.growBounds(nodeBounds, offset, nodeBounds, offset + 6);
+                SahBvhTreeBuilder.growBounds(nodeBounds, offset, nodeBounds, nodes[nodeIndex * 2] * 6);
+            }
+        }
+
+        refittedSahCost = computeSahCost();
+        return true;
+    }
+
+
+    private void refitLeaf(int nodeIndex) {
+        int offset = nodeIndex * 6;
+        int first = nodes[nodeIndex * 2];
+        SahBvhTreeBuilder.resetBounds(nodeBounds, offset);
+        for (int i = first; i < first + nodes[nodeIndex * 2 + 1]; i++) {
+            Geometry primitive = geometry[primitiveIndices[i]];
+            ImmutableVector3 pMin = primitive.getSpatialMinimum();
+            ImmutableVector3 pMax = primitive.getSpatialMaximum();
+            for (int axis = 0; axis < 3; axis++) {
+                nodeBounds[offset + axis] = Math.min(nodeBounds[offset + axis], pMin.getScalar(axis));
+                nodeBounds[offset + 3 + axis] = Math.max(nodeBounds[offset + 3 + axis], pMax.getScalar(axis));
+            }
+        }
+    }
+
+
+    @Override
+    public float getQualityDegradation() {
+        if (refittedSahCost < 0.0f || builtSahCost <= 0.0f) {
+            return 1.0f;
+        }
+        return refittedSahCost / builtSahCost;
+    }
+
+
+    /**
+     * Same cost model as {@link BvhTree#computeSahCost()}.
+     */
+    private float computeSahCost() {
+        float rootArea = SahBvhTreeBuilder.surfaceArea(nodeBounds, 0);
+        if (rootArea <= 0.0f) {
+            return 0.0f;
+        }
+        float cost = 0.0f;
+        for (int nodeIndex = 0; nodeIndex < getNumberOfNodes(); nodeIndex++) {
+            float area = SahBvhTreeBuilder.surfaceArea(nodeBounds, nodeIndex * 6);
+            int count = nodes[nodeIndex * 2 + 1];
+            cost += count == INNER_NODE ? area * SahBvhTreeBuilder.TRAVERSAL_COST : area * count * SahBvhTreeBuilder.INTERSECTION_COST;
+        }
+        return cost / rootArea;
+    }
+
+
+    public int getNumberOfNodes() {
+        return nodes.length / 2;
+    }
+
+
+    public long getSizeInBytes() {
+        return nodeBounds.length * 4L + nodes.length * 4L + primitiveIndices.length * 4L + leafTriangles.getSizeInBytes();
+    }
+
+
+    @Override
+    public AccStructType getType() {
+        return AccStructType.FLAT_BVH;
+    }
+}
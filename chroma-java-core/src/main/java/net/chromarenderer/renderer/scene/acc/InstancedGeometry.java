@@ -0,0 +1,116 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.ImmutableMatrix3x3;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.Vector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+
+/**
+ * World space view on a primitive of a {@link SharedMesh} hit through one of its {@link MeshInstance}s. Created per hit
+ * by {@link TwoLevelBvh}, so the shared primitive itself never needs to be copied.
+ *
+ * @author bensteinert
+ */
+public class InstancedGeometry implements Geometry {
+
+    private final MeshInstance instance;
+    private final Geometry primitive;
+
+
+    InstancedGeometry(MeshInstance instance, Geometry primitive) {
+        this.instance = instance;
+        this.primitive = primitive;
+    }
+
+
+    @Override
+    public float intersect(Ray ray) {
+        return primitive.intersect(instance.toObjectRay(ray));
+    }
+
+
+    @Override
+    public Geometry transpose(Vector3 transpose) {
+        return toWorldGeometry().transpose(transpose);
+    }
+
+
+    @Override
+    public Geometry rotate(ImmutableMatrix3x3 rotationY) {
+        return toWorldGeometry().rotate(rotationY);
+    }
+
+
+    @Override
+    public ImmutableVector3 getNormal(ImmutableVector3 hitpoint) {
+        return instance.toWorldNormal(primitive.getNormal(instance.toObjectPoint(hitpoint)));
+    }
+
+
+    @Override
+    public ImmutableVector3 getShadingNormal(ImmutableVector3 hitpoint) {
+        return instance.toWorldNormal(primitive.getShadingNormal(instance.toObjectPoint(hitpoint)));
+    }
+
+
+    @Override
+    public boolean isPlane() {
+        return primitive.isPlane();
+    }
+
+
+    @Override
+    public Material getMaterial() {
+        return primitive.getMaterial();
+    }
+
+
+    /**
+     * Changes the material of all instances of the shared primitive.
+     */
+    @Override
+    public void setMaterial(Material material) {
+        primitive.setMaterial(material);
+    }
+
+
+    @Override
+    public float getArea() {
+        return toWorldGeometry().getArea();
+    }
+
+
+    @Override
+    public ImmutableVector3 getUnifDistrSample() {
+        return instance.toWorldPoint(primitive.getUnifDistrSample());
+    }
+
+
+    @Override
+    public ImmutableVector3 getSpatialMinimum() {
+        return toWorldGeometry().getSpatialMinimum();
+    }
+
+
+    @Override
+    public ImmutableVector3 getSpatialMaximum() {
+        return toWorldGeometry().getSpatialMaximum();
+    }
+
+
+    public Geometry toWorldGeometry() {
+        return instance.toWorldGeometry(primitive);
+    }
+
+
+    public MeshInstance getInstance() {
+        return instance;
+    }
+
+
+    public Geometry getPrimitive() {
+        return primitive;
+    }
+}
@@ -4,6 +4,8 @@ import net.chromarenderer.math.Constants;
 import net.chromarenderer.math.geometry.Geometry;
 import net.chromarenderer.math.raytracing.Ray;
 
+import java.util.Arrays;
+
 public class IntersectionContext {
 
     public static final int ANY = 4;
@@ -14,6 +16,16 @@ public class IntersectionContext {
     public Ray ray;
     float[] lastTValues = {0.0f, 0.0f};
     int intersectionMode = FIRST;
+    int[] nodeStack = new int[64];
+    float[] nodeStackEntryDistances = new float[64];
+    float[] laneDistances = new float[WideIntersector.LANES];
+    private float[] leafDistances = new float[8];
+    private float[] nodeStackBounds;
+    MeshInstance hitInstance;
+    IntersectionContext instanceContext;
+    int[] mailboxStamps = new int[0];
+    private int mailboxStamp;
+    private UniformGrid.Traversal gridTraversal;
 
 
     public void reinit() {
@@ -42,8 +54,72 @@ public class IntersectionContext {
     }
 
 
+    /**
+     * Same acceptance criteria as {@link #checkGeometry(Geometry)} without looking for the closest hit.
+     */
+    static boolean occludes(Geometry geometry, Ray ray) {
+        if (geometry != ray.getLastHitGeomerty()) {
+            float distance = geometry.intersect(ray);
+            return ray.isOnRay(distance) && distance > Constants.FLT_EPSILON;
+        }
+        return false;
+    }
+
+
     public void reinit(Ray ray, int mode) {
         reinit(ray);
         intersectionMode = mode;
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Starts a new query for structures which reference primitives multiple times: a primitive has already been tested
+     * by the current query if its entry in {@link #mailboxStamps} equals the returned stamp.
+     */
+    int nextMailboxStamp(int numberOfPrimitives) {
+        if (mailboxStamps.length < numberOfPrimitives) {
+            mailboxStamps = new int[numberOfPrimitives];
+            mailboxStamp = 0;
+        }
+        if (mailboxStamp == Integer.MAX_VALUE) {
+            Arrays.fill(mailboxStamps, 0);
+            mailboxStamp = 0;
+        }
+        return ++mailboxStamp;
+    }
+
+
+    UniformGrid.Traversal getGridTraversal() {
+        if (gridTraversal == null) {
+            gridTraversal = new UniformGrid.Traversal();
+        }
+        return gridTraversal;
+    }
+
+
+    /**
+     * Boxes for traversals which decode node bounds on the fly: 6 floats for each entry of {@link #nodeStack} behind
+     * {@code scratchBoxes} boxes of scratch space.
+     */
+    float[] getNodeStackBounds(int scratchBoxes) {
+        if (nodeStackBounds == null || nodeStackBounds.length < (nodeStack.length + scratchBoxes) * 6) {
+            nodeStackBounds = nodeStackBounds == null ? new float[(nodeStack.length + scratchBoxes) * 6]
+                    : Arrays.copyOf(nodeStackBounds, (nodeStack.length + scratchBoxes) * 6);
+        }
+        return nodeStackBounds;
+    }
+
+
+    float[] getLeafDistances(int count) {
+        if (leafDistances.length < count + WideIntersector.LANES) {
+            leafDistances = new float[count + WideIntersector.LANES];
+        }
+        return leafDistances;
+    }
+
+
+    void growNodeStack() {
+        nodeStack = Arrays.copyOf(nodeStack, nodeStack.length * 2);
+        nodeStackEntryDistances = Arrays.copyOf(nodeStackEntryDistances, nodeStackEntryDistances.length * 2);
+    }
+}
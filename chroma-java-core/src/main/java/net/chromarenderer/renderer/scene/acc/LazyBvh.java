@@ -0,0 +1,301 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.AccStructType;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.raytracing.Ray;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * BVH which splits its nodes on demand: only the root is set up front, the children of a node are built the first time
+ * a ray enters it, using a binned surface area heuristic over the primitives of that node. Build time and memory thus
+ * follow the part of the scene rays actually reach instead of the whole scene.
+ * <p>
+ * A node starts out holding the indices of its primitives and is expanded by replacing them with its two children via
+ * compare-and-set. Render threads reaching an unexpanded node at the same time may both split it, only one result gets
+ * published and the other one is thrown away. Traversal itself never blocks.
+ *
+ * @author bensteinert
+ */
+public class LazyBvh implements AccelerationStructure {
+
+    static final int DEFAULT_MAX_LEAF_SIZE = 4;
+    private static final int BINS = 16;
+
+    private static final AtomicReferenceFieldUpdater<Node, Object> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Object.class, "state");
+
+    private final Geometry[] geometry;
+    private final int maxLeafSize;
+    private final Node root;
+    private final AtomicInteger numberOfNodes = new AtomicInteger(1);
+
+
+    public LazyBvh(List<Geometry> geometryList) {
+        this(geometryList, DEFAULT_MAX_LEAF_SIZE);
+    }
+
+
+    public LazyBvh(List<Geometry> geometryList, int maxLeafSize) {
+        if (maxLeafSize < 1) {
+            throw new IllegalArgumentException("Leaves have to hold at least one primitive, got " + maxLeafSize + ".");
+        }
+        this.maxLeafSize = maxLeafSize;
+        geometry = geometryList.toArray(new Geometry[geometryList.size()]);
+
+        int[] primitives = new int[geometry.length];
+        float[] bounds = SahBvhTreeBuilder.emptyBounds();
+        float[] primitiveBounds = new float[6];
+        for (int i = 0; i < geometry.length; i++) {
+            primitives[i] = i;
+            readBounds(geometry[i], primitiveBounds, 0);
+            SahBvhTreeBuilder.growBounds(bounds, 0, primitiveBounds, 0);
+        }
+        root = new Node(bounds, primitives);
+    }
+
+
+    @Override
+    public void intersect(IntersectionContext ctx) {
+        if (FlatBvhTree.intersectBox(root.bounds, 0, ctx.ray) != FlatBvhTree.MISS) {
+            intersect(root, ctx);
+        }
+    }
+
+
+    private void intersect(Node node, IntersectionContext ctx) {
+        Object state = node.state;
+        if (state instanceof int[] && ((int[]) state).length <= maxLeafSize) {
+            for (int idx : (int[]) state) {
+                if (geometry[idx] != ctx.hitGeometry) {
+                    ctx.checkGeometry(geometry[idx]);
+                }
+            }
+            return;
+        }
+
+        Node[] children = state instanceof Node[] ? (Node[]) state : expand(node, (int[]) state);
+        Node left = children[0];
+        Node right = children[1];
+        float tMinLeft = FlatBvhTree.intersectBox(left.bounds, 0, ctx.ray);
+        float tMinRight = FlatBvhTree.intersectBox(right.bounds, 0, ctx.ray);
+        if (tMinLeft <= tMinRight) {
+            if (tMinLeft != FlatBvhTree.MISS) {
+                intersect(left, ctx);
+            }
+            if (tMinRight != FlatBvhTree.MISS && ctx.hitDistance > tMinRight) {
+                intersect(right, ctx);
+            }
+        } else {
+            intersect(right, ctx);
+            if (tMinLeft != FlatBvhTree.MISS && ctx.hitDistance > tMinLeft) {
+                intersect(left, ctx);
+            }
+        }
+    }
+
+
+    @Override
+    public boolean isOccluded(IntersectionContext ctx) {
+        return FlatBvhTree.intersectBox(root.bounds, 0, ctx.ray) != FlatBvhTree.MISS && isOccluded(root, ctx.ray);
+    }
+
+
+    private boolean isOccluded(Node node, Ray ray) {
+        Object state = node.state;
+        if (state instanceof int[] && ((int[]) state).length <= maxLeafSize) {
+            for (int idx : (int[]) state) {
+                if (IntersectionContext.occludes(geometry[idx], ray)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Node[] children = state instanceof Node[] ? (Node[]) state : expand(node, (int[]) state);
+        return (FlatBvhTree.intersectBox(children[0].bounds, 0, ray) != FlatBvhTree.MISS && isOccluded(children[0], ray)) ||
+                (FlatBvhTree.intersectBox(children[1].bounds, 0, ray) != FlatBvhTree.MISS && isOccluded(children[1], ray));
+    }
+
+
+    /**
+     * Splits the given primitives into two children and tries to publish them in the node.
+     *
+     * @return the children of the node, either the new ones or the ones another thread published first.
+     */
+    private Node[] expand(Node node, int[] primitives) {
+        Node[] children = split(primitives);
+        if (STATE.compareAndSet(node, primitives, children)) {
+            numberOfNodes.addAndGet(2);
+            return children;
+        }
+        return (Node[]) node.state;
+    }
+
+
+    private Node[] split(int[] primitives) {
+        int n = primitives.length;
+        float[] primitiveBounds = new float[n * 6];
+        float[] centroids = new float[n * 3];
+        float[] centroidBounds = SahBvhTreeBuilder.emptyBounds();
+        for (int i = 0; i < n; i++) {
+            readBounds(geometry[primitives[i]], primitiveBounds, i * 6);
+            for (int axis = 0; axis < 3; axis++) {
+                centroids[i * 3 + axis] = (primitiveBounds[i * 6 + axis] + primitiveBounds[i * 6 + 3 + axis]) * 0.5f;
+            }
+            SahBvhTreeBuilder.growByPoint(centroidBounds, 0, centroids, i * 3);
+        }
+
+        int axis = 0;
+        for (int i = 1; i < 3; i++) {
+            if (centroidBounds[3 + i] - centroidBounds[i] > centroidBounds[3 + axis] - centroidBounds[axis]) {
+                axis = i;
+            }
+        }
+        float centroidMin = centroidBounds[axis];
+        float extent = centroidBounds[3 + axis] - centroidMin;
+
+        // all centroids in one spot, no spatial order to exploit
+        if (!(extent > 0.0f)) {
+            return splitAt(primitives, primitiveBounds, null, n / 2);
+        }
+
+        float binScale = BINS / extent;
+        int[] binOf = new int[n];
+        int[] binCounts = new int[BINS];
+        float[] binBounds = new float[BINS * 6];
+        for (int bin = 0; bin < BINS; bin++) {
+            SahBvhTreeBuilder.resetBounds(binBounds, bin * 6);
+        }
+        for (int i = 0; i < n; i++) {
+            int bin = Math.min(BINS - 1, (int) ((centroids[i * 3 + axis] - centroidMin) * binScale));
+            binOf[i] = bin;
+            binCounts[bin]++;
+            SahBvhTreeBuilder.growBounds(binBounds, bin * 6, primitiveBounds, i * 6);
+        }
+
+        // sweep from the right, then find the cheapest plane from the left
+        float[] rightAreas = new float[BINS];
+        float[] sweep = SahBvhTreeBuilder.emptyBounds();
+        for (int bin = BINS - 1; bin > 0; bin--) {
+            SahBvhTreeBuilder.growBounds(sweep, 0, binBounds, bin * 6);
+            rightAreas[bin] = SahBvhTreeBuilder.surfaceArea(sweep, 0);
+        }
+        SahBvhTreeBuilder.resetBounds(sweep, 0);
+        int leftCount = 0;
+        int bestPlane = -1;
+        float bestCost = Float.MAX_VALUE;
+        for (int plane = 1; plane < BINS; plane++) {
+            SahBvhTreeBuilder.growBounds(sweep, 0, binBounds, (plane - 1) * 6);
+            leftCount += binCounts[plane - 1];
+            if (leftCount == 0 || leftCount == n) {
+                continue;
+            }
+            float cost = SahBvhTreeBuilder.surfaceArea(sweep, 0) * leftCount + rightAreas[plane] * (n - leftCount);
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestPlane = plane;
+            }
+        }
+        if (bestPlane < 0) {
+            return splitAt(primitives, primitiveBounds, null, n / 2);
+        }
+
+        int[] order = new int[n];
+        int front = 0;
+        int back = n;
+        for (int i = 0; i < n; i++) {
+            if (binOf[i] < bestPlane) {
+                order[front++] = i;
+            } else {
+                order[--back] = i;
+            }
+        }
+        return splitAt(primitives, primitiveBounds, order, front);
+    }
+
+
+    /**
+     * @param order positions into {@code primitives} in child order, identity if {@code null}.
+     */
+    private static Node[] splitAt(int[] primitives, float[] primitiveBounds, int[] order, int leftCount) {
+        Node[] children = new Node[2];
+        int offset = 0;
+        for (int child = 0; child < 2; child++) {
+            int count = child == 0 ? leftCount : primitives.length - leftCount;
+            int[] childPrimitives = new int[count];
+            float[] bounds = SahBvhTreeBuilder.emptyBounds();
+            for (int i = 0; i < count; i++) {
+                int position = order != null ? order[offset + i] : offset + i;
+                childPrimitives[i] = primitives[position];
+                SahBvhTreeBuilder.growBounds(bounds, 0, primitiveBounds, position * 6);
+            }
+            children[child] = new Node(bounds, childPrimitives);
+            offset += count;
+        }
+        return children;
+    }
+
+
+    private static void readBounds(Geometry primitive, float[] bounds, int offset) {
+        ImmutableVector3 pMin = primitive.getSpatialMinimum();
+        ImmutableVector3 pMax = primitive.getSpatialMaximum();
+        bounds[offset] = pMin.getX();
+        bounds[offset + 1] = pMin.getY();
+        bounds[offset + 2] = pMin.getZ();
+        bounds[offset + 3] = pMax.getX();
+        bounds[offset + 4] = pMax.getY();
+        bounds[offset + 5] = pMax.getZ();
+    }
+
+
+    /**
+     * Expands every node down to the leaves, as if each of them had been visited by a ray.
+     */
+    void expandAll() {
+        expandAll(root);
+    }
+
+
+    private void expandAll(Node node) {
+        Object state = node.state;
+        if (state instanceof int[] && ((int[]) state).length <= maxLeafSize) {
+            return;
+        }
+        Node[] children = state instanceof Node[] ? (Node[]) state : expand(node, (int[]) state);
+        expandAll(children[0]);
+        expandAll(children[1]);
+    }
+
+
+    /**
+     * @return number of nodes built so far, root included.
+     */
+    public int getNumberOfNodes() {
+        return numberOfNodes.get();
+    }
+
+
+    @Override
+    public AccStructType getType() {
+        return AccStructType.LAZY_BVH;
+    }
+
+
+    static final class Node {
+
+        final float[] bounds;
+
+        // int[] of primitive indices until expanded, Node[] of both children afterwards
+        volatile Object state;
+
+
+        Node(float[] bounds, int[] primitives) {
+            this.bounds = bounds;
+            this.state = primitives;
+        }
+    }
+}
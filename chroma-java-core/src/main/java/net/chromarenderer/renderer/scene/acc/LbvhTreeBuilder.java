@@ -0,0 +1,441 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.AccStructType;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.VectorUtils;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.utils.ChromaLogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Linear BVH builder (LBVH). Primitive centroids are mapped to 30 bit Morton codes and sorted by a parallel LSD radix
+ * sort. The hierarchy is the binary radix tree over the sorted codes, where every inner node is determined
+ * independently from its neighbours (Karras 2012) - so all inner nodes are computed in one parallel pass.
+ * <p>
+ * Optionally the top {@code sahTopLevels} levels are thrown away and rebuilt with an exhaustive surface area heuristic
+ * sweep over the subtrees below them, which repairs the poor splits Morton order tends to produce close to the root.
+ *
+ * @author bensteinert
+ */
+public class LbvhTreeBuilder {
+
+    private static final Logger LOGGER = ChromaLogger.get();
+
+    private static final int MORTON_BITS_PER_AXIS = 10;
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX_BUCKETS = 1 << RADIX_BITS;
+
+    private Geometry[] primitives;
+    private float[] primitiveBounds;
+    private int[] sortedCodes;
+    private int[] sortedIndices;
+    private int[] splits;
+
+    private final int maxIndices;
+    private final int sahTopLevels;
+
+    // index ranges below this size are processed sequentially
+    int parallelThreshold = 4096;
+
+
+    public LbvhTreeBuilder(int trianglesPerNode) {
+        this(trianglesPerNode, 0);
+    }
+
+
+    public LbvhTreeBuilder(int trianglesPerNode, int sahTopLevels) {
+        this.maxIndices = trianglesPerNode;
+        this.sahTopLevels = sahTopLevels;
+    }
+
+
+    public BvhTree buildBvh(List<Geometry> geometryList) {
+        long start = System.nanoTime();
+        int totalNumberOfPrimitives = geometryList.size();
+
+        primitives = new Geometry[totalNumberOfPrimitives];
+        primitiveBounds = new float[totalNumberOfPrimitives * 6];
+        float[] centroids = new float[totalNumberOfPrimitives * 3];
+
+        parallelRange(totalNumberOfPrimitives).forEach(i -> {
+            Geometry element = geometryList.get(i);
+            primitives[i] = element;
+            ImmutableVector3 pMin = element.getSpatialMinimum();
+            ImmutableVector3 pMax = element.getSpatialMaximum();
+            primitiveBounds[i * 6] = pMin.getX();
+            primitiveBounds[i * 6 + 1] = pMin.getY();
+            primitiveBounds[i * 6 + 2] = pMin.getZ();
+            primitiveBounds[i * 6 + 3] = pMax.getX();
+            primitiveBounds[i * 6 + 4] = pMax.getY();
+            primitiveBounds[i * 6 + 5] = pMax.getZ();
+            for (int axis = 0; axis < 3; axis++) {
+                centroids[i * 3 + axis] = (primitiveBounds[i * 6 + axis] + primitiveBounds[i * 6 + 3 + axis]) * 0.5f;
+            }
+        });
+
+        float[] centroidBounds = SahBvhTreeBuilder.emptyBounds();
+        for (int i = 0; i < totalNumberOfPrimitives; i++) {
+            SahBvhTreeBuilder.growByPoint(centroidBounds, 0, centroids, i * 3);
+        }
+
+        int[] codes = new int[totalNumberOfPrimitives];
+        sortedIndices = new int[totalNumberOfPrimitives];
+        parallelRange(totalNumberOfPrimitives).forEach(i -> {
+            codes[i] = mortonCode(centroids, i * 3, centroidBounds);
+            sortedIndices[i] = i;
+        });
+
+        sortedCodes = codes;
+        radixSort(sortedCodes, sortedIndices, parallelThreshold);
+
+        splits = new int[Math.max(0, totalNumberOfPrimitives - 1)];
+        parallelRange(splits.length).forEach(this::computeSplit);
+
+        BvhNode root;
+        if (sahTopLevels > 0) {
+            root = buildTopLevelsWithSah(totalNumberOfPrimitives);
+        } else {
+            root = emitNode(0, 0, totalNumberOfPrimitives - 1);
+        }
+
+        BvhTree result = new BvhTree(primitives, root, AccStructType.LBVH);
+        LOGGER.info(String.format("LBVH Build over %d primitives took %d ms with a SAH cost of %f",
+                totalNumberOfPrimitives, (System.nanoTime() - start) / 1000000L, result.computeSahCost()));
+        return result;
+    }
+
+
+    private IntStream parallelRange(int endExclusive) {
+        IntStream range = IntStream.range(0, endExclusive);
+        return endExclusive >= parallelThreshold ? range.parallel() : range;
+    }
+
+
+    /**
+     * @return 30 bit Morton code of the point at {@code offset} within the given bounds (pMin and pMax).
+     */
+    public static int mortonCode(float[] centroids, int offset, float[] centroidBounds) {
+        int code = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            float extent = centroidBounds[axis + 3] - centroidBounds[axis];
+            float relative = extent > 0.0f ? (centroids[offset + axis] - centroidBounds[axis]) / extent : 0.0f;
+            int quantized = Math.min((1 << MORTON_BITS_PER_AXIS) - 1, Math.max(0, (int) (relative * (1 << MORTON_BITS_PER_AXIS))));
+            // x ends up in the highest bit of each triple, z in the lowest
+            code |= expandBits(quantized) << (2 - axis);
+        }
+        return code;
+    }
+
+
+    /**
+     * Inserts two zero bits in front of each of the 10 lowest bits of the given value.
+     */
+    private static int expandBits(int value) {
+        value = (value * 0x00010001) & 0xFF0000FF;
+        value = (value * 0x00000101) & 0x0F00F00F;
+        value = (value * 0x00000011) & 0xC30C30C3;
+        value = (value * 0x00000005) & 0x49249249;
+        return value;
+    }
+
+
+    /**
+     * Stable LSD radix sort of the non negative keys, carrying along the values. Each pass counts digits per chunk in
+     * parallel, computes the chunk offsets sequentially and scatters all chunks in parallel again.
+     */
+    static void radixSort(int[] keys, int[] values, int chunkSize) {
+        int length = keys.length;
+        int numberOfChunks = Math.max(1, (length + chunkSize - 1) / chunkSize);
+        int[][] histograms = new int[numberOfChunks][RADIX_BUCKETS];
+        int[] keyBuffer = new int[length];
+        int[] valueBuffer = new int[length];
+
+        int[] sourceKeys = keys;
+        int[] sourceValues = values;
+        int[] targetKeys = keyBuffer;
+        int[] targetValues = valueBuffer;
+
+        for (int shift = 0; shift < Integer.SIZE - 1; shift += RADIX_BITS) {
+            final int digitShift = shift;
+            final int[] fromKeys = sourceKeys;
+            final int[] fromValues = sourceValues;
+            final int[] toKeys = targetKeys;
+            final int[] toValues = targetValues;
+
+            IntStream chunks = IntStream.range(0, numberOfChunks);
+            (numberOfChunks > 1 ? chunks.parallel() : chunks).forEach(chunk -> {
+                int[] histogram = histograms[chunk];
+                Arrays.fill(histogram, 0);
+                int chunkEnd = Math.min(length, (chunk + 1) * chunkSize);
+                for (int i = chunk * chunkSize; i < chunkEnd; i++) {
+                    histogram[(fromKeys[i] >>> digitShift) & (RADIX_BUCKETS - 1)]++;
+                }
+            });
+
+            // turn the counts into scatter offsets: digit major, chunk minor keeps the sort stable
+            int offset = 0;
+            for (int digit = 0; digit < RADIX_BUCKETS; digit++) {
+                for (int chunk = 0; chunk < numberOfChunks; chunk++) {
+                    int count = histograms[chunk][digit];
+                    histograms[chunk][digit] = offset;
+                    offset += count;
+                }
+            }
+
+            chunks = IntStream.range(0, numberOfChunks);
+            (numberOfChunks > 1 ? chunks.parallel() : chunks).forEach(chunk -> {
+                int[] offsets = histograms[chunk];
+                int chunkEnd = Math.min(length, (chunk + 1) * chunkSize);
+                for (int i = chunk * chunkSize; i < chunkEnd; i++) {
+                    int target = offsets[(fromKeys[i] >>> digitShift) & (RADIX_BUCKETS - 1)]++;
+                    toKeys[target] = fromKeys[i];
+                    toValues[target] = fromValues[i];
+                }
+            });
+
+            sourceKeys = toKeys;
+            sourceValues = toValues;
+            targetKeys = fromKeys;
+            targetValues = fromValues;
+        }
+
+        if (sourceKeys != keys) {
+            System.arraycopy(sourceKeys, 0, keys, 0, length);
+            System.arraycopy(sourceValues, 0, values, 0, length);
+        }
+    }
+
+
+    /**
+     * Length of the common prefix of the sorted keys at position i and j. Equal codes are made unique by falling back to
+     * their positions, -1 for positions out of range.
+     */
+    private int commonPrefix(int i, int j) {
+        if (j < 0 || j >= sortedCodes.length) {
+            return -1;
+        }
+        int difference = sortedCodes[i] ^ sortedCodes[j];
+        if (difference == 0) {
+            return Integer.SIZE + Integer.numberOfLeadingZeros(i ^ j);
+        }
+        return Integer.numberOfLeadingZeros(difference);
+    }
+
+
+    /**
+     * Finds the key range covered by inner node i and the position of its split. The left child covers
+     * [first, split], the right child [split + 1, last]. Inner node ids equal the first (left child) or last (right
+     * child) position of their range, so the split is all that needs to be stored.
+     */
+    private void computeSplit(int i) {
+        int direction = commonPrefix(i, i + 1) - commonPrefix(i, i - 1) >= 0 ? 1 : -1;
+        int minPrefix = commonPrefix(i, i - direction);
+
+        int maxLength = 2;
+        while (commonPrefix(i, i + maxLength * direction) > minPrefix) {
+            maxLength <<= 1;
+        }
+        int length = 0;
+        for (int step = maxLength >> 1; step > 0; step >>= 1) {
+            if (commonPrefix(i, i + (length + step) * direction) > minPrefix) {
+                length += step;
+            }
+        }
+        int j = i + length * direction;
+
+        int nodePrefix = commonPrefix(i, j);
+        int splitOffset = 0;
+        int step = length;
+        do {
+            step = (step + 1) >> 1;
+            if (commonPrefix(i, i + (splitOffset + step) * direction) > nodePrefix) {
+                splitOffset += step;
+            }
+        } while (step > 1);
+
+        splits[i] = i + splitOffset * direction + Math.min(direction, 0);
+    }
+
+
+    private int splitAxis(int first, int last) {
+        int difference = sortedCodes[first] ^ sortedCodes[last];
+        if (difference == 0) {
+            return 0;
+        }
+        int highestBit = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(difference);
+        return 2 - highestBit % 3;
+    }
+
+
+    private BvhNode emitNode(int nodeId, int first, int last) {
+        if (last - first + 1 <= maxIndices) {
+            return createLeaf(first, last);
+        }
+        int split = splits[nodeId];
+        BvhNode left;
+        BvhNode right;
+        if (last - first + 1 >= parallelThreshold) {
+            EmitTask leftTask = new EmitTask(split, first, split);
+            EmitTask rightTask = new EmitTask(split + 1, split + 1, last);
+            ForkJoinTask.invokeAll(leftTask, rightTask);
+            left = leftTask.getRawResult();
+            right = rightTask.getRawResult();
+        } else {
+            left = emitNode(split, first, split);
+            right = emitNode(split + 1, split + 1, last);
+        }
+        return createInnerNode(left, right, splitAxis(first, last));
+    }
+
+
+    private BvhNode createLeaf(int first, int last) {
+        float[] bounds = SahBvhTreeBuilder.emptyBounds();
+        for (int i = first; i <= last; i++) {
+            SahBvhTreeBuilder.growBounds(bounds, 0, primitiveBounds, sortedIndices[i] * 6);
+        }
+        BvhNode leaf = new BvhNode(SahBvhTreeBuilder.toBox(bounds), 0);
+        leaf.indexList = Arrays.copyOfRange(sortedIndices, first, last + 1);
+        return leaf;
+    }
+
+
+    private static BvhNode createInnerNode(BvhNode left, BvhNode right, int axis) {
+        BvhNode node = new BvhNode(new AxisAlignedBoundingBox(
+                VectorUtils.minVector(left.box.getPMin(), right.box.getPMin()),
+                VectorUtils.maxVector(left.box.getPMax(), right.box.getPMax())), axis);
+        node.left = left;
+        node.right = right;
+        return node;
+    }
+
+
+    private BvhNode buildTopLevelsWithSah(int totalNumberOfPrimitives) {
+        List<int[]> ranges = new ArrayList<>();
+        collectSubtrees(0, 0, totalNumberOfPrimitives - 1, 0, ranges);
+
+        List<Subtree> subtrees = new ArrayList<>(ranges.size());
+        ranges.forEach(range -> subtrees.add(null));
+        IntStream.range(0, ranges.size()).parallel().forEach(i -> {
+            int[] range = ranges.get(i);
+            subtrees.set(i, new Subtree(emitNode(range[0], range[1], range[2]), range[2] - range[1] + 1));
+        });
+
+        return buildTopDownWithSah(subtrees);
+    }
+
+
+    private void collectSubtrees(int nodeId, int first, int last, int depth, List<int[]> ranges) {
+        if (depth == sahTopLevels || last - first + 1 <= maxIndices) {
+            ranges.add(new int[]{nodeId, first, last});
+            return;
+        }
+        int split = splits[nodeId];
+        collectSubtrees(split, first, split, depth + 1, ranges);
+        collectSubtrees(split + 1, split + 1, last, depth + 1, ranges);
+    }
+
+
+    /**
+     * Exhaustive SAH sweep over the subtree boxes sorted by their centers - affordable since there are at most
+     * 2^sahTopLevels subtrees.
+     */
+    private static BvhNode buildTopDownWithSah(List<Subtree> subtrees) {
+        if (subtrees.size() == 1) {
+            return subtrees.get(0).node;
+        }
+
+        int size = subtrees.size();
+        float bestCost = Float.MAX_VALUE;
+        int bestAxis = 0;
+        int bestSplit = 1;
+        float[] rightCosts = new float[size];
+        float[] bounds = new float[6];
+
+        for (int axis = 0; axis < 3; axis++) {
+            sortByCenter(subtrees, axis);
+
+            SahBvhTreeBuilder.resetBounds(bounds, 0);
+            int count = 0;
+            for (int i = size - 1; i > 0; i--) {
+                growBounds(bounds, subtrees.get(i).node.box);
+                count += subtrees.get(i).numberOfPrimitives;
+                rightCosts[i] = SahBvhTreeBuilder.surfaceArea(bounds, 0) * count;
+            }
+
+            SahBvhTreeBuilder.resetBounds(bounds, 0);
+            count = 0;
+            for (int i = 1; i < size; i++) {
+                growBounds(bounds, subtrees.get(i - 1).node.box);
+                count += subtrees.get(i - 1).numberOfPrimitives;
+                float cost = SahBvhTreeBuilder.surfaceArea(bounds, 0) * count + rightCosts[i];
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestSplit = i;
+                }
+            }
+        }
+
+        sortByCenter(subtrees, bestAxis);
+        BvhNode left = buildTopDownWithSah(new ArrayList<>(subtrees.subList(0, bestSplit)));
+        BvhNode right = buildTopDownWithSah(new ArrayList<>(subtrees.subList(bestSplit, size)));
+        return createInnerNode(left, right, bestAxis);
+    }
+
+
+    private static void sortByCenter(List<Subtree> subtrees, int axis) {
+        subtrees.sort(Comparator.comparingDouble(subtree -> subtree.node.box.getCenter().getScalar(axis)));
+    }
+
+
+    private static void growBounds(float[] bounds, AxisAlignedBoundingBox box) {
+        for (int axis = 0; axis < 3; axis++) {
+            bounds[axis] = Math.min(bounds[axis], box.getPMin().getScalar(axis));
+            bounds[axis + 3] = Math.max(bounds[axis + 3], box.getPMax().getScalar(axis));
+        }
+    }
+
+
+    private static class Subtree {
+
+        private final BvhNode node;
+        private final int numberOfPrimitives;
+
+
+        Subtree(BvhNode node, int numberOfPrimitives) {
+            this.node = node;
+            this.numberOfPrimitives = numberOfPrimitives;
+        }
+    }
+
+
+    private class EmitTask extends RecursiveTask<BvhNode> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int nodeId;
+        private final int first;
+        private final int last;
+
+
+        EmitTask(int nodeId, int first, int last) {
+            this.nodeId = nodeId;
+            this.first = first;
+            this.last = last;
+        }
+
+
+        @Override
+        protected BvhNode compute() {
+            return emitNode(nodeId, first, last);
+        }
+    }
+}
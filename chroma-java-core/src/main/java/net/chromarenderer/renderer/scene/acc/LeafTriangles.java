@@ -0,0 +1,158 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.Constants;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.geometry.SetSphere;
+import net.chromarenderer.math.geometry.SphereSet;
+import net.chromarenderer.math.geometry.Triangle;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.utils.ChromaStatistics;
+
+/**
+ * Triangles referenced by the leaves of a flat BVH, stored as structure of arrays in leaf order: vertex 0, both edges
+ * and the normal of reference {@code i} are found at index {@code i} of the component arrays. The intersection test is
+ * the same Möller-Trumbore test as {@link Triangle#intersect(Ray)} with precomputed edges, working on plain floats
+ * only. Spheres of a {@link SphereSet} are flagged in {@code spheres} and keep center and radius in the components of
+ * vertex 0 and the x component of edge 1, they are tested by the float routine of the set. All primitives which are no
+ * triangles are kept in {@code others}, the ones which are no set spheres are intersected through {@link Geometry}.
+ * The component arrays are read directly by the {@link WideIntersector}s which test several references at once and
+ * leave everything in {@code others} to {@link #intersect(int, Ray, float, float, float, float, float, float)}.
+ *
+ * @author bensteinert
+ */
+class LeafTriangles {
+
+    final float[] v0x;
+    final float[] v0y;
+    final float[] v0z;
+    final float[] e1x;
+    final float[] e1y;
+    final float[] e1z;
+    final float[] e2x;
+    final float[] e2y;
+    final float[] e2z;
+    final float[] nx;
+    final float[] ny;
+    final float[] nz;
+    final Geometry[] others;
+    final boolean[] spheres;
+
+
+    LeafTriangles(int numberOfReferences) {
+        // padding leaves zero triangles which are never hit
+        int padded = numberOfReferences + WideIntersector.LANES;
+        v0x = new float[padded];
+        v0y = new float[padded];
+        v0z = new float[padded];
+        e1x = new float[padded];
+        e1y = new float[padded];
+        e1z = new float[padded];
+        e2x = new float[padded];
+        e2y = new float[padded];
+        e2z = new float[padded];
+        nx = new float[padded];
+        ny = new float[padded];
+        nz = new float[padded];
+        others = new Geometry[numberOfReferences];
+        spheres = new boolean[numberOfReferences];
+    }
+
+
+    void set(int reference, Geometry primitive) {
+        if (primitive instanceof Triangle) {
+            Triangle triangle = (Triangle) primitive;
+            ImmutableVector3 p0 = triangle.getP0();
+            ImmutableVector3 e1 = triangle.e1();
+            ImmutableVector3 e2 = triangle.e2();
+            ImmutableVector3 normal = triangle.getNormal();
+            v0x[reference] = p0.getX();
+            v0y[reference] = p0.getY();
+            v0z[reference] = p0.getZ();
+            e1x[reference] = e1.getX();
+            e1y[reference] = e1.getY();
+            e1z[reference] = e1.getZ();
+            e2x[reference] = e2.getX();
+            e2y[reference] = e2.getY();
+            e2z[reference] = e2.getZ();
+            nx[reference] = normal.getX();
+            ny[reference] = normal.getY();
+            nz[reference] = normal.getZ();
+            others[reference] = null;
+            spheres[reference] = false;
+        } else if (primitive instanceof SetSphere) {
+            SetSphere sphere = (SetSphere) primitive;
+            SphereSet set = sphere.getSet();
+            v0x[reference] = set.getCenterX(sphere.getIndex());
+            v0y[reference] = set.getCenterY(sphere.getIndex());
+            v0z[reference] = set.getCenterZ(sphere.getIndex());
+            e1x[reference] = set.getRadius(sphere.getIndex());
+            others[reference] = primitive;
+            spheres[reference] = true;
+        } else {
+            others[reference] = primitive;
+            spheres[reference] = false;
+        }
+    }
+
+
+    /**
+     * @return the distance to the hit or 0 if the reference is missed, same as {@link Geometry#intersect(Ray)}.
+     */
+    float intersect(int i, Ray ray, float ox, float oy, float oz, float dx, float dy, float dz) {
+        if (others[i] != null) {
+            if (spheres[i]) {
+                return SphereSet.intersect(v0x[i], v0y[i], v0z[i], e1x[i], ray, ox, oy, oz, dx, dy, dz);
+            }
+            return others[i].intersect(ray);
+        }
+        ChromaStatistics.intersectOp();
+
+        float backFaceCulling = dx * nx[i] + dy * ny[i] + dz * nz[i];
+        if (backFaceCulling > 0.0f && !ray.isTransparent()) {
+            return 0.f;
+        }
+
+        float edge1x = e1x[i];
+        float edge1y = e1y[i];
+        float edge1z = e1z[i];
+        float edge2x = e2x[i];
+        float edge2y = e2y[i];
+        float edge2z = e2z[i];
+
+        float px = dy * edge2z - dz * edge2y;
+        float py = dz * edge2x - dx * edge2z;
+        float pz = dx * edge2y - dy * edge2x;
+
+        float det = edge1x * px + edge1y * py + edge1z * pz;
+        if (det > -Constants.FLT_EPSILON && det < Constants.FLT_EPSILON) {
+            return 0.f;
+        }
+        float invDet = 1.0f / det;
+
+        float tx = ox - v0x[i];
+        float ty = oy - v0y[i];
+        float tz = oz - v0z[i];
+
+        float u = (tx * px + ty * py + tz * pz) * invDet;
+        if (u < 0.0f || u > 1.0f) {
+            return 0.f;
+        }
+
+        float qx = ty * edge1z - tz * edge1y;
+        float qy = tz * edge1x - tx * edge1z;
+        float qz = tx * edge1y - ty * edge1x;
+
+        float v = (dx * qx + dy * qy + dz * qz) * invDet;
+        if (v < 0.0f || u + v > 1.0f) {
+            return 0.f;
+        }
+
+        return (edge2x * qx + edge2y * qy + edge2z * qz) * invDet;
+    }
+
+
+    long getSizeInBytes() {
+        return v0x.length * 12 * 4L + others.length * 5L;
+    }
+}
@@ -0,0 +1,149 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.ImmutableMatrix3x3;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.Vector3;
+import net.chromarenderer.math.VectorUtils;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.raytracing.Ray;
+
+/**
+ * Places a {@link SharedMesh} into the scene: world = transformation.mult(object) + translation, the same convention as
+ * {@link Geometry#rotate(ImmutableMatrix3x3)} followed by {@link Geometry#transpose(Vector3)}. Rays are transformed
+ * into object space without normalizing their direction, so hit distances stay comparable across instances.
+ *
+ * @author bensteinert
+ */
+public class MeshInstance {
+
+    private final SharedMesh mesh;
+    private final ImmutableMatrix3x3 transformation;
+    private final ImmutableMatrix3x3 inverseTransformation;
+    private final ImmutableMatrix3x3 normalTransformation;
+    private final ImmutableVector3 translation;
+    private final boolean identity;
+    private final ImmutableVector3 pMin;
+    private final ImmutableVector3 pMax;
+
+
+    public MeshInstance(SharedMesh mesh) {
+        this.mesh = mesh;
+        this.transformation = new ImmutableMatrix3x3(Vector3.X_AXIS, Vector3.Y_AXIS, Vector3.Z_AXIS);
+        this.inverseTransformation = transformation;
+        this.normalTransformation = transformation;
+        this.translation = Vector3.ORIGIN;
+        this.identity = true;
+        this.pMin = mesh.getSpatialMinimum();
+        this.pMax = mesh.getSpatialMaximum();
+    }
+
+
+    public MeshInstance(SharedMesh mesh, ImmutableMatrix3x3 transformation, ImmutableVector3 translation) {
+        this.mesh = mesh;
+        this.transformation = transformation;
+        this.inverseTransformation = transformation.invert();
+        this.normalTransformation = inverseTransformation.transpose();
+        this.translation = translation;
+        this.identity = false;
+
+        ImmutableVector3 min = Vector3.FLT_MAX;
+        ImmutableVector3 max = Vector3.MINUS_FLT_MAX;
+        ImmutableVector3[] objectBounds = {mesh.getSpatialMinimum(), mesh.getSpatialMaximum()};
+        for (int corner = 0; corner < 8; corner++) {
+            ImmutableVector3 worldCorner = toWorldPoint(new ImmutableVector3(
+                    objectBounds[corner & 1].getX(),
+                    objectBounds[(corner >> 1) & 1].getY(),
+                    objectBounds[(corner >> 2) & 1].getZ()));
+            min = VectorUtils.minVector(min, worldCorner);
+            max = VectorUtils.maxVector(max, worldCorner);
+        }
+        this.pMin = min;
+        this.pMax = max;
+    }
+
+
+    void intersect(IntersectionContext ctx) {
+        if (ctx.instanceContext == null) {
+            ctx.instanceContext = new IntersectionContext();
+        }
+        IntersectionContext objectContext = ctx.instanceContext;
+        objectContext.reinit(identity ? ctx.ray : toObjectRay(ctx.ray), ctx.intersectionMode);
+        objectContext.hitDistance = ctx.hitDistance;
+
+        mesh.getAccelerationStructure().intersect(objectContext);
+
+        if (objectContext.hitGeometry != null) {
+            ctx.hitGeometry = objectContext.hitGeometry;
+            ctx.hitDistance = objectContext.hitDistance;
+            ctx.hitInstance = this;
+        }
+    }
+
+
+    boolean isOccluded(IntersectionContext ctx) {
+        if (ctx.instanceContext == null) {
+            ctx.instanceContext = new IntersectionContext();
+        }
+        IntersectionContext objectContext = ctx.instanceContext;
+        objectContext.reinit(identity ? ctx.ray : toObjectRay(ctx.ray), IntersectionContext.ANY);
+        return mesh.getAccelerationStructure().isOccluded(objectContext);
+    }
+
+
+    /**
+     * The mailbox of the world ray only carries over if it refers to a primitive of this very instance.
+     */
+    Ray toObjectRay(Ray ray) {
+        Geometry lastHit = ray.getLastHitGeomerty();
+        Geometry objectLastHit = null;
+        if (lastHit instanceof InstancedGeometry && ((InstancedGeometry) lastHit).getInstance() == this) {
+            objectLastHit = ((InstancedGeometry) lastHit).getPrimitive();
+        }
+        return new Ray(inverseTransformation.mult(ray.getOrigin().minus(translation)), inverseTransformation.mult(ray.getDirection()),
+                ray.getTMin(), ray.getTMax(), ray.isTransparent()).mailbox(objectLastHit);
+    }
+
+
+    ImmutableVector3 toObjectPoint(ImmutableVector3 point) {
+        return identity ? point : inverseTransformation.mult(point.minus(translation));
+    }
+
+
+    ImmutableVector3 toWorldPoint(ImmutableVector3 point) {
+        return identity ? point : transformation.mult(point).plus(translation);
+    }
+
+
+    ImmutableVector3 toWorldNormal(ImmutableVector3 normal) {
+        return identity ? normal : normalTransformation.mult(normal).normalize();
+    }
+
+
+    /**
+     * @return a copy of the given primitive of the shared mesh placed in world space. Spheres only follow rigid
+     * transformations.
+     */
+    public Geometry toWorldGeometry(Geometry primitive) {
+        return identity ? primitive : primitive.rotate(transformation).transpose(translation);
+    }
+
+
+    public SharedMesh getMesh() {
+        return mesh;
+    }
+
+
+    public boolean isIdentity() {
+        return identity;
+    }
+
+
+    ImmutableVector3 getSpatialMinimum() {
+        return pMin;
+    }
+
+
+    ImmutableVector3 getSpatialMaximum() {
+        return pMax;
+    }
+}
@@ -3,6 +3,8 @@ package net.chromarenderer.renderer.scene.acc;
 import net.chromarenderer.AccStructType;
 import net.chromarenderer.math.geometry.Geometry;
 
+import java.util.List;
+
 /**
  * @author bensteinert
  */
@@ -22,6 +24,24 @@ public class NoAccelerationImpl implements AccelerationStructure {
     }
 
 
+    @Override
+    public boolean isOccluded(IntersectionContext ctx) {
+        for (Geometry geometry : geometryList) {
+            if (IntersectionContext.occludes(geometry, ctx.ray)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    @Override
+    public boolean refit(List<Geometry> geometryList) {
+        this.geometryList = geometryList;
+        return true;
+    }
+
+
     @Override
     public AccStructType getType() {
         return AccStructType.LIST;
@@ -0,0 +1,687 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.AccStructType;
+import net.chromarenderer.math.Constants;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.OctahedralNormal;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.geometry.MeshTriangle;
+import net.chromarenderer.math.geometry.Triangle;
+import net.chromarenderer.math.geometry.TriangleMesh;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+import net.chromarenderer.renderer.shader.MaterialType;
+import net.chromarenderer.utils.ChromaLogger;
+import net.chromarenderer.utils.ChromaStatistics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static triangle scene kept outside of the Java heap. Vertices, faces, material indices and a flattened BVH live in
+ * direct buffers, so neither their size nor their number of objects adds to the work of the garbage collector. The heap
+ * only holds the material palette and the few primitives which are no triangles, the latter are intersected one by
+ * one next to the tree.
+ * <ul>
+ * <li>{@code vertices}: x, y and z of each vertex. Vertices shared within a {@link TriangleMesh} are stored once.</li>
+ * <li>{@code faces}: three vertex indices per face. Faces are stored in leaf order, so a leaf is a range of faces.</li>
+ * <li>{@code materialIndices}: index into the material palette per face.</li>
+ * <li>{@code vertexNormals}: only present if any source triangle has vertex normals, the normal per corner of each
+ * face as packed by {@link OctahedralNormal}.</li>
+ * <li>{@code nodeBounds} and {@code nodes}: same layout as in {@link FlatBvhTree}, leaves store their first face
+ * followed by the number of faces.</li>
+ * </ul>
+ * Hits are reported as {@link StoredTriangle}s, created per hit like the {@link InstancedGeometry} of a
+ * {@link TwoLevelBvh}. Normals are computed from the corners, which are reordered where necessary so that the normal
+ * points to the same side as the one of the source triangle. Every buffer is limited to 2 GB, which allows for about
+ * 170 million faces.
+ * <p>
+ * The store lowers the steady-state heap usage only. It is built from triangles on the heap through a
+ * {@link BvhTreeBuilder}, so a scene still has to fit onto the heap once during {@link #build(List)}.
+ *
+ * @author bensteinert
+ */
+public class OffHeapGeometryStore implements AccelerationStructure {
+
+    private static final int INNER_NODE = -1;
+    private static final float MISS = FlatBvhTree.MISS;
+
+    private final FloatBuffer vertices;
+    private final IntBuffer faces;
+    private final ShortBuffer materialIndices;
+    private final IntBuffer vertexNormals;
+    private final FloatBuffer nodeBounds;
+    private final IntBuffer nodes;
+    private final Geometry[] others;
+    private volatile Material[] materials;
+
+    private final int numberOfFaces;
+    private final int numberOfVertices;
+    private final int numberOfNodes;
+
+
+    private OffHeapGeometryStore(FloatBuffer vertices, IntBuffer faces, ShortBuffer materialIndices, IntBuffer vertexNormals,
+                                 FloatBuffer nodeBounds, IntBuffer nodes, Geometry[] others, Material[] materials) {
+        this.vertices = vertices;
+        this.faces = faces;
+        this.materialIndices = materialIndices;
+        this.vertexNormals = vertexNormals;
+        this.nodeBounds = nodeBounds;
+        this.nodes = nodes;
+        this.others = others;
+        this.materials = materials;
+        this.numberOfFaces = materialIndices.capacity();
+        this.numberOfVertices = vertices.capacity() / 3;
+        this.numberOfNodes = nodes.capacity() / 2;
+    }
+
+
+    /**
+     * Builds a BVH over the triangles of the given primitives and moves both into direct buffers. The primitives and
+     * the tree are not referenced afterwards and can be dropped by the caller. Note that the peak heap usage is not
+     * lowered by this: the primitives and the temporary tree are on the heap while the buffers are filled.
+     *
+     * @throws IllegalStateException if the triangles use more than 65536 distinct materials
+     */
+    public static OffHeapGeometryStore build(List<Geometry> geometry) {
+        long start = System.nanoTime();
+        List<Geometry> triangles = new ArrayList<>(geometry.size());
+        List<Geometry> others = new ArrayList<>();
+        List<Material> palette = new ArrayList<>();
+        Map<Material, Integer> paletteIndices = new IdentityHashMap<>();
+        for (Geometry primitive : geometry) {
+            if (primitive instanceof Triangle) {
+                triangles.add(primitive);
+                if (!paletteIndices.containsKey(primitive.getMaterial())) {
+                    if (palette.size() > 0xFFFF) {
+                        throw new IllegalStateException("Material palette of off-heap store is full.");
+                    }
+                    paletteIndices.put(primitive.getMaterial(), palette.size());
+                    palette.add(primitive.getMaterial());
+                }
+            } else {
+                others.add(primitive);
+            }
+        }
+
+        Geometry[] leafOrder = new Geometry[triangles.size()];
+        FloatBuffer nodeBounds;
+        IntBuffer nodes;
+        if (triangles.isEmpty()) {
+            // an empty leaf with an inverted box as root
+            float[] emptyBounds = new float[6];
+            SahBvhTreeBuilder.resetBounds(emptyBounds, 0);
+            nodeBounds = allocateFloats(6);
+            nodeBounds.put(emptyBounds);
+            nodes = allocateInts(2);
+        } else {
+            BvhTree tree = new BvhTreeBuilder(4, 20).buildBvh(triangles);
+            int[] counts = new int[2];
+            countNodes(tree.getRootNode(), counts);
+            if (counts[1] != triangles.size()) {
+                throw new IllegalStateException("Expected every triangle to be referenced by exactly one leaf.");
+            }
+            nodeBounds = allocateFloats(counts[0] * 6L);
+            nodes = allocateInts(counts[0] * 2L);
+            flattenNode(tree.getRootNode(), tree.getGeometry(), leafOrder, nodeBounds, nodes, 0, 0);
+        }
+
+        IntBuffer faces = allocateInts(leafOrder.length * 3L);
+        int numberOfVertices = indexVertices(leafOrder, faces);
+        FloatBuffer vertices = allocateFloats(numberOfVertices * 3L);
+        ShortBuffer materialIndices = allocateShorts(leafOrder.length);
+        IntBuffer vertexNormals = hasVertexNormals(leafOrder) ? allocateInts(leafOrder.length * 3L) : null;
+
+        for (int face = 0; face < leafOrder.length; face++) {
+            Triangle triangle = (Triangle) leafOrder[face];
+            putVertex(vertices, faces.get(face * 3), triangle.getP0());
+            putVertex(vertices, faces.get(face * 3 + 1), triangle.getP1());
+            putVertex(vertices, faces.get(face * 3 + 2), triangle.getP2());
+            materialIndices.put(face, (short) (int) paletteIndices.get(triangle.getMaterial()));
+            if (vertexNormals != null) {
+                putVertexNormals(vertexNormals, face, triangle);
+            }
+        }
+
+        OffHeapGeometryStore result = new OffHeapGeometryStore(vertices, faces, materialIndices, vertexNormals, nodeBounds, nodes,
+                others.toArray(new Geometry[others.size()]), palette.toArray(new Material[palette.size()]));
+        for (int face = 0; face < leafOrder.length; face++) {
+            result.orientLike(face, ((Triangle) leafOrder[face]).getNormal());
+        }
+
+        ChromaLogger.get().info("Moved " + result.numberOfFaces + " triangles sharing " + result.numberOfVertices + " vertices and "
+                + result.numberOfNodes + " BVH nodes off-heap using " + result.getSizeInBytes() / 1024 + " KB in "
+                + (System.nanoTime() - start) / 1000000L + " ms");
+        return result;
+    }
+
+
+    private static void countNodes(BvhNode node, int[] counts) {
+        counts[0]++;
+        if (node.indexList != null) {
+            counts[1] += node.indexList.length;
+        } else {
+            countNodes(node.left, counts);
+            countNodes(node.right, counts);
+        }
+    }
+
+
+    /**
+     * Same depth first layout as {@link FlatBvhTree}, the primitives of the leaves are collected in leaf order.
+     *
+     * @return a pair of the next free node index and the next free face index.
+     */
+    private static long flattenNode(BvhNode node, Geometry[] geometry, Geometry[] leafOrder, FloatBuffer nodeBounds,
+                                    IntBuffer nodes, int nodeIndex, int faceOffset) {
+        ImmutableVector3 pMin = node.box.getPMin();
+        ImmutableVector3 pMax = node.box.getPMax();
+        for (int axis = 0; axis < 3; axis++) {
+            nodeBounds.put(nodeIndex * 6 + axis, pMin.getScalar(axis));
+            nodeBounds.put(nodeIndex * 6 + 3 + axis, pMax.getScalar(axis));
+        }
+
+        if (node.indexList != null) {
+            for (int i = 0; i < node.indexList.length; i++) {
+                leafOrder[faceOffset + i] = geometry[node.indexList[i]];
+            }
+            nodes.put(nodeIndex * 2, faceOffset);
+            nodes.put(nodeIndex * 2 + 1, node.indexList.length);
+            return pack(nodeIndex + 1, faceOffset + node.indexList.length);
+        } else {
+            long afterLeft = flattenNode(node.left, geometry, leafOrder, nodeBounds, nodes, nodeIndex + 1, faceOffset);
+            int rightIndex = (int) (afterLeft >>> 32);
+            nodes.put(nodeIndex * 2, rightIndex);
+            nodes.put(nodeIndex * 2 + 1, INNER_NODE);
+            return flattenNode(node.right, geometry, leafOrder, nodeBounds, nodes, rightIndex, (int) afterLeft);
+        }
+    }
+
+
+    private static long pack(int nextNode, int nextFace) {
+        return ((long) nextNode << 32) | (nextFace & 0xFFFFFFFFL);
+    }
+
+
+    /**
+     * Writes the vertex indices of all faces. Faces of the same {@link TriangleMesh} keep sharing their vertices, all
+     * other triangles get three vertices of their own.
+     *
+     * @return the number of vertices.
+     */
+    private static int indexVertices(Geometry[] leafOrder, IntBuffer faces) {
+        Map<TriangleMesh, int[]> meshVertices = new IdentityHashMap<>();
+        int numberOfVertices = 0;
+        for (int face = 0; face < leafOrder.length; face++) {
+            if (leafOrder[face] instanceof MeshTriangle) {
+                MeshTriangle triangle = (MeshTriangle) leafOrder[face];
+                int[] remap = meshVertices.get(triangle.getMesh());
+                if (remap == null) {
+                    remap = new int[triangle.getMesh().getNumberOfVertices()];
+                    Arrays.fill(remap, -1);
+                    meshVertices.put(triangle.getMesh(), remap);
+                }
+                for (int corner = 0; corner < 3; corner++) {
+                    int vertex = triangle.getMesh().getVertexIndex(triangle.getFace(), corner);
+                    if (remap[vertex] == -1) {
+                        remap[vertex] = numberOfVertices++;
+                    }
+                    faces.put(face * 3 + corner, remap[vertex]);
+                }
+            } else {
+                for (int corner = 0; corner < 3; corner++) {
+                    faces.put(face * 3 + corner, numberOfVertices++);
+                }
+            }
+        }
+        return numberOfVertices;
+    }
+
+
+    private static void putVertex(FloatBuffer vertices, int vertex, ImmutableVector3 position) {
+        vertices.put(vertex * 3, position.getX());
+        vertices.put(vertex * 3 + 1, position.getY());
+        vertices.put(vertex * 3 + 2, position.getZ());
+    }
+
+
+    private static boolean hasVertexNormals(Geometry[] leafOrder) {
+        for (Geometry triangle : leafOrder) {
+            if (((Triangle) triangle).hasVertexNormals()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static void putVertexNormals(IntBuffer vertexNormals, int face, Triangle triangle) {
+        if (triangle instanceof MeshTriangle && triangle.hasVertexNormals()) {
+            MeshTriangle meshTriangle = (MeshTriangle) triangle;
+            for (int corner = 0; corner < 3; corner++) {
+                vertexNormals.put(face * 3 + corner, meshTriangle.getMesh().getPackedVertexNormal(meshTriangle.getFace(), corner));
+            }
+        } else {
+            vertexNormals.put(face * 3, OctahedralNormal.encode(triangle.getShadingNormal(triangle.getP0())));
+            vertexNormals.put(face * 3 + 1, OctahedralNormal.encode(triangle.getShadingNormal(triangle.getP1())));
+            vertexNormals.put(face * 3 + 2, OctahedralNormal.encode(triangle.getShadingNormal(triangle.getP2())));
+        }
+    }
+
+
+    /**
+     * Swaps the last two corners of a face if its computed normal faces away from the given one. The swap changes
+     * neither the area covered nor the distance of any hit.
+     */
+    private void orientLike(int face, ImmutableVector3 normal) {
+        if (getNormal(face).dot(normal) < 0.0f) {
+            int corner1 = faces.get(face * 3 + 1);
+            faces.put(face * 3 + 1, faces.get(face * 3 + 2));
+            faces.put(face * 3 + 2, corner1);
+            if (vertexNormals != null) {
+                int normal1 = vertexNormals.get(face * 3 + 1);
+                vertexNormals.put(face * 3 + 1, vertexNormals.get(face * 3 + 2));
+                vertexNormals.put(face * 3 + 2, normal1);
+            }
+        }
+    }
+
+
+    private static FloatBuffer allocateFloats(long count) {
+        return allocate(count * 4L).asFloatBuffer();
+    }
+
+
+    private static IntBuffer allocateInts(long count) {
+        return allocate(count * 4L).asIntBuffer();
+    }
+
+
+    private static ShortBuffer allocateShorts(long count) {
+        return allocate(count * 2L).asShortBuffer();
+    }
+
+
+    private static ByteBuffer allocate(long bytes) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Scene too large for the off-heap store, " + bytes + " bytes requested for one buffer.");
+        }
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+
+
+    @Override
+    public void intersect(IntersectionContext ctx) {
+        Ray ray = ctx.ray;
+        boolean anyMode = ctx.intersectionMode == IntersectionContext.ANY;
+        for (Geometry other : others) {
+            ctx.checkGeometry(other);
+            if (anyMode && ctx.hitGeometry != null) {
+                return;
+            }
+        }
+
+        int lastHitFace = getLastHitFace(ray);
+        int hitFace = -1;
+        if (intersectBox(0, ray) == MISS) {
+            return;
+        }
+
+        int[] stack = ctx.nodeStack;
+        float[] entryDistances = ctx.nodeStackEntryDistances;
+        int stackPointer = 0;
+        int current = 0;
+
+        while (true) {
+            int data = nodes.get(current * 2);
+            int count = nodes.get(current * 2 + 1);
+
+            if (count != INNER_NODE) {
+                for (int face = data; face < data + count; face++) {
+                    float distance = intersect(face, ray);
+                    if (ray.isOnRay(distance) && distance < ctx.hitDistance && distance > Constants.FLT_EPSILON && face != lastHitFace) {
+                        hitFace = face;
+                        ctx.hitDistance = distance;
+                    }
+                }
+                if (anyMode && hitFace != -1) {
+                    ctx.hitGeometry = new StoredTriangle(this, hitFace);
+                    return;
+                }
+                current = -1;
+            } else {
+                int left = current + 1;
+                float tMinLeft = intersectBox(left, ray);
+                float tMinRight = intersectBox(data, ray);
+
+                if (tMinLeft != MISS && tMinRight != MISS) {
+                    int far;
+                    float tMinFar;
+                    if (tMinLeft <= tMinRight) {
+                        current = left;
+                        far = data;
+                        tMinFar = tMinRight;
+                    } else {
+                        current = data;
+                        far = left;
+                        tMinFar = tMinLeft;
+                    }
+                    if (stackPointer == stack.length) {
+                        ctx.growNodeStack();
+                        stack = ctx.nodeStack;
+                        entryDistances = ctx.nodeStackEntryDistances;
+                    }
+                    stack[stackPointer] = far;
+                    entryDistances[stackPointer++] = tMinFar;
+                } else if (tMinLeft != MISS) {
+                    current = left;
+                } else if (tMinRight != MISS) {
+                    current = data;
+                } else {
+                    current = -1;
+                }
+            }
+
+            while (current == -1) {
+                if (stackPointer == 0) {
+                    if (hitFace != -1) {
+                        ctx.hitGeometry = new StoredTriangle(this, hitFace);
+                    }
+                    return;
+                }
+                stackPointer--;
+                if (anyMode || ctx.hitDistance > entryDistances[stackPointer]) {
+                    current = stack[stackPointer];
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public boolean isOccluded(IntersectionContext ctx) {
+        Ray ray = ctx.ray;
+        for (Geometry other : others) {
+            if (IntersectionContext.occludes(other, ray)) {
+                return true;
+            }
+        }
+
+        int lastHitFace = getLastHitFace(ray);
+        if (intersectBox(0, ray) == MISS) {
+            return false;
+        }
+
+        int[] stack = ctx.nodeStack;
+        int stackPointer = 0;
+        int current = 0;
+
+        while (true) {
+            int data = nodes.get(current * 2);
+            int count = nodes.get(current * 2 + 1);
+
+            if (count != INNER_NODE) {
+                for (int face = data; face < data + count; face++) {
+                    float distance = intersect(face, ray);
+                    if (ray.isOnRay(distance) && distance > Constants.FLT_EPSILON && face != lastHitFace) {
+                        return true;
+                    }
+                }
+            } else {
+                int left = current + 1;
+                boolean hitLeft = intersectBox(left, ray) != MISS;
+                boolean hitRight = intersectBox(data, ray) != MISS;
+                if (hitLeft) {
+                    if (hitRight) {
+                        if (stackPointer == stack.length) {
+                            ctx.growNodeStack();
+                            stack = ctx.nodeStack;
+                        }
+                        stack[stackPointer++] = data;
+                    }
+                    current = left;
+                    continue;
+                } else if (hitRight) {
+                    current = data;
+                    continue;
+                }
+            }
+
+            if (stackPointer == 0) {
+                return false;
+            }
+            current = stack[--stackPointer];
+        }
+    }
+
+
+    /**
+     * Faces are reported as new {@link StoredTriangle}s for every hit, so the face a ray starts from is recognized by
+     * its index instead of its identity.
+     */
+    private int getLastHitFace(Ray ray) {
+        Geometry lastHit = ray.getLastHitGeomerty();
+        if (lastHit instanceof StoredTriangle && ((StoredTriangle) lastHit).getStore() == this) {
+            return ((StoredTriangle) lastHit).getFace();
+        }
+        return -1;
+    }
+
+
+    /**
+     * Same slab test as {@link FlatBvhTree#intersectBox(float[], int, Ray)} reading the bounds from the buffer.
+     */
+    private float intersectBox(int nodeIndex, Ray ray) {
+        int offset = nodeIndex * 6;
+        float ox = ray.getOriginX();
+        float oy = ray.getOriginY();
+        float oz = ray.getOriginZ();
+        float idx = ray.getInvDirectionX();
+        float idy = ray.getInvDirectionY();
+        float idz = ray.getInvDirectionZ();
+        int signX = ray.getXSign() * 3;
+        int signY = ray.getSignY() * 3;
+        int signZ = ray.getSignZ() * 3;
+
+        float xmin = (nodeBounds.get(offset + signX) - ox) * idx;
+        float xmax = (nodeBounds.get(offset + 3 - signX) - ox) * idx;
+        float ymin = (nodeBounds.get(offset + 1 + signY) - oy) * idy;
+        float ymax = (nodeBounds.get(offset + 4 - signY) - oy) * idy;
+
+        if ((xmin > ymax) || (ymin > xmax)) {
+            return MISS;
+        }
+
+        if (ymin > xmin) {
+            xmin = ymin;
+        }
+        if (ymax < xmax) {
+            xmax = ymax;
+        }
+
+        float zmin = (nodeBounds.get(offset + 2 + signZ) - oz) * idz;
+        float zmax = (nodeBounds.get(offset + 5 - signZ) - oz) * idz;
+
+        if ((xmin > zmax) || (zmin > xmax)) {
+            return MISS;
+        }
+
+        if (zmin > xmin) {
+            xmin = zmin;
+        }
+        if (zmax < xmax) {
+            xmax = zmax;
+        }
+
+        if ((xmin < ray.getTMax()) && (xmax > ray.getTMin())) {
+            return xmin > ray.getTMin() ? xmin : ray.getTMin();
+        } else {
+            return MISS;
+        }
+    }
+
+
+    /**
+     * Same test as {@link Triangle#intersect(Ray)}, reading the face from the buffers.
+     */
+    float intersect(int face, Ray ray) {
+        ChromaStatistics.intersectOp();
+        int i0 = faces.get(face * 3) * 3;
+        int i1 = faces.get(face * 3 + 1) * 3;
+        int i2 = faces.get(face * 3 + 2) * 3;
+        float v0x = vertices.get(i0);
+        float v0y = vertices.get(i0 + 1);
+        float v0z = vertices.get(i0 + 2);
+        float e1x = vertices.get(i1) - v0x;
+        float e1y = vertices.get(i1 + 1) - v0y;
+        float e1z = vertices.get(i1 + 2) - v0z;
+        float e2x = vertices.get(i2) - v0x;
+        float e2y = vertices.get(i2 + 1) - v0y;
+        float e2z = vertices.get(i2 + 2) - v0z;
+        float dx = ray.getDirectionX();
+        float dy = ray.getDirectionY();
+        float dz = ray.getDirectionZ();
+
+        // the sign of the unnormalized normal is all the back face test needs
+        float nx = e1y * e2z - e1z * e2y;
+        float ny = e1z * e2x - e1x * e2z;
+        float nz = e1x * e2y - e1y * e2x;
+        if (dx * nx + dy * ny + dz * nz > 0.0f && !ray.isTransparent()) {
+            return 0.f;
+        }
+
+        float px = dy * e2z - dz * e2y;
+        float py = dz * e2x - dx * e2z;
+        float pz = dx * e2y - dy * e2x;
+        float det = e1x * px + e1y * py + e1z * pz;
+        if (det > -Constants.FLT_EPSILON && det < Constants.FLT_EPSILON) {
+            return 0.f;
+        }
+        float invDet = 1.0f / det;
+
+        float tx = ray.getOriginX() - v0x;
+        float ty = ray.getOriginY() - v0y;
+        float tz = ray.getOriginZ() - v0z;
+        float u = (tx * px + ty * py + tz * pz) * invDet;
+        if (u < 0.0f || u > 1.0f) {
+            return 0.f;
+        }
+
+        float qx = ty * e1z - tz * e1y;
+        float qy = tz * e1x - tx * e1z;
+        float qz = tx * e1y - ty * e1x;
+        float v = (dx * qx + dy * qy + dz * qz) * invDet;
+        if (v < 0.0f || u + v > 1.0f) {
+            return 0.f;
+        }
+
+        return (e2x * qx + e2y * qy + e2z * qz) * invDet;
+    }
+
+
+    ImmutableVector3 getVertex(int face, int corner) {
+        int offset = faces.get(face * 3 + corner) * 3;
+        return new ImmutableVector3(vertices.get(offset), vertices.get(offset + 1), vertices.get(offset + 2));
+    }
+
+
+    /**
+     * Same computation as for a {@link net.chromarenderer.math.geometry.SimpleTriangle} without given normal.
+     */
+    ImmutableVector3 getNormal(int face) {
+        ImmutableVector3 p0 = getVertex(face, 0);
+        return getVertex(face, 1).minus(p0).crossProduct(getVertex(face, 2).minus(p0)).normalize();
+    }
+
+
+    boolean hasVertexNormals() {
+        return vertexNormals != null;
+    }
+
+
+    ImmutableVector3 getVertexNormal(int face, int corner) {
+        return OctahedralNormal.decode(vertexNormals.get(face * 3 + corner));
+    }
+
+
+    Material getMaterial(int face) {
+        return materials[materialIndices.get(face) & 0xFFFF];
+    }
+
+
+    synchronized void setMaterial(int face, Material material) {
+        int index = 0;
+        while (index < materials.length && materials[index] != material) {
+            index++;
+        }
+        if (index == materials.length) {
+            if (index > 0xFFFF) {
+                throw new IllegalStateException("Material palette of off-heap store is full.");
+            }
+            Material[] palette = Arrays.copyOf(materials, index + 1);
+            palette[index] = material;
+            materials = palette;
+        }
+        materialIndices.put(face, (short) index);
+    }
+
+
+    /**
+     * @return one {@link StoredTriangle} per emitting face and all emitting primitives which are no triangles. Created
+     * once per call, meant to initialize the light sources of a scene.
+     */
+    public List<Geometry> getEmittingGeometry() {
+        List<Geometry> result = new ArrayList<>();
+        for (Geometry other : others) {
+            if (MaterialType.EMITTING.equals(other.getMaterial().getType())) {
+                result.add(other);
+            }
+        }
+        for (int face = 0; face < numberOfFaces; face++) {
+            if (MaterialType.EMITTING.equals(getMaterial(face).getType())) {
+                result.add(new StoredTriangle(this, face));
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+
+    public int getNumberOfFaces() {
+        return numberOfFaces;
+    }
+
+
+    public int getNumberOfVertices() {
+        return numberOfVertices;
+    }
+
+
+    public int getNumberOfNodes() {
+        return numberOfNodes;
+    }
+
+
+    /**
+     * @return bytes held in direct buffers.
+     */
+    public long getSizeInBytes() {
+        return vertices.capacity() * 4L + faces.capacity() * 4L + materialIndices.capacity() * 2L
+                + (vertexNormals != null ? vertexNormals.capacity() * 4L : 0L)
+                + nodeBounds.capacity() * 4L + nodes.capacity() * 4L;
+    }
+
+
+    @Override
+    public AccStructType getType() {
+        return AccStructType.OFF_HEAP_BVH;
+    }
+}
@@ -0,0 +1,316 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.AccStructType;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.utils.ChromaLogger;
+
+/**
+ * Memory saving variant of {@link FlatBvhTree} for huge scenes. Only the root box is kept in full precision, the box of
+ * every other node is quantized to one byte per bound relative to the box of its parent. Lower bounds are rounded
+ * down and upper bounds up, so decoded boxes always enclose the original ones and traversal stays conservative.
+ * <p>
+ * Per node there are 6 bytes in {@code quantizedBounds} and one int in {@code nodes}: the index of the right child for
+ * inner nodes (left child is always the next node) or the bitwise complement of the leaf's offset into
+ * {@code primitiveIndices}, where the number of primitives is followed by their indices. Boxes are decoded on the fly
+ * while traversing, the decoded boxes of postponed nodes are kept next to the node stack.
+ *
+ * @author bensteinert
+ */
+public class QuantizedBvhTree implements AccelerationStructure {
+
+    private static final int LEVELS = 255;
+    private static final int CURRENT = 0;
+    private static final int LEFT = 6;
+    private static final int RIGHT = 12;
+    private static final int SCRATCH_BOXES = 3;
+
+    private final Geometry[] geometry;
+    private final float[] rootBounds = new float[6];
+    private final byte[] quantizedBounds;
+    private final int[] nodes;
+    private final int[] primitiveIndices;
+
+
+    private QuantizedBvhTree(Geometry[] geometry, int numberOfNodes, int numberOfLeaves, int numberOfPrimitiveReferences) {
+        this.geometry = geometry;
+        this.quantizedBounds = new byte[numberOfNodes * 6];
+        this.nodes = new int[numberOfNodes];
+        this.primitiveIndices = new int[numberOfLeaves + numberOfPrimitiveReferences];
+    }
+
+
+    public static QuantizedBvhTree compress(BvhTree tree) {
+        BvhNode root = tree.getRootNode();
+        int[] counts = new int[3];
+        countNodes(root, counts);
+
+        QuantizedBvhTree result = new QuantizedBvhTree(tree.getGeometry(), counts[0], counts[1], counts[2]);
+        ImmutableVector3 pMin = root.box.getPMin();
+        ImmutableVector3 pMax = root.box.getPMax();
+        for (int axis = 0; axis < 3; axis++) {
+            result.rootBounds[axis] = pMin.getScalar(axis);
+            result.rootBounds[axis + 3] = pMax.getScalar(axis);
+        }
+        result.compressNode(root, 0, 0, result.rootBounds);
+
+        int numberOfPrimitives = Math.max(1, tree.getGeometry().length);
+        ChromaLogger.get().info(String.format("Quantized BVH with %d nodes uses %.1f bytes per primitive, the uncompressed tree about %.1f",
+                counts[0], result.getSizeInBytes() / (float) numberOfPrimitives, tree.getEstimatedSizeInBytes() / (float) numberOfPrimitives));
+        return result;
+    }
+
+
+    /**
+     * Counts nodes, leaves and primitive references.
+     */
+    private static void countNodes(BvhNode node, int[] counts) {
+        counts[0]++;
+        if (node.indexList != null) {
+            counts[1]++;
+            counts[2] += node.indexList.length;
+        } else {
+            countNodes(node.left, counts);
+            countNodes(node.right, counts);
+        }
+    }
+
+
+    /**
+     * @return a pair of the next free node index and the next free primitive index.
+     */
+    private long compressNode(BvhNode node, int nodeIndex, int primitiveOffset, float[] parentBounds) {
+        float[] decoded = new float[6];
+        ImmutableVector3 pMin = node.box.getPMin();
+        ImmutableVector3 pMax = node.box.getPMax();
+        for (int axis = 0; axis < 3; axis++) {
+            float lower = parentBounds[axis];
+            float upper = parentBounds[axis + 3];
+            int qMin = quantizeDown(pMin.getScalar(axis), lower, upper);
+            int qMax = quantizeUp(pMax.getScalar(axis), lower, upper);
+            quantizedBounds[nodeIndex * 6 + axis] = (byte) qMin;
+            quantizedBounds[nodeIndex * 6 + axis + 3] = (byte) qMax;
+            decoded[axis] = dequantize(qMin, lower, upper);
+            decoded[axis + 3] = dequantize(qMax, lower, upper);
+        }
+
+        if (node.indexList != null) {
+            nodes[nodeIndex] = ~primitiveOffset;
+            primitiveIndices[primitiveOffset] = node.indexList.length;
+            System.arraycopy(node.indexList, 0, primitiveIndices, primitiveOffset + 1, node.indexList.length);
+            return pack(nodeIndex + 1, primitiveOffset + 1 + node.indexList.length);
+        } else {
+            long afterLeft = compressNode(node.left, nodeIndex + 1, primitiveOffset, decoded);
+            int rightIndex = (int) (afterLeft >>> 32);
+            nodes[nodeIndex] = rightIndex;
+            return compressNode(node.right, rightIndex, (int) afterLeft, decoded);
+        }
+    }
+
+
+    private static long pack(int nextNode, int nextPrimitive) {
+        return ((long) nextNode << 32) | (nextPrimitive & 0xFFFFFFFFL);
+    }
+
+
+    static float dequantize(int quantized, float lower, float upper) {
+        // the upper end is exact, so that children touching the parent's bounds stay enclosed
+        return quantized == LEVELS ? upper : lower + quantized * ((upper - lower) / LEVELS);
+    }
+
+
+    static int quantizeDown(float value, float lower, float upper) {
+        float extent = upper - lower;
+        if (!(extent > 0.0f)) {
+            return 0;
+        }
+        int result = Math.max(0, Math.min(LEVELS, (int) Math.floor((value - lower) / extent * LEVELS)));
+        while (result > 0 && dequantize(result, lower, upper) > value) {
+            result--;
+        }
+        return result;
+    }
+
+
+    static int quantizeUp(float value, float lower, float upper) {
+        float extent = upper - lower;
+        if (!(extent > 0.0f)) {
+            return LEVELS;
+        }
+        int result = Math.max(0, Math.min(LEVELS, (int) Math.ceil((value - lower) / extent * LEVELS)));
+        while (result < LEVELS && dequantize(result, lower, upper) < value) {
+            result++;
+        }
+        return result;
+    }
+
+
+    private void decode(int nodeIndex, float[] bounds, int parentOffset, int targetOffset) {
+        int offset = nodeIndex * 6;
+        for (int axis = 0; axis < 3; axis++) {
+            float lower = bounds[parentOffset + axis];
+            float upper = bounds[parentOffset + axis + 3];
+            bounds[targetOffset + axis] = dequantize(quantizedBounds[offset + axis] & 0xFF, lower, upper);
+            bounds[targetOffset + axis + 3] = dequantize(quantizedBounds[offset + axis + 3] & 0xFF, lower, upper);
+        }
+    }
+
+
+    @Override
+    public void intersect(IntersectionContext ctx) {
+        Ray ray = ctx.ray;
+        boolean anyMode = ctx.intersectionMode == IntersectionContext.ANY;
+
+        float[] bounds = ctx.getNodeStackBounds(SCRATCH_BOXES);
+        System.arraycopy(rootBounds, 0, bounds, CURRENT, 6);
+        if (FlatBvhTree.intersectBox(bounds, CURRENT, ray) == FlatBvhTree.MISS) {
+            return;
+        }
+
+        int[] stack = ctx.nodeStack;
+        float[] entryDistances = ctx.nodeStackEntryDistances;
+        int stackPointer = 0;
+        int current = 0;
+
+        while (true) {
+            int data = nodes[current];
+
+            if (data < 0) {
+                int offset = ~data;
+                int end = offset + 1 + primitiveIndices[offset];
+                for (int i = offset + 1; i < end; i++) {
+                    Geometry primitive = geometry[primitiveIndices[i]];
+                    if (primitive != ctx.hitGeometry) {
+                        ctx.checkGeometry(primitive);
+                    }
+                }
+                if (anyMode && ctx.hitGeometry != null) {
+                    return;
+                }
+                current = -1;
+            } else {
+                decode(current + 1, bounds, CURRENT, LEFT);
+                decode(data, bounds, CURRENT, RIGHT);
+                float tMinLeft = FlatBvhTree.intersectBox(bounds, LEFT, ray);
+                float tMinRight = FlatBvhTree.intersectBox(bounds, RIGHT, ray);
+
+                if (tMinLeft != FlatBvhTree.MISS && tMinRight != FlatBvhTree.MISS) {
+                    if (stackPointer == stack.length) {
+                        ctx.growNodeStack();
+                        stack = ctx.nodeStack;
+                        entryDistances = ctx.nodeStackEntryDistances;
+                        bounds = ctx.getNodeStackBounds(SCRATCH_BOXES);
+                    }
+                    int stackBounds = (SCRATCH_BOXES + stackPointer) * 6;
+                    if (tMinLeft <= tMinRight) {
+                        stack[stackPointer] = data;
+                        entryDistances[stackPointer++] = tMinRight;
+                        System.arraycopy(bounds, RIGHT, bounds, stackBounds, 6);
+                        System.arraycopy(bounds, LEFT, bounds, CURRENT, 6);
+                        current = current + 1;
+                    } else {
+                        stack[stackPointer] = current + 1;
+                        entryDistances[stackPointer++] = tMinLeft;
+                        System.arraycopy(bounds, LEFT, bounds, stackBounds, 6);
+                        System.arraycopy(bounds, RIGHT, bounds, CURRENT, 6);
+                        current = data;
+                    }
+                } else if (tMinLeft != FlatBvhTree.MISS) {
+                    System.arraycopy(bounds, LEFT, bounds, CURRENT, 6);
+                    current = current + 1;
+                } else if (tMinRight != FlatBvhTree.MISS) {
+                    System.arraycopy(bounds, RIGHT, bounds, CURRENT, 6);
+                    current = data;
+                } else {
+                    current = -1;
+                }
+            }
+
+            while (current == -1) {
+                if (stackPointer == 0) {
+                    return;
+                }
+                stackPointer--;
+                if (anyMode || ctx.hitDistance > entryDistances[stackPointer]) {
+                    current = stack[stackPointer];
+                    System.arraycopy(bounds, (SCRATCH_BOXES + stackPointer) * 6, bounds, CURRENT, 6);
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public boolean isOccluded(IntersectionContext ctx) {
+        Ray ray = ctx.ray;
+        float[] bounds = ctx.getNodeStackBounds(SCRATCH_BOXES);
+        System.arraycopy(rootBounds, 0, bounds, CURRENT, 6);
+        if (FlatBvhTree.intersectBox(bounds, CURRENT, ray) == FlatBvhTree.MISS) {
+            return false;
+        }
+
+        int[] stack = ctx.nodeStack;
+        int stackPointer = 0;
+        int current = 0;
+
+        while (true) {
+            int data = nodes[current];
+
+            if (data < 0) {
+                int offset = ~data;
+                int end = offset + 1 + primitiveIndices[offset];
+                for (int i = offset + 1; i < end; i++) {
+                    if (IntersectionContext.occludes(geometry[primitiveIndices[i]], ray)) {
+                        return true;
+                    }
+                }
+            } else {
+                decode(current + 1, bounds, CURRENT, LEFT);
+                decode(data, bounds, CURRENT, RIGHT);
+                boolean hitLeft = FlatBvhTree.intersectBox(bounds, LEFT, ray) != FlatBvhTree.MISS;
+                boolean hitRight = FlatBvhTree.intersectBox(bounds, RIGHT, ray) != FlatBvhTree.MISS;
+                if (hitLeft) {
+                    if (hitRight) {
+                        if (stackPointer == stack.length) {
+                            ctx.growNodeStack();
+                            stack = ctx.nodeStack;
+                            bounds = ctx.getNodeStackBounds(SCRATCH_BOXES);
+                        }
+                        System.arraycopy(bounds, RIGHT, bounds, (SCRATCH_BOXES + stackPointer) * 6, 6);
+                        stack[stackPointer++] = data;
+                    }
+                    System.arraycopy(bounds, LEFT, bounds, CURRENT, 6);
+                    current = current + 1;
+                    continue;
+                } else if (hitRight) {
+                    System.arraycopy(bounds, RIGHT, bounds, CURRENT, 6);
+                    current = data;
+                    continue;
+                }
+            }
+
+            if (stackPointer == 0) {
+                return false;
+            }
+            current = stack[--stackPointer];
+            System.arraycopy(bounds, (SCRATCH_BOXES + stackPointer) * 6, bounds, CURRENT, 6);
+        }
+    }
+
+
+    public int getNumberOfNodes() {
+        return nodes.length;
+    }
+
+
+    public long getSizeInBytes() {
+        return rootBounds.length * 4L + quantizedBounds.length + nodes.length * 4L + primitiveIndices.length * 4L;
+    }
+
+
+    @Override
+    public AccStructType getType() {
+        return AccStructType.QUANTIZED_BVH;
+    }
+}
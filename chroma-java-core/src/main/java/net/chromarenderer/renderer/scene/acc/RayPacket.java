@@ -0,0 +1,231 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.raytracing.Ray;
+
+import java.util.Arrays;
+
+/**
+ * A bundle of coherent rays, e.g. the camera rays of an image tile, traversed through a BVH together. Nodes are culled
+ * once for the whole packet by an interval arithmetic slab test over the ranges of all ray origins and inverse
+ * directions. Leaves are tested against every ray of the packet which hits the leaf box.
+ * <p>
+ * Each ray keeps its own {@link IntersectionContext}, so hits are found with exactly the same criteria as by a single
+ * ray traversal.
+ *
+ * @author bensteinert
+ */
+public class RayPacket {
+
+    // fits an 8x8 image tile
+    public static final int DEFAULT_CAPACITY = 64;
+
+    static final float MISS = Float.POSITIVE_INFINITY;
+
+    private static final int POSITIVE = 0;
+    private static final int NEGATIVE = 1;
+    private static final int MIXED = 2;
+
+    final IntersectionContext[] contexts;
+    int size;
+
+    private final float[] originMin = new float[3];
+    private final float[] originMax = new float[3];
+    private final float[] invDirectionMin = new float[3];
+    private final float[] invDirectionMax = new float[3];
+    private final int[] signs = new int[3];
+    private float tMin;
+    private float maxHitDistance;
+
+    int[] nodeStack = new int[64];
+    float[] nodeStackEntryDistances = new float[64];
+
+
+    public RayPacket(int capacity) {
+        contexts = new IntersectionContext[capacity];
+        for (int i = 0; i < capacity; i++) {
+            contexts[i] = new IntersectionContext();
+        }
+    }
+
+
+    public void reinit(Ray[] rays, int numberOfRays) {
+        reinit(rays, 0, numberOfRays);
+    }
+
+
+    /**
+     * Takes the rays {@code rays[offset]} to {@code rays[offset + numberOfRays - 1]}, index 0 of the packet is the ray
+     * at {@code offset}.
+     */
+    public void reinit(Ray[] rays, int offset, int numberOfRays) {
+        size = numberOfRays;
+        tMin = Float.MAX_VALUE;
+        for (int axis = 0; axis < 3; axis++) {
+            originMin[axis] = Float.MAX_VALUE;
+            originMax[axis] = -Float.MAX_VALUE;
+            invDirectionMin[axis] = Float.POSITIVE_INFINITY;
+            invDirectionMax[axis] = Float.NEGATIVE_INFINITY;
+        }
+
+        for (int i = 0; i < numberOfRays; i++) {
+            Ray ray = rays[offset + i];
+            contexts[i].reinit(ray);
+            tMin = Math.min(tMin, ray.getTMin());
+            ImmutableVector3 origin = ray.getOrigin();
+            ImmutableVector3 invDirection = ray.getInvDirection();
+            for (int axis = 0; axis < 3; axis++) {
+                originMin[axis] = Math.min(originMin[axis], origin.getScalar(axis));
+                originMax[axis] = Math.max(originMax[axis], origin.getScalar(axis));
+                invDirectionMin[axis] = Math.min(invDirectionMin[axis], invDirection.getScalar(axis));
+                invDirectionMax[axis] = Math.max(invDirectionMax[axis], invDirection.getScalar(axis));
+            }
+        }
+
+        for (int axis = 0; axis < 3; axis++) {
+            signs[axis] = MIXED;
+            if (invDirectionMin[axis] >= 0.0f) {
+                signs[axis] = POSITIVE;
+            } else if (invDirectionMax[axis] < 0.0f) {
+                signs[axis] = NEGATIVE;
+            }
+        }
+        updateMaxHitDistance();
+    }
+
+
+    public int capacity() {
+        return contexts.length;
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+
+    public Ray getRay(int index) {
+        return contexts[index].ray;
+    }
+
+
+    public Geometry getHitGeometry(int index) {
+        return contexts[index].hitGeometry;
+    }
+
+
+    public float getHitDistance(int index) {
+        return contexts[index].hitDistance;
+    }
+
+
+    /**
+     * Has to be called whenever hits were recorded, so nodes behind the farthest hit of the packet get culled.
+     */
+    void updateMaxHitDistance() {
+        float result = 0.0f;
+        for (int i = 0; i < size; i++) {
+            result = Math.max(result, contexts[i].hitDistance);
+        }
+        maxHitDistance = result;
+    }
+
+
+    float getMaxHitDistance() {
+        return maxHitDistance;
+    }
+
+
+    /**
+     * Conservative slab test for all rays at once.
+     *
+     * @return a lower bound of the entry distance of all rays or {@link #MISS} if no ray of the packet can hit the box
+     * in front of its current hit.
+     */
+    float intersectBox(float[] bounds, int offset) {
+        float tNear = tMin;
+        float tFar = maxHitDistance;
+
+        for (int axis = 0; axis < 3; axis++) {
+            float lower = bounds[offset + axis];
+            float upper = bounds[offset + 3 + axis];
+            float nearBound;
+            float farBound;
+            switch (signs[axis]) {
+                case POSITIVE:
+                    nearBound = lowerProductBound(lower, axis);
+                    farBound = upperProductBound(upper, axis);
+                    break;
+                case NEGATIVE:
+                    nearBound = lowerProductBound(upper, axis);
+                    farBound = upperProductBound(lower, axis);
+                    break;
+                default:
+                    nearBound = Math.min(lowerProductBound(lower, axis), lowerProductBound(upper, axis));
+                    farBound = Math.max(upperProductBound(lower, axis), upperProductBound(upper, axis));
+                    break;
+            }
+            if (nearBound > tNear) {
+                tNear = nearBound;
+            }
+            if (farBound < tFar) {
+                tFar = farBound;
+            }
+            if (tNear > tFar) {
+                return MISS;
+            }
+        }
+        return tNear;
+    }
+
+
+    float intersectBox(AxisAlignedBoundingBox box, float[] scratch) {
+        ImmutableVector3 pMin = box.getPMin();
+        ImmutableVector3 pMax = box.getPMax();
+        scratch[0] = pMin.getX();
+        scratch[1] = pMin.getY();
+        scratch[2] = pMin.getZ();
+        scratch[3] = pMax.getX();
+        scratch[4] = pMax.getY();
+        scratch[5] = pMax.getZ();
+        return intersectBox(scratch, 0);
+    }
+
+
+    /**
+     * @return the smallest value of (plane - origin) * invDirection over all rays, negative infinity if undefined.
+     */
+    private float lowerProductBound(float plane, int axis) {
+        float a1 = plane - originMax[axis];
+        float a2 = plane - originMin[axis];
+        float p1 = a1 * invDirectionMin[axis];
+        float p2 = a1 * invDirectionMax[axis];
+        float p3 = a2 * invDirectionMin[axis];
+        float p4 = a2 * invDirectionMax[axis];
+        float result = Math.min(Math.min(p1, p2), Math.min(p3, p4));
+        // 0 * infinity for axis parallel rays starting on the plane
+        return Float.isNaN(result) ? Float.NEGATIVE_INFINITY : result;
+    }
+
+
+    /**
+     * @return the largest value of (plane - origin) * invDirection over all rays, positive infinity if undefined.
+     */
+    private float upperProductBound(float plane, int axis) {
+        float a1 = plane - originMax[axis];
+        float a2 = plane - originMin[axis];
+        float p1 = a1 * invDirectionMin[axis];
+        float p2 = a1 * invDirectionMax[axis];
+        float p3 = a2 * invDirectionMin[axis];
+        float p4 = a2 * invDirectionMax[axis];
+        float result = Math.max(Math.max(p1, p2), Math.max(p3, p4));
+        return Float.isNaN(result) ? Float.POSITIVE_INFINITY : result;
+    }
+
+
+    void growNodeStack() {
+        nodeStack = Arrays.copyOf(nodeStack, nodeStack.length * 2);
+        nodeStackEntryDistances = Arrays.copyOf(nodeStackEntryDistances, nodeStackEntryDistances.length * 2);
+    }
+}
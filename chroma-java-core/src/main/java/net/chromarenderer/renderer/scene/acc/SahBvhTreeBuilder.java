@@ -0,0 +1,256 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.AccStructType;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.utils.ChromaLogger;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Top down BVH builder choosing split axis and split position by the surface area heuristic (SAH). Candidate splits
+ * are evaluated on {@link #NUMBER_OF_BINS} equally sized bins over the centroid bounds of each node per axis.
+ *
+ * @author bensteinert
+ */
+public class SahBvhTreeBuilder {
+
+    static final float TRAVERSAL_COST = 1.0f;
+    static final float INTERSECTION_COST = 1.0f;
+    static final int NUMBER_OF_BINS = 16;
+
+    private static final Logger LOGGER = ChromaLogger.get();
+
+    private int[] indices;
+    private float[] primitiveBounds;
+    private float[] centroids;
+
+    private final int maxTreeDepth;
+    private final int maxIndices;
+
+
+    public SahBvhTreeBuilder(int trianglesPerNode, int maxTreeDepth) {
+        this.maxIndices = trianglesPerNode;
+        this.maxTreeDepth = maxTreeDepth;
+    }
+
+
+    public BvhTree buildBvh(List<Geometry> geometryList) {
+        int totalNumberOfPrimitives = geometryList.size();
+
+        Geometry[] primitives = new Geometry[totalNumberOfPrimitives];
+        float[] bounds = new float[totalNumberOfPrimitives * 6];
+
+        for (int i = 0; i < totalNumberOfPrimitives; i++) {
+            Geometry element = geometryList.get(i);
+            primitives[i] = element;
+            ImmutableVector3 pMin = element.getSpatialMinimum();
+            ImmutableVector3 pMax = element.getSpatialMaximum();
+            bounds[i * 6] = pMin.getX();
+            bounds[i * 6 + 1] = pMin.getY();
+            bounds[i * 6 + 2] = pMin.getZ();
+            bounds[i * 6 + 3] = pMax.getX();
+            bounds[i * 6 + 4] = pMax.getY();
+            bounds[i * 6 + 5] = pMax.getZ();
+        }
+
+        BvhTree result = new BvhTree(primitives, buildTree(bounds), AccStructType.SAH_BVH);
+        LOGGER.info("Finished SAH BVH Build with a SAH cost of " + result.computeSahCost());
+        return result;
+    }
+
+
+    /**
+     * Builds the node hierarchy over arbitrary items given by their bounds (pMin and pMax, 6 floats per item). Leaves
+     * reference the items by their position.
+     */
+    BvhNode buildTree(float[] bounds) {
+        int totalNumberOfPrimitives = bounds.length / 6;
+
+        indices = new int[totalNumberOfPrimitives];
+        primitiveBounds = bounds;
+        centroids = new float[totalNumberOfPrimitives * 3];
+
+        for (int i = 0; i < totalNumberOfPrimitives; i++) {
+            indices[i] = i;
+            for (int axis = 0; axis < 3; axis++) {
+                centroids[i * 3 + axis] = (primitiveBounds[i * 6 + axis] + primitiveBounds[i * 6 + 3 + axis]) * 0.5f;
+            }
+        }
+
+        return buildTreeTopDown(0, 0, totalNumberOfPrimitives - 1);
+    }
+
+
+    private BvhNode buildTreeTopDown(int depth, int left, int right) {
+        float[] nodeBounds = emptyBounds();
+        float[] centroidBounds = emptyBounds();
+        for (int i = left; i <= right; i++) {
+            growBounds(nodeBounds, 0, primitiveBounds, indices[i] * 6);
+            growByPoint(centroidBounds, 0, centroids, indices[i] * 3);
+        }
+
+        int numberOfIndices = right - left + 1;
+        if (numberOfIndices <= 1 || depth == maxTreeDepth) {
+            return createLeaf(nodeBounds, left, right);
+        }
+
+        float nodeArea = surfaceArea(nodeBounds, 0);
+        int bestAxis = -1;
+        int bestSplitBin = 0;
+        float bestCost = Float.MAX_VALUE;
+
+        int[] binCounts = new int[NUMBER_OF_BINS];
+        float[] binBounds = new float[NUMBER_OF_BINS * 6];
+        float[] rightAreas = new float[NUMBER_OF_BINS];
+        int[] rightCounts = new int[NUMBER_OF_BINS];
+        float[] sweepBounds = new float[6];
+
+        for (int axis = 0; axis < 3; axis++) {
+            float centroidMin = centroidBounds[axis];
+            float extent = centroidBounds[axis + 3] - centroidMin;
+            if (extent <= 0.0f) {
+                continue;
+            }
+
+            Arrays.fill(binCounts, 0);
+            for (int bin = 0; bin < NUMBER_OF_BINS; bin++) {
+                resetBounds(binBounds, bin * 6);
+            }
+
+            float binScale = NUMBER_OF_BINS / extent;
+            for (int i = left; i <= right; i++) {
+                int bin = computeBin(centroids[indices[i] * 3 + axis], centroidMin, binScale);
+                binCounts[bin]++;
+                growBounds(binBounds, bin * 6, primitiveBounds, indices[i] * 6);
+            }
+
+            // sweep from the right: rightAreas[i] holds the area of the union of bins i..NUMBER_OF_BINS-1
+            resetBounds(sweepBounds, 0);
+            int count = 0;
+            for (int bin = NUMBER_OF_BINS - 1; bin > 0; bin--) {
+                growBounds(sweepBounds, 0, binBounds, bin * 6);
+                count += binCounts[bin];
+                rightAreas[bin] = count > 0 ? surfaceArea(sweepBounds, 0) : 0.0f;
+                rightCounts[bin] = count;
+            }
+
+            // sweep from the left and evaluate each split plane between bin-1 and bin
+            resetBounds(sweepBounds, 0);
+            count = 0;
+            for (int bin = 1; bin < NUMBER_OF_BINS; bin++) {
+                growBounds(sweepBounds, 0, binBounds, (bin - 1) * 6);
+                count += binCounts[bin - 1];
+                if (count == 0 || rightCounts[bin] == 0) {
+                    continue;
+                }
+                float leftArea = surfaceArea(sweepBounds, 0);
+                float cost = TRAVERSAL_COST + INTERSECTION_COST * (leftArea * count + rightAreas[bin] * rightCounts[bin]) / nodeArea;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestSplitBin = bin;
+                }
+            }
+        }
+
+        float leafCost = INTERSECTION_COST * numberOfIndices;
+        int firstRightIndex;
+
+        if (bestAxis == -1) {
+            // all centroids coincide, there is no meaningful split plane
+            if (numberOfIndices <= maxIndices) {
+                return createLeaf(nodeBounds, left, right);
+            }
+            bestAxis = 0;
+            firstRightIndex = left + numberOfIndices / 2;
+        } else {
+            if (numberOfIndices <= maxIndices && leafCost <= bestCost) {
+                return createLeaf(nodeBounds, left, right);
+            }
+            firstRightIndex = partitionIndices(bestAxis, bestSplitBin, centroidBounds[bestAxis],
+                    NUMBER_OF_BINS / (centroidBounds[bestAxis + 3] - centroidBounds[bestAxis]), left, right);
+        }
+
+        BvhNode node = new BvhNode(toBox(nodeBounds), bestAxis);
+        node.left = buildTreeTopDown(depth + 1, left, firstRightIndex - 1);
+        node.right = buildTreeTopDown(depth + 1, firstRightIndex, right);
+        return node;
+    }
+
+
+    private int partitionIndices(int axis, int splitBin, float centroidMin, float binScale, int left, int right) {
+        int i = left;
+        int j = right;
+        while (i <= j) {
+            if (computeBin(centroids[indices[i] * 3 + axis], centroidMin, binScale) < splitBin) {
+                i++;
+            } else {
+                int swap = indices[i];
+                indices[i] = indices[j];
+                indices[j] = swap;
+                j--;
+            }
+        }
+        return i;
+    }
+
+
+    private BvhNode createLeaf(float[] nodeBounds, int left, int right) {
+        BvhNode leaf = new BvhNode(toBox(nodeBounds), 0);
+        leaf.indexList = Arrays.copyOfRange(indices, left, right + 1);
+        return leaf;
+    }
+
+
+    private static int computeBin(float centroid, float centroidMin, float binScale) {
+        int bin = (int) ((centroid - centroidMin) * binScale);
+        return bin < NUMBER_OF_BINS ? bin : NUMBER_OF_BINS - 1;
+    }
+
+
+    static float[] emptyBounds() {
+        float[] bounds = new float[6];
+        resetBounds(bounds, 0);
+        return bounds;
+    }
+
+
+    static void resetBounds(float[] bounds, int offset) {
+        Arrays.fill(bounds, offset, offset + 3, Float.MAX_VALUE);
+        Arrays.fill(bounds, offset + 3, offset + 6, -Float.MAX_VALUE);
+    }
+
+
+    static void growBounds(float[] bounds, int offset, float[] other, int otherOffset) {
+        for (int axis = 0; axis < 3; axis++) {
+            bounds[offset + axis] = Math.min(bounds[offset + axis], other[otherOffset + axis]);
+            bounds[offset + 3 + axis] = Math.max(bounds[offset + 3 + axis], other[otherOffset + 3 + axis]);
+        }
+    }
+
+
+    static void growByPoint(float[] bounds, int offset, float[] points, int pointOffset) {
+        for (int axis = 0; axis < 3; axis++) {
+            bounds[offset + axis] = Math.min(bounds[offset + axis], points[pointOffset + axis]);
+            bounds[offset + 3 + axis] = Math.max(bounds[offset + 3 + axis], points[pointOffset + axis]);
+        }
+    }
+
+
+    static float surfaceArea(float[] bounds, int offset) {
+        float dx = bounds[offset + 3] - bounds[offset];
+        float dy = bounds[offset + 4] - bounds[offset + 1];
+        float dz = bounds[offset + 5] - bounds[offset + 2];
+        return 2.0f * (dx * dy + dy * dz + dz * dx);
+    }
+
+
+    static AxisAlignedBoundingBox toBox(float[] bounds) {
+        return new AxisAlignedBoundingBox(
+                new ImmutableVector3(bounds[0], bounds[1], bounds[2]),
+                new ImmutableVector3(bounds[3], bounds[4], bounds[5]));
+    }
+}
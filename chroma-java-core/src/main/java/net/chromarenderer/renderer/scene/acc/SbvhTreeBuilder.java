@@ -0,0 +1,494 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.AccStructType;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.geometry.Triangle;
+import net.chromarenderer.utils.ChromaLogger;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Spatial split BVH builder (SBVH, Stich et al. 2009). Besides the binned object splits of {@link SahBvhTreeBuilder},
+ * every node also evaluates spatial splits: primitives straddling the split plane are clipped and referenced by both
+ * children with the bounds of their part on each side. This pays off for long and thin triangles whose bounding boxes
+ * would otherwise overlap large parts of the scene. Spatial splits are only tried where the children of the best object
+ * split overlap or no object split exists, and the total number of references is limited to
+ * {@code maxReferenceFactor} times the number of primitives.
+ * <p>
+ * Leaves may reference the same primitive more than once across the tree. Traversal needs no special treatment for
+ * that: a primitive's hit is only taken if it is closer than the current one, leaves skip the current hit geometry and
+ * the last hit of the ray is skipped via {@link net.chromarenderer.math.raytracing.Ray#mailbox(Geometry)} as usual.
+ *
+ * @author bensteinert
+ */
+public class SbvhTreeBuilder {
+
+    static final float DEFAULT_MAX_REFERENCE_FACTOR = 1.3f;
+
+    // spatial splits are only tried if the best object split children overlap by more than this fraction of the scene
+    static final float OVERLAP_THRESHOLD = 1.0e-5f;
+
+    private static final int NUMBER_OF_BINS = SahBvhTreeBuilder.NUMBER_OF_BINS;
+    private static final Logger LOGGER = ChromaLogger.get();
+
+    private final int maxIndices;
+    private final int maxTreeDepth;
+    private final float maxReferenceFactor;
+
+    private Geometry[] primitives;
+    private float minOverlapArea;
+    private int remainingDuplicates;
+
+    // scratch bins, reused by all nodes
+    private final int[] binCounts = new int[NUMBER_OF_BINS];
+    private final int[] binExits = new int[NUMBER_OF_BINS];
+    private final float[] binBounds = new float[NUMBER_OF_BINS * 6];
+    private final float[] rightBounds = new float[NUMBER_OF_BINS * 6];
+    private final int[] rightCounts = new int[NUMBER_OF_BINS];
+    private final float[] clipped = new float[12];
+
+
+    public SbvhTreeBuilder(int trianglesPerNode, int maxTreeDepth) {
+        this(trianglesPerNode, maxTreeDepth, DEFAULT_MAX_REFERENCE_FACTOR);
+    }
+
+
+    /**
+     * @param maxReferenceFactor upper limit of references over primitives, 1 disables spatial splits.
+     */
+    public SbvhTreeBuilder(int trianglesPerNode, int maxTreeDepth, float maxReferenceFactor) {
+        if (!(maxReferenceFactor >= 1.0f)) {
+            throw new IllegalArgumentException("Reference factor must be at least 1 but was " + maxReferenceFactor);
+        }
+        this.maxIndices = trianglesPerNode;
+        this.maxTreeDepth = maxTreeDepth;
+        this.maxReferenceFactor = maxReferenceFactor;
+    }
+
+
+    public BvhTree buildBvh(List<Geometry> geometryList) {
+        int totalNumberOfPrimitives = geometryList.size();
+        primitives = geometryList.toArray(new Geometry[totalNumberOfPrimitives]);
+
+        References root = new References(totalNumberOfPrimitives);
+        for (int i = 0; i < totalNumberOfPrimitives; i++) {
+            ImmutableVector3 pMin = primitives[i].getSpatialMinimum();
+            ImmutableVector3 pMax = primitives[i].getSpatialMaximum();
+            root.add(i, pMin.getX(), pMin.getY(), pMin.getZ(), pMax.getX(), pMax.getY(), pMax.getZ());
+        }
+
+        float[] sceneBounds = root.computeBounds();
+        minOverlapArea = SahBvhTreeBuilder.surfaceArea(sceneBounds, 0) * OVERLAP_THRESHOLD;
+        remainingDuplicates = (int) (totalNumberOfPrimitives * (maxReferenceFactor - 1.0f));
+        int allowedDuplicates = remainingDuplicates;
+
+        BvhTree result = new BvhTree(primitives, buildTreeTopDown(0, root), AccStructType.SBVH);
+        LOGGER.info("Finished SBVH Build with a SAH cost of " + result.computeSahCost() + " and "
+                + (allowedDuplicates - remainingDuplicates) + " duplicated references.");
+        return result;
+    }
+
+
+    private BvhNode buildTreeTopDown(int depth, References refs) {
+        float[] nodeBounds = refs.computeBounds();
+        int numberOfReferences = refs.size;
+        if (numberOfReferences <= 1 || depth == maxTreeDepth) {
+            return createLeaf(nodeBounds, refs);
+        }
+
+        float nodeArea = SahBvhTreeBuilder.surfaceArea(nodeBounds, 0);
+        ObjectSplit objectSplit = findObjectSplit(refs, nodeArea);
+
+        SpatialSplit spatialSplit = null;
+        if (remainingDuplicates > 0 && (objectSplit.axis < 0 || objectSplit.overlapArea > minOverlapArea)) {
+            spatialSplit = findSpatialSplit(refs, nodeBounds, nodeArea);
+        }
+
+        float bestCost = Math.min(objectSplit.cost, spatialSplit != null ? spatialSplit.cost : Float.MAX_VALUE);
+        float leafCost = SahBvhTreeBuilder.INTERSECTION_COST * numberOfReferences;
+        if (numberOfReferences <= maxIndices && leafCost <= bestCost) {
+            return createLeaf(nodeBounds, refs);
+        }
+
+        References[] children = null;
+        int axis = objectSplit.axis;
+        if (spatialSplit != null && spatialSplit.cost < objectSplit.cost) {
+            children = splitSpatially(refs, spatialSplit);
+            axis = spatialSplit.axis;
+        }
+        if (children == null) {
+            children = splitByObjects(refs, objectSplit);
+        }
+
+        BvhNode node = new BvhNode(SahBvhTreeBuilder.toBox(nodeBounds), Math.max(axis, 0));
+        node.left = buildTreeTopDown(depth + 1, children[0]);
+        node.right = buildTreeTopDown(depth + 1, children[1]);
+        return node;
+    }
+
+
+    private ObjectSplit findObjectSplit(References refs, float nodeArea) {
+        float[] centroidBounds = SahBvhTreeBuilder.emptyBounds();
+        float[] centroid = new float[3];
+        for (int i = 0; i < refs.size; i++) {
+            refs.centroid(i, centroid);
+            SahBvhTreeBuilder.growByPoint(centroidBounds, 0, centroid, 0);
+        }
+
+        ObjectSplit best = new ObjectSplit();
+        float[] sweepBounds = new float[6];
+        for (int axis = 0; axis < 3; axis++) {
+            float centroidMin = centroidBounds[axis];
+            float extent = centroidBounds[axis + 3] - centroidMin;
+            if (extent <= 0.0f) {
+                continue;
+            }
+            float binScale = NUMBER_OF_BINS / extent;
+
+            Arrays.fill(binCounts, 0);
+            for (int bin = 0; bin < NUMBER_OF_BINS; bin++) {
+                SahBvhTreeBuilder.resetBounds(binBounds, bin * 6);
+            }
+            for (int i = 0; i < refs.size; i++) {
+                int bin = computeBin(refs.centroid(i, axis), centroidMin, binScale);
+                binCounts[bin]++;
+                SahBvhTreeBuilder.growBounds(binBounds, bin * 6, refs.bounds, i * 6);
+            }
+
+            sweepRight();
+            SahBvhTreeBuilder.resetBounds(sweepBounds, 0);
+            int count = 0;
+            for (int bin = 1; bin < NUMBER_OF_BINS; bin++) {
+                SahBvhTreeBuilder.growBounds(sweepBounds, 0, binBounds, (bin - 1) * 6);
+                count += binCounts[bin - 1];
+                if (count == 0 || rightCounts[bin] == 0) {
+                    continue;
+                }
+                float cost = splitCost(sweepBounds, count, bin, nodeArea);
+                if (cost < best.cost) {
+                    best.cost = cost;
+                    best.axis = axis;
+                    best.bin = bin;
+                    best.centroidMin = centroidMin;
+                    best.binScale = binScale;
+                    best.overlapArea = overlapArea(sweepBounds, rightBounds, bin * 6);
+                }
+            }
+        }
+        return best;
+    }
+
+
+    private SpatialSplit findSpatialSplit(References refs, float[] nodeBounds, float nodeArea) {
+        SpatialSplit best = null;
+        float[] sweepBounds = new float[6];
+        for (int axis = 0; axis < 3; axis++) {
+            float nodeMin = nodeBounds[axis];
+            float extent = nodeBounds[axis + 3] - nodeMin;
+            if (extent <= 0.0f) {
+                continue;
+            }
+            float binWidth = extent / NUMBER_OF_BINS;
+            float binScale = NUMBER_OF_BINS / extent;
+
+            // binCounts counts references entering a bin, binExits the ones leaving it
+            Arrays.fill(binCounts, 0);
+            Arrays.fill(binExits, 0);
+            for (int bin = 0; bin < NUMBER_OF_BINS; bin++) {
+                SahBvhTreeBuilder.resetBounds(binBounds, bin * 6);
+            }
+            for (int i = 0; i < refs.size; i++) {
+                int firstBin = computeBin(refs.bounds[i * 6 + axis], nodeMin, binScale);
+                int lastBin = computeBin(refs.bounds[i * 6 + 3 + axis], nodeMin, binScale);
+                binCounts[firstBin]++;
+                binExits[lastBin]++;
+                for (int bin = firstBin; bin <= lastBin; bin++) {
+                    float lower = bin == firstBin ? -Float.MAX_VALUE : nodeMin + bin * binWidth;
+                    float upper = bin == lastBin ? Float.MAX_VALUE : nodeMin + (bin + 1) * binWidth;
+                    if (clip(refs, i, axis, lower, upper, clipped, 0)) {
+                        SahBvhTreeBuilder.growBounds(binBounds, bin * 6, clipped, 0);
+                    }
+                }
+            }
+
+            // right sweep over the exits, left sweep over the entries
+            SahBvhTreeBuilder.resetBounds(sweepBounds, 0);
+            int count = 0;
+            for (int bin = NUMBER_OF_BINS - 1; bin > 0; bin--) {
+                SahBvhTreeBuilder.growBounds(sweepBounds, 0, binBounds, bin * 6);
+                System.arraycopy(sweepBounds, 0, rightBounds, bin * 6, 6);
+                count += binExits[bin];
+                rightCounts[bin] = count;
+            }
+            SahBvhTreeBuilder.resetBounds(sweepBounds, 0);
+            count = 0;
+            for (int bin = 1; bin < NUMBER_OF_BINS; bin++) {
+                SahBvhTreeBuilder.growBounds(sweepBounds, 0, binBounds, (bin - 1) * 6);
+                count += binCounts[bin - 1];
+                if (count == 0 || rightCounts[bin] == 0) {
+                    continue;
+                }
+                float cost = splitCost(sweepBounds, count, bin, nodeArea);
+                if (best == null || cost < best.cost) {
+                    if (best == null) {
+                        best = new SpatialSplit();
+                    }
+                    best.cost = cost;
+                    best.axis = axis;
+                    best.position = nodeMin + bin * binWidth;
+                }
+            }
+        }
+        return best;
+    }
+
+
+    private void sweepRight() {
+        float[] sweepBounds = SahBvhTreeBuilder.emptyBounds();
+        int count = 0;
+        for (int bin = NUMBER_OF_BINS - 1; bin > 0; bin--) {
+            SahBvhTreeBuilder.growBounds(sweepBounds, 0, binBounds, bin * 6);
+            System.arraycopy(sweepBounds, 0, rightBounds, bin * 6, 6);
+            count += binCounts[bin];
+            rightCounts[bin] = count;
+        }
+    }
+
+
+    private float splitCost(float[] leftBounds, int leftCount, int bin, float nodeArea) {
+        float leftArea = SahBvhTreeBuilder.surfaceArea(leftBounds, 0);
+        float rightArea = SahBvhTreeBuilder.surfaceArea(rightBounds, bin * 6);
+        return SahBvhTreeBuilder.TRAVERSAL_COST + SahBvhTreeBuilder.INTERSECTION_COST
+                * (leftArea * leftCount + rightArea * rightCounts[bin]) / nodeArea;
+    }
+
+
+    private References[] splitByObjects(References refs, ObjectSplit split) {
+        References left = new References(refs.size);
+        References right = new References(refs.size);
+        if (split.axis < 0) {
+            // all centroids coincide, there is no meaningful split plane
+            for (int i = 0; i < refs.size; i++) {
+                (i < refs.size / 2 ? left : right).addFrom(refs, i);
+            }
+        } else {
+            for (int i = 0; i < refs.size; i++) {
+                boolean isLeft = computeBin(refs.centroid(i, split.axis), split.centroidMin, split.binScale) < split.bin;
+                (isLeft ? left : right).addFrom(refs, i);
+            }
+        }
+        return new References[]{left, right};
+    }
+
+
+    /**
+     * @return both children or {@code null} if the split degenerates to one side.
+     */
+    private References[] splitSpatially(References refs, SpatialSplit split) {
+        References left = new References(refs.size);
+        References right = new References(refs.size);
+        int axis = split.axis;
+        for (int i = 0; i < refs.size; i++) {
+            float min = refs.bounds[i * 6 + axis];
+            float max = refs.bounds[i * 6 + 3 + axis];
+            if (max <= split.position) {
+                left.addFrom(refs, i);
+            } else if (min >= split.position) {
+                right.addFrom(refs, i);
+            } else if (remainingDuplicates > 0) {
+                boolean hasLeftPart = clip(refs, i, axis, -Float.MAX_VALUE, split.position, clipped, 0);
+                boolean hasRightPart = clip(refs, i, axis, split.position, Float.MAX_VALUE, clipped, 6);
+                if (hasLeftPart && hasRightPart) {
+                    left.add(refs.primitive[i], clipped, 0);
+                    right.add(refs.primitive[i], clipped, 6);
+                    remainingDuplicates--;
+                } else {
+                    (hasLeftPart ? left : right).addFrom(refs, i);
+                }
+            } else {
+                // out of duplicates, keep the reference whole on the side of its centroid
+                (refs.centroid(i, axis) < split.position ? left : right).addFrom(refs, i);
+            }
+        }
+        if (left.size == 0 || right.size == 0) {
+            return null;
+        }
+        return new References[]{left, right};
+    }
+
+
+    /**
+     * Computes the bounds of the part of reference {@code i} within {@code lower <= x < upper} on the given axis. Triangles
+     * are clipped exactly, other primitives by their bounds.
+     *
+     * @return false if nothing of the reference remains.
+     */
+    private boolean clip(References refs, int i, int axis, float lower, float upper, float[] out, int offset) {
+        float[] refBounds = refs.bounds;
+        Geometry primitive = primitives[refs.primitive[i]];
+        if (primitive instanceof Triangle) {
+            Triangle triangle = (Triangle) primitive;
+            SahBvhTreeBuilder.resetBounds(out, offset);
+            clipEdge(triangle.getP0(), triangle.getP1(), axis, lower, upper, out, offset);
+            clipEdge(triangle.getP1(), triangle.getP2(), axis, lower, upper, out, offset);
+            clipEdge(triangle.getP2(), triangle.getP0(), axis, lower, upper, out, offset);
+        } else {
+            System.arraycopy(refBounds, i * 6, out, offset, 6);
+        }
+
+        // stay within the already clipped bounds of the reference and the slab
+        for (int a = 0; a < 3; a++) {
+            out[offset + a] = Math.max(out[offset + a], refBounds[i * 6 + a]);
+            out[offset + 3 + a] = Math.min(out[offset + 3 + a], refBounds[i * 6 + 3 + a]);
+        }
+        out[offset + axis] = Math.max(out[offset + axis], lower);
+        out[offset + 3 + axis] = Math.min(out[offset + 3 + axis], upper);
+        for (int a = 0; a < 3; a++) {
+            if (out[offset + a] > out[offset + 3 + a]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Grows the bounds by start point and crossing points of the edge within the slab between lower and upper.
+     */
+    private static void clipEdge(ImmutableVector3 start, ImmutableVector3 end, int axis, float lower, float upper, float[] out, int offset) {
+        float startValue = start.getScalar(axis);
+        float endValue = end.getScalar(axis);
+        if (startValue >= lower && startValue <= upper) {
+            growByVertex(out, offset, start.getX(), start.getY(), start.getZ());
+        }
+        for (int plane = 0; plane < 2; plane++) {
+            float position = plane == 0 ? lower : upper;
+            if ((startValue < position && endValue > position) || (startValue > position && endValue < position)) {
+                float t = (position - startValue) / (endValue - startValue);
+                growByVertex(out, offset,
+                        start.getX() + (end.getX() - start.getX()) * t,
+                        start.getY() + (end.getY() - start.getY()) * t,
+                        start.getZ() + (end.getZ() - start.getZ()) * t);
+            }
+        }
+    }
+
+
+    private static void growByVertex(float[] bounds, int offset, float x, float y, float z) {
+        bounds[offset] = Math.min(bounds[offset], x);
+        bounds[offset + 1] = Math.min(bounds[offset + 1], y);
+        bounds[offset + 2] = Math.min(bounds[offset + 2], z);
+        bounds[offset + 3] = Math.max(bounds[offset + 3], x);
+        bounds[offset + 4] = Math.max(bounds[offset + 4], y);
+        bounds[offset + 5] = Math.max(bounds[offset + 5], z);
+    }
+
+
+    private static float overlapArea(float[] bounds, float[] other, int otherOffset) {
+        float area = 1.0f;
+        float[] overlap = new float[6];
+        for (int axis = 0; axis < 3; axis++) {
+            overlap[axis] = Math.max(bounds[axis], other[otherOffset + axis]);
+            overlap[3 + axis] = Math.min(bounds[3 + axis], other[otherOffset + 3 + axis]);
+            if (overlap[axis] > overlap[3 + axis]) {
+                area = 0.0f;
+            }
+        }
+        return area > 0.0f ? SahBvhTreeBuilder.surfaceArea(overlap, 0) : 0.0f;
+    }
+
+
+    private BvhNode createLeaf(float[] nodeBounds, References refs) {
+        BvhNode leaf = new BvhNode(SahBvhTreeBuilder.toBox(nodeBounds), 0);
+        leaf.indexList = Arrays.copyOf(refs.primitive, refs.size);
+        return leaf;
+    }
+
+
+    private static int computeBin(float value, float min, float binScale) {
+        int bin = (int) ((value - min) * binScale);
+        return bin < 0 ? 0 : (bin < NUMBER_OF_BINS ? bin : NUMBER_OF_BINS - 1);
+    }
+
+
+    /**
+     * Primitive references of one node with their possibly clipped bounds.
+     */
+    private static final class References {
+
+        final int[] primitive;
+        final float[] bounds;
+        int size;
+
+
+        References(int capacity) {
+            primitive = new int[capacity];
+            bounds = new float[capacity * 6];
+        }
+
+
+        void add(int primitiveIndex, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+            primitive[size] = primitiveIndex;
+            bounds[size * 6] = minX;
+            bounds[size * 6 + 1] = minY;
+            bounds[size * 6 + 2] = minZ;
+            bounds[size * 6 + 3] = maxX;
+            bounds[size * 6 + 4] = maxY;
+            bounds[size * 6 + 5] = maxZ;
+            size++;
+        }
+
+
+        void add(int primitiveIndex, float[] referenceBounds, int offset) {
+            primitive[size] = primitiveIndex;
+            System.arraycopy(referenceBounds, offset, bounds, size * 6, 6);
+            size++;
+        }
+
+
+        void addFrom(References other, int i) {
+            add(other.primitive[i], other.bounds, i * 6);
+        }
+
+
+        float centroid(int i, int axis) {
+            return (bounds[i * 6 + axis] + bounds[i * 6 + 3 + axis]) * 0.5f;
+        }
+
+
+        void centroid(int i, float[] result) {
+            for (int axis = 0; axis < 3; axis++) {
+                result[axis] = centroid(i, axis);
+            }
+        }
+
+
+        float[] computeBounds() {
+            float[] result = SahBvhTreeBuilder.emptyBounds();
+            for (int i = 0; i < size; i++) {
+                SahBvhTreeBuilder.growBounds(result, 0, bounds, i * 6);
+            }
+            return result;
+        }
+    }
+
+
+    private static final class ObjectSplit {
+        float cost = Float.MAX_VALUE;
+        int axis = -1;
+        int bin;
+        float centroidMin;
+        float binScale;
+        float overlapArea;
+    }
+
+
+    private static final class SpatialSplit {
+        float cost;
+        int axis;
+        float position;
+    }
+}
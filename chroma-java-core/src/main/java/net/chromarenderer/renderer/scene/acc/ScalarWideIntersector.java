@@ -0,0 +1,59 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.raytracing.Ray;
+
+/**
+ * Fallback {@link WideIntersector} running the scalar tests one box and one triangle after the other, used on Java 8
+ * and whenever no SIMD implementation is available.
+ *
+ * @author bensteinert
+ */
+final class ScalarWideIntersector implements WideIntersector {
+
+    @Override
+    public void intersectBoxes(float[] bounds, int offset, Ray ray, float maxDistance, float[] entryDistances) {
+        float ox = ray.getOriginX();
+        float oy = ray.getOriginY();
+        float oz = ray.getOriginZ();
+        float idx = ray.getInvDirectionX();
+        float idy = ray.getInvDirectionY();
+        float idz = ray.getInvDirectionZ();
+        int nearX = offset + ray.getXSign() * 3 * LANES;
+        int nearY = offset + (1 + ray.getSignY() * 3) * LANES;
+        int nearZ = offset + (2 + ray.getSignZ() * 3) * LANES;
+        int farX = offset + (3 - ray.getXSign() * 3) * LANES;
+        int farY = offset + (4 - ray.getSignY() * 3) * LANES;
+        int farZ = offset + (5 - ray.getSignZ() * 3) * LANES;
+        float tMin = ray.getTMin();
+
+        for (int lane = 0; lane < LANES; lane++) {
+            float near = Math.max(Math.max((bounds[nearX + lane] - ox) * idx, (bounds[nearY + lane] - oy) * idy), (bounds[nearZ + lane] - oz) * idz);
+            float far = Math.min(Math.min((bounds[farX + lane] - ox) * idx, (bounds[farY + lane] - oy) * idy), (bounds[farZ + lane] - oz) * idz);
+            if (near <= far && near < maxDistance && far > tMin) {
+                entryDistances[lane] = near > tMin ? near : tMin;
+            } else {
+                entryDistances[lane] = FlatBvhTree.MISS;
+            }
+        }
+    }
+
+
+    @Override
+    public void intersectTriangles(LeafTriangles triangles, int first, int end, Ray ray, float[] distances) {
+        float ox = ray.getOriginX();
+        float oy = ray.getOriginY();
+        float oz = ray.getOriginZ();
+        float dx = ray.getDirectionX();
+        float dy = ray.getDirectionY();
+        float dz = ray.getDirectionZ();
+        for (int i = first; i < end; i++) {
+            distances[i - first] = triangles.intersect(i, ray, ox, oy, oz, dx, dy, dz);
+        }
+    }
+
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,58 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.Vector3;
+import net.chromarenderer.math.VectorUtils;
+import net.chromarenderer.math.geometry.Geometry;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Geometry in object space which is placed into the scene by one or more {@link MeshInstance}s. The bottom level BVH is
+ * built once and shared by all instances.
+ *
+ * @author bensteinert
+ */
+public class SharedMesh {
+
+    private final List<Geometry> geometry;
+    private final AccelerationStructure accStruct;
+    private final ImmutableVector3 pMin;
+    private final ImmutableVector3 pMax;
+
+
+    public SharedMesh(List<Geometry> geometry) {
+        this.geometry = Collections.unmodifiableList(geometry);
+        this.accStruct = new SahBvhTreeBuilder(4, 32).buildBvh(geometry);
+
+        ImmutableVector3 min = Vector3.FLT_MAX;
+        ImmutableVector3 max = Vector3.MINUS_FLT_MAX;
+        for (Geometry element : geometry) {
+            min = VectorUtils.minVector(min, element.getSpatialMinimum());
+            max = VectorUtils.maxVector(max, element.getSpatialMaximum());
+        }
+        this.pMin = min;
+        this.pMax = max;
+    }
+
+
+    public List<Geometry> getGeometry() {
+        return geometry;
+    }
+
+
+    AccelerationStructure getAccelerationStructure() {
+        return accStruct;
+    }
+
+
+    ImmutableVector3 getSpatialMinimum() {
+        return pMin;
+    }
+
+
+    ImmutableVector3 getSpatialMaximum() {
+        return pMax;
+    }
+}
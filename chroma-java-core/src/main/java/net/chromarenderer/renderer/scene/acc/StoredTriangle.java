@@ -0,0 +1,143 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.ImmutableMatrix3x3;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.Vector3;
+import net.chromarenderer.math.geometry.SimpleTriangle;
+import net.chromarenderer.math.geometry.Triangle;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+
+/**
+ * Face of an {@link OffHeapGeometryStore}. Created per hit by the store and holding nothing but the store and the face
+ * index, two instances of the same face are equal. Transformations create a {@link SimpleTriangle} as the store is
+ * static.
+ *
+ * @author bensteinert
+ */
+public final class StoredTriangle implements Triangle {
+
+    private final OffHeapGeometryStore store;
+    private final int face;
+
+
+    StoredTriangle(OffHeapGeometryStore store, int face) {
+        this.store = store;
+        this.face = face;
+    }
+
+
+    public OffHeapGeometryStore getStore() {
+        return store;
+    }
+
+
+    public int getFace() {
+        return face;
+    }
+
+
+    @Override
+    public float intersect(Ray ray) {
+        return store.intersect(face, ray);
+    }
+
+
+    @Override
+    public ImmutableVector3 getP0() {
+        return store.getVertex(face, 0);
+    }
+
+
+    @Override
+    public ImmutableVector3 getP1() {
+        return store.getVertex(face, 1);
+    }
+
+
+    @Override
+    public ImmutableVector3 getP2() {
+        return store.getVertex(face, 2);
+    }
+
+
+    @Override
+    public ImmutableVector3 getNormal() {
+        return store.getNormal(face);
+    }
+
+
+    @Override
+    public ImmutableVector3 getNormal(ImmutableVector3 hitpoint) {
+        return getNormal();
+    }
+
+
+    @Override
+    public boolean hasVertexNormals() {
+        return store.hasVertexNormals();
+    }
+
+
+    @Override
+    public ImmutableVector3 getShadingNormal(ImmutableVector3 hitpoint) {
+        if (!store.hasVertexNormals()) {
+            return getNormal();
+        }
+        return interpolateNormals(hitpoint, store.getVertexNormal(face, 0), store.getVertexNormal(face, 1), store.getVertexNormal(face, 2));
+    }
+
+
+    @Override
+    public Material getMaterial() {
+        return store.getMaterial(face);
+    }
+
+
+    @Override
+    public void setMaterial(Material material) {
+        store.setMaterial(face, material);
+    }
+
+
+    @Override
+    public SimpleTriangle transpose(Vector3 transpose) {
+        return toSimpleTriangle().transpose(transpose);
+    }
+
+
+    @Override
+    public SimpleTriangle rotate(ImmutableMatrix3x3 rotationY) {
+        return toSimpleTriangle().rotate(rotationY);
+    }
+
+
+    @Override
+    public SimpleTriangle[] subdivide() {
+        return toSimpleTriangle().subdivide();
+    }
+
+
+    private SimpleTriangle toSimpleTriangle() {
+        return new SimpleTriangle(getP0(), getP1(), getP2(), getNormal(), getMaterial());
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StoredTriangle)) {
+            return false;
+        }
+        StoredTriangle other = (StoredTriangle) o;
+        return store == other.store && face == other.face;
+    }
+
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(store) + face;
+    }
+}
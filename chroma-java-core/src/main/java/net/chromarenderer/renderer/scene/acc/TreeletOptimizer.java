@@ -0,0 +1,351 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.AccStructType;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.utils.ChromaLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+/**
+ * Post-build optimization for a {@link BvhTree} of any builder, following the treelet restructuring of Karras and
+ * Aila. For every inner node a treelet is grown by repeatedly expanding its largest leaf until it has
+ * {@code treeletSize} leaves. The topology of the treelet which minimizes the SAH cost over these leaves is found by
+ * dynamic programming over all subsets of leaves and replaces the current one if it is cheaper.
+ * <p>
+ * Nodes are processed bottom up, disjoint subtrees in parallel. The tree is modified in place, only inner nodes are
+ * rewired and their boxes recomputed. Finally, subtrees of up to {@link #MAX_COLLAPSED_LEAF_SIZE} primitives are
+ * collapsed into a single leaf where this lowers the SAH cost, so builders emitting small leaves profit most.
+ *
+ * @author bensteinert
+ */
+public class TreeletOptimizer {
+
+    private static final Logger LOGGER = ChromaLogger.get();
+
+    static final int DEFAULT_TREELET_SIZE = 7;
+    static final int DEFAULT_PASSES = 3;
+    // subtrees below this depth are optimized within the task of their ancestor
+    private static final int PARALLEL_DEPTH = 8;
+    private static final float MIN_PASS_IMPROVEMENT = 0.001f;
+    static final int MAX_COLLAPSED_LEAF_SIZE = 8;
+
+    private final int treeletSize;
+    private final int passes;
+
+    private BvhNode[] nodeRefs;
+    private int[] left;
+    private int[] right;
+    private float[] bounds;
+    private float[] area;
+    private float[] cost;
+    private int[] primitiveCount;
+
+
+    public TreeletOptimizer() {
+        this(DEFAULT_TREELET_SIZE, DEFAULT_PASSES);
+    }
+
+
+    public TreeletOptimizer(int treeletSize, int passes) {
+        if (treeletSize < 3 || treeletSize > 10) {
+            throw new IllegalArgumentException("Treelet size has to be within [3, 10] but was " + treeletSize);
+        }
+        this.treeletSize = treeletSize;
+        this.passes = passes;
+    }
+
+
+    /**
+     * Builds the {@link AccStructType#OPTIMIZED_LBVH}: an LBVH with single primitive leaves, which leave the most room
+     * for restructuring, optimized with the default treelet size and passes.
+     */
+    public static BvhTree buildOptimizedLbvh(List<Geometry> geometry) {
+        BvhTree tree = new TreeletOptimizer().optimize(new LbvhTreeBuilder(1).buildBvh(geometry));
+        return new BvhTree(tree.getGeometry(), tree.getRootNode(), AccStructType.OPTIMIZED_LBVH);
+    }
+
+
+    public BvhTree optimize(BvhTree tree) {
+        long start = System.nanoTime();
+        float initialCost = tree.computeSahCost();
+
+        List<BvhNode> nodeList = new ArrayList<>();
+        collectNodes(tree.getRootNode(), nodeList);
+        int numberOfNodes = nodeList.size();
+        nodeRefs = nodeList.toArray(new BvhNode[numberOfNodes]);
+        left = new int[numberOfNodes];
+        right = new int[numberOfNodes];
+        bounds = new float[numberOfNodes * 6];
+        area = new float[numberOfNodes];
+        cost = new float[numberOfNodes];
+        primitiveCount = new int[numberOfNodes];
+        initNode(0);
+
+        float rootArea = area[0];
+        float previousCost = cost[0];
+        for (int pass = 0; pass < passes; pass++) {
+            ForkJoinPool.commonPool().invoke(new OptimizeTask(0, 0));
+            float improvement = 1.0f - cost[0] / previousCost;
+            previousCost = cost[0];
+            if (improvement < MIN_PASS_IMPROVEMENT) {
+                break;
+            }
+        }
+
+        boolean[] collapsed = new boolean[numberOfNodes];
+        collapse(0, collapsed);
+        writeBack(0, collapsed);
+
+        LOGGER.info(String.format("Treelet optimization took %d ms, SAH cost %f -> %f",
+                (System.nanoTime() - start) / 1000000L, initialCost, rootArea > 0.0f ? cost[0] / rootArea : 0.0f));
+        nodeRefs = null;
+        return tree;
+    }
+
+
+    private static void collectNodes(BvhNode node, List<BvhNode> nodeList) {
+        nodeList.add(node);
+        if (node.indexList == null) {
+            collectNodes(node.left, nodeList);
+            collectNodes(node.right, nodeList);
+        }
+    }
+
+
+    /**
+     * Fills the arrays for the subtree of the node collected at the given depth first index.
+     *
+     * @return the next free index.
+     */
+    private int initNode(int index) {
+        BvhNode node = nodeRefs[index];
+        ImmutableVector3 pMin = node.box.getPMin();
+        ImmutableVector3 pMax = node.box.getPMax();
+        for (int axis = 0; axis < 3; axis++) {
+            bounds[index * 6 + axis] = pMin.getScalar(axis);
+            bounds[index * 6 + 3 + axis] = pMax.getScalar(axis);
+        }
+        area[index] = SahBvhTreeBuilder.surfaceArea(bounds, index * 6);
+
+        if (node.indexList != null) {
+            left[index] = -1;
+            right[index] = -1;
+            cost[index] = area[index] * node.indexList.length * SahBvhTreeBuilder.INTERSECTION_COST;
+            primitiveCount[index] = node.indexList.length;
+            return index + 1;
+        }
+        left[index] = index + 1;
+        right[index] = initNode(index + 1);
+        int next = initNode(right[index]);
+        cost[index] = area[index] * SahBvhTreeBuilder.TRAVERSAL_COST + cost[left[index]] + cost[right[index]];
+        primitiveCount[index] = primitiveCount[left[index]] + primitiveCount[right[index]];
+        return next;
+    }
+
+
+    private void optimize(int node, int depth, Scratch scratch) {
+        if (left[node] < 0) {
+            return;
+        }
+        if (depth < PARALLEL_DEPTH) {
+            ForkJoinTask.invokeAll(new OptimizeTask(left[node], depth + 1), new OptimizeTask(right[node], depth + 1));
+        } else {
+            optimize(left[node], depth + 1, scratch);
+            optimize(right[node], depth + 1, scratch);
+        }
+        cost[node] = area[node] * SahBvhTreeBuilder.TRAVERSAL_COST + cost[left[node]] + cost[right[node]];
+        primitiveCount[node] = primitiveCount[left[node]] + primitiveCount[right[node]];
+        restructure(node, scratch);
+    }
+
+
+    private void restructure(int root, Scratch scratch) {
+        int[] leaves = scratch.leaves;
+        int[] inner = scratch.inner;
+        int numberOfLeaves = 2;
+        int numberOfInner = 1;
+        leaves[0] = left[root];
+        leaves[1] = right[root];
+        inner[0] = root;
+
+        while (numberOfLeaves < treeletSize) {
+            int largest = -1;
+            for (int i = 0; i < numberOfLeaves; i++) {
+                if (left[leaves[i]] >= 0 && (largest < 0 || area[leaves[i]] > area[leaves[largest]])) {
+                    largest = i;
+                }
+            }
+            if (largest < 0) {
+                break;
+            }
+            int expanded = leaves[largest];
+            inner[numberOfInner++] = expanded;
+            leaves[largest] = left[expanded];
+            leaves[numberOfLeaves++] = right[expanded];
+        }
+        if (numberOfLeaves < 3) {
+            return;
+        }
+
+        float[] subsetBounds = scratch.subsetBounds;
+        float[] subsetCost = scratch.subsetCost;
+        int[] bestSplit = scratch.bestSplit;
+        int numberOfSubsets = 1 << numberOfLeaves;
+
+        for (int subset = 1; subset < numberOfSubsets; subset++) {
+            int lowest = Integer.numberOfTrailingZeros(subset);
+            int rest = subset & (subset - 1);
+            if (rest == 0) {
+                System.arraycopy(bounds, leaves[lowest] * 6, subsetBounds, subset * 6, 6);
+                subsetCost[subset] = cost[leaves[lowest]];
+                continue;
+            }
+            System.arraycopy(subsetBounds, rest * 6, subsetBounds, subset * 6, 6);
+            SahBvhTreeBuilder.growBounds(subsetBounds, subset * 6, bounds, leaves[lowest] * 6);
+
+            // partitions containing the lowest leaf on the left side cover each split exactly once
+            float best = Float.MAX_VALUE;
+            int bestPartition = 0;
+            for (int partition = (subset - 1) & subset; partition > 0; partition = (partition - 1) & subset) {
+                if ((partition & (1 << lowest)) == 0) {
+                    continue;
+                }
+                float splitCost = subsetCost[partition] + subsetCost[subset ^ partition];
+                if (splitCost < best) {
+                    best = splitCost;
+                    bestPartition = partition;
+                }
+            }
+            subsetCost[subset] = SahBvhTreeBuilder.surfaceArea(subsetBounds, subset * 6) * SahBvhTreeBuilder.TRAVERSAL_COST + best;
+            bestSplit[subset] = bestPartition;
+        }
+
+        int all = numberOfSubsets - 1;
+        if (subsetCost[all] < cost[root] * (1.0f - 1e-5f)) {
+            scratch.nextInner = 1;
+            rebuild(root, all, scratch);
+        }
+    }
+
+
+    private int rebuild(int node, int subset, Scratch scratch) {
+        int split = scratch.bestSplit[subset];
+        int leftSubset = split;
+        int rightSubset = subset ^ split;
+        left[node] = Integer.bitCount(leftSubset) == 1 ? scratch.leaves[Integer.numberOfTrailingZeros(leftSubset)]
+                : rebuild(scratch.inner[scratch.nextInner++], leftSubset, scratch);
+        right[node] = Integer.bitCount(rightSubset) == 1 ? scratch.leaves[Integer.numberOfTrailingZeros(rightSubset)]
+                : rebuild(scratch.inner[scratch.nextInner++], rightSubset, scratch);
+        System.arraycopy(scratch.subsetBounds, subset * 6, bounds, node * 6, 6);
+        area[node] = SahBvhTreeBuilder.surfaceArea(bounds, node * 6);
+        cost[node] = scratch.subsetCost[subset];
+        primitiveCount[node] = primitiveCount[left[node]] + primitiveCount[right[node]];
+        return node;
+    }
+
+
+    /**
+     * Turns small subtrees into leaves where intersecting all their primitives is cheaper than traversing them.
+     */
+    private void collapse(int node, boolean[] collapsed) {
+        if (left[node] < 0) {
+            return;
+        }
+        collapse(left[node], collapsed);
+        collapse(right[node], collapsed);
+        cost[node] = area[node] * SahBvhTreeBuilder.TRAVERSAL_COST + cost[left[node]] + cost[right[node]];
+        float leafCost = area[node] * primitiveCount[node] * SahBvhTreeBuilder.INTERSECTION_COST;
+        if (primitiveCount[node] <= MAX_COLLAPSED_LEAF_SIZE && leafCost < cost[node]) {
+            collapsed[node] = true;
+            cost[node] = leafCost;
+        }
+    }
+
+
+    private void writeBack(int index, boolean[] collapsed) {
+        if (left[index] < 0) {
+            return;
+        }
+        BvhNode node = nodeRefs[index];
+        node.box = toBox(index);
+        node.axis = longestAxis(index);
+        if (collapsed[index]) {
+            node.indexList = new int[primitiveCount[index]];
+            gatherPrimitives(index, node.indexList, 0);
+            node.left = null;
+            node.right = null;
+        } else {
+            node.left = nodeRefs[left[index]];
+            node.right = nodeRefs[right[index]];
+            writeBack(left[index], collapsed);
+            writeBack(right[index], collapsed);
+        }
+    }
+
+
+    private int gatherPrimitives(int index, int[] target, int offset) {
+        if (left[index] < 0) {
+            int[] indexList = nodeRefs[index].indexList;
+            System.arraycopy(indexList, 0, target, offset, indexList.length);
+            return offset + indexList.length;
+        }
+        return gatherPrimitives(right[index], target, gatherPrimitives(left[index], target, offset));
+    }
+
+
+    private AxisAlignedBoundingBox toBox(int node) {
+        int offset = node * 6;
+        return new AxisAlignedBoundingBox(
+                new ImmutableVector3(bounds[offset], bounds[offset + 1], bounds[offset + 2]),
+                new ImmutableVector3(bounds[offset + 3], bounds[offset + 4], bounds[offset + 5]));
+    }
+
+
+    private int longestAxis(int node) {
+        int offset = node * 6;
+        int result = 0;
+        for (int axis = 1; axis < 3; axis++) {
+            if (bounds[offset + 3 + axis] - bounds[offset + axis] > bounds[offset + 3 + result] - bounds[offset + result]) {
+                result = axis;
+            }
+        }
+        return result;
+    }
+
+
+    private class Scratch {
+        private final int[] leaves = new int[treeletSize];
+        private final int[] inner = new int[treeletSize - 1];
+        private final float[] subsetBounds = new float[(1 << treeletSize) * 6];
+        private final float[] subsetCost = new float[1 << treeletSize];
+        private final int[] bestSplit = new int[1 << treeletSize];
+        private int nextInner;
+    }
+
+
+    private class OptimizeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int node;
+        private final int depth;
+
+
+        OptimizeTask(int node, int depth) {
+            this.node = node;
+            this.depth = depth;
+        }
+
+
+        @Override
+        protected void compute() {
+            optimize(node, depth, new Scratch());
+        }
+    }
+}
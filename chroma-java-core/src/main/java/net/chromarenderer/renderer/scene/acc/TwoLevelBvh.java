@@ -0,0 +1,147 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.AccStructType;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.utils.ChromaLogger;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Top level BVH over {@link MeshInstance}s, each of them referring to the shared bottom level BVH of its mesh. Memory
+ * and build time scale with the unique geometry instead of the number of instances.
+ * <p>
+ * Hits inside transformed instances are reported as {@link InstancedGeometry}, hits inside identity instances as the
+ * primitive itself.
+ *
+ * @author bensteinert
+ */
+public class TwoLevelBvh implements AccelerationStructure {
+
+    private final MeshInstance[] instances;
+    private final BvhNode rootNode;
+
+
+    public TwoLevelBvh(List<MeshInstance> instanceList) {
+        instances = instanceList.toArray(new MeshInstance[instanceList.size()]);
+        float[] bounds = new float[instances.length * 6];
+        for (int i = 0; i < instances.length; i++) {
+            ImmutableVector3 pMin = instances[i].getSpatialMinimum();
+            ImmutableVector3 pMax = instances[i].getSpatialMaximum();
+            bounds[i * 6] = pMin.getX();
+            bounds[i * 6 + 1] = pMin.getY();
+            bounds[i * 6 + 2] = pMin.getZ();
+            bounds[i * 6 + 3] = pMax.getX();
+            bounds[i * 6 + 4] = pMax.getY();
+            bounds[i * 6 + 5] = pMax.getZ();
+        }
+        rootNode = new SahBvhTreeBuilder(1, 32).buildTree(bounds);
+
+        Map<SharedMesh, Boolean> uniqueMeshes = new IdentityHashMap<>();
+        long instancedPrimitives = 0;
+        long uniquePrimitives = 0;
+        for (MeshInstance instance : instances) {
+            int numberOfPrimitives = instance.getMesh().getGeometry().size();
+            instancedPrimitives += numberOfPrimitives;
+            if (uniqueMeshes.put(instance.getMesh(), Boolean.TRUE) == null) {
+                uniquePrimitives += numberOfPrimitives;
+            }
+        }
+        ChromaLogger.get().info("Built two level BVH over " + instances.length + " instances of " + uniqueMeshes.size() +
+                " meshes, " + uniquePrimitives + " unique primitives represent " + instancedPrimitives + " primitives in the scene");
+    }
+
+
+    @Override
+    public void intersect(IntersectionContext ctx) {
+        ctx.hitInstance = null;
+        intersect(rootNode, ctx);
+        if (ctx.hitInstance != null && ctx.hitGeometry != null && !ctx.hitInstance.isIdentity()) {
+            ctx.hitGeometry = new InstancedGeometry(ctx.hitInstance, ctx.hitGeometry);
+        }
+    }
+
+
+    /**
+     * Same traversal order as {@link BvhNode#intersect(IntersectionContext, net.chromarenderer.math.geometry.Geometry[])},
+     * leaves descend into the bottom level of their instances.
+     */
+    private void intersect(BvhNode node, IntersectionContext ctx) {
+        if (node.indexList != null) {
+            for (int index : node.indexList) {
+                instances[index].intersect(ctx);
+            }
+            return;
+        }
+
+        int hitBits = ctx.intersectionMode;
+        hitBits |= node.left.box.intersects(ctx);
+        float tMinLeft = ctx.lastTValues[0];
+        hitBits |= node.right.box.intersects(ctx) << 1;
+        float tMinRight = ctx.lastTValues[0];
+
+        switch (hitBits) {
+            case 1: // left hit
+            case 5: // left hit with any mode
+                intersect(node.left, ctx);
+                break;
+            case 2: // right hit
+            case 6: // right hit with any mode
+                intersect(node.right, ctx);
+                break;
+            case 3: // both hit first mode
+                if (tMinLeft <= tMinRight) {
+                    intersect(node.left, ctx);
+                    if (ctx.hitDistance > tMinRight) {
+                        intersect(node.right, ctx);
+                    }
+                } else {
+                    intersect(node.right, ctx);
+                    if (ctx.hitDistance > tMinLeft) {
+                        intersect(node.left, ctx);
+                    }
+                }
+                break;
+            case 7: // both hit with any mode
+                if (tMinLeft <= tMinRight) {
+                    intersect(node.left, ctx);
+                    if (ctx.hitGeometry == null) {
+                        intersect(node.right, ctx);
+                    }
+                } else {
+                    intersect(node.right, ctx);
+                    if (ctx.hitGeometry == null) {
+                        intersect(node.left, ctx);
+                    }
+                }
+                break;
+        }
+    }
+
+
+    @Override
+    public boolean isOccluded(IntersectionContext ctx) {
+        return isOccluded(rootNode, ctx);
+    }
+
+
+    private boolean isOccluded(BvhNode node, IntersectionContext ctx) {
+        if (node.indexList != null) {
+            for (int index : node.indexList) {
+                if (instances[index].isOccluded(ctx)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return (node.left.box.isHitBy(ctx.ray) && isOccluded(node.left, ctx)) ||
+                (node.right.box.isHitBy(ctx.ray) && isOccluded(node.right, ctx));
+    }
+
+
+    @Override
+    public AccStructType getType() {
+        return AccStructType.TWO_LEVEL_BVH;
+    }
+}
@@ -0,0 +1,321 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.AccStructType;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.utils.ChromaLogger;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Uniform grid over the scene bounds, a good fit for dense and evenly distributed geometry like terrains or tessellated
+ * surfaces. The number of cells is derived from the primitive count, each primitive is referenced by all cells its
+ * bounding box overlaps. The cell lists are stored compactly: the primitives of cell {@code c} are
+ * {@code cellPrimitives[cellStart[c]]} to {@code cellPrimitives[cellStart[c + 1] - 1]}.
+ * <p>
+ * Rays walk the grid cell by cell with a 3D-DDA. Primitives spanning several cells are tested only once per ray thanks
+ * to the mailbox stamps of the {@link IntersectionContext}, the last hit geometry of the ray itself is skipped as
+ * usual via {@link Ray#mailbox(Geometry)}.
+ *
+ * @author bensteinert
+ */
+public class UniformGrid implements AccelerationStructure {
+
+    // cells per primitive
+    static final float DEFAULT_DENSITY = 2.0f;
+    static final int MAX_RESOLUTION = 512;
+
+    private final Geometry[] geometry;
+    private final float[] min = new float[3];
+    private final float[] max = new float[3];
+    private final float[] cellSize = new float[3];
+    private final float[] invCellSize = new float[3];
+    private final int[] resolution = new int[3];
+    private final int[] cellStart;
+    private final int[] cellPrimitives;
+
+
+    public UniformGrid(List<Geometry> geometryList) {
+        this(geometryList, DEFAULT_DENSITY);
+    }
+
+
+    public UniformGrid(List<Geometry> geometryList, float density) {
+        long start = System.nanoTime();
+        geometry = geometryList.toArray(new Geometry[geometryList.size()]);
+
+        for (int axis = 0; axis < 3; axis++) {
+            min[axis] = Float.MAX_VALUE;
+            max[axis] = -Float.MAX_VALUE;
+        }
+        for (Geometry primitive : geometry) {
+            ImmutableVector3 pMin = primitive.getSpatialMinimum();
+            ImmutableVector3 pMax = primitive.getSpatialMaximum();
+            for (int axis = 0; axis < 3; axis++) {
+                min[axis] = Math.min(min[axis], pMin.getScalar(axis));
+                max[axis] = Math.max(max[axis], pMax.getScalar(axis));
+            }
+        }
+        computeResolution(density);
+
+        // cell ranges of all primitives: min x, y, z followed by max x, y, z
+        int[] ranges = new int[geometry.length * 6];
+        IntStream.range(0, geometry.length).parallel().forEach(i -> {
+            ImmutableVector3 pMin = geometry[i].getSpatialMinimum();
+            ImmutableVector3 pMax = geometry[i].getSpatialMaximum();
+            for (int axis = 0; axis < 3; axis++) {
+                ranges[i * 6 + axis] = toCell(pMin.getScalar(axis), axis);
+                ranges[i * 6 + 3 + axis] = toCell(pMax.getScalar(axis), axis);
+            }
+        });
+
+        int numberOfCells = resolution[0] * resolution[1] * resolution[2];
+        cellStart = new int[numberOfCells + 1];
+        for (int i = 0; i < geometry.length; i++) {
+            forEachCell(ranges, i, cell -> cellStart[cell + 1]++);
+        }
+        for (int cell = 0; cell < numberOfCells; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+
+        cellPrimitives = new int[cellStart[numberOfCells]];
+        int[] fill = new int[numberOfCells];
+        for (int i = 0; i < geometry.length; i++) {
+            final int index = i;
+            forEachCell(ranges, i, cell -> cellPrimitives[cellStart[cell] + fill[cell]++] = index);
+        }
+
+        ChromaLogger.get().info(String.format("Grid Build over %d primitives took %d ms: %dx%dx%d cells, %.2f references per primitive, %d KB",
+                geometry.length, (System.nanoTime() - start) / 1000000L, resolution[0], resolution[1], resolution[2],
+                geometry.length > 0 ? cellPrimitives.length / (float) geometry.length : 0.0f, getSizeInBytes() / 1024));
+    }
+
+
+    private void computeResolution(float density) {
+        if (geometry.length == 0) {
+            for (int axis = 0; axis < 3; axis++) {
+                min[axis] = 0.0f;
+                max[axis] = 0.0f;
+            }
+        }
+
+        // flat scenes still get a volume so that cells can be sized
+        float maxExtent = Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2]));
+        float minimalExtent = Math.max(maxExtent * 1e-3f, 1e-3f);
+        float[] extent = new float[3];
+        for (int axis = 0; axis < 3; axis++) {
+            if (max[axis] - min[axis] < minimalExtent) {
+                float center = (min[axis] + max[axis]) * 0.5f;
+                min[axis] = center - minimalExtent * 0.5f;
+                max[axis] = center + minimalExtent * 0.5f;
+            }
+            extent[axis] = max[axis] - min[axis];
+        }
+
+        float cellsPerUnit = (float) Math.cbrt(density * Math.max(1, geometry.length) / (extent[0] * extent[1] * extent[2]));
+        for (int axis = 0; axis < 3; axis++) {
+            resolution[axis] = Math.max(1, Math.min(MAX_RESOLUTION, Math.round(extent[axis] * cellsPerUnit)));
+            cellSize[axis] = extent[axis] / resolution[axis];
+            invCellSize[axis] = 1.0f / cellSize[axis];
+        }
+    }
+
+
+    private int toCell(float position, int axis) {
+        int cell = (int) ((position - min[axis]) * invCellSize[axis]);
+        return Math.max(0, Math.min(resolution[axis] - 1, cell));
+    }
+
+
+    private interface CellConsumer {
+        void accept(int cell);
+    }
+
+
+    private void forEachCell(int[] ranges, int primitive, CellConsumer consumer) {
+        int offset = primitive * 6;
+        for (int z = ranges[offset + 2]; z <= ranges[offset + 5]; z++) {
+            for (int y = ranges[offset + 1]; y <= ranges[offset + 4]; y++) {
+                for (int x = ranges[offset]; x <= ranges[offset + 3]; x++) {
+                    consumer.accept((z * resolution[1] + y) * resolution[0] + x);
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public void intersect(IntersectionContext ctx) {
+        boolean anyMode = ctx.intersectionMode == IntersectionContext.ANY;
+        Traversal traversal = ctx.getGridTraversal();
+        if (!traversal.start(this, ctx.ray)) {
+            return;
+        }
+        int stamp = ctx.nextMailboxStamp(geometry.length);
+        int[] mailbox = ctx.mailboxStamps;
+
+        do {
+            int cell = traversal.cell();
+            for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                int index = cellPrimitives[i];
+                if (mailbox[index] != stamp) {
+                    mailbox[index] = stamp;
+                    ctx.checkGeometry(geometry[index]);
+                }
+            }
+            // hits behind the current cell might still be beaten by primitives of the next cells
+            if (ctx.hitGeometry != null && (anyMode || ctx.hitDistance <= traversal.cellExit())) {
+                return;
+            }
+        } while (traversal.step());
+    }
+
+
+    @Override
+    public boolean isOccluded(IntersectionContext ctx) {
+        Ray ray = ctx.ray;
+        Traversal traversal = ctx.getGridTraversal();
+        if (!traversal.start(this, ray)) {
+            return false;
+        }
+        int stamp = ctx.nextMailboxStamp(geometry.length);
+        int[] mailbox = ctx.mailboxStamps;
+
+        do {
+            int cell = traversal.cell();
+            for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                int index = cellPrimitives[i];
+                if (mailbox[index] != stamp) {
+                    mailbox[index] = stamp;
+                    if (IntersectionContext.occludes(geometry[index], ray)) {
+                        return true;
+                    }
+                }
+            }
+        } while (traversal.step());
+        return false;
+    }
+
+
+    public long getSizeInBytes() {
+        return cellStart.length * 4L + cellPrimitives.length * 4L;
+    }
+
+
+    int getNumberOfCells() {
+        return cellStart.length - 1;
+    }
+
+
+    @Override
+    public AccStructType getType() {
+        return AccStructType.GRID;
+    }
+
+
+    /**
+     * State of a 3D-DDA walk through the cells of a grid, reused per {@link IntersectionContext}.
+     */
+    static class Traversal {
+
+        private final int[] cell = new int[3];
+        private final int[] step = new int[3];
+        private final int[] out = new int[3];
+        private final float[] tNext = new float[3];
+        private final float[] tDelta = new float[3];
+        private UniformGrid grid;
+        private float tExit;
+
+
+        boolean start(UniformGrid grid, Ray ray) {
+            this.grid = grid;
+            ImmutableVector3 origin = ray.getOrigin();
+            ImmutableVector3 invDirection = ray.getInvDirection();
+
+            float tEnter = ray.getTMin();
+            tExit = ray.getTMax();
+            for (int axis = 0; axis < 3; axis++) {
+                float t0 = (grid.min[axis] - origin.getScalar(axis)) * invDirection.getScalar(axis);
+                float t1 = (grid.max[axis] - origin.getScalar(axis)) * invDirection.getScalar(axis);
+                if (t0 > t1) {
+                    float swap = t0;
+                    t0 = t1;
+                    t1 = swap;
+                }
+                // NaN for axis parallel rays starting on a bounding plane, these do not restrict the interval
+                if (t0 > tEnter) {
+                    tEnter = t0;
+                }
+                if (t1 < tExit) {
+                    tExit = t1;
+                }
+                if (tEnter > tExit) {
+                    return false;
+                }
+            }
+
+            for (int axis = 0; axis < 3; axis++) {
+                float o = origin.getScalar(axis);
+                float invD = invDirection.getScalar(axis);
+                cell[axis] = grid.toCell(o + tEnter * ray.getDirection().getScalar(axis), axis);
+                float d = ray.getDirection().getScalar(axis);
+                if (d > 0.0f) {
+                    step[axis] = 1;
+                    out[axis] = grid.resolution[axis];
+                    tNext[axis] = (grid.min[axis] + (cell[axis] + 1) * grid.cellSize[axis] - o) * invD;
+                    tDelta[axis] = grid.cellSize[axis] * invD;
+                } else if (d < 0.0f) {
+                    step[axis] = -1;
+                    out[axis] = -1;
+                    tNext[axis] = (grid.min[axis] + cell[axis] * grid.cellSize[axis] - o) * invD;
+                    tDelta[axis] = -grid.cellSize[axis] * invD;
+                } else {
+                    step[axis] = 0;
+                    out[axis] = -1;
+                    tNext[axis] = Float.POSITIVE_INFINITY;
+                    tDelta[axis] = Float.POSITIVE_INFINITY;
+                }
+            }
+            return true;
+        }
+
+
+        int cell() {
+            return (cell[2] * grid.resolution[1] + cell[1]) * grid.resolution[0] + cell[0];
+        }
+
+
+        /**
+         * @return the distance at which the ray leaves the current cell.
+         */
+        float cellExit() {
+            return Math.min(tNext[0], Math.min(tNext[1], tNext[2]));
+        }
+
+
+        /**
+         * Moves on to the next cell along the ray.
+         *
+         * @return false if the ray left the grid or its interval.
+         */
+        boolean step() {
+            int axis;
+            if (tNext[0] < tNext[1]) {
+                axis = tNext[0] < tNext[2] ? 0 : 2;
+            } else {
+                axis = tNext[1] < tNext[2] ? 1 : 2;
+            }
+            if (tNext[axis] > tExit) {
+                return false;
+            }
+            cell[axis] += step[axis];
+            if (cell[axis] == out[axis]) {
+                return false;
+            }
+            tNext[axis] += tDelta[axis];
+            return true;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.AccStructType;
+import net.chromarenderer.math.Constants;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.utils.ChromaLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Four-wide BVH collapsed from a binary {@link BvhTree}: every node gathers up to {@link WideIntersector#LANES}
+ * descendants by repeatedly opening the inner child with the largest surface area. The child boxes of a node are
+ * stored as structure of arrays, so one ray is tested against all of them at once by the {@link WideIntersector}, and
+ * so are the triangles of a leaf, which are kept in {@link LeafTriangles}.
+ * <p>
+ * Per node there are 6 blocks of {@link WideIntersector#LANES} floats in {@code childBounds} and one int per child
+ * in {@code children}: the index of a node, the bitwise complement of the index of a leaf or {@link #EMPTY}. Empty
+ * children get an inverted box which is never hit. Leaves store their offset into {@code primitiveIndices} followed by
+ * the number of primitives in {@code leaves}.
+ *
+ * @author bensteinert
+ */
+public class WideBvhTree implements AccelerationStructure {
+
+    private static final WideIntersector INTERSECTOR = WideIntersector.load();
+    private static final int LANES = WideIntersector.LANES;
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private final Geometry[] geometry;
+    private final float[] childBounds;
+    private final int[] children;
+    private final int[] leaves;
+    private final int[] primitiveIndices;
+    private final LeafTriangles leafTriangles;
+
+    private int numberOfNodes;
+    private int numberOfLeaves;
+    private int numberOfReferences;
+
+
+    private WideBvhTree(Geometry[] geometry, int numberOfNodes, int numberOfLeaves, int numberOfReferences) {
+        this.geometry = geometry;
+        this.childBounds = new float[numberOfNodes * 6 * LANES];
+        this.children = new int[numberOfNodes * LANES];
+        this.leaves = new int[numberOfLeaves * 2];
+        this.primitiveIndices = new int[numberOfReferences];
+        this.leafTriangles = new LeafTriangles(numberOfReferences);
+    }
+
+
+    public static WideBvhTree collapse(BvhTree tree) {
+        BvhNode root = tree.getRootNode();
+        int[] counts = new int[3];
+        countNodes(root, counts);
+
+        WideBvhTree result = new WideBvhTree(tree.getGeometry(), counts[0], counts[1], counts[2]);
+        result.collapseNode(root);
+        IntStream.range(0, result.primitiveIndices.length).parallel()
+                .forEach(i -> result.leafTriangles.set(i, result.geometry[result.primitiveIndices[i]]));
+
+        ChromaLogger.get().info("Collapsed BVH into " + counts[0] + " wide nodes and " + counts[1] + " leaves using "
+                + result.getSizeInBytes() / 1024 + " KB");
+        return result;
+    }
+
+
+    /**
+     * The binary children a node of the wide tree is made of. A binary leaf as root becomes the only child of the root.
+     */
+    private static List<BvhNode> gatherChildren(BvhNode node) {
+        List<BvhNode> result = new ArrayList<>(LANES);
+        if (node.indexList != null) {
+            result.add(node);
+            return result;
+        }
+        result.add(node.left);
+        result.add(node.right);
+        while (result.size() < LANES) {
+            int largest = -1;
+            float largestArea = -1.0f;
+            for (int i = 0; i < result.size(); i++) {
+                BvhNode candidate = result.get(i);
+                if (candidate.indexList == null && candidate.box.getSurfaceArea() > largestArea) {
+                    largest = i;
+                    largestArea = candidate.box.getSurfaceArea();
+                }
+            }
+            if (largest == -1) {
+                break;
+            }
+            BvhNode opened = result.remove(largest);
+            result.add(opened.left);
+            result.add(opened.right);
+        }
+        return result;
+    }
+
+
+    /**
+     * Counts wide nodes, leaves and primitive references.
+     */
+    private static void countNodes(BvhNode node, int[] counts) {
+        counts[0]++;
+        for (BvhNode child : gatherChildren(node)) {
+            if (child.indexList != null) {
+                counts[1]++;
+                counts[2] += child.indexList.length;
+            } else {
+                countNodes(child, counts);
+            }
+        }
+    }
+
+
+    private int collapseNode(BvhNode node) {
+        int nodeIndex = numberOfNodes++;
+        int offset = nodeIndex * 6 * LANES;
+        List<BvhNode> lanes = gatherChildren(node);
+
+        for (int lane = 0; lane < LANES; lane++) {
+            if (lane >= lanes.size()) {
+                for (int axis = 0; axis < 3; axis++) {
+                    childBounds[offset + axis * LANES + lane] = Float.POSITIVE_INFINITY;
+                    childBounds[offset + (3 + axis) * LANES + lane] = Float.NEGATIVE_INFINITY;
+                }
+                children[nodeIndex * LANES + lane] = EMPTY;
+                continue;
+            }
+
+            BvhNode child = lanes.get(lane);
+            ImmutableVector3 pMin = child.box.getPMin();
+            ImmutableVector3 pMax = child.box.getPMax();
+            for (int axis = 0; axis < 3; axis++) {
+                childBounds[offset + axis * LANES + lane] = pMin.getScalar(axis);
+                childBounds[offset + (3 + axis) * LANES + lane] = pMax.getScalar(axis);
+            }
+
+            if (child.indexList != null) {
+                int leafIndex = numberOfLeaves++;
+                System.arraycopy(child.indexList, 0, primitiveIndices, numberOfReferences, child.indexList.length);
+                leaves[leafIndex * 2] = numberOfReferences;
+                leaves[leafIndex * 2 + 1] = child.indexList.length;
+                numberOfReferences += child.indexList.length;
+                children[nodeIndex * LANES + lane] = ~leafIndex;
+            } else {
+                children[nodeIndex * LANES + lane] = collapseNode(child);
+            }
+        }
+        return nodeIndex;
+    }
+
+
+    /**
+     * Children hit in front of the current hit are pushed ordered by their entry distance, so the closest one is
+     * visited next.
+     */
+    @Override
+    public void intersect(IntersectionContext ctx) {
+        Ray ray = ctx.ray;
+        boolean anyMode = ctx.intersectionMode == IntersectionContext.ANY;
+        float[] laneDistances = ctx.laneDistances;
+        int[] stack = ctx.nodeStack;
+        float[] entryDistances = ctx.nodeStackEntryDistances;
+        int stackPointer = 0;
+        int current = 0;
+
+        while (true) {
+            INTERSECTOR.intersectBoxes(childBounds, current * 6 * LANES, ray, ctx.hitDistance, laneDistances);
+            int firstPushed = stackPointer;
+            for (int lane = 0; lane < LANES; lane++) {
+                float distance = laneDistances[lane];
+                int child = children[current * LANES + lane];
+                if (distance == FlatBvhTree.MISS || child == EMPTY) {
+                    continue;
+                }
+                if (stackPointer == stack.length) {
+                    ctx.growNodeStack();
+                    stack = ctx.nodeStack;
+                    entryDistances = ctx.nodeStackEntryDistances;
+                }
+                int position = stackPointer++;
+                while (position > firstPushed && entryDistances[position - 1] < distance) {
+                    stack[position] = stack[position - 1];
+                    entryDistances[position] = entryDistances[position - 1];
+                    position--;
+                }
+                stack[position] = child;
+                entryDistances[position] = distance;
+            }
+
+            current = -1;
+            while (current == -1) {
+                if (stackPointer == 0) {
+                    return;
+                }
+                stackPointer--;
+                if (!anyMode && ctx.hitDistance <= entryDistances[stackPointer]) {
+                    continue;
+                }
+                int child = stack[stackPointer];
+                if (child >= 0) {
+                    current = child;
+                } else {
+                    intersectLeaf(ctx, ~child);
+                    if (anyMode && ctx.hitGeometry != null) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public boolean isOccluded(IntersectionContext ctx) {
+        Ray ray = ctx.ray;
+        float[] laneDistances = ctx.laneDistances;
+        int[] stack = ctx.nodeStack;
+        int stackPointer = 0;
+        int current = 0;
+
+        while (true) {
+            INTERSECTOR.intersectBoxes(childBounds, current * 6 * LANES, ray, ray.getTMax(), laneDistances);
+            for (int lane = 0; lane < LANES; lane++) {
+                int child = children[current * LANES + lane];
+                if (laneDistances[lane] == FlatBvhTree.MISS || child == EMPTY) {
+                    continue;
+                }
+                if (child < 0) {
+                    if (occludesLeaf(ctx, ~child)) {
+                        return true;
+                    }
+                } else {
+                    if (stackPointer == stack.length) {
+                        ctx.growNodeStack();
+                        stack = ctx.nodeStack;
+                    }
+                    stack[stackPointer++] = child;
+                }
+            }
+
+            if (stackPointer == 0) {
+                return false;
+            }
+            current = stack[--stackPointer];
+        }
+    }
+
+
+    /**
+     * Same acceptance criteria as {@link IntersectionContext#checkGeometry(Geometry)} for all references of a leaf.
+     */
+    private void intersectLeaf(IntersectionContext ctx, int leaf) {
+        Ray ray = ctx.ray;
+        int first = leaves[leaf * 2];
+        int count = leaves[leaf * 2 + 1];
+        float[] distances = ctx.getLeafDistances(count);
+        INTERSECTOR.intersectTriangles(leafTriangles, first, first + count, ray, distances);
+
+        for (int i = 0; i < count; i++) {
+            float distance = distances[i];
+            if (ray.isOnRay(distance) && distance < ctx.hitDistance && distance > Constants.FLT_EPSILON) {
+                Geometry primitive = geometry[primitiveIndices[first + i]];
+                if (primitive != ray.getLastHitGeomerty()) {
+                    ctx.hitGeometry = primitive;
+                    ctx.hitDistance = distance;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Same acceptance criteria as {@link IntersectionContext#occludes(Geometry, Ray)} for all references of a leaf.
+     */
+    private boolean occludesLeaf(IntersectionContext ctx, int leaf) {
+        Ray ray = ctx.ray;
+        int first = leaves[leaf * 2];
+        int count = leaves[leaf * 2 + 1];
+        float[] distances = ctx.getLeafDistances(count);
+        INTERSECTOR.intersectTriangles(leafTriangles, first, first + count, ray, distances);
+
+        for (int i = 0; i < count; i++) {
+            float distance = distances[i];
+            if (ray.isOnRay(distance) && distance > Constants.FLT_EPSILON && geometry[primitiveIndices[first + i]] != ray.getLastHitGeomerty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    public int getNumberOfNodes() {
+        return children.length / LANES;
+    }
+
+
+    public long getSizeInBytes() {
+        return childBounds.length * 4L + children.length * 4L + leaves.length * 4L + primitiveIndices.length * 4L
+                + leafTriangles.getSizeInBytes();
+    }
+
+
+    @Override
+    public AccStructType getType() {
+        return AccStructType.WIDE_BVH;
+    }
+}
@@ -0,0 +1,63 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.utils.ChromaLogger;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Intersects one ray with several boxes or triangles at once. Implementations are looked up via {@link ServiceLoader},
+ * e.g. the SIMD one of the optional chroma-java-simd module which needs the JDK Vector API. Without any provider on the
+ * class path, or if the provider can not be linked, the {@link ScalarWideIntersector} is used.
+ * <p>
+ * Implementations have to return the same results as the {@link ScalarWideIntersector} bit by bit, so the chosen one
+ * never changes an image.
+ *
+ * @author bensteinert
+ */
+interface WideIntersector {
+
+    /**
+     * Number of child boxes per node of a {@link WideBvhTree}. Arrays of leaf data are padded by as many entries, so
+     * leaves can be read and written in full vectors of this width.
+     */
+    int LANES = 4;
+
+
+    /**
+     * Slab test of the ray against the {@link #LANES} boxes stored at {@code offset}, as six blocks of
+     * {@link #LANES} floats each: min x, min y, min z, max x, max y, max z.
+     *
+     * @param maxDistance    boxes entered at or behind this distance are missed, at most the tMax of the ray.
+     * @param entryDistances receives the entry distance clipped to the ray interval or {@link FlatBvhTree#MISS} per box.
+     */
+    void intersectBoxes(float[] bounds, int offset, Ray ray, float maxDistance, float[] entryDistances);
+
+
+    /**
+     * @param distances receives the distance to the hit or 0 per reference in [first, end), starting at index 0. Needs
+     *                  room for {@link #LANES} more entries.
+     */
+    void intersectTriangles(LeafTriangles triangles, int first, int end, Ray ray, float[] distances);
+
+
+    String getName();
+
+
+    static WideIntersector load() {
+        try {
+            Iterator<WideIntersector> providers = ServiceLoader.load(WideIntersector.class).iterator();
+            if (providers.hasNext()) {
+                WideIntersector result = providers.next();
+                ChromaLogger.get().info("Using wide intersector " + result.getName());
+                return result;
+            }
+        } catch (ServiceConfigurationError | LinkageError e) {
+            // e.g. running the SIMD module on a JVM without the jdk.incubator.vector module
+            ChromaLogger.get().warning("Wide intersector could not be loaded, falling back to scalar tests: " + e);
+        }
+        return new ScalarWideIntersector();
+    }
+}
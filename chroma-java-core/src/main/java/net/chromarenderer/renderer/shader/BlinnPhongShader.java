@@ -46,7 +46,7 @@ class BlinnPhongShader implements ChromaShader {
 
     private static Radiance sampleGlossyPart(Hitpoint hitpoint, Ray incomingRay) {
         final float lobeNumber = hitpoint.getHitGeometry().getMaterial().getSpecularityHardness();
-        ImmutableVector3 mirrorDir = VectorUtils.mirror(incomingRay.getDirection().mult(-1.0f), hitpoint.getHitpointNormal());
+        ImmutableVector3 mirrorDir = VectorUtils.mirror(incomingRay.getDirection().mult(-1.0f), hitpoint.getShadingNormal());
         final ImmutableVector3 newDirection = getCosineDistributedLobeSample(mirrorDir, hitpoint, lobeNumber);
         float cosTheta = newDirection.dot(hitpoint.getHitpointNormal());
         final Ray sampledRay = new Ray(hitpoint.getPoint(), new ImmutableVector3(newDirection));
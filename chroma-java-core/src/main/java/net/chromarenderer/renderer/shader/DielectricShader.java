@@ -29,10 +29,16 @@ class DielectricShader implements ChromaShader {
         Material matTo;
         boolean insideGlass = false;
 
-        ImmutableVector3 n = hitpoint.getHitpointNormal();
+        // the side is told by the geometric normal, refraction and reflection follow the shading normal
+        ImmutableVector3 n = hitpoint.getShadingNormal();
         float cosTheta = n.dot(backwardsDirection);
+        boolean fromOutside = hitpoint.getHitpointNormal().dot(backwardsDirection) > 0.0f;
+        if (cosTheta > 0.0f != fromOutside) {
+            n = hitpoint.getHitpointNormal();
+            cosTheta = n.dot(backwardsDirection);
+        }
 
-        if (cosTheta > 0.0f) {
+        if (fromOutside) {
             // case from outside to glass
             matFrom = Material.FREE_SPACE;
             matTo = hitpoint.getHitGeometry().getMaterial();
@@ -52,7 +52,10 @@ class DiffuseShader implements ChromaShader {
     @Override
     public Radiance sampleDirectRadiance(Hitpoint hitpoint, Ray incomingRay) {
         ImmutableVector3 point = hitpoint.getPoint();
-        Hitpoint lightSourceSample = scene.getLightSourceSample();
+        Hitpoint lightSourceSample = scene.getLightSourceSample(point, hitpoint.getShadingNormal());
+        if (lightSourceSample == null) {
+            return Radiance.NO_CONTRIBUTION;
+        }
         ImmutableVector3 lightToHitDir = point.minus(lightSourceSample.getPoint());
         float distToLight = lightToHitDir.length();
         hitpoint.setDistance(distToLight);
@@ -60,10 +63,12 @@ class DiffuseShader implements ChromaShader {
         Ray shadowRay = new Ray(lightSourceSample.getPoint(), lightToHitDir, Constants.FLT_EPSILON, distToLight - Constants.FLT_EPSILON, false);
         shadowRay.mailbox(hitpoint.getHitGeometry());
         float cosThetaContribHit = lightToHitDir.dot(lightSourceSample.getHitpointNormal());
-        float cosThetaSceneHit = lightToHitDir.mult(-1.0f).dot(hitpoint.getHitpointNormal());
+        float cosThetaSceneHit = lightToHitDir.mult(-1.0f).dot(hitpoint.getShadingNormal());
+        // the interpolated normal may tilt towards lights below the actual surface
+        boolean aboveSurface = lightToHitDir.dot(hitpoint.getHitpointNormal()) < 0.0f;
 
         //lightSource hit from correct side?
-        if (cosThetaSceneHit < 0.0f || cosThetaContribHit < 0.0f) {
+        if (cosThetaSceneHit < 0.0f || cosThetaContribHit < 0.0f || !aboveSurface) {
             shadowRay.inverseSampleWeight(0);
             return new Radiance(COLORS.BLACK, shadowRay);
         } else {
@@ -103,6 +108,13 @@ class DiffuseShader implements ChromaShader {
                 .plus(coordinateSystem.getT2().mult(sampleY))
                 .plus(coordinateSystem.getN().mult(sampleZ)).normalize();
 
+        // samples around the shading normal can point below the surface, mirror them back
+        ImmutableVector3 geometricNormal = hitpoint.getHitpointNormal();
+        float belowSurface = newDirection.dot(geometricNormal);
+        if (belowSurface < 0.0f) {
+            newDirection = newDirection.minus(geometricNormal.mult(2.0f * belowSurface));
+        }
+
         return new Ray(hitpoint.getPoint(), new ImmutableVector3(newDirection));
     }
 
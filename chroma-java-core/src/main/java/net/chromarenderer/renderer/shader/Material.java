@@ -68,6 +68,14 @@ public class Material {
     }
 
 
+    /**
+     * Factor between color and emittance, for callers computing emittance without creating a vector.
+     */
+    public float getPower() {
+        return power;
+    }
+
+
     public float getSpecularityHardness() {
         return specularityHardness;
     }
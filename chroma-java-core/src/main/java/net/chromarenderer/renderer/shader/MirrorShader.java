@@ -36,7 +36,10 @@ class MirrorShader implements ChromaShader {
 
 
     private Ray getRecursiveRaySample(Hitpoint hitpoint, Ray incomingRay) {
-        final ImmutableVector3 mirrorDirection = VectorUtils.mirror(incomingRay.getBackwardsDirection(), hitpoint.getHitpointNormal());
+        ImmutableVector3 mirrorDirection = VectorUtils.mirror(incomingRay.getBackwardsDirection(), hitpoint.getShadingNormal());
+        if (mirrorDirection.dot(hitpoint.getHitpointNormal()) <= 0.0f) {
+            mirrorDirection = VectorUtils.mirror(incomingRay.getBackwardsDirection(), hitpoint.getHitpointNormal());
+        }
         return new Ray(hitpoint.getPoint(), mirrorDirection).mailbox(hitpoint.getHitGeometry());
     }
 
@@ -7,12 +7,16 @@ import com.eclipsesource.json.JsonValue;
 import net.chromarenderer.math.ImmutableMatrix3x3;
 import net.chromarenderer.math.ImmutableVector3;
 import net.chromarenderer.math.geometry.Geometry;
-import net.chromarenderer.math.geometry.SimpleTriangle;
+import net.chromarenderer.math.geometry.TriangleMesh;
+import net.chromarenderer.math.geometry.TriangleMeshBuilder;
+import net.chromarenderer.math.geometry.TriangleMeshCleaner;
 import net.chromarenderer.renderer.camera.CoreCamera;
 import net.chromarenderer.renderer.camera.PinholeCamera;
 import net.chromarenderer.renderer.scene.ChromaScene;
 import net.chromarenderer.renderer.scene.EmptyScene;
 import net.chromarenderer.renderer.scene.GeometryScene;
+import net.chromarenderer.renderer.scene.acc.MeshInstance;
+import net.chromarenderer.renderer.scene.acc.SharedMesh;
 import net.chromarenderer.renderer.shader.Material;
 import net.chromarenderer.renderer.shader.MaterialType;
 
@@ -20,13 +24,16 @@ import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -142,10 +149,21 @@ public class BlenderChromaImporter {
 
 
     public static ChromaScene importSceneFromFile(Path path, String blenderFileName) throws InterruptedException {
+        return importSceneFromFile(path, blenderFileName, false);
+    }
+
+
+    /**
+     * @param cleanupMeshes whether to weld vertices and drop degenerate and duplicate faces of the imported meshes, see
+     *                      {@link TriangleMeshCleaner}.
+     */
+    public static ChromaScene importSceneFromFile(Path path, String blenderFileName, boolean cleanupMeshes) throws InterruptedException {
 
         execBlenderToChromaConversion(path, blenderFileName);
+        final TriangleMeshCleaner cleaner = cleanupMeshes ? new TriangleMeshCleaner() : null;
 
         List<Geometry> result;
+        List<MeshInstance> instances = new ArrayList<>();
         List<Material> materials;
         CoreCamera camera;
 
@@ -180,7 +198,10 @@ public class BlenderChromaImporter {
             }
 
             materials = importMaterialsFromJson(materialFile);
-            result = jsonFormatMeshes ? importMeshesFromJson(meshFile, materials) : importMeshesFromBinary(meshFile, materials);
+            result = jsonFormatMeshes ? importMeshesFromJson(meshFile, materials, instances, cleaner) : importMeshesFromBinary(meshFile, materials, cleaner);
+            if (cleaner != null) {
+                LOGGER.log(Level.INFO, cleaner.getReport().toString());
+            }
             camera = importCameraFromJson(path.resolve(sceneName + ".cam.json"));
 
         }
@@ -193,7 +214,7 @@ public class BlenderChromaImporter {
             return EmptyScene.create();
         }
 
-        return new GeometryScene(result, camera);
+        return new GeometryScene(result, instances, camera);
     }
 
 
@@ -216,57 +237,147 @@ public class BlenderChromaImporter {
     }
 
 
-    private static List<Geometry> importMeshesFromJson(Path meshFile, List<Material> materials) throws IOException {
+    /**
+     * Meshes flagged as "instanced" are kept in object space and only enter the scene through "INSTANCE" entries, which
+     * refer to them by name and have to follow them in the file.
+     */
+    private static List<Geometry> importMeshesFromJson(Path meshFile, List<Material> materials, List<MeshInstance> instances,
+                                                       TriangleMeshCleaner cleaner) throws IOException {
         List<Geometry> result;
         final BufferedReader reader = Files.newBufferedReader(meshFile);
         final JsonArray jsonArray = Json.parse(reader).asArray();
         result = new ArrayList<>(100);
+        Map<String, SharedMesh> sharedMeshes = new HashMap<>();
+        int instancedTriangles = 0;
 
         for (JsonValue value : jsonArray) {
             JsonObject jsonMesh = value.asObject();
             final String type = jsonMesh.get("type").asString();
             if ("TRIANGULAR_MESH".equals(type)) {
                 final JsonArray triangles = jsonMesh.get("triangles").asArray();
-                List<Geometry> triangleList = new ArrayList<>(triangles.size());
+                final List<Geometry> triangleList = new ArrayList<>(triangles.size());
+                TriangleMeshBuilder meshBuilder = new TriangleMeshBuilder(materials);
                 for (JsonValue triangleValue : triangles) {
                     JsonObject triangleJson = triangleValue.asObject();
                     final ImmutableVector3 p0 = toImmVec(triangleJson.get("p0").asArray());
                     final ImmutableVector3 p1 = toImmVec(triangleJson.get("p1").asArray());
                     final ImmutableVector3 p2 = toImmVec(triangleJson.get("p2").asArray());
                     final int matIdx = triangleJson.get("m").asInt();
-                    triangleList.add(new SimpleTriangle(p0, p1, p2, materials.get(matIdx)));
+                    if (!meshBuilder.hasRoomFor(matIdx)) {
+                        // the material palette of a mesh is limited, continue in another one
+                        triangleList.addAll(clean(meshBuilder.build(), cleaner).getTriangles());
+                        meshBuilder = new TriangleMeshBuilder(materials);
+                    }
+                    meshBuilder.addTriangle(p0, p1, p2, matIdx);
+                }
+                triangleList.addAll(clean(meshBuilder.build(), cleaner).getTriangles());
+                if (jsonMesh.getBoolean("instanced", false)) {
+                    sharedMeshes.put(jsonMesh.get("name").asString(), new SharedMesh(triangleList));
+                } else {
+                    result.addAll(triangleList);
                 }
-                result.addAll(triangleList);
+            } else if ("INSTANCE".equals(type)) {
+                final String meshName = jsonMesh.get("mesh").asString();
+                final SharedMesh mesh = sharedMeshes.get(meshName);
+                if (mesh == null) {
+                    LOGGER.log(Level.SEVERE, "Instance of unknown mesh {0} found. Aborting import.", meshName);
+                    instances.clear();
+                    return Collections.emptyList();
+                }
+                final JsonArray rows = jsonMesh.get("matrix").asArray();
+                // rows of the matrix are the columns of its transpose, which is what ImmutableMatrix3x3.mult applies
+                final ImmutableMatrix3x3 transformation = new ImmutableMatrix3x3(
+                        toImmVec(rows.get(0).asArray()), toImmVec(rows.get(1).asArray()), toImmVec(rows.get(2).asArray()));
+                instances.add(new MeshInstance(mesh, transformation, toImmVec(jsonMesh.get("translation").asArray())));
+                instancedTriangles += mesh.getGeometry().size();
             } else {
-                LOGGER.log(Level.SEVERE, "Currently only TRIANGULAR_MESH is supported for Geometry. Aborting import.");
+                LOGGER.log(Level.SEVERE, "Currently only TRIANGULAR_MESH and INSTANCE are supported for Geometry. Aborting import.");
+                instances.clear();
                 return Collections.emptyList();
             }
         }
         LOGGER.log(Level.INFO, "Successfully imported {0} triangles", result.size());
+        if (!instances.isEmpty()) {
+            LOGGER.log(Level.INFO, String.format("Successfully imported %d instances of %d meshes representing %d triangles",
+                    instances.size(), sharedMeshes.size(), instancedTriangles));
+        }
         return result;
     }
 
 
-    private static List<Geometry> importMeshesFromBinary(Path meshFile, List<Material> materials) throws IOException {
-
-        final List<Geometry> result = new ArrayList<>();
+    private static List<Geometry> importMeshesFromBinary(Path meshFile, List<Material> materials, TriangleMeshCleaner cleaner) throws IOException {
 
-        final DataInputStream dataInputStream = new DataInputStream(Files.newInputStream(meshFile));
+        final TriangleMeshBuilder meshBuilder = new TriangleMeshBuilder(materials);
         byte[] triangleStrip = new byte[37];
-        int offset = 0;
 
-        while (dataInputStream.read(triangleStrip, offset, 37) == 37) {
-            final FloatBuffer floatBuffer = ByteBuffer.wrap(triangleStrip).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        // optional vertex normals, three octahedral encoded corners per triangle in the order of the mesh file
+        final Path normalsFile = meshFile.resolveSibling(meshFile.getFileName().toString().replace(".mesh.bin", ".normals.bin"));
+        boolean withNormals = false;
+        if (Files.exists(normalsFile)) {
+            if (Files.size(normalsFile) / 12 != Files.size(meshFile) / 37) {
+                LOGGER.log(Level.WARNING, "Ignoring vertex normals in {0} as they do not match the mesh.", normalsFile);
+            } else {
+                withNormals = true;
+            }
+        }
+        byte[] normalStrip = new byte[12];
+
+        try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(meshFile)));
+             DataInputStream normalsInputStream = withNormals ? new DataInputStream(new BufferedInputStream(Files.newInputStream(normalsFile))) : null) {
+            while (readRecord(dataInputStream, triangleStrip)) {
+                final FloatBuffer floatBuffer = ByteBuffer.wrap(triangleStrip).order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+                ImmutableVector3 p0 = new ImmutableVector3(floatBuffer.get(0), floatBuffer.get(1), floatBuffer.get(2));
+                ImmutableVector3 p1 = new ImmutableVector3(floatBuffer.get(3), floatBuffer.get(4), floatBuffer.get(5));
+                ImmutableVector3 p2 = new ImmutableVector3(floatBuffer.get(6), floatBuffer.get(7), floatBuffer.get(8));
+
+                int materialId = triangleStrip[36] & 0xFF;
+                if (normalsInputStream != null) {
+                    if (!readRecord(normalsInputStream, normalStrip)) {
+                        throw new EOFException("Vertex normals in " + normalsFile + " end before the mesh.");
+                    }
+                    final ShortBuffer shortBuffer = ByteBuffer.wrap(normalStrip).order(ByteOrder.nativeOrder()).asShortBuffer();
+                    meshBuilder.addTriangle(p0, p1, p2, materialId,
+                            packNormal(shortBuffer.get(0), shortBuffer.get(1)),
+                            packNormal(shortBuffer.get(2), shortBuffer.get(3)),
+                            packNormal(shortBuffer.get(4), shortBuffer.get(5)));
+                } else {
+                    meshBuilder.addTriangle(p0, p1, p2, materialId);
+                }
+            }
+        }
+
+        final TriangleMesh mesh = clean(meshBuilder.build(), cleaner);
+        LOGGER.log(Level.INFO, String.format("Successfully imported %d triangles sharing %d vertices%s",
+                mesh.getNumberOfFaces(), mesh.getNumberOfVertices(), mesh.hasVertexNormals() ? " with vertex normals" : ""));
+        return new ArrayList<>(mesh.getTriangles());
+    }
 
-            ImmutableVector3 p0 = new ImmutableVector3(floatBuffer.get(0), floatBuffer.get(1), floatBuffer.get(2));
-            ImmutableVector3 p1 = new ImmutableVector3(floatBuffer.get(3), floatBuffer.get(4), floatBuffer.get(5));
-            ImmutableVector3 p2 = new ImmutableVector3(floatBuffer.get(6), floatBuffer.get(7), floatBuffer.get(8));
 
-            int materialId = triangleStrip[36];
-            result.add(new SimpleTriangle(p0, p1, p2, materials.get(materialId)));
+    /**
+     * Reads one fixed size record completely.
+     *
+     * @return false if the stream ended right before the record.
+     * @throws EOFException if the stream ended within the record.
+     */
+    private static boolean readRecord(DataInputStream input, byte[] record) throws IOException {
+        int first = input.read();
+        if (first < 0) {
+            return false;
         }
+        record[0] = (byte) first;
+        input.readFully(record, 1, record.length - 1);
+        return true;
+    }
 
-        return result;
+
+    private static TriangleMesh clean(TriangleMesh mesh, TriangleMeshCleaner cleaner) {
+        return cleaner != null ? cleaner.clean(mesh) : mesh;
+    }
+
+
+    private static int packNormal(short u, short v) {
+        return (u & 0xFFFF) | (v << 16);
     }
 
 
@@ -1,4 +1,4 @@
-# 4
+# 6
 # version number needs to be incremented each time the file changes!
 import math
 import mathutils
@@ -13,6 +13,7 @@ filepathPRFX = bpy.data.filepath.rsplit('.', 1)[0]
 meshfile = open(filepathPRFX + ".mesh.bin", "wb") if writePackedBinary else open(filepathPRFX + ".mesh.json", "w")
 matfile = open(filepathPRFX + ".mat.json", "w")
 camfile = open(filepathPRFX + ".cam.json", "w")
+normalsfile = open(filepathPRFX + ".normals.bin", "wb") if writePackedBinary else None
 
 objList = bpy.data.objects
 matList = bpy.data.materials
@@ -72,7 +73,47 @@ if writePackedBinary is False:
     meshfile.write("[")  # manual json wrapper to save memory while exporting very large scenes
 
 exportedMeshes = 0
+exportedInstances = 0
+instancedMeshData = set()
 polyCount = 0
+
+
+def trianglesToJson(objMesh):
+    triangles = []
+    for face in objMesh.polygons:
+        p0 = objMesh.vertices[face.vertices[0]].co
+        p1 = objMesh.vertices[face.vertices[1]].co
+        p2 = objMesh.vertices[face.vertices[2]].co
+        triangles.append({"p0": [p0.x, p0.y, p0.z], "p1": [p1.x, p1.y, p1.z], "p2": [p2.x, p2.y, p2.z],
+                          "m": materialDict[objMesh.materials[face.material_index].name]})
+    return triangles
+
+
+def signNotZero(value):
+    return 1.0 if value >= 0.0 else -1.0
+
+
+def toSnorm16(value):
+    return int(math.floor(max(-1.0, min(1.0, value)) * 32767.0 + 0.5))
+
+
+# octahedral encoding as decoded by net.chromarenderer.math.OctahedralNormal
+def octEncode(n):
+    l1Norm = abs(n.x) + abs(n.y) + abs(n.z)
+    u = n.x / l1Norm
+    v = n.y / l1Norm
+    if n.z < 0.0:
+        u, v = (1.0 - abs(v)) * signNotZero(u), (1.0 - abs(u)) * signNotZero(v)
+    return toSnorm16(u), toSnorm16(v)
+
+
+def writeJsonEntry(entry):
+    global exportedMeshes
+    if exportedMeshes > 0:
+        meshfile.write(", ")
+    meshfile.write(json.dumps(entry))
+    exportedMeshes += 1
+
 for obj in objList:
 
     if obj.type == "CAMERA":
@@ -103,10 +144,34 @@ for obj in objList:
             camfile.write(json.dumps(camExport))
 
     if obj.type == "MESH":
+        # linked duplicates without modifiers share their mesh data, export it once and place it via instances
+        if writePackedBinary is False and obj.data.users > 1 and len(obj.modifiers) == 0:
+            print('Exporting a mesh instance: ' + obj.name + '(' + obj.data.name + ')')
+            if obj.data.name not in instancedMeshData:
+                objMesh = obj.to_mesh(scene, True, 'RENDER')
+                mesh = {}
+                mesh["name"] = obj.data.name
+                mesh["type"] = "TRIANGULAR_MESH"
+                mesh["instanced"] = True
+                mesh["triangles"] = trianglesToJson(objMesh)
+                polyCount += len(mesh["triangles"])
+                writeJsonEntry(mesh)
+                instancedMeshData.add(obj.data.name)
+            m = obj.matrix_world
+            instance = {}
+            instance["type"] = "INSTANCE"
+            instance["mesh"] = obj.data.name
+            instance["matrix"] = [[m[0][0], m[0][1], m[0][2]], [m[1][0], m[1][1], m[1][2]], [m[2][0], m[2][1], m[2][2]]]
+            instance["translation"] = [m[0][3], m[1][3], m[2][3]]
+            writeJsonEntry(instance)
+            exportedInstances += 1
+            continue
+
         print('Exporting a mesh object: ' + obj.name + '(' + obj.data.name + ')')
         objMesh = obj.to_mesh(scene, True, 'RENDER')
         objMesh.transform(obj.matrix_world, True)
         if writePackedBinary:
+            objMesh.calc_normals()
             for face in objMesh.polygons:
                 p0 = objMesh.vertices[face.vertices[0]].co
                 p1 = objMesh.vertices[face.vertices[1]].co
@@ -116,36 +181,31 @@ for obj in objList:
                 meshfile.write(struct.pack("fff", p1.x, p1.y, p1.z))
                 meshfile.write(struct.pack("fff", p2.x, p2.y, p2.z))
                 meshfile.write(struct.pack("B", materialDict[objMesh.materials[face.material_index].name]))
+                for vertexIdx in face.vertices[0:3]:
+                    normal = objMesh.vertices[vertexIdx].normal if face.use_smooth else face.normal
+                    normalsfile.write(struct.pack("hh", *octEncode(normal)))
                 polyCount += 1
         else:
-            if exportedMeshes > 0:
-                meshfile.write(", ")
             mesh = {}
             mesh["name"] = obj.name
             mesh["type"] = "TRIANGULAR_MESH"
-            mesh["triangles"] = []
-
-            for face in objMesh.polygons:
-                p0 = objMesh.vertices[face.vertices[0]].co
-                p1 = objMesh.vertices[face.vertices[1]].co
-                p2 = objMesh.vertices[face.vertices[2]].co
-                mesh["triangles"].append({"p0": [p0.x, p0.y, p0.z], "p1": [p1.x, p1.y, p1.z], "p2": [p2.x, p2.y, p2.z],
-                                          "m": materialDict[objMesh.materials[face.material_index].name]})
-                polyCount += 1
-
-            meshfile.write(json.dumps(mesh))
-            exportedMeshes += 1
+            mesh["triangles"] = trianglesToJson(objMesh)
+            polyCount += len(mesh["triangles"])
+            writeJsonEntry(mesh)
 
 if exportedMeshes > 0 and writePackedBinary is False:
     meshfile.write("]\n")
 
 meshfile.close()
+if normalsfile is not None:
+    normalsfile.close()
 matfile.close()
 camfile.close()
 
 print("---------Statistics---------")
 print("Nr. of Materials:  " + str(matIdx))
-print("Nr. of Meshes:     " + str(exportedMeshes))
+print("Nr. of Meshes:     " + str(exportedMeshes - exportedInstances))
+print("Nr. of Instances:  " + str(exportedInstances))
 print("Nr. of Polygons:   " + str(polyCount))
 print("Nr. of Cameras:    1")
 print("----------------------------")
@@ -0,0 +1,41 @@
+package net.chromarenderer.math;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class OctahedralNormalTest {
+
+    @Test
+    public void testAxesAreExact() throws Exception {
+        float[][] axes = {{1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+        for (float[] axis : axes) {
+            ImmutableVector3 expected = new ImmutableVector3(axis[0], axis[1], axis[2]);
+            Assert.assertEquals(expected, OctahedralNormal.decode(OctahedralNormal.encode(expected)));
+        }
+    }
+
+
+    @Test
+    public void testRoundTripError() throws Exception {
+        Random random = new Random(23);
+        float maxAngle = 0.0f;
+        for (int i = 0; i < 100000; i++) {
+            ImmutableVector3 normal = new ImmutableVector3(
+                    (float) random.nextGaussian(), (float) random.nextGaussian(), (float) random.nextGaussian()).normalize();
+            ImmutableVector3 decoded = OctahedralNormal.decode(OctahedralNormal.encode(normal));
+            Assert.assertEquals(1.0f, decoded.length(), 1e-6f);
+            // acos of a float dot product is too coarse for small angles
+            double cx = (double) normal.getY() * decoded.getZ() - (double) normal.getZ() * decoded.getY();
+            double cy = (double) normal.getZ() * decoded.getX() - (double) normal.getX() * decoded.getZ();
+            double cz = (double) normal.getX() * decoded.getY() - (double) normal.getY() * decoded.getX();
+            double dot = (double) normal.getX() * decoded.getX() + (double) normal.getY() * decoded.getY() + (double) normal.getZ() * decoded.getZ();
+            maxAngle = Math.max(maxAngle, (float) Math.toDegrees(Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), dot)));
+        }
+        Assert.assertTrue("max error " + maxAngle, maxAngle < 0.005f);
+    }
+}
@@ -0,0 +1,123 @@
+package net.chromarenderer.math.geometry;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class SphereSetTest {
+
+    private static final Material RED = Material.createDiffuseMaterial(new ImmutableVector3(1.0f, 0.0f, 0.0f));
+    private static final Material GREEN = Material.createDiffuseMaterial(new ImmutableVector3(0.0f, 1.0f, 0.0f));
+
+
+    @Test
+    public void testSameHitsAsSphere() throws Exception {
+        Random random = new Random(2402);
+        int count = 200;
+        float[] centers = new float[count * 3];
+        float[] radii = new float[count];
+        Sphere[] expected = new Sphere[count];
+        for (int i = 0; i < count; i++) {
+            ImmutableVector3 center = randomPoint(random, 5.0f);
+            radii[i] = 0.1f + random.nextFloat();
+            centers[i * 3] = center.getX();
+            centers[i * 3 + 1] = center.getY();
+            centers[i * 3 + 2] = center.getZ();
+            expected[i] = new Sphere(center, radii[i], RED);
+        }
+        List<Geometry> spheres = new SphereSet(centers, radii, new byte[count], new Material[]{RED}).getSpheres();
+
+        int hits = 0;
+        int disagreements = 0;
+        for (int i = 0; i < count; i++) {
+            Geometry sphere = spheres.get(i);
+            Assert.assertEquals(expected[i].getSpatialMinimum(), sphere.getSpatialMinimum());
+            Assert.assertEquals(expected[i].getSpatialMaximum(), sphere.getSpatialMaximum());
+            Assert.assertEquals(expected[i].getArea(), sphere.getArea(), 1e-6f);
+            for (int r = 0; r < 100; r++) {
+                ImmutableVector3 origin = randomPoint(random, 8.0f);
+                ImmutableVector3 target = expected[i].getSpatialMinimum().plus(radii[i], radii[i], radii[i]).plus(randomPoint(random, 1.5f * radii[i]));
+                Ray ray = new Ray(origin, target.minus(origin).normalize());
+                float expectedDistance = expected[i].intersect(ray);
+                float actualDistance = sphere.intersect(ray);
+                if ((expectedDistance == 0.0f) != (actualDistance == 0.0f)) {
+                    // rays grazing the sphere may fall on either side
+                    disagreements++;
+                } else if (actualDistance != 0.0f) {
+                    hits++;
+                    // close to tangent rays the distance itself is sensitive, the hit point stays on the surface
+                    Assert.assertEquals(expectedDistance, actualDistance, 5e-4f * expectedDistance);
+                    float distanceToCenter = ray.onRay(actualDistance).minus(expected[i].getSpatialMinimum().plus(radii[i], radii[i], radii[i])).length();
+                    Assert.assertEquals(radii[i], distanceToCenter, 1e-5f * (1.0f + actualDistance));
+                }
+            }
+        }
+        Assert.assertTrue("Too few rays hit a sphere", hits > 1000);
+        Assert.assertTrue(disagreements + " rays disagree on hit or miss", disagreements < 5);
+    }
+
+
+    @Test
+    public void testSmallSphereFarAway() throws Exception {
+        SphereSet set = new SphereSet(new float[]{10000.0f, 0.0f, 0.0f}, new float[]{0.001f}, new byte[1], new Material[]{RED});
+        Geometry sphere = set.getSpheres().get(0);
+        Ray ray = new Ray(new ImmutableVector3(0.0f, 0.0005f, 0.0f), new ImmutableVector3(1.0f, 0.0f, 0.0f));
+        float distance = sphere.intersect(ray);
+        Assert.assertEquals(10000.0f - 0.000866f, distance, 1e-3f);
+        Assert.assertEquals(0.0f, sphere.intersect(new Ray(new ImmutableVector3(0.0f, 0.0015f, 0.0f), new ImmutableVector3(1.0f, 0.0f, 0.0f))), 0.0f);
+
+        // origin inside the sphere hits the far side
+        Ray inside = new Ray(new ImmutableVector3(10000.0f, 0.0f, 0.0f), new ImmutableVector3(0.0f, 1.0f, 0.0f));
+        Assert.assertEquals(0.001f, sphere.intersect(inside), 1e-6f);
+    }
+
+
+    @Test
+    public void testSurfaceSamplesAndNormals() throws Exception {
+        SphereSet set = new SphereSet(new float[]{1.0f, 2.0f, 3.0f}, new float[]{0.5f}, new byte[1], new Material[]{RED});
+        Geometry sphere = set.getSpheres().get(0);
+        ImmutableVector3 center = new ImmutableVector3(1.0f, 2.0f, 3.0f);
+        for (int i = 0; i < 100; i++) {
+            ImmutableVector3 sample = sphere.getUnifDistrSample();
+            Assert.assertEquals(0.5f, sample.minus(center).length(), 1e-5f);
+            Assert.assertEquals(1.0f, sphere.getNormal(sample).dot(sample.minus(center).normalize()), 1e-5f);
+        }
+        Assert.assertFalse(sphere.isPlane());
+        Assert.assertEquals(center.plus(1.0f, 0.0f, 0.0f), ((Sphere) sphere.transpose(new ImmutableVector3(1.0f, 0.0f, 0.0f))).getSpatialMinimum().plus(0.5f, 0.5f, 0.5f));
+    }
+
+
+    @Test
+    public void testSetMaterialExtendsPalette() throws Exception {
+        SphereSet set = new SphereSet(new float[6], new float[]{1.0f, 1.0f}, new byte[2], new Material[]{RED});
+        Geometry first = set.getSpheres().get(0);
+        Geometry second = set.getSpheres().get(1);
+        second.setMaterial(GREEN);
+        Assert.assertSame(RED, first.getMaterial());
+        Assert.assertSame(GREEN, second.getMaterial());
+        first.setMaterial(GREEN);
+        Assert.assertSame(GREEN, first.getMaterial());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaterialIndexOutOfRange() throws Exception {
+        new SphereSet(new float[3], new float[]{1.0f}, new byte[]{1}, new Material[]{RED});
+    }
+
+
+    private static ImmutableVector3 randomPoint(Random random, float halfExtent) {
+        return new ImmutableVector3(
+                (random.nextFloat() * 2.0f - 1.0f) * halfExtent,
+                (random.nextFloat() * 2.0f - 1.0f) * halfExtent,
+                (random.nextFloat() * 2.0f - 1.0f) * halfExtent);
+    }
+}
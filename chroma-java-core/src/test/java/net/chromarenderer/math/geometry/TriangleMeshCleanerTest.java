@@ -0,0 +1,90 @@
+package net.chromarenderer.math.geometry;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.OctahedralNormal;
+import net.chromarenderer.math.Vector3;
+import net.chromarenderer.renderer.shader.Material;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * @author bensteinert
+ */
+public class TriangleMeshCleanerTest {
+
+    private static final Material RED = Material.createDiffuseMaterial(new ImmutableVector3(1.0f, 0.0f, 0.0f));
+    private static final Material GREEN = Material.createDiffuseMaterial(new ImmutableVector3(0.0f, 1.0f, 0.0f));
+
+
+    @Test
+    public void testWeldsAndDropsFaces() throws Exception {
+        // positions placed in the middle of weld cells, vertex 4 is a copy of vertex 1 within the same cell
+        float[] vertices = {
+                0.000005f, 0.000005f, 0.000005f,
+                0.000005f, 0.000005f, 1.000005f,
+                1.000005f, 0.000005f, 0.000005f,
+                1.000005f, 0.000005f, 1.000005f,
+                0.000007f, 0.000005f, 1.000006f,
+                0.500005f, 0.000005f, 0.500005f};
+        int[] indices = {
+                0, 1, 2,
+                2, 4, 3,
+                2, 1, 3,  // duplicate of the face before once welded, rotated
+                1, 2, 0,  // duplicate of the first face, rotated
+                0, 2, 1,  // back side of the first face
+                1, 4, 2,  // collapsed by welding
+                0, 5, 3}; // no area
+        byte[] materialIndices = {0, 1, 0, 0, 0, 0, 0};
+        int normal = OctahedralNormal.encode(Vector3.Y_AXIS);
+        int[] vertexNormals = new int[indices.length];
+        Arrays.fill(vertexNormals, normal);
+        TriangleMesh mesh = new TriangleMesh(vertices, indices, materialIndices, new Material[]{RED, GREEN}, vertexNormals);
+
+        TriangleMeshCleaner cleaner = new TriangleMeshCleaner();
+        TriangleMesh cleaned = cleaner.clean(mesh);
+        Assert.assertEquals(3, cleaned.getNumberOfFaces());
+        Assert.assertEquals(4, cleaned.getNumberOfVertices());
+        Assert.assertTrue(cleaned.hasVertexNormals());
+        Assert.assertEquals(normal, cleaned.getPackedVertexNormal(2, 1));
+
+        TriangleMeshCleaner.Report report = cleaner.getReport();
+        Assert.assertEquals(1, report.getWeldedVertices());
+        Assert.assertEquals(1, report.getUnreferencedVertices());
+        Assert.assertEquals(2, report.getDegenerateFaces());
+        Assert.assertEquals(2, report.getDuplicateFaces());
+
+        // faces keep their order, corners and materials, vertex 4 moved onto vertex 1
+        Triangle first = (Triangle) cleaned.getTriangles().get(0);
+        Triangle second = (Triangle) cleaned.getTriangles().get(1);
+        Triangle back = (Triangle) cleaned.getTriangles().get(2);
+        Assert.assertEquals(((Triangle) mesh.getTriangles().get(0)).getP1(), first.getP1());
+        Assert.assertSame(GREEN, second.getMaterial());
+        Assert.assertEquals(((Triangle) mesh.getTriangles().get(0)).getP1(), second.getP1());
+        Assert.assertEquals(-first.getNormal().getY(), back.getNormal().getY(), 0.0f);
+    }
+
+
+    @Test
+    public void testCleanMeshIsKept() throws Exception {
+        TriangleMeshBuilder builder = new TriangleMeshBuilder(Arrays.asList(RED));
+        for (int x = 0; x < 10; x++) {
+            for (int z = 0; z < 10; z++) {
+                ImmutableVector3 p00 = new ImmutableVector3(x, 0.0f, z);
+                ImmutableVector3 p10 = new ImmutableVector3(x + 1, 0.0f, z);
+                ImmutableVector3 p01 = new ImmutableVector3(x, 0.0f, z + 1);
+                ImmutableVector3 p11 = new ImmutableVector3(x + 1, 0.0f, z + 1);
+                builder.addTriangle(p00, p01, p10, 0);
+                builder.addTriangle(p10, p01, p11, 0);
+            }
+        }
+        TriangleMesh mesh = builder.build();
+        TriangleMeshCleaner cleaner = new TriangleMeshCleaner();
+        Assert.assertSame(mesh, cleaner.clean(mesh));
+        Assert.assertSame(mesh, cleaner.clean(mesh));
+        Assert.assertEquals(0, cleaner.getReport().getWeldedVertices() + cleaner.getReport().getDegenerateFaces()
+                + cleaner.getReport().getDuplicateFaces() + cleaner.getReport().getUnreferencedVertices());
+        Assert.assertTrue(cleaner.getReport().toString().startsWith("Mesh cleanup of 2 meshes"));
+    }
+}
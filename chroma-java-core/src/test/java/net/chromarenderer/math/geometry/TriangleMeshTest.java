@@ -0,0 +1,232 @@
+package net.chromarenderer.math.geometry;
+
+import net.chromarenderer.math.ImmutableMatrix3x3;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.OctahedralNormal;
+import net.chromarenderer.math.Vector3;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class TriangleMeshTest {
+
+    private static final Material RED = Material.createDiffuseMaterial(new ImmutableVector3(1.0f, 0.0f, 0.0f));
+    private static final Material GREEN = Material.createDiffuseMaterial(new ImmutableVector3(0.0f, 1.0f, 0.0f));
+
+
+    @Test
+    public void testSharedVerticesAreStoredOnce() throws Exception {
+        TriangleMeshBuilder builder = new TriangleMeshBuilder(Arrays.asList(RED, GREEN));
+        int n = 10;
+        for (int x = 0; x < n; x++) {
+            for (int z = 0; z < n; z++) {
+                ImmutableVector3 p00 = new ImmutableVector3(x, 0.0f, z);
+                ImmutableVector3 p10 = new ImmutableVector3(x + 1, 0.0f, z);
+                ImmutableVector3 p01 = new ImmutableVector3(x, 0.0f, z + 1);
+                ImmutableVector3 p11 = new ImmutableVector3(x + 1, -0.0f, z + 1);
+                builder.addTriangle(p00, p01, p10, 0);
+                builder.addTriangle(p10, p01, p11, 1);
+            }
+        }
+        TriangleMesh mesh = builder.build();
+        Assert.assertEquals(2 * n * n, mesh.getNumberOfFaces());
+        Assert.assertEquals((n + 1) * (n + 1), mesh.getNumberOfVertices());
+
+        List<Geometry> triangles = mesh.getTriangles();
+        Assert.assertEquals(2 * n * n, triangles.size());
+        Assert.assertSame(RED, triangles.get(0).getMaterial());
+        Assert.assertSame(GREEN, triangles.get(1).getMaterial());
+        Assert.assertEquals(1.0f, ((Triangle) triangles.get(1)).getNormal().getY(), 0.0f);
+    }
+
+
+    @Test
+    public void testSameAsSimpleTriangle() throws Exception {
+        Random random = new Random(31);
+        TriangleMeshBuilder builder = new TriangleMeshBuilder(Arrays.asList(RED));
+        SimpleTriangle[] expected = new SimpleTriangle[200];
+        for (int i = 0; i < expected.length; i++) {
+            ImmutableVector3 p0 = randomPoint(random, 5.0f);
+            ImmutableVector3 p1 = p0.plus(randomPoint(random, 1.0f));
+            ImmutableVector3 p2 = p0.plus(randomPoint(random, 1.0f));
+            expected[i] = new SimpleTriangle(p0, p1, p2, RED);
+            builder.addTriangle(p0, p1, p2, 0);
+        }
+        List<Geometry> triangles = builder.build().getTriangles();
+
+        for (int i = 0; i < expected.length; i++) {
+            MeshTriangle triangle = (MeshTriangle) triangles.get(i);
+            Assert.assertEquals(expected[i].getP1(), triangle.getP1());
+            Assert.assertEquals(expected[i].getNormal(), triangle.getNormal());
+            Assert.assertEquals(expected[i].getSpatialMinimum(), triangle.getSpatialMinimum());
+            Assert.assertEquals(expected[i].getSpatialMaximum(), triangle.getSpatialMaximum());
+            Assert.assertEquals(expected[i].getArea(), triangle.getArea(), 0.0f);
+            for (int r = 0; r < 100; r++) {
+                ImmutableVector3 origin = randomPoint(random, 6.0f);
+                ImmutableVector3 direction = expected[i].getP0().plus(randomPoint(random, 0.5f)).minus(origin).normalize();
+                boolean transparent = random.nextBoolean();
+                Ray ray = new Ray(origin, direction, 0.0f, Float.MAX_VALUE, transparent);
+                Assert.assertEquals(expected[i].intersect(ray), triangle.intersect(ray), 0.0f);
+            }
+        }
+    }
+
+
+    @Test
+    public void testSetMaterialExtendsPalette() throws Exception {
+        TriangleMesh mesh = new TriangleMeshBuilder(Arrays.asList(RED))
+                .addTriangle(new ImmutableVector3(0.0f, 0.0f, 0.0f), new ImmutableVector3(0.0f, 0.0f, 1.0f), new ImmutableVector3(1.0f, 0.0f, 0.0f), 0)
+                .addTriangle(new ImmutableVector3(1.0f, 0.0f, 0.0f), new ImmutableVector3(0.0f, 0.0f, 1.0f), new ImmutableVector3(1.0f, 0.0f, 1.0f), 0)
+                .build();
+        Geometry first = mesh.getTriangles().get(0);
+        Geometry second = mesh.getTriangles().get(1);
+
+        first.setMaterial(GREEN);
+        second.setMaterial(GREEN);
+        Assert.assertSame(GREEN, first.getMaterial());
+        Assert.assertSame(GREEN, second.getMaterial());
+        second.setMaterial(RED);
+        Assert.assertSame(RED, second.getMaterial());
+    }
+
+
+    @Test
+    public void testVertexNormalsAreInterpolated() throws Exception {
+        ImmutableVector3 p0 = new ImmutableVector3(0.0f, 0.0f, 0.0f);
+        ImmutableVector3 p1 = new ImmutableVector3(0.0f, 0.0f, 1.0f);
+        ImmutableVector3 p2 = new ImmutableVector3(1.0f, 0.0f, 0.0f);
+        ImmutableVector3 n0 = new ImmutableVector3(-1.0f, 1.0f, 0.0f).normalize();
+        ImmutableVector3 n2 = new ImmutableVector3(1.0f, 1.0f, 0.0f).normalize();
+        TriangleMesh mesh = new TriangleMeshBuilder(Arrays.asList(RED))
+                .addTriangle(p2, p1, new ImmutableVector3(1.0f, 0.0f, 1.0f), 0)
+                .addTriangle(p0, p1, p2, 0, OctahedralNormal.encode(n0), OctahedralNormal.encode(Vector3.Y_AXIS), OctahedralNormal.encode(n2))
+                .build();
+        Assert.assertTrue(mesh.hasVertexNormals());
+
+        // triangles added without normals get their face normal at every corner
+        Triangle flat = (Triangle) mesh.getTriangles().get(0);
+        Assert.assertEquals(1.0f, flat.getShadingNormal(new ImmutableVector3(0.7f, 0.0f, 0.7f)).getY(), 1e-4f);
+
+        Triangle smooth = (Triangle) mesh.getTriangles().get(1);
+        Assert.assertTrue(smooth.hasVertexNormals());
+        Assert.assertEquals(1.0f, smooth.getNormal().getY(), 0.0f);
+        Assert.assertEquals(1.0f, smooth.getShadingNormal(p0).dot(n0), 1e-6f);
+        Assert.assertEquals(1.0f, smooth.getShadingNormal(p2).dot(n2), 1e-6f);
+        ImmutableVector3 halfway = smooth.getShadingNormal(new ImmutableVector3(0.5f, 0.0f, 0.0f));
+        Assert.assertEquals(0.0f, halfway.getX(), 1e-4f);
+        Assert.assertEquals(1.0f, halfway.getY(), 1e-4f);
+    }
+
+
+    @Test
+    public void testTransformationsKeepVertexNormals() throws Exception {
+        ImmutableVector3 p0 = new ImmutableVector3(0.0f, 0.0f, 0.0f);
+        ImmutableVector3 p1 = new ImmutableVector3(0.0f, 0.0f, 1.0f);
+        ImmutableVector3 p2 = new ImmutableVector3(1.0f, 0.0f, 0.0f);
+        ImmutableVector3 n0 = new ImmutableVector3(-1.0f, 1.0f, 0.0f).normalize();
+        ImmutableVector3 n2 = new ImmutableVector3(1.0f, 1.0f, 0.0f).normalize();
+        Triangle smooth = (Triangle) new TriangleMeshBuilder(Arrays.asList(RED))
+                .addTriangle(p0, p1, p2, 0, OctahedralNormal.encode(n0), OctahedralNormal.encode(Vector3.Y_AXIS), OctahedralNormal.encode(n2))
+                .build().getTriangles().get(0);
+
+        ImmutableVector3 translation = new ImmutableVector3(2.0f, 3.0f, 4.0f);
+        Triangle moved = smooth.transpose(translation);
+        Assert.assertTrue(moved.hasVertexNormals());
+        Assert.assertSame(RED, moved.getMaterial());
+        Assert.assertEquals(1.0f, moved.getShadingNormal(p0.plus(translation)).dot(n0), 1e-4f);
+
+        // 90 degrees around the z axis
+        ImmutableMatrix3x3 rotation = new ImmutableMatrix3x3(0.0f, -1.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f);
+        Triangle rotated = smooth.rotate(rotation);
+        Assert.assertTrue(rotated.hasVertexNormals());
+        Assert.assertEquals(1.0f, rotated.getShadingNormal(rotation.mult(p2)).dot(rotation.mult(n2)), 1e-4f);
+
+        Triangle[] parts = smooth.subdivide();
+        Assert.assertEquals(4, parts.length);
+        for (Triangle part : parts) {
+            Assert.assertTrue(part.hasVertexNormals());
+            Assert.assertSame(RED, part.getMaterial());
+        }
+        // the first part spans p0 and the midpoints of its edges, its new corners are shaded like the whole face there
+        ImmutableVector3 midpoint = new ImmutableVector3(0.5f, 0.0f, 0.0f);
+        Assert.assertEquals(1.0f, parts[0].getShadingNormal(midpoint).dot(smooth.getShadingNormal(midpoint)), 1e-4f);
+        Assert.assertEquals(1.0f, parts[0].getShadingNormal(p0).dot(n0), 1e-4f);
+    }
+
+
+    @Test
+    public void testFlatMeshHasNoVertexNormals() throws Exception {
+        TriangleMesh mesh = new TriangleMeshBuilder(Arrays.asList(RED))
+                .addTriangle(new ImmutableVector3(0.0f, 0.0f, 0.0f), new ImmutableVector3(0.0f, 0.0f, 1.0f), new ImmutableVector3(1.0f, 0.0f, 0.0f), 0)
+                .build();
+        Triangle triangle = (Triangle) mesh.getTriangles().get(0);
+        Assert.assertFalse(mesh.hasVertexNormals());
+        Assert.assertFalse(triangle.hasVertexNormals());
+        Assert.assertEquals(triangle.getNormal(), triangle.getShadingNormal(new ImmutableVector3(0.2f, 0.0f, 0.2f)));
+    }
+
+
+    @Test
+    public void testMeshKeepsOnlyUsedSceneMaterials() throws Exception {
+        List<Material> sceneMaterials = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            sceneMaterials.add(Material.createDiffuseMaterial(new ImmutableVector3(i / 300.0f, 0.5f, 0.5f)));
+        }
+        TriangleMeshBuilder builder = new TriangleMeshBuilder(sceneMaterials);
+        int[] used = {299, 0, 257, 299, 128};
+        for (int i = 0; i < used.length; i++) {
+            builder.addTriangle(new ImmutableVector3(i, 0.0f, 0.0f), new ImmutableVector3(i, 0.0f, 1.0f), new ImmutableVector3(i + 1, 0.0f, 0.0f), used[i]);
+        }
+        TriangleMesh mesh = builder.build();
+        Assert.assertEquals(4, mesh.getMaterials().length);
+        List<Geometry> triangles = mesh.getTriangles();
+        for (int i = 0; i < used.length; i++) {
+            Assert.assertSame(sceneMaterials.get(used[i]), triangles.get(i).getMaterial());
+        }
+    }
+
+
+    @Test
+    public void testMaterialPaletteLimitPerMesh() throws Exception {
+        List<Material> sceneMaterials = new ArrayList<>();
+        for (int i = 0; i <= TriangleMesh.MAX_MATERIALS; i++) {
+            sceneMaterials.add(Material.createDiffuseMaterial(new ImmutableVector3(0.5f, 0.5f, 0.5f)));
+        }
+        TriangleMeshBuilder builder = new TriangleMeshBuilder(sceneMaterials);
+        for (int i = 0; i < TriangleMesh.MAX_MATERIALS; i++) {
+            Assert.assertTrue(builder.hasRoomFor(i));
+            builder.addTriangle(new ImmutableVector3(i, 0.0f, 0.0f), new ImmutableVector3(i, 0.0f, 1.0f), new ImmutableVector3(i + 1, 0.0f, 0.0f), i);
+        }
+        Assert.assertTrue(builder.hasRoomFor(0));
+        Assert.assertFalse(builder.hasRoomFor(TriangleMesh.MAX_MATERIALS));
+        try {
+            builder.addTriangle(new ImmutableVector3(0.0f, 1.0f, 0.0f), new ImmutableVector3(0.0f, 1.0f, 1.0f), new ImmutableVector3(1.0f, 1.0f, 0.0f), TriangleMesh.MAX_MATERIALS);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVertexIndexOutOfRange() throws Exception {
+        new TriangleMesh(new float[]{0.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f}, new int[]{0, 1, 3}, new byte[1], new Material[]{RED});
+    }
+
+
+    private static ImmutableVector3 randomPoint(Random random, float halfExtent) {
+        return new ImmutableVector3(
+                (random.nextFloat() * 2.0f - 1.0f) * halfExtent,
+                (random.nextFloat() * 2.0f - 1.0f) * halfExtent,
+                (random.nextFloat() * 2.0f - 1.0f) * halfExtent);
+    }
+}
@@ -0,0 +1,111 @@
+package net.chromarenderer.math.geometry;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class WoopTriangleTest {
+
+    @Test
+    public void testSameHitsAsSimpleTriangle() throws Exception {
+        Random random = new Random(2104);
+        int hits = 0;
+        for (int i = 0; i < 2000; i++) {
+            ImmutableVector3 p0 = randomPoint(random, 2.0f);
+            SimpleTriangle simple = new SimpleTriangle(p0, p0.plus(randomPoint(random, 1.0f)), p0.plus(randomPoint(random, 1.0f)), Material.NULL);
+            WoopTriangle woop = new WoopTriangle(simple);
+
+            for (int j = 0; j < 50; j++) {
+                ImmutableVector3 origin = randomPoint(random, 5.0f);
+                Ray ray = new Ray(origin, simple.getUnifDistrSample().minus(origin).plus(randomPoint(random, 0.05f)).normalize(),
+                        0.0f, Float.MAX_VALUE, j % 2 == 0);
+                float expected = simple.intersect(ray);
+                float actual = woop.intersect(ray);
+                // rays grazing an edge may be decided differently by the two tests
+                if ((expected > 0.0f) != (actual > 0.0f)) {
+                    Assert.assertTrue(isNearEdge(simple, ray, Math.max(expected, actual)));
+                    continue;
+                }
+                if (expected > 0.0f) {
+                    hits++;
+                    Assert.assertEquals(expected, actual, 1e-4f * expected);
+                }
+            }
+        }
+        Assert.assertTrue(hits > 10000);
+    }
+
+
+    @Test
+    public void testBackFace() throws Exception {
+        SimpleTriangle simple = new SimpleTriangle(
+                new ImmutableVector3(0.f, 0.f, 1.f),
+                new ImmutableVector3(0.f, 1.f, 1.f),
+                new ImmutableVector3(1.f, 0.f, 1.f),
+                new ImmutableVector3(0.f, 0.f, -1.f));
+        WoopTriangle woop = new WoopTriangle(simple);
+
+        Assert.assertEquals(1.0f, woop.intersect(new Ray(new ImmutableVector3(0.2f, 0.2f, 0.f), new ImmutableVector3(0.f, 0.f, 1.f))), 1e-6f);
+        Assert.assertEquals(0.0f, woop.intersect(new Ray(new ImmutableVector3(0.2f, 0.2f, 2.f), new ImmutableVector3(0.f, 0.f, -1.f))), 0.0f);
+        Assert.assertEquals(1.0f, woop.intersect(new Ray(new ImmutableVector3(0.2f, 0.2f, 2.f), new ImmutableVector3(0.f, 0.f, -1.f),
+                0.0f, Float.MAX_VALUE, true)), 1e-6f);
+        Assert.assertEquals(0.0f, woop.intersect(new Ray(new ImmutableVector3(0.2f, 0.2f, 0.f), new ImmutableVector3(0.f, 1.f, 0.f))), 0.0f);
+    }
+
+
+    @Test
+    public void testDegenerateTriangleIsNeverHit() throws Exception {
+        WoopTriangle woop = new WoopTriangle(new SimpleTriangle(
+                new ImmutableVector3(0.f, 0.f, 1.f),
+                new ImmutableVector3(1.f, 1.f, 1.f),
+                new ImmutableVector3(2.f, 2.f, 1.f),
+                new ImmutableVector3(0.f, 0.f, -1.f)));
+        Assert.assertEquals(0.0f, woop.intersect(new Ray(new ImmutableVector3(1.f, 1.f, 0.f), new ImmutableVector3(0.f, 0.f, 1.f))), 0.0f);
+    }
+
+
+    @Test
+    public void testPrecomputeAndRestore() throws Exception {
+        Random random = new Random(5);
+        List<Geometry> geometry = new ArrayList<>();
+        geometry.add(new SimpleTriangle(randomPoint(random, 1.0f), randomPoint(random, 1.0f), randomPoint(random, 1.0f), Material.NULL));
+        geometry.add(new Sphere(randomPoint(random, 1.0f), 0.5f, Material.NULL));
+
+        List<Geometry> precomputed = WoopTriangle.precompute(geometry);
+        Assert.assertTrue(precomputed.get(0) instanceof WoopTriangle);
+        Assert.assertSame(geometry.get(1), precomputed.get(1));
+        Assert.assertSame(precomputed.get(0), WoopTriangle.precompute(precomputed).get(0));
+        Assert.assertEquals(geometry, WoopTriangle.restore(precomputed));
+    }
+
+
+    private static boolean isNearEdge(Triangle triangle, Ray ray, float distance) {
+        ImmutableVector3 hitpoint = ray.onRay(distance);
+        ImmutableVector3[] points = {triangle.getP0(), triangle.getP1(), triangle.getP2()};
+        for (int i = 0; i < 3; i++) {
+            ImmutableVector3 edge = points[(i + 1) % 3].minus(points[i]);
+            float distanceToEdge = hitpoint.minus(points[i]).crossProduct(edge).length() / edge.length();
+            if (distanceToEdge < 1e-3f) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static ImmutableVector3 randomPoint(Random random, float halfExtent) {
+        return new ImmutableVector3(
+                (random.nextFloat() - 0.5f) * 2.0f * halfExtent,
+                (random.nextFloat() - 0.5f) * 2.0f * halfExtent,
+                (random.nextFloat() - 0.5f) * 2.0f * halfExtent);
+    }
+}
@@ -0,0 +1,138 @@
+package net.chromarenderer.renderer.core;
+
+import net.chromarenderer.AccStructType;
+import net.chromarenderer.ChromaRenderMode;
+import net.chromarenderer.ChromaSettings;
+import net.chromarenderer.SceneType;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.MutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.geometry.SimpleTriangle;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.camera.PinholeCamera;
+import net.chromarenderer.renderer.scene.GeometryScene;
+import net.chromarenderer.renderer.scene.SceneFactory;
+import net.chromarenderer.renderer.shader.Material;
+import net.chromarenderer.renderer.shader.ShaderEngine;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author bensteinert
+ */
+public class AllocationFreeKernelTest {
+
+    private static final int SIZE = 32;
+
+    private ChromaSettings settings;
+    private GeometryScene scene;
+
+
+    @Before
+    public void setUp() throws Exception {
+        PinholeCamera camera = new PinholeCamera(new ImmutableVector3(0, -0.7, 5.4), SIZE, SIZE);
+        scene = SceneFactory.cornellBox(camera, new ImmutableVector3(0, 0, 0), 2, Collections.emptyList());
+        scene.buildAccelerationStructure(AccStructType.FLAT_BVH);
+        ShaderEngine.setScene(scene);
+        settings = new ChromaSettings(false, SIZE, SIZE, ChromaRenderMode.MT_PTDL, true, AccStructType.FLAT_BVH, SceneType.CORNELL_BOX, null);
+    }
+
+
+    @Test
+    public void testNoAllocationPerSample() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assert.assertTrue(threads.isThreadAllocatedMemoryEnabled());
+        long threadId = Thread.currentThread().getId();
+
+        AllocationFreeKernel kernel = new AllocationFreeKernel(settings, scene);
+        MutableVector3 pixel = new MutableVector3();
+        for (int warmup = 0; warmup < 50; warmup++) {
+            renderImage(kernel, pixel);
+        }
+
+        int images = 20;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int image = 0; image < images; image++) {
+            renderImage(kernel, pixel);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        Assert.assertTrue("allocated " + allocated + " bytes", allocated < SIZE * SIZE * images);
+    }
+
+
+    @Test
+    public void testSameEstimateAsPathKernel() throws Exception {
+        MonteCarloPathTracer renderer = new MonteCarloPathTracer(settings, scene);
+        float pathKernel = meanBrightness(renderer, 200);
+        settings.toggleAllocationFreeKernel();
+        float allocationFreeKernel = meanBrightness(renderer, 200);
+
+        Assert.assertTrue(pathKernel > 0.0f);
+        Assert.assertEquals(pathKernel, allocationFreeKernel, pathKernel * 0.03f);
+    }
+
+
+    @Test
+    public void testDielectricAndMirrorTriangles() throws Exception {
+        SimpleTriangle glass = new SimpleTriangle(new ImmutableVector3(-1.5, -1.5, 0.5), new ImmutableVector3(0, -1.5, 0.5),
+                new ImmutableVector3(-0.75, 0.5, 0.5));
+        glass.setMaterial(Material.createGlassMaterial(new ImmutableVector3(0.9, 0.9, 1.0), 1.5f));
+        SimpleTriangle mirror = new SimpleTriangle(new ImmutableVector3(0, -1.5, 0.5), new ImmutableVector3(1.5, -1.5, 0.5),
+                new ImmutableVector3(0.75, 0.5, 0.5));
+        mirror.setMaterial(Material.MIRROR);
+        List<Geometry> content = new ArrayList<>();
+        Collections.addAll(content, glass, mirror);
+
+        PinholeCamera camera = new PinholeCamera(new ImmutableVector3(0, -0.7, 5.4), SIZE, SIZE);
+        GeometryScene specularScene = SceneFactory.cornellBox(camera, new ImmutableVector3(0, 0, 0), 2, content);
+        specularScene.buildAccelerationStructure(AccStructType.FLAT_BVH);
+        ShaderEngine.setScene(specularScene);
+        AllocationFreeKernel kernel = new AllocationFreeKernel(settings, specularScene);
+
+        MutableVector3 pixel = new MutableVector3();
+        double sum = 0.0;
+        for (int image = 0; image < 10; image++) {
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++) {
+                    kernel.renderPixel(x, y, pixel);
+                    Assert.assertFalse(Float.isNaN(pixel.getX() + pixel.getY() + pixel.getZ()));
+                    sum += pixel.getX() + pixel.getY() + pixel.getZ();
+                }
+            }
+        }
+        Assert.assertTrue(sum > 0.0);
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void testNowhereIsNotReinitialized() throws Exception {
+        Ray.NOWHERE.set(0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f, Float.MAX_VALUE, false);
+    }
+
+
+    private static void renderImage(AllocationFreeKernel kernel, MutableVector3 pixel) {
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                kernel.renderPixel(x, y, pixel);
+            }
+        }
+    }
+
+
+    private static float meanBrightness(MonteCarloPathTracer renderer, int images) {
+        double sum = 0.0;
+        for (int image = 0; image < images; image++) {
+            renderer.renderNextImage();
+            for (MutableVector3 pixel : renderer.getPixels()) {
+                sum += pixel.getX() + pixel.getY() + pixel.getZ();
+            }
+        }
+        return (float) (sum / (3.0 * images * SIZE * SIZE));
+    }
+}
@@ -0,0 +1,65 @@
+package net.chromarenderer.renderer.core;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.raytracing.Ray;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class RaySorterTest {
+
+    @Test
+    public void testGroupsByOctantThenOrigin() throws Exception {
+        Random random = new Random(31);
+        int count = 1000;
+        Ray[] rays = new Ray[count];
+        for (int i = 0; i < count; i++) {
+            ImmutableVector3 origin = new ImmutableVector3(random.nextFloat(), random.nextFloat(), random.nextFloat());
+            ImmutableVector3 direction = new ImmutableVector3(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f);
+            rays[i] = new Ray(origin, direction.normalize());
+        }
+
+        int[] order = new int[count];
+        new RaySorter(count).sort(rays, count, order);
+
+        boolean[] seen = new boolean[count];
+        int octantChanges = 0;
+        for (int k = 0; k < count; k++) {
+            Assert.assertFalse(seen[order[k]]);
+            seen[order[k]] = true;
+            if (k > 0) {
+                int previous = octant(rays[order[k - 1]]);
+                int current = octant(rays[order[k]]);
+                Assert.assertTrue(previous <= current);
+                if (previous != current) {
+                    octantChanges++;
+                }
+            }
+        }
+        Assert.assertTrue(octantChanges <= 7);
+    }
+
+
+    @Test
+    public void testSameDirectionSortedByOrigin() throws Exception {
+        ImmutableVector3 direction = new ImmutableVector3(0.0f, 0.0f, 1.0f);
+        Ray[] rays = new Ray[]{
+                new Ray(new ImmutableVector3(1.0f, 1.0f, 1.0f), direction),
+                new Ray(new ImmutableVector3(0.0f, 0.0f, 0.0f), direction),
+                new Ray(new ImmutableVector3(0.9f, 0.9f, 0.9f), direction),
+                new Ray(new ImmutableVector3(0.1f, 0.0f, 0.1f), direction)};
+
+        int[] order = new int[rays.length];
+        new RaySorter(rays.length).sort(rays, rays.length, order);
+        Assert.assertArrayEquals(new int[]{1, 3, 2, 0}, order);
+    }
+
+
+    private static int octant(Ray ray) {
+        return ray.getXSign() << 2 | ray.getSignY() << 1 | ray.getSignZ();
+    }
+}
@@ -0,0 +1,182 @@
+package net.chromarenderer.renderer.scene;
+
+import net.chromarenderer.AccStructType;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.Vector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.geometry.SimpleTriangle;
+import net.chromarenderer.math.raytracing.Hitpoint;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author bensteinert
+ */
+public class GeometrySceneTest {
+
+    @Test
+    public void testRendersOnPreviewUntilFinalStructureIsSwapped() throws Exception {
+        Random random = new Random(4711);
+        GeometryScene scene = new GeometryScene(createRandomTriangles(random, GeometryScene.PREVIEW_THRESHOLD), null);
+        List<ImmutableVector3> origins = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            origins.add(randomPoint(random, 12.0f));
+        }
+
+        AtomicInteger swaps = new AtomicInteger();
+        CompletableFuture<?> build = scene.buildAccelerationStructureInBackground(AccStructType.AABB_BVH, swaps::incrementAndGet);
+        List<Hitpoint> previewHits = new ArrayList<>();
+        for (int i = 0; i < origins.size(); i += 2) {
+            previewHits.add(scene.intersect(createRay(origins, i)));
+        }
+
+        Object finalStruct = build.get();
+        Assert.assertSame(finalStruct, scene.getAccelerationStructure());
+        Assert.assertEquals(AccStructType.AABB_BVH, scene.getAccelerationStructure().getType());
+        Assert.assertEquals(1, swaps.get());
+        for (int i = 0; i < origins.size(); i += 2) {
+            Hitpoint hit = scene.intersect(createRay(origins, i));
+            Assert.assertSame(previewHits.get(i / 2).getHitGeometry(), hit.getHitGeometry());
+        }
+
+        // same type again, nothing to build
+        Assert.assertTrue(scene.buildAccelerationStructureInBackground(AccStructType.AABB_BVH, swaps::incrementAndGet).isDone());
+        Assert.assertEquals(1, swaps.get());
+    }
+
+
+    @Test
+    public void testRepeatedRequestReturnsPendingBuild() throws Exception {
+        GeometryScene scene = new GeometryScene(createRandomTriangles(new Random(815), GeometryScene.PREVIEW_THRESHOLD), null);
+        AtomicInteger swaps = new AtomicInteger();
+
+        CompletableFuture<?> build = scene.buildAccelerationStructureInBackground(AccStructType.SAH_BVH, swaps::incrementAndGet);
+        Assert.assertSame(build, scene.buildAccelerationStructureInBackground(AccStructType.SAH_BVH, swaps::incrementAndGet));
+        Assert.assertSame(build.get(), scene.getAccelerationStructure());
+        Assert.assertEquals(1, swaps.get());
+
+        // a synchronous build replaces the background one
+        scene.buildAccelerationStructure(AccStructType.LIST);
+        CompletableFuture<?> rebuilt = scene.buildAccelerationStructureInBackground(AccStructType.LIST, swaps::incrementAndGet);
+        Assert.assertNotSame(build, rebuilt);
+        Assert.assertSame(scene.getAccelerationStructure(), rebuilt.get());
+    }
+
+
+    @Test
+    public void testSupersededBuildIsNotSwappedIn() throws Exception {
+        GeometryScene scene = new GeometryScene(createRandomTriangles(new Random(42), GeometryScene.PREVIEW_THRESHOLD), null);
+
+        CompletableFuture<?> build = scene.buildAccelerationStructureInBackground(AccStructType.SAH_BVH, () -> { });
+        scene.buildAccelerationStructure(AccStructType.LIST);
+        try {
+            build.get();
+        } catch (CancellationException e) {
+            // expected unless the background build won the race
+        }
+        Assert.assertEquals(AccStructType.LIST, scene.getAccelerationStructure().getType());
+    }
+
+
+    @Test
+    public void testFailedBuildIsRetried() throws Exception {
+        List<Geometry> triangles = createRandomTriangles(new Random(99), GeometryScene.PREVIEW_THRESHOLD);
+        // fine for the preview, breaks the first build on the background thread
+        AtomicInteger failures = new AtomicInteger(1);
+        triangles.add(new SimpleTriangle(Vector3.ORIGIN, Vector3.X_AXIS, Vector3.Z_AXIS, Material.NULL) {
+            @Override
+            public ImmutableVector3 getSpatialMinimum() {
+                if (Thread.currentThread().getName().equals("chroma-acc-builder") && failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("broken build");
+                }
+                return super.getSpatialMinimum();
+            }
+        });
+        GeometryScene scene = new GeometryScene(triangles, null);
+        AtomicInteger swaps = new AtomicInteger();
+
+        CompletableFuture<?> failed = scene.buildAccelerationStructureInBackground(AccStructType.AABB_BVH, swaps::incrementAndGet);
+        try {
+            failed.get();
+            Assert.fail("Expected the background build to fail.");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(0, swaps.get());
+
+        CompletableFuture<?> retried = scene.buildAccelerationStructureInBackground(AccStructType.AABB_BVH, swaps::incrementAndGet);
+        Assert.assertNotSame(failed, retried);
+        Assert.assertSame(retried.get(), scene.getAccelerationStructure());
+        Assert.assertEquals(AccStructType.AABB_BVH, scene.getAccelerationStructure().getType());
+        Assert.assertEquals(1, swaps.get());
+    }
+
+
+    @Test
+    public void testSmallScenesAreBuiltRightAway() throws Exception {
+        GeometryScene scene = new GeometryScene(createRandomTriangles(new Random(7), 100), null);
+        AtomicInteger swaps = new AtomicInteger();
+        CompletableFuture<?> build = scene.buildAccelerationStructureInBackground(AccStructType.SAH_BVH, swaps::incrementAndGet);
+        Assert.assertTrue(build.isDone());
+        Assert.assertEquals(AccStructType.SAH_BVH, scene.getAccelerationStructure().getType());
+        Assert.assertEquals(0, swaps.get());
+    }
+
+
+    @Test
+    public void testRaysBeyondPacketCapacityAreTracedInBlocks() throws Exception {
+        Random random = new Random(1234);
+        GeometryScene scene = new GeometryScene(createRandomTriangles(random, 2000), null);
+        scene.buildAccelerationStructure(AccStructType.AABB_BVH);
+        List<ImmutableVector3> points = new ArrayList<>();
+        for (int i = 0; i < 2 * 150; i++) {
+            points.add(randomPoint(random, 12.0f));
+        }
+
+        Ray[] rays = new Ray[150];
+        for (int i = 0; i < rays.length; i++) {
+            rays[i] = createRay(points, 2 * i);
+        }
+        Hitpoint[] hitpoints = new Hitpoint[rays.length];
+        scene.intersect(rays, rays.length, hitpoints);
+        for (int i = 0; i < rays.length; i++) {
+            Hitpoint expected = scene.intersect(createRay(points, 2 * i));
+            Assert.assertSame(expected.getHitGeometry(), hitpoints[i].getHitGeometry());
+            Assert.assertEquals(expected.getDistance(), hitpoints[i].getDistance(), 0.0f);
+        }
+    }
+
+
+    private static List<Geometry> createRandomTriangles(Random random, int numberOfTriangles) {
+        List<Geometry> result = new ArrayList<>(numberOfTriangles);
+        for (int i = 0; i < numberOfTriangles; i++) {
+            ImmutableVector3 p0 = randomPoint(random, 10.0f);
+            result.add(new SimpleTriangle(p0, p0.plus(randomPoint(random, 0.5f)), p0.plus(randomPoint(random, 0.5f)), Material.NULL));
+        }
+        return result;
+    }
+
+
+    // fresh rays each time, intersecting the scene mailboxes the hit geometry in the ray
+    private static Ray createRay(List<ImmutableVector3> points, int i) {
+        return new Ray(points.get(i), points.get(i + 1).mult(0.4f).minus(points.get(i)).normalize());
+    }
+
+
+    private static ImmutableVector3 randomPoint(Random random, float halfExtent) {
+        return new ImmutableVector3(
+                (random.nextFloat() * 2.0f - 1.0f) * halfExtent,
+                (random.nextFloat() * 2.0f - 1.0f) * halfExtent,
+                (random.nextFloat() * 2.0f - 1.0f) * halfExtent);
+    }
+}
@@ -0,0 +1,124 @@
+package net.chromarenderer.renderer.scene;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.geometry.SimpleTriangle;
+import net.chromarenderer.math.raytracing.Hitpoint;
+import net.chromarenderer.renderer.shader.Material;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class LightTreeTest {
+
+    private static final ImmutableVector3 POINT = new ImmutableVector3(0.0f, 0.0f, 0.0f);
+    private static final ImmutableVector3 NORMAL = new ImmutableVector3(0.0f, 1.0f, 0.0f);
+
+
+    @Test
+    public void testSameEstimateAsUniformSampling() throws Exception {
+        Random random = new Random(99);
+        List<Geometry> lights = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            ImmutableVector3 p0 = randomPoint(random, 5.0f).plus(new ImmutableVector3(0.0f, 5.5f, 0.0f));
+            lights.add(new SimpleTriangle(p0, p0.plus(randomPoint(random, 0.3f)), p0.plus(randomPoint(random, 0.3f)),
+                    Material.createEmittingMaterial(new ImmutableVector3(1.0f, 1.0f, 1.0f), 1.0f + random.nextFloat())));
+        }
+        LightTree lightTree = new LightTree(lights);
+        Assert.assertEquals(599, lightTree.getNumberOfNodes());
+
+        int samples = 200000;
+        double treeEstimate = 0.0;
+        double uniformEstimate = 0.0;
+        for (int i = 0; i < samples; i++) {
+            Hitpoint sample = lightTree.sample(POINT, NORMAL, random.nextFloat());
+            if (sample != null) {
+                treeEstimate += contribution(sample) * sample.getInverseSampleWeight();
+            }
+            Geometry light = lights.get(random.nextInt(lights.size()));
+            ImmutableVector3 point = light.getUnifDistrSample();
+            Hitpoint uniformSample = new Hitpoint(light, point, light.getNormal(point), lights.size() * light.getArea());
+            uniformEstimate += contribution(uniformSample) * uniformSample.getInverseSampleWeight();
+        }
+        Assert.assertEquals(uniformEstimate / samples, treeEstimate / samples, uniformEstimate / samples * 0.05);
+    }
+
+
+    @Test
+    public void testLightsBehindTheSurfaceAreNeverSampled() throws Exception {
+        Random random = new Random(7);
+        List<Geometry> lights = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            // all facing down, half of them above the shading point and half below
+            float y = i % 2 == 0 ? 2.0f : -2.0f;
+            ImmutableVector3 p0 = new ImmutableVector3((random.nextFloat() - 0.5f) * 10.0f, y, (random.nextFloat() - 0.5f) * 10.0f);
+            lights.add(new SimpleTriangle(p0, p0.plus(new ImmutableVector3(0.1f, 0.0f, 0.0f)), p0.plus(new ImmutableVector3(0.0f, 0.0f, 0.1f)),
+                    Material.createEmittingMaterial(new ImmutableVector3(1.0f, 1.0f, 1.0f), 1.0f)));
+        }
+        LightTree lightTree = new LightTree(lights);
+
+        for (int i = 0; i < 10000; i++) {
+            Hitpoint sample = lightTree.sample(POINT, NORMAL, random.nextFloat());
+            Assert.assertTrue(sample.getPoint().getY() > 0.0f);
+        }
+        Assert.assertNull(lightTree.sample(new ImmutableVector3(0.0f, 3.0f, 0.0f), NORMAL, 0.5f));
+    }
+
+
+    @Test
+    public void testFewerWastedSamplesThanAreaSampling() throws Exception {
+        Random random = new Random(123);
+        List<Geometry> lights = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ImmutableVector3 p0 = randomPoint(random, 10.0f);
+            lights.add(new SimpleTriangle(p0, p0.plus(randomPoint(random, 0.2f)), p0.plus(randomPoint(random, 0.2f)),
+                    Material.createEmittingMaterial(new ImmutableVector3(1.0f, 1.0f, 1.0f), 1.0f)));
+        }
+        LightTree lightTree = new LightTree(lights);
+
+        int wastedByTree = 0;
+        int wastedByArea = 0;
+        for (int i = 0; i < 20000; i++) {
+            Hitpoint sample = lightTree.sample(POINT, NORMAL, random.nextFloat());
+            if (sample == null || contribution(sample) == 0.0f) {
+                wastedByTree++;
+            }
+            Geometry light = lights.get(random.nextInt(lights.size()));
+            ImmutableVector3 point = light.getUnifDistrSample();
+            if (contribution(new Hitpoint(light, point, light.getNormal(point), 1.0f)) == 0.0f) {
+                wastedByArea++;
+            }
+        }
+        Assert.assertTrue(wastedByTree + " vs " + wastedByArea, wastedByTree * 3 < wastedByArea * 2);
+    }
+
+
+    /**
+     * Geometric term between light sample and the shading point, zero if one of both faces away.
+     */
+    private static float contribution(Hitpoint lightSample) {
+        ImmutableVector3 toPoint = POINT.minus(lightSample.getPoint());
+        float distance = toPoint.length();
+        toPoint = toPoint.div(distance);
+        float cosLight = toPoint.dot(lightSample.getHitpointNormal());
+        float cosSurface = -toPoint.dot(NORMAL);
+        if (cosLight <= 0.0f || cosSurface <= 0.0f) {
+            return 0.0f;
+        }
+        return cosLight * cosSurface / (distance * distance);
+    }
+
+
+    private static ImmutableVector3 randomPoint(Random random, float halfExtent) {
+        return new ImmutableVector3(
+                (random.nextFloat() * 2.0f - 1.0f) * halfExtent,
+                (random.nextFloat() * 2.0f - 1.0f) * halfExtent,
+                (random.nextFloat() * 2.0f - 1.0f) * halfExtent);
+    }
+}
@@ -0,0 +1,85 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.raytracing.Ray;
+
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Compares build time and single ray throughput of the acceleration structures on a dense terrain and on a scene of
+ * randomly scattered triangles. Not a unit test, run the main method manually.
+ *
+ * @author bensteinert
+ */
+public class AccelerationStructureBenchmark {
+
+    private static final int NUMBER_OF_RAYS = 500000;
+    private static final int RUNS = 5;
+
+
+    public static void main(String[] args) {
+        Random random = new Random(2017);
+        List<Geometry> terrain = UniformGridTest.createTerrain(random, 300);
+        List<Geometry> scattered = FlatBvhTreeTest.createRandomGeometry(random, 200000);
+
+        Ray[] terrainRays = new Ray[NUMBER_OF_RAYS];
+        for (int i = 0; i < NUMBER_OF_RAYS; i++) {
+            // looking down onto the terrain from a camera above its center
+            ImmutableVector3 target = new ImmutableVector3((random.nextFloat() - 0.5f) * 20.0f, 0.0f, (random.nextFloat() - 0.5f) * 20.0f);
+            ImmutableVector3 origin = new ImmutableVector3(0.0f, 8.0f, 12.0f);
+            terrainRays[i] = new Ray(origin, target.minus(origin).normalize());
+        }
+        Ray[] scatteredRays = new Ray[NUMBER_OF_RAYS];
+        for (int i = 0; i < NUMBER_OF_RAYS; i++) {
+            scatteredRays[i] = FlatBvhTreeTest.createRandomRay(random);
+        }
+
+        benchmark("terrain", terrain, terrainRays);
+        benchmark("scattered", scattered, scatteredRays);
+    }
+
+
+    private static void benchmark(String sceneName, List<Geometry> geometry, Ray[] rays) {
+        run(sceneName, "GRID", geometry, rays, UniformGrid::new);
+        run(sceneName, "AABB_BVH (sequential)", geometry, rays, list -> new BvhTreeBuilder(4, 20, false).buildBvh(list));
+        run(sceneName, "AABB_BVH (fork/join)", geometry, rays, list -> new BvhTreeBuilder(4, 20, true).buildBvh(list));
+        run(sceneName, "SAH_BVH", geometry, rays, list -> new SahBvhTreeBuilder(4, 32).buildBvh(list));
+        run(sceneName, "LBVH", geometry, rays, list -> new LbvhTreeBuilder(4, 6).buildBvh(list));
+        run(sceneName, "OPTIMIZED_LBVH", geometry, rays, TreeletOptimizer::buildOptimizedLbvh);
+        run(sceneName, "QUANTIZED", geometry, rays, list -> QuantizedBvhTree.compress(new LbvhTreeBuilder(4, 6).buildBvh(list)));
+    }
+
+
+    private static void run(String sceneName, String name, List<Geometry> geometry, Ray[] rays,
+                            Function<List<Geometry>, AccelerationStructure> builder) {
+        long bestBuild = Long.MAX_VALUE;
+        AccelerationStructure structure = null;
+        for (int run = 0; run < 2; run++) {
+            long start = System.nanoTime();
+            structure = builder.apply(geometry);
+            bestBuild = Math.min(bestBuild, System.nanoTime() - start);
+        }
+
+        IntersectionContext ctx = new IntersectionContext();
+        long bestTrace = Long.MAX_VALUE;
+        int hits = 0;
+        for (int run = 0; run < RUNS; run++) {
+            hits = 0;
+            long start = System.nanoTime();
+            for (Ray ray : rays) {
+                ctx.reinit(ray);
+                structure.intersect(ctx);
+                if (ctx.hitGeometry != null) {
+                    hits++;
+                }
+            }
+            bestTrace = Math.min(bestTrace, System.nanoTime() - start);
+        }
+
+        System.out.println(String.format("%-10s %-21s build %6d ms, %6.2f MRays/s (%d hits)",
+                sceneName, name, bestBuild / 1000000L, rays.length / (bestTrace / 1000.0), hits));
+    }
+}
@@ -0,0 +1,39 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.geometry.Geometry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class BvhTreeBuilderTest {
+
+    @Test
+    public void testParallelBuildEqualsSequentialBuild() throws Exception {
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(new Random(815), 5000);
+
+        BvhTreeBuilder sequentialBuilder = new BvhTreeBuilder(4, 20, false);
+        BvhTreeBuilder parallelBuilder = new BvhTreeBuilder(4, 20, true, 64);
+
+        BvhTree sequentialTree = sequentialBuilder.buildBvh(geometry);
+        BvhTree parallelTree = parallelBuilder.buildBvh(geometry);
+
+        assertSameNodes(sequentialTree.getRootNode(), parallelTree.getRootNode());
+    }
+
+
+    private static void assertSameNodes(BvhNode expected, BvhNode actual) {
+        Assert.assertEquals(expected.box.getPMin(), actual.box.getPMin());
+        Assert.assertEquals(expected.box.getPMax(), actual.box.getPMax());
+        Assert.assertEquals(expected.axis, actual.axis);
+        Assert.assertArrayEquals(expected.indexList, actual.indexList);
+        if (expected.indexList == null) {
+            assertSameNodes(expected.left, actual.left);
+            assertSameNodes(expected.right, actual.right);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.raytracing.Ray;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class BvhTreeTest {
+
+    @Test
+    public void testRefitSameHitsAsBruteForce() throws Exception {
+        Random random = new Random(2501);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 2000);
+        BvhTree tree = new BvhTreeBuilder(4, 20).buildBvh(geometry);
+
+        List<Geometry> moved = moveRandomly(geometry, random, 2.0f);
+        Assert.assertTrue(tree.refit(moved));
+        assertSameHitsAsBruteForce(tree, moved, random);
+    }
+
+
+    @Test
+    public void testQualityDegradation() throws Exception {
+        Random random = new Random(42);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 2000);
+        BvhTree tree = new BvhTreeBuilder(4, 20).buildBvh(geometry);
+        Assert.assertEquals(1.0f, tree.getQualityDegradation(), 0.0f);
+
+        List<Geometry> translated = new ArrayList<>();
+        geometry.forEach(element -> translated.add(element.transpose(new ImmutableVector3(3.0f, -1.0f, 0.5f))));
+        tree.refit(translated);
+        Assert.assertEquals(1.0f, tree.getQualityDegradation(), 0.01f);
+
+        tree.refit(moveRandomly(geometry, random, 20.0f));
+        Assert.assertTrue(tree.getQualityDegradation() > 1.5f);
+    }
+
+
+    @Test
+    public void testRefitRejectsChangedTopology() throws Exception {
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(new Random(7), 100);
+        BvhTree tree = new BvhTreeBuilder(4, 20).buildBvh(geometry);
+        Assert.assertFalse(tree.refit(geometry.subList(0, 50)));
+    }
+
+
+    static List<Geometry> moveRandomly(List<Geometry> geometry, Random random, float maxDistance) {
+        List<Geometry> result = new ArrayList<>(geometry.size());
+        for (Geometry element : geometry) {
+            result.add(element.transpose(new ImmutableVector3(
+                    (random.nextFloat() - 0.5f) * 2.0f * maxDistance,
+                    (random.nextFloat() - 0.5f) * 2.0f * maxDistance,
+                    (random.nextFloat() - 0.5f) * 2.0f * maxDistance)));
+        }
+        return result;
+    }
+
+
+    static void assertSameHitsAsBruteForce(AccelerationStructure accStruct, List<Geometry> geometry, Random random) {
+        NoAccelerationImpl bruteForce = new NoAccelerationImpl(geometry);
+        IntersectionContext expected = new IntersectionContext();
+        IntersectionContext actual = new IntersectionContext();
+
+        for (int i = 0; i < 2000; i++) {
+            Ray ray = FlatBvhTreeTest.createRandomRay(random);
+            expected.reinit(ray);
+            actual.reinit(ray);
+            bruteForce.intersect(expected);
+            accStruct.intersect(actual);
+            Assert.assertSame(expected.hitGeometry, actual.hitGeometry);
+            Assert.assertEquals(expected.hitDistance, actual.hitDistance, 0.0f);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.Constants;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.geometry.SetSphere;
+import net.chromarenderer.math.geometry.SimpleTriangle;
+import net.chromarenderer.math.geometry.Sphere;
+import net.chromarenderer.math.geometry.SphereSet;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class FlatBvhTreeTest {
+
+    @Test
+    public void testSameHitsAsBvhTree() throws Exception {
+        Random random = new Random(4711);
+        List<Geometry> geometry = createRandomGeometry(random, 2000);
+        BvhTree tree = new BvhTreeBuilder(4, 20).buildBvh(geometry);
+        FlatBvhTree flatTree = FlatBvhTree.flatten(tree);
+
+        IntersectionContext expected = new IntersectionContext();
+        IntersectionContext actual = new IntersectionContext();
+        int hits = 0;
+
+        for (int i = 0; i < 5000; i++) {
+            Ray ray = createRandomRay(random);
+
+            expected.reinit(ray);
+            actual.reinit(ray);
+            tree.intersect(expected);
+            flatTree.intersect(actual);
+            Assert.assertSame(expected.hitGeometry, actual.hitGeometry);
+            Assert.assertEquals(expected.hitDistance, actual.hitDistance, 0.0f);
+            hits += actual.hitGeometry != null ? 1 : 0;
+
+            expected.reinit(ray, IntersectionContext.ANY);
+            actual.reinit(ray, IntersectionContext.ANY);
+            tree.intersect(expected);
+            flatTree.intersect(actual);
+            Assert.assertEquals(expected.hitGeometry != null, actual.hitGeometry != null);
+        }
+        Assert.assertTrue("Too few rays hit anything to compare both structures", hits > 1000);
+    }
+
+
+    @Test
+    public void testOcclusionMatchesAnyHit() throws Exception {
+        Random random = new Random(999);
+        List<Geometry> geometry = createRandomGeometry(random, 2000);
+        BvhTree tree = new BvhTreeBuilder(4, 20).buildBvh(geometry);
+        FlatBvhTree flatTree = FlatBvhTree.flatten(new BvhTreeBuilder(4, 20).buildBvh(geometry));
+        NoAccelerationImpl bruteForce = new NoAccelerationImpl(geometry);
+
+        IntersectionContext ctx = new IntersectionContext();
+        int occluded = 0;
+
+        for (int i = 0; i < 5000; i++) {
+            Ray ray = createRandomShadowRay(random);
+            ctx.reinit(ray, IntersectionContext.ANY);
+            bruteForce.intersect(ctx);
+            boolean expected = ctx.hitGeometry != null;
+
+            Assert.assertEquals(expected, bruteForce.isOccluded(ctx));
+            Assert.assertEquals(expected, tree.isOccluded(ctx));
+            Assert.assertEquals(expected, flatTree.isOccluded(ctx));
+            occluded += expected ? 1 : 0;
+        }
+        Assert.assertTrue(occluded > 500 && occluded < 4500);
+    }
+
+
+    @Test
+    public void testNodeCount() throws Exception {
+        List<Geometry> geometry = createRandomGeometry(new Random(42), 100);
+        FlatBvhTree flatTree = FlatBvhTree.flatten(new BvhTreeBuilder(4, 20).buildBvh(geometry));
+        Assert.assertTrue(flatTree.getNumberOfNodes() > 1);
+        Assert.assertEquals(1, FlatBvhTree.flatten(new BvhTreeBuilder(200, 20).buildBvh(geometry)).getNumberOfNodes());
+    }
+
+
+    @Test
+    public void testRefitSameHitsAsBruteForce() throws Exception {
+        Random random = new Random(1234);
+        List<Geometry> geometry = createRandomGeometry(random, 2000);
+        FlatBvhTree flatTree = FlatBvhTree.flatten(new BvhTreeBuilder(4, 20).buildBvh(geometry));
+
+        List<Geometry> moved = BvhTreeTest.moveRandomly(geometry, random, 2.0f);
+        Assert.assertTrue(flatTree.refit(moved));
+        Assert.assertTrue(flatTree.getQualityDegradation() > 1.0f);
+        BvhTreeTest.assertSameHitsAsBruteForce(flatTree, moved, random);
+    }
+
+
+    @Test
+    public void testSphereSetLeavesMatchBruteForce() throws Exception {
+        Random random = new Random(24);
+        List<Geometry> geometry = createRandomGeometry(random, 500);
+        int count = 3000;
+        float[] centers = new float[count * 3];
+        float[] radii = new float[count];
+        for (int i = 0; i < count; i++) {
+            ImmutableVector3 center = randomPoint(random, 10.0f);
+            centers[i * 3] = center.getX();
+            centers[i * 3 + 1] = center.getY();
+            centers[i * 3 + 2] = center.getZ();
+            radii[i] = 0.05f + random.nextFloat() * 0.2f;
+        }
+        geometry.addAll(new SphereSet(centers, radii, new byte[count], new Material[]{Material.NULL}).getSpheres());
+        FlatBvhTree flatTree = FlatBvhTree.flatten(new BvhTreeBuilder(4, 20).buildBvh(geometry));
+        NoAccelerationImpl bruteForce = new NoAccelerationImpl(geometry);
+
+        IntersectionContext expected = new IntersectionContext();
+        IntersectionContext actual = new IntersectionContext();
+        int sphereHits = 0;
+        for (int i = 0; i < 3000; i++) {
+            Ray ray = createRandomRay(random);
+            expected.reinit(ray);
+            actual.reinit(ray);
+            bruteForce.intersect(expected);
+            flatTree.intersect(actual);
+            Assert.assertSame(expected.hitGeometry, actual.hitGeometry);
+            Assert.assertEquals(expected.hitDistance, actual.hitDistance, 0.0f);
+            sphereHits += actual.hitGeometry instanceof SetSphere ? 1 : 0;
+
+            Ray shadowRay = createRandomShadowRay(random);
+            expected.reinit(shadowRay);
+            bruteForce.intersect(expected);
+            Assert.assertEquals(expected.hitGeometry != null, flatTree.isOccluded(expected));
+        }
+        Assert.assertTrue("Too few rays hit a sphere of the set", sphereHits > 300);
+    }
+
+
+    static List<Geometry> createRandomGeometry(Random random, int numberOfTriangles) {
+        List<Geometry> result = new ArrayList<>(numberOfTriangles + 10);
+        for (int i = 0; i < numberOfTriangles; i++) {
+            ImmutableVector3 p0 = randomPoint(random, 10.0f);
+            ImmutableVector3 p1 = p0.plus(randomPoint(random, 1.5f));
+            ImmutableVector3 p2 = p0.plus(randomPoint(random, 1.5f));
+            result.add(new SimpleTriangle(p0, p1, p2, Material.NULL));
+        }
+        for (int i = 0; i < 10; i++) {
+            result.add(new Sphere(randomPoint(random, 10.0f), random.nextFloat(), Material.NULL));
+        }
+        return result;
+    }
+
+
+    static Ray createRandomRay(Random random) {
+        ImmutableVector3 origin = randomPoint(random, 12.0f);
+        return new Ray(origin, randomPoint(random, 5.0f).minus(origin).normalize());
+    }
+
+
+    static Ray createRandomShadowRay(Random random) {
+        Ray ray = createRandomRay(random);
+        return new Ray(ray.getOrigin(), ray.getDirection(), Constants.FLT_EPSILON, random.nextFloat() * 20.0f, false);
+    }
+
+
+    private static ImmutableVector3 randomPoint(Random random, float halfExtent) {
+        return new ImmutableVector3(
+                (random.nextFloat() - 0.5f) * 2.0f * halfExtent,
+                (random.nextFloat() - 0.5f) * 2.0f * halfExtent,
+                (random.nextFloat() - 0.5f) * 2.0f * halfExtent);
+    }
+}
@@ -0,0 +1,114 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.raytracing.Ray;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * @author bensteinert
+ */
+public class LazyBvhTest {
+
+    @Test
+    public void testSameHitsAsBruteForce() throws Exception {
+        Random random = new Random(6543);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 2000);
+        BvhTreeTest.assertSameHitsAsBruteForce(new LazyBvh(geometry), geometry, random);
+    }
+
+
+    @Test
+    public void testOcclusionMatchesAnyHit() throws Exception {
+        Random random = new Random(3456);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 1000);
+        LazyBvh lazyBvh = new LazyBvh(geometry);
+        NoAccelerationImpl bruteForce = new NoAccelerationImpl(geometry);
+        IntersectionContext ctx = new IntersectionContext();
+
+        for (int i = 0; i < 2000; i++) {
+            Ray shadowRay = FlatBvhTreeTest.createRandomShadowRay(random);
+            ctx.reinit(shadowRay, IntersectionContext.ANY);
+            Assert.assertEquals(bruteForce.isOccluded(ctx), lazyBvh.isOccluded(ctx));
+        }
+    }
+
+
+    @Test
+    public void testConcurrentFirstVisits() throws Exception {
+        Random random = new Random(777);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 5000);
+        List<Ray> rays = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            rays.add(FlatBvhTreeTest.createRandomRay(random));
+        }
+        NoAccelerationImpl bruteForce = new NoAccelerationImpl(geometry);
+        LazyBvh concurrent = new LazyBvh(geometry);
+
+        IntStream.range(0, rays.size()).parallel().forEach(i -> {
+            IntersectionContext expected = new IntersectionContext();
+            IntersectionContext actual = new IntersectionContext();
+            expected.reinit(rays.get(i));
+            actual.reinit(rays.get(i));
+            bruteForce.intersect(expected);
+            concurrent.intersect(actual);
+            Assert.assertSame(expected.hitGeometry, actual.hitGeometry);
+            Assert.assertEquals(expected.hitDistance, actual.hitDistance, 0.0f);
+        });
+
+        // splits are deterministic, so the same rays have to build the same nodes no matter how threads interleave
+        LazyBvh sequential = new LazyBvh(geometry);
+        IntersectionContext ctx = new IntersectionContext();
+        for (Ray ray : rays) {
+            ctx.reinit(ray);
+            sequential.intersect(ctx);
+        }
+        Assert.assertEquals(sequential.getNumberOfNodes(), concurrent.getNumberOfNodes());
+    }
+
+
+    @Test
+    public void testConcurrentFullExpansion() throws Exception {
+        Random random = new Random(4242);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 5000);
+        LazyBvh sequential = new LazyBvh(geometry);
+        sequential.expandAll();
+
+        // every thread races for every node, each one must be published exactly once
+        LazyBvh concurrent = new LazyBvh(geometry);
+        IntStream.range(0, 8).parallel().forEach(i -> concurrent.expandAll());
+        Assert.assertEquals(sequential.getNumberOfNodes(), concurrent.getNumberOfNodes());
+        BvhTreeTest.assertSameHitsAsBruteForce(concurrent, geometry, random);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxLeafSizeLimit() throws Exception {
+        new LazyBvh(new ArrayList<>(), 0);
+    }
+
+
+    @Test
+    public void testOnlyVisitedNodesAreBuilt() throws Exception {
+        Random random = new Random(2);
+        List<Geometry> terrain = UniformGridTest.createTerrain(random, 100);
+        LazyBvh lazyBvh = new LazyBvh(terrain);
+        IntersectionContext ctx = new IntersectionContext();
+
+        // looking straight down onto a small patch of the terrain
+        for (int i = 0; i < 1000; i++) {
+            ImmutableVector3 origin = new ImmutableVector3(random.nextFloat() - 0.5f, 5.0f, random.nextFloat() - 0.5f);
+            ctx.reinit(new Ray(origin, new ImmutableVector3(0.0f, -1.0f, 0.0f)));
+            lazyBvh.intersect(ctx);
+            Assert.assertNotNull(ctx.hitGeometry);
+        }
+        // a fully built tree has about 2 * 20000 / 4 nodes
+        Assert.assertTrue(lazyBvh.getNumberOfNodes() < 1000);
+    }
+}
@@ -0,0 +1,92 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.raytracing.Ray;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class LbvhTreeBuilderTest {
+
+    @Test
+    public void testSameHitsAsBruteForce() throws Exception {
+        Random random = new Random(815);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 2000);
+        LbvhTreeBuilder builder = new LbvhTreeBuilder(4);
+        builder.parallelThreshold = 64;
+        BvhTree tree = builder.buildBvh(geometry);
+        BvhTree sahTopTree = new LbvhTreeBuilder(4, 6).buildBvh(geometry);
+        NoAccelerationImpl bruteForce = new NoAccelerationImpl(geometry);
+
+        IntersectionContext expected = new IntersectionContext();
+        IntersectionContext actual = new IntersectionContext();
+
+        for (int i = 0; i < 2000; i++) {
+            Ray ray = FlatBvhTreeTest.createRandomRay(random);
+            expected.reinit(ray);
+            bruteForce.intersect(expected);
+
+            actual.reinit(ray);
+            tree.intersect(actual);
+            Assert.assertSame(expected.hitGeometry, actual.hitGeometry);
+            Assert.assertEquals(expected.hitDistance, actual.hitDistance, 0.0f);
+
+            actual.reinit(ray);
+            sahTopTree.intersect(actual);
+            Assert.assertSame(expected.hitGeometry, actual.hitGeometry);
+            Assert.assertEquals(expected.hitDistance, actual.hitDistance, 0.0f);
+        }
+    }
+
+
+    @Test
+    public void testAllPrimitivesInLeavesOfLimitedSize() throws Exception {
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(new Random(42), 3000);
+        BvhTree tree = new LbvhTreeBuilder(4, 3).buildBvh(geometry);
+        int[] counts = new int[geometry.size()];
+        countLeafPrimitives(tree.getRootNode(), counts);
+        for (int count : counts) {
+            Assert.assertEquals(1, count);
+        }
+    }
+
+
+    @Test
+    public void testRadixSort() throws Exception {
+        Random random = new Random(7);
+        int[] keys = new int[10000];
+        int[] values = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(1 << 30);
+            values[i] = i;
+        }
+        int[] original = keys.clone();
+        int[] expected = keys.clone();
+        Arrays.sort(expected);
+
+        LbvhTreeBuilder.radixSort(keys, values, 333);
+        Assert.assertArrayEquals(expected, keys);
+        for (int i = 0; i < keys.length; i++) {
+            Assert.assertEquals(keys[i], original[values[i]]);
+        }
+    }
+
+
+    private static void countLeafPrimitives(BvhNode node, int[] counts) {
+        if (node.indexList != null) {
+            Assert.assertTrue(node.indexList.length <= 4);
+            for (int index : node.indexList) {
+                counts[index]++;
+            }
+        } else {
+            countLeafPrimitives(node.left, counts);
+            countLeafPrimitives(node.right, counts);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.OctahedralNormal;
+import net.chromarenderer.math.Vector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.geometry.SimpleTriangle;
+import net.chromarenderer.math.geometry.Triangle;
+import net.chromarenderer.math.geometry.TriangleMesh;
+import net.chromarenderer.math.geometry.TriangleMeshBuilder;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class OffHeapGeometryStoreTest {
+
+    @Test
+    public void testSameHitsAsBruteForce() throws Exception {
+        Random random = new Random(2202);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 2000);
+        OffHeapGeometryStore store = OffHeapGeometryStore.build(geometry);
+        Assert.assertEquals(2000, store.getNumberOfFaces());
+        Assert.assertTrue(store.getNumberOfNodes() > 1);
+
+        NoAccelerationImpl bruteForce = new NoAccelerationImpl(geometry);
+        IntersectionContext expected = new IntersectionContext();
+        IntersectionContext actual = new IntersectionContext();
+        for (int i = 0; i < 2000; i++) {
+            Ray ray = FlatBvhTreeTest.createRandomRay(random);
+            expected.reinit(ray);
+            actual.reinit(ray);
+            bruteForce.intersect(expected);
+            store.intersect(actual);
+            assertSamePrimitive(expected.hitGeometry, actual.hitGeometry);
+            Assert.assertEquals(expected.hitDistance, actual.hitDistance, 0.0f);
+        }
+    }
+
+
+    @Test
+    public void testOcclusionMatchesAnyHit() throws Exception {
+        Random random = new Random(17);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 2000);
+        OffHeapGeometryStore store = OffHeapGeometryStore.build(geometry);
+        NoAccelerationImpl bruteForce = new NoAccelerationImpl(geometry);
+
+        IntersectionContext ctx = new IntersectionContext();
+        for (int i = 0; i < 5000; i++) {
+            Ray ray = FlatBvhTreeTest.createRandomShadowRay(random);
+            ctx.reinit(ray);
+            bruteForce.intersect(ctx);
+            boolean expected = ctx.hitGeometry != null;
+
+            Assert.assertEquals(expected, store.isOccluded(ctx));
+            ctx.reinit(ray, IntersectionContext.ANY);
+            store.intersect(ctx);
+            Assert.assertEquals(expected, ctx.hitGeometry != null);
+        }
+    }
+
+
+    @Test
+    public void testMeshVerticesStayShared() throws Exception {
+        Material diffuse = Material.createDiffuseMaterial(new ImmutableVector3(0.5f, 0.5f, 0.5f));
+        TriangleMeshBuilder builder = new TriangleMeshBuilder(Arrays.asList(Material.NULL, diffuse));
+        for (int x = 0; x < 20; x++) {
+            for (int z = 0; z < 20; z++) {
+                ImmutableVector3 p00 = new ImmutableVector3(x, 0.0f, z);
+                ImmutableVector3 p10 = new ImmutableVector3(x + 1, 0.0f, z);
+                ImmutableVector3 p01 = new ImmutableVector3(x, 0.0f, z + 1);
+                ImmutableVector3 p11 = new ImmutableVector3(x + 1, 0.0f, z + 1);
+                builder.addTriangle(p00, p01, p10, (x + z) % 2);
+                builder.addTriangle(p10, p01, p11, (x + z) % 2);
+            }
+        }
+        TriangleMesh mesh = builder.build();
+        OffHeapGeometryStore store = OffHeapGeometryStore.build(mesh.getTriangles());
+        Assert.assertEquals(mesh.getNumberOfFaces(), store.getNumberOfFaces());
+        Assert.assertEquals(mesh.getNumberOfVertices(), store.getNumberOfVertices());
+
+        IntersectionContext ctx = new IntersectionContext();
+        ctx.reinit(new Ray(new ImmutableVector3(2.2f, 5.0f, 3.3f), new ImmutableVector3(0.0f, -1.0f, 0.0f)));
+        store.intersect(ctx);
+        Assert.assertTrue(ctx.hitGeometry instanceof StoredTriangle);
+        Assert.assertEquals(5.0f, ctx.hitDistance, 1e-6f);
+        Assert.assertSame(diffuse, ctx.hitGeometry.getMaterial());
+        Assert.assertEquals(1.0f, ((Triangle) ctx.hitGeometry).getNormal().getY(), 1e-6f);
+
+        // the face a ray starts from is skipped although it is reported as a new object
+        Ray bounce = new Ray(ctx.ray.onRay(ctx.hitDistance), new ImmutableVector3(0.0f, 1.0f, 0.0f), 0.0f, Float.MAX_VALUE, true);
+        bounce.mailbox(new StoredTriangle(store, ((StoredTriangle) ctx.hitGeometry).getFace()));
+        ctx.reinit(bounce);
+        Assert.assertFalse(store.isOccluded(ctx));
+        store.intersect(ctx);
+        Assert.assertNull(ctx.hitGeometry);
+
+        ctx.hitGeometry = new StoredTriangle(store, 0);
+        ctx.hitGeometry.setMaterial(Material.FREE_SPACE);
+        Assert.assertSame(Material.FREE_SPACE, new StoredTriangle(store, 0).getMaterial());
+    }
+
+
+    @Test
+    public void testNormalKeepsOrientationOfSource() throws Exception {
+        // corners clockwise seen from the given normal
+        SimpleTriangle triangle = new SimpleTriangle(
+                new ImmutableVector3(0.f, 0.f, 1.f),
+                new ImmutableVector3(1.f, 0.f, 1.f),
+                new ImmutableVector3(0.f, 1.f, 1.f),
+                new ImmutableVector3(0.f, 0.f, -1.f));
+        OffHeapGeometryStore store = OffHeapGeometryStore.build(Collections.singletonList(triangle));
+        StoredTriangle stored = new StoredTriangle(store, 0);
+        Assert.assertEquals(-1.0f, stored.getNormal().getZ(), 1e-6f);
+
+        Ray front = new Ray(new ImmutableVector3(0.2f, 0.2f, 0.f), new ImmutableVector3(0.f, 0.f, 1.f));
+        Ray back = new Ray(new ImmutableVector3(0.2f, 0.2f, 2.f), new ImmutableVector3(0.f, 0.f, -1.f));
+        Assert.assertEquals(triangle.intersect(front), stored.intersect(front), 1e-6f);
+        Assert.assertEquals(0.0f, triangle.intersect(back), 0.0f);
+        Assert.assertEquals(0.0f, stored.intersect(back), 0.0f);
+    }
+
+
+    @Test
+    public void testVertexNormalsAreCarriedOver() throws Exception {
+        ImmutableVector3 n0 = new ImmutableVector3(-1.0f, 1.0f, 0.0f).normalize();
+        ImmutableVector3 n2 = new ImmutableVector3(1.0f, 1.0f, 0.0f).normalize();
+        TriangleMesh mesh = new TriangleMeshBuilder(Collections.singletonList(Material.NULL))
+                .addTriangle(new ImmutableVector3(0.0f, 0.0f, 0.0f), new ImmutableVector3(0.0f, 0.0f, 1.0f), new ImmutableVector3(1.0f, 0.0f, 0.0f), 0,
+                        OctahedralNormal.encode(n0), OctahedralNormal.encode(Vector3.Y_AXIS), OctahedralNormal.encode(n2))
+                .build();
+        Triangle smooth = (Triangle) mesh.getTriangles().get(0);
+        // a flat triangle far away, given clockwise so the store swaps its corners
+        SimpleTriangle flat = new SimpleTriangle(
+                new ImmutableVector3(5.0f, 0.0f, 0.0f),
+                new ImmutableVector3(6.0f, 0.0f, 0.0f),
+                new ImmutableVector3(5.0f, 0.0f, 1.0f),
+                new ImmutableVector3(0.0f, 1.0f, 0.0f));
+        OffHeapGeometryStore store = OffHeapGeometryStore.build(Arrays.asList(smooth, flat));
+        Assert.assertTrue(store.hasVertexNormals());
+
+        IntersectionContext ctx = new IntersectionContext();
+        ImmutableVector3 down = new ImmutableVector3(0.0f, -1.0f, 0.0f);
+        ctx.reinit(new Ray(new ImmutableVector3(0.3f, 1.0f, 0.2f), down));
+        store.intersect(ctx);
+        ImmutableVector3 point = ctx.ray.onRay(ctx.hitDistance);
+        Assert.assertTrue(((Triangle) ctx.hitGeometry).hasVertexNormals());
+        Assert.assertEquals(1.0f, ctx.hitGeometry.getShadingNormal(point).dot(smooth.getShadingNormal(point)), 1e-6f);
+
+        ctx.reinit(new Ray(new ImmutableVector3(5.3f, 1.0f, 0.2f), down));
+        store.intersect(ctx);
+        point = ctx.ray.onRay(ctx.hitDistance);
+        Assert.assertEquals(1.0f, ctx.hitGeometry.getShadingNormal(point).getY(), 1e-4f);
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void testMaterialPaletteOverflow() throws Exception {
+        List<Geometry> geometry = new ArrayList<>();
+        for (int i = 0; i <= 0x10000; i++) {
+            ImmutableVector3 p0 = new ImmutableVector3(i, 0, 0);
+            geometry.add(new SimpleTriangle(p0, p0.plus(Vector3.X_AXIS), p0.plus(Vector3.Y_AXIS),
+                    Material.createDiffuseMaterial(new ImmutableVector3(0.5, 0.5, 0.5))));
+        }
+        OffHeapGeometryStore.build(geometry);
+    }
+
+
+    private static void assertSamePrimitive(Geometry expected, Geometry actual) {
+        if (expected == null || !(expected instanceof Triangle)) {
+            Assert.assertSame(expected, actual);
+            return;
+        }
+        Assert.assertTrue(actual instanceof StoredTriangle);
+        Triangle expectedTriangle = (Triangle) expected;
+        Triangle actualTriangle = (Triangle) actual;
+        Assert.assertEquals(expectedTriangle.getP0(), actualTriangle.getP0());
+        Assert.assertEquals(expectedTriangle.getP1(), actualTriangle.getP1());
+        Assert.assertEquals(expectedTriangle.getP2(), actualTriangle.getP2());
+        Assert.assertSame(expected.getMaterial(), actual.getMaterial());
+    }
+}
@@ -0,0 +1,62 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.raytracing.Ray;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class QuantizedBvhTreeTest {
+
+    @Test
+    public void testSameHitsAsBruteForce() throws Exception {
+        Random random = new Random(2468);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 2000);
+        QuantizedBvhTree tree = QuantizedBvhTree.compress(new SahBvhTreeBuilder(4, 32).buildBvh(geometry));
+        BvhTreeTest.assertSameHitsAsBruteForce(tree, geometry, random);
+    }
+
+
+    @Test
+    public void testOcclusionMatchesAnyHit() throws Exception {
+        Random random = new Random(1357);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 1000);
+        QuantizedBvhTree tree = QuantizedBvhTree.compress(new LbvhTreeBuilder(4).buildBvh(geometry));
+        NoAccelerationImpl bruteForce = new NoAccelerationImpl(geometry);
+        IntersectionContext ctx = new IntersectionContext();
+
+        for (int i = 0; i < 2000; i++) {
+            Ray shadowRay = FlatBvhTreeTest.createRandomShadowRay(random);
+            ctx.reinit(shadowRay, IntersectionContext.ANY);
+            Assert.assertEquals(bruteForce.isOccluded(ctx), tree.isOccluded(ctx));
+        }
+    }
+
+
+    @Test
+    public void testQuantizationIsConservative() throws Exception {
+        Random random = new Random(11);
+        for (int i = 0; i < 10000; i++) {
+            float lower = (random.nextFloat() - 0.5f) * 1000.0f;
+            float upper = lower + random.nextFloat() * 100.0f;
+            float value = lower + random.nextFloat() * (upper - lower);
+            Assert.assertTrue(QuantizedBvhTree.dequantize(QuantizedBvhTree.quantizeDown(value, lower, upper), lower, upper) <= value);
+            Assert.assertTrue(QuantizedBvhTree.dequantize(QuantizedBvhTree.quantizeUp(value, lower, upper), lower, upper) >= value);
+        }
+        Assert.assertEquals(5.0f, QuantizedBvhTree.dequantize(QuantizedBvhTree.quantizeUp(5.0f, 1.0f, 5.0f), 1.0f, 5.0f), 0.0f);
+    }
+
+
+    @Test
+    public void testSmallerThanUncompressedTree() throws Exception {
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(new Random(3), 5000);
+        BvhTree tree = new SahBvhTreeBuilder(4, 32).buildBvh(geometry);
+        QuantizedBvhTree compressed = QuantizedBvhTree.compress(tree);
+        Assert.assertTrue(compressed.getSizeInBytes() * 4 < tree.getEstimatedSizeInBytes());
+    }
+}
@@ -0,0 +1,92 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.raytracing.Ray;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class RayPacketTest {
+
+    @Test
+    public void testCoherentPacketsMatchSingleRays() throws Exception {
+        Random random = new Random(4711);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 2000);
+        BvhTree tree = new SahBvhTreeBuilder(4, 32).buildBvh(geometry);
+        FlatBvhTree flatTree = FlatBvhTree.flatten(tree);
+
+        // 8x8 tiles of a pinhole camera looking down the negative z axis
+        ImmutableVector3 eye = new ImmutableVector3(0.5f, -0.5f, 15.0f);
+        Ray[] rays = new Ray[RayPacket.DEFAULT_CAPACITY];
+        for (int tileY = 0; tileY < 64; tileY += 8) {
+            for (int tileX = 0; tileX < 64; tileX += 8) {
+                int count = 0;
+                for (int y = tileY; y < tileY + 8; y++) {
+                    for (int x = tileX; x < tileX + 8; x++) {
+                        ImmutableVector3 direction = new ImmutableVector3((x - 32) / 64.0f, (y - 32) / 64.0f, -1.0f).normalize();
+                        rays[count++] = new Ray(eye, direction);
+                    }
+                }
+                assertSameHitsAsSingleRays(tree, rays, count);
+                assertSameHitsAsSingleRays(flatTree, rays, count);
+            }
+        }
+    }
+
+
+    @Test
+    public void testIncoherentPacketsMatchSingleRays() throws Exception {
+        Random random = new Random(42);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 1000);
+        BvhTree tree = new BvhTreeBuilder(4, 20).buildBvh(geometry);
+        FlatBvhTree flatTree = FlatBvhTree.flatten(tree);
+
+        Ray[] rays = new Ray[RayPacket.DEFAULT_CAPACITY];
+        for (int packet = 0; packet < 50; packet++) {
+            int count = 1 + random.nextInt(rays.length);
+            for (int i = 0; i < count; i++) {
+                rays[i] = FlatBvhTreeTest.createRandomRay(random);
+            }
+            assertSameHitsAsSingleRays(tree, rays, count);
+            assertSameHitsAsSingleRays(flatTree, rays, count);
+        }
+    }
+
+
+    @Test
+    public void testPacketBoxCulling() throws Exception {
+        Ray[] rays = {
+                new Ray(new ImmutableVector3(0.0f, 0.0f, 0.0f), new ImmutableVector3(1.0f, 0.1f, 0.0f).normalize()),
+                new Ray(new ImmutableVector3(0.0f, 0.0f, 0.0f), new ImmutableVector3(1.0f, -0.1f, 0.0f).normalize())
+        };
+        RayPacket packet = new RayPacket(2);
+        packet.reinit(rays, rays.length);
+
+        float entry = packet.intersectBox(new float[]{5.0f, -1.0f, -1.0f, 6.0f, 1.0f, 1.0f}, 0);
+        // both rays enter at x = 5 after a distance of 5 * sqrt(1.01)
+        Assert.assertEquals(5.025f, entry, 0.001f);
+        Assert.assertEquals(RayPacket.MISS, packet.intersectBox(new float[]{-6.0f, -1.0f, -1.0f, -5.0f, 1.0f, 1.0f}, 0), 0.0f);
+        Assert.assertEquals(RayPacket.MISS, packet.intersectBox(new float[]{5.0f, -1.0f, 2.0f, 6.0f, 1.0f, 3.0f}, 0), 0.0f);
+    }
+
+
+    private static void assertSameHitsAsSingleRays(AccelerationStructure structure, Ray[] rays, int count) {
+        RayPacket packet = new RayPacket(RayPacket.DEFAULT_CAPACITY);
+        packet.reinit(rays, count);
+        structure.intersect(packet);
+
+        IntersectionContext expected = new IntersectionContext();
+        for (int i = 0; i < count; i++) {
+            expected.reinit(rays[i]);
+            structure.intersect(expected);
+            Assert.assertSame(expected.hitGeometry, packet.getHitGeometry(i));
+            Assert.assertEquals(expected.hitDistance, packet.getHitDistance(i), 0.0f);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.geometry.TriangleMeshBuilder;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class SahBvhTreeBuilderTest {
+
+    @Test
+    public void testSameHitsAsBruteForce() throws Exception {
+        Random random = new Random(1337);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 2000);
+        BvhTree tree = new SahBvhTreeBuilder(4, 32).buildBvh(geometry);
+        NoAccelerationImpl bruteForce = new NoAccelerationImpl(geometry);
+
+        IntersectionContext expected = new IntersectionContext();
+        IntersectionContext actual = new IntersectionContext();
+
+        for (int i = 0; i < 2000; i++) {
+            Ray ray = FlatBvhTreeTest.createRandomRay(random);
+            expected.reinit(ray);
+            actual.reinit(ray);
+            bruteForce.intersect(expected);
+            tree.intersect(actual);
+            Assert.assertSame(expected.hitGeometry, actual.hitGeometry);
+            Assert.assertEquals(expected.hitDistance, actual.hitDistance, 0.0f);
+        }
+    }
+
+
+    @Test
+    public void testLowerSahCostThanBvhTreeBuilder() throws Exception {
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(new Random(42), 5000);
+        float sahCost = new SahBvhTreeBuilder(4, 32).buildBvh(geometry).computeSahCost();
+        float defaultCost = new BvhTreeBuilder(4, 20).buildBvh(geometry).computeSahCost();
+        Assert.assertTrue("SAH build (" + sahCost + ") is not better than default build (" + defaultCost + ")", sahCost < defaultCost);
+    }
+
+
+    @Test
+    public void testMeshTriangles() throws Exception {
+        Random random = new Random(4711);
+        TriangleMeshBuilder builder = new TriangleMeshBuilder(Collections.singletonList(Material.NULL));
+        float[][] heights = new float[41][41];
+        for (float[] row : heights) {
+            for (int z = 0; z < row.length; z++) {
+                row[z] = random.nextFloat() * 2.0f;
+            }
+        }
+        for (int x = 0; x < 40; x++) {
+            for (int z = 0; z < 40; z++) {
+                ImmutableVector3 p00 = new ImmutableVector3(x * 0.5f - 10.0f, heights[x][z], z * 0.5f - 10.0f);
+                ImmutableVector3 p10 = new ImmutableVector3(x * 0.5f - 9.5f, heights[x + 1][z], z * 0.5f - 10.0f);
+                ImmutableVector3 p01 = new ImmutableVector3(x * 0.5f - 10.0f, heights[x][z + 1], z * 0.5f - 9.5f);
+                ImmutableVector3 p11 = new ImmutableVector3(x * 0.5f - 9.5f, heights[x + 1][z + 1], z * 0.5f - 9.5f);
+                builder.addTriangle(p00, p01, p10, 0);
+                builder.addTriangle(p10, p01, p11, 0);
+            }
+        }
+        List<Geometry> geometry = builder.build().getTriangles();
+        BvhTreeTest.assertSameHitsAsBruteForce(new SahBvhTreeBuilder(4, 32).buildBvh(geometry), geometry, random);
+    }
+}
@@ -0,0 +1,101 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.geometry.SimpleTriangle;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class SbvhTreeBuilderTest {
+
+    @Test
+    public void testSameHitsAsBruteForce() throws Exception {
+        Random random = new Random(1212);
+        List<Geometry> geometry = createThinTriangles(random, 2000);
+        geometry.addAll(FlatBvhTreeTest.createRandomGeometry(random, 500));
+        BvhTree tree = new SbvhTreeBuilder(4, 32).buildBvh(geometry);
+        Assert.assertTrue(countReferences(tree.getRootNode()) > geometry.size());
+        BvhTreeTest.assertSameHitsAsBruteForce(tree, geometry, random);
+    }
+
+
+    @Test
+    public void testOcclusionMatchesAnyHit() throws Exception {
+        Random random = new Random(2121);
+        List<Geometry> geometry = createThinTriangles(random, 1000);
+        BvhTree tree = new SbvhTreeBuilder(4, 32).buildBvh(geometry);
+        NoAccelerationImpl bruteForce = new NoAccelerationImpl(geometry);
+        IntersectionContext ctx = new IntersectionContext();
+
+        for (int i = 0; i < 2000; i++) {
+            Ray shadowRay = FlatBvhTreeTest.createRandomShadowRay(random);
+            ctx.reinit(shadowRay, IntersectionContext.ANY);
+            Assert.assertEquals(bruteForce.isOccluded(ctx), tree.isOccluded(ctx));
+        }
+    }
+
+
+    @Test
+    public void testLowerSahCostThanObjectSplitsForThinTriangles() throws Exception {
+        Random random = new Random(5);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 5000);
+        geometry.addAll(createThinTriangles(random, 200));
+        float sbvhCost = new SbvhTreeBuilder(4, 32).buildBvh(geometry).computeSahCost();
+        float sahCost = new SahBvhTreeBuilder(4, 32).buildBvh(geometry).computeSahCost();
+        Assert.assertTrue("SBVH (" + sbvhCost + ") is not better than SAH BVH (" + sahCost + ")", sbvhCost < sahCost * 0.9f);
+    }
+
+
+    @Test
+    public void testDuplicationLimit() throws Exception {
+        List<Geometry> geometry = createThinTriangles(new Random(9), 3000);
+        Assert.assertEquals(geometry.size(), countReferences(new SbvhTreeBuilder(4, 32, 1.0f).buildBvh(geometry).getRootNode()));
+        Assert.assertTrue(countReferences(new SbvhTreeBuilder(4, 32, 1.1f).buildBvh(geometry).getRootNode()) <= geometry.size() * 1.1f);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReferenceFactorBelowOne() throws Exception {
+        new SbvhTreeBuilder(4, 32, 0.9f);
+    }
+
+
+    private static int countReferences(BvhNode node) {
+        if (node.indexList != null) {
+            return node.indexList.length;
+        }
+        return countReferences(node.left) + countReferences(node.right);
+    }
+
+
+    /**
+     * Long slivers in random directions crossing the whole scene, like beams and cables.
+     */
+    private static List<Geometry> createThinTriangles(Random random, int numberOfTriangles) {
+        List<Geometry> result = new ArrayList<>(numberOfTriangles);
+        for (int i = 0; i < numberOfTriangles; i++) {
+            ImmutableVector3 p0 = randomPoint(random, 10.0f);
+            ImmutableVector3 p1 = p0.plus(randomPoint(random, 1.0f).normalize().mult(20.0f));
+            ImmutableVector3 p2 = p1.plus(randomPoint(random, 0.05f));
+            result.add(new SimpleTriangle(p0, p1, p2, Material.NULL));
+        }
+        return result;
+    }
+
+
+    private static ImmutableVector3 randomPoint(Random random, float halfExtent) {
+        return new ImmutableVector3(
+                (random.nextFloat() * 2.0f - 1.0f) * halfExtent,
+                (random.nextFloat() * 2.0f - 1.0f) * halfExtent,
+                (random.nextFloat() * 2.0f - 1.0f) * halfExtent);
+    }
+}
@@ -0,0 +1,91 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.AccStructType;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class TreeletOptimizerTest {
+
+    @Test
+    public void testReducesSahCostOfLbvh() throws Exception {
+        Random random = new Random(8642);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 3000);
+        // single primitive leaves leave the most room for restructuring and collapsing
+        BvhTree tree = new LbvhTreeBuilder(1).buildBvh(geometry);
+        float costBefore = tree.computeSahCost();
+
+        Assert.assertSame(tree, new TreeletOptimizer().optimize(tree));
+        Assert.assertTrue(tree.computeSahCost() < costBefore * 0.95f);
+
+        int[] counts = new int[geometry.size()];
+        assertValidSubtree(tree.getRootNode(), tree.getGeometry(), counts);
+        for (int count : counts) {
+            Assert.assertEquals(1, count);
+        }
+        BvhTreeTest.assertSameHitsAsBruteForce(tree, geometry, random);
+    }
+
+
+    @Test
+    public void testDoesNotWorsenSahTree() throws Exception {
+        Random random = new Random(97531);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 2000);
+        BvhTree tree = new SahBvhTreeBuilder(4, 32).buildBvh(geometry);
+        float costBefore = tree.computeSahCost();
+
+        new TreeletOptimizer(5, 1).optimize(tree);
+        Assert.assertTrue(tree.computeSahCost() <= costBefore * 1.0001f);
+        BvhTreeTest.assertSameHitsAsBruteForce(tree, geometry, random);
+    }
+
+
+    @Test
+    public void testOptimizedLbvh() throws Exception {
+        Random random = new Random(1357);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 2000);
+        BvhTree tree = TreeletOptimizer.buildOptimizedLbvh(geometry);
+        Assert.assertEquals(AccStructType.OPTIMIZED_LBVH, tree.getType());
+        Assert.assertTrue(tree.computeSahCost() < new LbvhTreeBuilder(1).buildBvh(geometry).computeSahCost());
+        BvhTreeTest.assertSameHitsAsBruteForce(tree, geometry, random);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTreeletSizeLimit() throws Exception {
+        new TreeletOptimizer(11, 1);
+    }
+
+
+    private static void assertValidSubtree(BvhNode node, Geometry[] geometry, int[] counts) {
+        if (node.indexList != null) {
+            Assert.assertTrue(node.indexList.length <= TreeletOptimizer.MAX_COLLAPSED_LEAF_SIZE);
+            for (int index : node.indexList) {
+                counts[index]++;
+                Assert.assertTrue(contains(node.box, geometry[index].getSpatialMinimum(), geometry[index].getSpatialMaximum()));
+            }
+        } else {
+            Assert.assertTrue(contains(node.box, node.left.box.getPMin(), node.left.box.getPMax()));
+            Assert.assertTrue(contains(node.box, node.right.box.getPMin(), node.right.box.getPMax()));
+            assertValidSubtree(node.left, geometry, counts);
+            assertValidSubtree(node.right, geometry, counts);
+        }
+    }
+
+
+    private static boolean contains(AxisAlignedBoundingBox box, ImmutableVector3 min, ImmutableVector3 max) {
+        for (int axis = 0; axis < 3; axis++) {
+            if (box.getPMin().getScalar(axis) > min.getScalar(axis) || box.getPMax().getScalar(axis) < max.getScalar(axis)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
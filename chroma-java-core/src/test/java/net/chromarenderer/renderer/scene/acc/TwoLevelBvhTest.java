@@ -0,0 +1,161 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.ImmutableMatrix3x3;
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.Vector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.geometry.SimpleTriangle;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class TwoLevelBvhTest {
+
+    @Test
+    public void testSameHitsAsFlattenedScene() throws Exception {
+        Random random = new Random(3141);
+        List<MeshInstance> instances = createRandomInstances(random);
+
+        List<Geometry> flattened = new ArrayList<>();
+        Map<Geometry, MeshInstance> instanceOfCopy = new IdentityHashMap<>();
+        Map<Geometry, Geometry> primitiveOfCopy = new IdentityHashMap<>();
+        for (MeshInstance instance : instances) {
+            for (Geometry primitive : instance.getMesh().getGeometry()) {
+                Geometry copy = instance.toWorldGeometry(primitive);
+                flattened.add(copy);
+                instanceOfCopy.put(copy, instance);
+                primitiveOfCopy.put(copy, primitive);
+            }
+        }
+
+        TwoLevelBvh twoLevelBvh = new TwoLevelBvh(instances);
+        NoAccelerationImpl bruteForce = new NoAccelerationImpl(flattened);
+        IntersectionContext expected = new IntersectionContext();
+        IntersectionContext actual = new IntersectionContext();
+        int hits = 0;
+
+        for (int i = 0; i < 3000; i++) {
+            Ray ray = FlatBvhTreeTest.createRandomRay(random);
+            expected.reinit(ray);
+            actual.reinit(ray);
+            bruteForce.intersect(expected);
+            twoLevelBvh.intersect(actual);
+
+            Assert.assertEquals(expected.hitGeometry != null, actual.hitGeometry != null);
+            if (expected.hitGeometry == null) {
+                continue;
+            }
+            hits++;
+            Assert.assertEquals(expected.hitDistance, actual.hitDistance, 1e-3f * expected.hitDistance);
+
+            MeshInstance expectedInstance = instanceOfCopy.get(expected.hitGeometry);
+            if (expectedInstance.isIdentity()) {
+                Assert.assertSame(primitiveOfCopy.get(expected.hitGeometry), actual.hitGeometry);
+            } else {
+                InstancedGeometry instancedHit = (InstancedGeometry) actual.hitGeometry;
+                Assert.assertSame(expectedInstance, instancedHit.getInstance());
+                Assert.assertSame(primitiveOfCopy.get(expected.hitGeometry), instancedHit.getPrimitive());
+            }
+
+            ImmutableVector3 hitpoint = ray.onRay(actual.hitDistance);
+            ImmutableVector3 expectedNormal = expected.hitGeometry.getNormal(hitpoint);
+            ImmutableVector3 actualNormal = actual.hitGeometry.getNormal(hitpoint);
+            Assert.assertEquals(1.0f, expectedNormal.dot(actualNormal), 1e-3f);
+
+            expected.reinit(ray, IntersectionContext.ANY);
+            actual.reinit(ray, IntersectionContext.ANY);
+            bruteForce.intersect(expected);
+            twoLevelBvh.intersect(actual);
+            Assert.assertEquals(expected.hitGeometry != null, actual.hitGeometry != null);
+        }
+        Assert.assertTrue("Too few rays hit anything to compare both structures", hits > 500);
+    }
+
+
+    @Test
+    public void testOcclusionMatchesAnyHit() throws Exception {
+        Random random = new Random(1618);
+        TwoLevelBvh twoLevelBvh = new TwoLevelBvh(createRandomInstances(random));
+        IntersectionContext ctx = new IntersectionContext();
+        int occluded = 0;
+
+        for (int i = 0; i < 3000; i++) {
+            Ray ray = FlatBvhTreeTest.createRandomShadowRay(random);
+            ctx.reinit(ray, IntersectionContext.ANY);
+            twoLevelBvh.intersect(ctx);
+            boolean expected = ctx.hitGeometry != null;
+            Assert.assertEquals(expected, twoLevelBvh.isOccluded(ctx));
+            occluded += expected ? 1 : 0;
+        }
+        Assert.assertTrue(occluded > 300);
+    }
+
+
+    @Test
+    public void testMailboxedInstanceHitIsSkipped() throws Exception {
+        Random random = new Random(2718);
+        TwoLevelBvh twoLevelBvh = new TwoLevelBvh(createRandomInstances(random));
+        IntersectionContext ctx = new IntersectionContext();
+        int checked = 0;
+
+        for (int i = 0; i < 1000; i++) {
+            Ray ray = FlatBvhTreeTest.createRandomRay(random);
+            ctx.reinit(ray);
+            twoLevelBvh.intersect(ctx);
+            if (!(ctx.hitGeometry instanceof InstancedGeometry)) {
+                continue;
+            }
+            InstancedGeometry firstHit = (InstancedGeometry) ctx.hitGeometry;
+            ray.mailbox(firstHit);
+            ctx.reinit(ray);
+            twoLevelBvh.intersect(ctx);
+            if (ctx.hitGeometry instanceof InstancedGeometry) {
+                InstancedGeometry secondHit = (InstancedGeometry) ctx.hitGeometry;
+                Assert.assertFalse(secondHit.getInstance() == firstHit.getInstance() && secondHit.getPrimitive() == firstHit.getPrimitive());
+            }
+            checked++;
+        }
+        Assert.assertTrue(checked > 100);
+    }
+
+
+    private static List<MeshInstance> createRandomInstances(Random random) {
+        List<Geometry> chair = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ImmutableVector3 p0 = randomVector(random, 2.0f);
+            chair.add(new SimpleTriangle(p0, p0.plus(randomVector(random, 0.8f)), p0.plus(randomVector(random, 0.8f)), Material.NULL));
+        }
+        SharedMesh chairMesh = new SharedMesh(chair);
+        SharedMesh looseMesh = new SharedMesh(FlatBvhTreeTest.createRandomGeometry(random, 300));
+
+        List<MeshInstance> instances = new ArrayList<>();
+        instances.add(new MeshInstance(looseMesh));
+        for (int i = 0; i < 30; i++) {
+            ImmutableVector3 axis = randomVector(random, 1.0f).normalize();
+            ImmutableVector3 second = axis.crossProduct(Vector3.Z_AXIS).normalize();
+            ImmutableVector3 third = axis.crossProduct(second);
+            float scale = 0.5f + random.nextFloat();
+            ImmutableMatrix3x3 transformation = new ImmutableMatrix3x3(axis.mult(scale), second.mult(scale), third.mult(scale));
+            instances.add(new MeshInstance(chairMesh, transformation, randomVector(random, 8.0f)));
+        }
+        return instances;
+    }
+
+
+    private static ImmutableVector3 randomVector(Random random, float halfExtent) {
+        return new ImmutableVector3(
+                (random.nextFloat() - 0.5f) * 2.0f * halfExtent,
+                (random.nextFloat() - 0.5f) * 2.0f * halfExtent,
+                (random.nextFloat() - 0.5f) * 2.0f * halfExtent);
+    }
+}
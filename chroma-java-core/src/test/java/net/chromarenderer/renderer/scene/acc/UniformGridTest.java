@@ -0,0 +1,99 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.geometry.SimpleTriangle;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class UniformGridTest {
+
+    @Test
+    public void testSameHitsAsBruteForce() throws Exception {
+        Random random = new Random(1234);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 2000);
+        UniformGrid grid = new UniformGrid(geometry);
+        Assert.assertTrue(grid.getNumberOfCells() > 1000);
+        BvhTreeTest.assertSameHitsAsBruteForce(grid, geometry, random);
+    }
+
+
+    @Test
+    public void testSameHitsAsBruteForceOnTerrain() throws Exception {
+        Random random = new Random(99);
+        List<Geometry> terrain = createTerrain(random, 40);
+        BvhTreeTest.assertSameHitsAsBruteForce(new UniformGrid(terrain), terrain, random);
+    }
+
+
+    @Test
+    public void testFlatScene() throws Exception {
+        List<Geometry> geometry = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            geometry.add(new SimpleTriangle(
+                    new ImmutableVector3(i, 0.0f, 0.0f),
+                    new ImmutableVector3(i + 1.0f, 0.0f, 0.0f),
+                    new ImmutableVector3(i, 1.0f, 0.0f), Material.NULL));
+        }
+        UniformGrid grid = new UniformGrid(geometry);
+        IntersectionContext ctx = new IntersectionContext();
+        ctx.reinit(new Ray(new ImmutableVector3(7.25f, 0.25f, 5.0f), new ImmutableVector3(0.0f, 0.0f, -1.0f)));
+        grid.intersect(ctx);
+        Assert.assertSame(geometry.get(7), ctx.hitGeometry);
+        Assert.assertEquals(5.0f, ctx.hitDistance, 1e-5f);
+    }
+
+
+    @Test
+    public void testOcclusionMatchesAnyHit() throws Exception {
+        Random random = new Random(555);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 1000);
+        UniformGrid grid = new UniformGrid(geometry);
+        NoAccelerationImpl bruteForce = new NoAccelerationImpl(geometry);
+        IntersectionContext ctx = new IntersectionContext();
+
+        for (int i = 0; i < 2000; i++) {
+            Ray shadowRay = FlatBvhTreeTest.createRandomShadowRay(random);
+            ctx.reinit(shadowRay, IntersectionContext.ANY);
+            Assert.assertEquals(bruteForce.isOccluded(ctx), grid.isOccluded(ctx));
+        }
+    }
+
+
+    /**
+     * Height field over the xz plane made of 2 * size * size triangles, roughly 20 units wide.
+     */
+    static List<Geometry> createTerrain(Random random, int size) {
+        float[] heights = new float[(size + 1) * (size + 1)];
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = random.nextFloat() * 0.5f;
+        }
+        float cell = 20.0f / size;
+        List<Geometry> result = new ArrayList<>(2 * size * size);
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                ImmutableVector3 p00 = terrainPoint(heights, size, cell, x, z);
+                ImmutableVector3 p10 = terrainPoint(heights, size, cell, x + 1, z);
+                ImmutableVector3 p01 = terrainPoint(heights, size, cell, x, z + 1);
+                ImmutableVector3 p11 = terrainPoint(heights, size, cell, x + 1, z + 1);
+                result.add(new SimpleTriangle(p00, p01, p10, Material.NULL));
+                result.add(new SimpleTriangle(p10, p01, p11, Material.NULL));
+            }
+        }
+        return result;
+    }
+
+
+    private static ImmutableVector3 terrainPoint(float[] heights, int size, float cell, int x, int z) {
+        return new ImmutableVector3(x * cell - 10.0f, heights[z * (size + 1) + x], z * cell - 10.0f);
+    }
+}
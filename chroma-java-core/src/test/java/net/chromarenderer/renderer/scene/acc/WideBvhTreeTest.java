@@ -0,0 +1,85 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.geometry.Geometry;
+import net.chromarenderer.math.raytracing.Ray;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class WideBvhTreeTest {
+
+    @Test
+    public void testSameHitsAsBruteForce() throws Exception {
+        Random random = new Random(4242);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 2000);
+        WideBvhTree wideTree = WideBvhTree.collapse(new SahBvhTreeBuilder(4, 32).buildBvh(geometry));
+        Assert.assertTrue(wideTree.getNumberOfNodes() > 1);
+        BvhTreeTest.assertSameHitsAsBruteForce(wideTree, geometry, random);
+    }
+
+
+    @Test
+    public void testOcclusionMatchesAnyHit() throws Exception {
+        Random random = new Random(999);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 2000);
+        WideBvhTree wideTree = WideBvhTree.collapse(new BvhTreeBuilder(4, 20).buildBvh(geometry));
+        NoAccelerationImpl bruteForce = new NoAccelerationImpl(geometry);
+
+        IntersectionContext ctx = new IntersectionContext();
+        for (int i = 0; i < 5000; i++) {
+            Ray ray = FlatBvhTreeTest.createRandomShadowRay(random);
+            ctx.reinit(ray);
+            bruteForce.intersect(ctx);
+            boolean expected = ctx.hitGeometry != null;
+
+            Assert.assertEquals(expected, wideTree.isOccluded(ctx));
+            ctx.reinit(ray, IntersectionContext.ANY);
+            wideTree.intersect(ctx);
+            Assert.assertEquals(expected, ctx.hitGeometry != null);
+        }
+    }
+
+
+    @Test
+    public void testSingleLeaf() throws Exception {
+        Random random = new Random(7);
+        List<Geometry> geometry = FlatBvhTreeTest.createRandomGeometry(random, 50);
+        WideBvhTree wideTree = WideBvhTree.collapse(new BvhTreeBuilder(200, 20).buildBvh(geometry));
+        Assert.assertEquals(1, wideTree.getNumberOfNodes());
+        BvhTreeTest.assertSameHitsAsBruteForce(wideTree, geometry, random);
+    }
+
+
+    @Test
+    public void testScalarBoxesSameAsFlatBoxTest() throws Exception {
+        Random random = new Random(31);
+        ScalarWideIntersector intersector = new ScalarWideIntersector();
+        float[] wideBounds = new float[6 * WideIntersector.LANES];
+        float[] flatBounds = new float[6];
+        float[] entryDistances = new float[WideIntersector.LANES];
+
+        for (int i = 0; i < 5000; i++) {
+            for (int lane = 0; lane < WideIntersector.LANES; lane++) {
+                for (int axis = 0; axis < 3; axis++) {
+                    float min = (random.nextFloat() - 0.5f) * 20.0f;
+                    wideBounds[axis * WideIntersector.LANES + lane] = min;
+                    wideBounds[(3 + axis) * WideIntersector.LANES + lane] = min + random.nextFloat() * 5.0f;
+                }
+            }
+            Ray ray = i % 2 == 0 ? FlatBvhTreeTest.createRandomRay(random) : FlatBvhTreeTest.createRandomShadowRay(random);
+            intersector.intersectBoxes(wideBounds, 0, ray, ray.getTMax(), entryDistances);
+
+            for (int lane = 0; lane < WideIntersector.LANES; lane++) {
+                for (int bound = 0; bound < 6; bound++) {
+                    flatBounds[bound] = wideBounds[bound * WideIntersector.LANES + lane];
+                }
+                Assert.assertEquals(FlatBvhTree.intersectBox(flatBounds, 0, ray), entryDistances[lane], 0.0f);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import net.chromarenderer.math.Constants;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.utils.ChromaStatistics;
+
+/**
+ * {@link WideIntersector} on top of the JDK Vector API. The four child boxes of a wide node fill one 128 bit vector and
+ * so do four leaf triangles. Wider vectors as of AVX2 or AVX-512 did not pay off as leaves hold about four triangles,
+ * masking the unused lanes costs more than they save. Lanes run the same float operations in the same order as the
+ * scalar tests, so results are identical.
+ * <p>
+ * Lives in the package of {@link LeafTriangles} to read its component arrays. Needs
+ * {@code --add-modules jdk.incubator.vector} at compile and run time.
+ *
+ * @author bensteinert
+ */
+public final class VectorApiIntersector implements WideIntersector {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_128;
+
+
+    public VectorApiIntersector() {
+        if (SPECIES.length() != LANES) {
+            throw new IllegalStateException("Expected " + LANES + " lanes per vector, got " + SPECIES.length());
+        }
+    }
+
+
+    @Override
+    public void intersectBoxes(float[] bounds, int offset, Ray ray, float maxDistance, float[] entryDistances) {
+        float ox = ray.getOriginX();
+        float oy = ray.getOriginY();
+        float oz = ray.getOriginZ();
+        float idx = ray.getInvDirectionX();
+        float idy = ray.getInvDirectionY();
+        float idz = ray.getInvDirectionZ();
+        float tMin = ray.getTMin();
+
+        FloatVector nearX = FloatVector.fromArray(SPECIES, bounds, offset + ray.getXSign() * 3 * LANES).sub(ox).mul(idx);
+        FloatVector nearY = FloatVector.fromArray(SPECIES, bounds, offset + (1 + ray.getSignY() * 3) * LANES).sub(oy).mul(idy);
+        FloatVector nearZ = FloatVector.fromArray(SPECIES, bounds, offset + (2 + ray.getSignZ() * 3) * LANES).sub(oz).mul(idz);
+        FloatVector farX = FloatVector.fromArray(SPECIES, bounds, offset + (3 - ray.getXSign() * 3) * LANES).sub(ox).mul(idx);
+        FloatVector farY = FloatVector.fromArray(SPECIES, bounds, offset + (4 - ray.getSignY() * 3) * LANES).sub(oy).mul(idy);
+        FloatVector farZ = FloatVector.fromArray(SPECIES, bounds, offset + (5 - ray.getSignZ() * 3) * LANES).sub(oz).mul(idz);
+
+        FloatVector near = nearX.max(nearY).max(nearZ);
+        FloatVector far = farX.min(farY).min(farZ);
+        VectorMask<Float> hit = near.compare(VectorOperators.LE, far)
+                .and(near.compare(VectorOperators.LT, maxDistance))
+                .and(far.compare(VectorOperators.GT, tMin));
+
+        FloatVector entry = FloatVector.broadcast(SPECIES, tMin).blend(near, near.compare(VectorOperators.GT, tMin));
+        FloatVector.broadcast(SPECIES, FlatBvhTree.MISS).blend(entry, hit).intoArray(entryDistances, 0);
+    }
+
+
+    @Override
+    public void intersectTriangles(LeafTriangles triangles, int first, int end, Ray ray, float[] distances) {
+        float ox = ray.getOriginX();
+        float oy = ray.getOriginY();
+        float oz = ray.getOriginZ();
+        float dx = ray.getDirectionX();
+        float dy = ray.getDirectionY();
+        float dz = ray.getDirectionZ();
+        boolean cullBackFaces = !ray.isTransparent();
+        FloatVector zero = FloatVector.zero(SPECIES);
+
+        for (int i = first; i < end; i += LANES) {
+            // lanes behind the leaf read the next leaf or the zero padding, their results are ignored
+            FloatVector nx = FloatVector.fromArray(SPECIES, triangles.nx, i);
+            FloatVector ny = FloatVector.fromArray(SPECIES, triangles.ny, i);
+            FloatVector nz = FloatVector.fromArray(SPECIES, triangles.nz, i);
+            VectorMask<Float> valid = SPECIES.maskAll(true);
+            if (cullBackFaces) {
+                FloatVector backFaceCulling = nx.mul(dx).add(ny.mul(dy)).add(nz.mul(dz));
+                valid = valid.andNot(backFaceCulling.compare(VectorOperators.GT, 0.0f));
+            }
+
+            FloatVector edge1x = FloatVector.fromArray(SPECIES, triangles.e1x, i);
+            FloatVector edge1y = FloatVector.fromArray(SPECIES, triangles.e1y, i);
+            FloatVector edge1z = FloatVector.fromArray(SPECIES, triangles.e1z, i);
+            FloatVector edge2x = FloatVector.fromArray(SPECIES, triangles.e2x, i);
+            FloatVector edge2y = FloatVector.fromArray(SPECIES, triangles.e2y, i);
+            FloatVector edge2z = FloatVector.fromArray(SPECIES, triangles.e2z, i);
+
+            FloatVector px = edge2z.mul(dy).sub(edge2y.mul(dz));
+            FloatVector py = edge2x.mul(dz).sub(edge2z.mul(dx));
+            FloatVector pz = edge2y.mul(dx).sub(edge2x.mul(dy));
+
+            FloatVector det = edge1x.mul(px).add(edge1y.mul(py)).add(edge1z.mul(pz));
+            valid = valid.andNot(det.compare(VectorOperators.GT, -Constants.FLT_EPSILON).and(det.compare(VectorOperators.LT, Constants.FLT_EPSILON)));
+            FloatVector invDet = FloatVector.broadcast(SPECIES, 1.0f).div(det);
+
+            FloatVector tx = FloatVector.broadcast(SPECIES, ox).sub(FloatVector.fromArray(SPECIES, triangles.v0x, i));
+            FloatVector ty = FloatVector.broadcast(SPECIES, oy).sub(FloatVector.fromArray(SPECIES, triangles.v0y, i));
+            FloatVector tz = FloatVector.broadcast(SPECIES, oz).sub(FloatVector.fromArray(SPECIES, triangles.v0z, i));
+
+            FloatVector u = tx.mul(px).add(ty.mul(py)).add(tz.mul(pz)).mul(invDet);
+            valid = valid.andNot(u.compare(VectorOperators.LT, 0.0f).or(u.compare(VectorOperators.GT, 1.0f)));
+
+            FloatVector qx = ty.mul(edge1z).sub(tz.mul(edge1y));
+            FloatVector qy = tz.mul(edge1x).sub(tx.mul(edge1z));
+            FloatVector qz = tx.mul(edge1y).sub(ty.mul(edge1x));
+
+            FloatVector v = qx.mul(dx).add(qy.mul(dy)).add(qz.mul(dz)).mul(invDet);
+            valid = valid.andNot(v.compare(VectorOperators.LT, 0.0f).or(u.add(v).compare(VectorOperators.GT, 1.0f)));
+
+            FloatVector distance = edge2x.mul(qx).add(edge2y.mul(qy)).add(edge2z.mul(qz)).mul(invDet);
+            zero.blend(distance, valid).intoArray(distances, i - first);
+        }
+
+        // set spheres are tested on the packed components of the leaf, other primitives through Geometry
+        for (int i = first; i < end; i++) {
+            if (triangles.others[i] != null) {
+                distances[i - first] = triangles.intersect(i, ray, ox, oy, oz, dx, dy, dz);
+            } else {
+                ChromaStatistics.intersectOp();
+            }
+        }
+    }
+
+
+    @Override
+    public String getName() {
+        return "Vector API, " + LANES + " lanes";
+    }
+}
@@ -0,0 +1,120 @@
+package net.chromarenderer.renderer.scene.acc;
+
+import net.chromarenderer.math.ImmutableVector3;
+import net.chromarenderer.math.geometry.SimpleTriangle;
+import net.chromarenderer.math.geometry.Sphere;
+import net.chromarenderer.math.geometry.SphereSet;
+import net.chromarenderer.math.raytracing.Ray;
+import net.chromarenderer.renderer.shader.Material;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * @author bensteinert
+ */
+public class VectorApiIntersectorTest {
+
+    private final WideIntersector scalar = new ScalarWideIntersector();
+    private final WideIntersector simd = new VectorApiIntersector();
+
+
+    @Test
+    public void testLoadedAsService() throws Exception {
+        Assert.assertTrue(WideIntersector.load() instanceof VectorApiIntersector);
+    }
+
+
+    @Test
+    public void testTrianglesSameAsScalar() throws Exception {
+        Random random = new Random(4711);
+        int numberOfReferences = 301;
+        float[] centers = new float[numberOfReferences * 3];
+        float[] radii = new float[numberOfReferences];
+        for (int i = 0; i < numberOfReferences; i++) {
+            centers[i * 3] = (random.nextFloat() * 2.0f - 1.0f) * 3.0f;
+            centers[i * 3 + 1] = (random.nextFloat() * 2.0f - 1.0f) * 3.0f;
+            centers[i * 3 + 2] = (random.nextFloat() * 2.0f - 1.0f) * 3.0f;
+            radii[i] = 0.05f + random.nextFloat() * 0.5f;
+        }
+        SphereSet sphereSet = new SphereSet(centers, radii, new byte[numberOfReferences], new Material[]{Material.NULL});
+        LeafTriangles triangles = new LeafTriangles(numberOfReferences);
+        for (int i = 0; i < numberOfReferences; i++) {
+            ImmutableVector3 p0 = randomPoint(random, 3.0f);
+            if (i % 50 == 7) {
+                triangles.set(i, new Sphere(p0, random.nextFloat(), Material.NULL));
+            } else if (i % 10 == 3) {
+                triangles.set(i, sphereSet.getSpheres().get(i));
+            } else {
+                triangles.set(i, new SimpleTriangle(p0, p0.plus(randomPoint(random, 1.5f)), p0.plus(randomPoint(random, 1.5f)), Material.NULL));
+            }
+        }
+
+        float[] expected = new float[numberOfReferences + WideIntersector.LANES];
+        float[] actual = new float[numberOfReferences + WideIntersector.LANES];
+        int hits = 0;
+        for (int r = 0; r < 2000; r++) {
+            Ray ray = randomRay(random);
+            int first = random.nextInt(numberOfReferences);
+            int end = first + random.nextInt(numberOfReferences - first + 1);
+            scalar.intersectTriangles(triangles, first, end, ray, expected);
+            simd.intersectTriangles(triangles, first, end, ray, actual);
+            for (int i = 0; i < end - first; i++) {
+                Assert.assertEquals(Float.floatToIntBits(expected[i]), Float.floatToIntBits(actual[i]));
+                hits += expected[i] != 0.0f ? 1 : 0;
+            }
+        }
+        Assert.assertTrue(hits > 1000);
+    }
+
+
+    @Test
+    public void testBoxesSameAsScalar() throws Exception {
+        Random random = new Random(31);
+        float[] bounds = new float[6 * WideIntersector.LANES * 2];
+        float[] expected = new float[WideIntersector.LANES];
+        float[] actual = new float[WideIntersector.LANES];
+        int hits = 0;
+
+        for (int r = 0; r < 5000; r++) {
+            int offset = (r % 2) * 6 * WideIntersector.LANES;
+            for (int lane = 0; lane < WideIntersector.LANES; lane++) {
+                boolean empty = random.nextInt(8) == 0;
+                for (int axis = 0; axis < 3; axis++) {
+                    float min = (random.nextFloat() - 0.5f) * 8.0f;
+                    bounds[offset + axis * WideIntersector.LANES + lane] = empty ? Float.POSITIVE_INFINITY : min;
+                    bounds[offset + (3 + axis) * WideIntersector.LANES + lane] = empty ? Float.NEGATIVE_INFINITY : min + random.nextFloat() * 4.0f;
+                }
+            }
+            Ray ray = randomRay(random);
+            float maxDistance = random.nextBoolean() ? ray.getTMax() : random.nextFloat() * 8.0f;
+            scalar.intersectBoxes(bounds, offset, ray, maxDistance, expected);
+            simd.intersectBoxes(bounds, offset, ray, maxDistance, actual);
+            for (int lane = 0; lane < WideIntersector.LANES; lane++) {
+                Assert.assertEquals(Float.floatToIntBits(expected[lane]), Float.floatToIntBits(actual[lane]));
+                hits += expected[lane] != FlatBvhTree.MISS ? 1 : 0;
+            }
+        }
+        Assert.assertTrue(hits > 500);
+    }
+
+
+    private static Ray randomRay(Random random) {
+        ImmutableVector3 origin = randomPoint(random, 5.0f);
+        ImmutableVector3 direction = randomPoint(random, 2.0f).minus(origin).normalize();
+        if (random.nextInt(10) == 0) {
+            // axis parallel rays hit the infinite inverse direction paths
+            direction = new ImmutableVector3(0.0f, random.nextBoolean() ? 1.0f : -1.0f, 0.0f);
+        }
+        return new Ray(origin, direction, 0.0f, random.nextBoolean() ? Float.MAX_VALUE : random.nextFloat() * 10.0f, random.nextBoolean());
+    }
+
+
+    private static ImmutableVector3 randomPoint(Random random, float halfExtent) {
+        return new ImmutableVector3(
+                (random.nextFloat() - 0.5f) * 2.0f * halfExtent,
+                (random.nextFloat() - 0.5f) * 2.0f * halfExtent,
+                (random.nextFloat() - 0.5f) * 2.0f * halfExtent);
+    }
+}
@@ -49,6 +49,8 @@ object ChromaScalaCore extends Chroma {
 
   override def flushOnNextImage(): Unit = ???
 
+  override def updateTrianglesOnNextImage(): Unit = ???
+
   override def hasChanges: Boolean = ???
 
   override def getCurrentFrame: Array[Byte] = ???
@@ -10,6 +10,7 @@ public class ChromaStatistics {
     private static final AtomicLong totalFrames = new AtomicLong(0);
 
     private static final AtomicLong rayCounter = new AtomicLong(0);
+    private static final AtomicLong shadowRayCounter = new AtomicLong(0);
     private static final AtomicLong intersectionCounter = new AtomicLong(0);
 
     private static final FpsCounter fpsCounter = new FpsCounter();
@@ -37,6 +38,7 @@ public class ChromaStatistics {
         fpsCounter.reset();
         intersectionCounter.set(0);
         rayCounter.set(0);
+        shadowRayCounter.set(0);
     }
 
 
@@ -56,6 +58,16 @@ public class ChromaStatistics {
     }
 
 
+    public static void shadowRay() {
+        shadowRayCounter.incrementAndGet();
+    }
+
+
+    public static long getShadowRayCountAndFlush() {
+        return shadowRayCounter.getAndSet(0);
+    }
+
+
     public static long getTotalFrameCount() {
         return totalFrames.get();
     }